@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.consumer;
+
+import io.bioimage.specification.ModelSpecification;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.ModelZooAxis;
+import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imagej.modelzoo.consumer.tiling.TilingAction;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.scijava.io.location.Location;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stands in for a TensorFlow model with one 2D float input and one output of the same size,
+ * the prediction copies the input tile into a new image.
+ */
+public class IdentityModel implements ModelZooModel {
+
+	private final InputImageNode inputNode = new InputImageNode();
+	private final OutputImageNode outputNode = new OutputImageNode();
+
+	public IdentityModel(int halo) {
+		inputNode.setName("input");
+		outputNode.setName("output");
+		List<AxisType> axes = Arrays.asList(Axes.X, Axes.Y);
+		for (AxisType axisType : axes) {
+			inputNode.addAxis(createAxis(axisType, halo));
+			outputNode.addAxis(createAxis(axisType, halo));
+		}
+		inputNode.setDataMapping(axes);
+		outputNode.setDataMapping(axes);
+		outputNode.setReference(inputNode);
+		outputNode.setData(new DefaultImageDataReference<>(null, new FloatType()));
+	}
+
+	private static ModelZooAxis createAxis(AxisType axisType, int halo) {
+		ModelZooAxis axis = new ModelZooAxis(axisType);
+		axis.setTiling(TilingAction.TILE_WITH_PADDING);
+		axis.setHalo(halo);
+		axis.setMin(Math.max(halo, 1));
+		axis.setStep(Math.max(halo, 1));
+		return axis;
+	}
+
+	public InputImageNode getInputNode() {
+		return inputNode;
+	}
+
+	public OutputImageNode getOutputNode() {
+		return outputNode;
+	}
+
+	@Override
+	public void loadModel(Location location, String modelName, ModelSpecification specification) {
+	}
+
+	@Override
+	public List<ModelZooNode<?>> getInputNodes() {
+		return Collections.singletonList(inputNode);
+	}
+
+	@Override
+	public List<ModelZooNode<?>> getOutputNodes() {
+		return Collections.singletonList(outputNode);
+	}
+
+	@Override
+	public boolean isInitialized() {
+		return true;
+	}
+
+	@Override
+	public boolean libraryLoaded() {
+		return true;
+	}
+
+	@Override
+	public void predict() {
+		RandomAccessibleInterval<FloatType> input = (RandomAccessibleInterval<FloatType>) inputNode.getData().getData();
+		Img<FloatType> output = ArrayImgs.floats(Intervals.dimensionsAsLongArray(input));
+		LoopBuilder.setImages(Views.zeroMin(input), output).forEachPixel((in, out) -> out.set(in));
+		outputNode.setData(new DefaultImageDataReference<>(output, new FloatType()));
+	}
+
+	@Override
+	public void dispose() {
+	}
+}
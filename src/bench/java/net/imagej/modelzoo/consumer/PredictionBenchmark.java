@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.consumer;
+
+import net.imagej.modelzoo.DefaultModelZooArchive;
+import net.imagej.modelzoo.ModelZooArchive;
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
+import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import net.imagej.modelzoo.consumer.model.prediction.DefaultPredictionOutput;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.scijava.Context;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link DefaultModelZooPrediction#run()} end to end with an {@link IdentityModel}, measuring
+ * input mapping, tiling, output assembly and conversion without the cost of an actual network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PredictionBenchmark {
+
+	private static final int HALO = 16;
+
+	@Param({"512", "2048"})
+	public int size;
+
+	@Param({"1", "4", "16"})
+	public int tiles;
+
+	@Param({"0", "2"})
+	public int pipelineQueueDepth;
+
+	private Context context;
+	private ModelZooArchive archive;
+	private Img<FloatType> image;
+
+	@Setup
+	public void setup() {
+		context = new Context();
+		archive = new DefaultModelZooArchive() {
+			@Override
+			public ModelZooModel createModelInstance(ModelLoadOptions options) {
+				return new IdentityModel(HALO);
+			}
+		};
+		image = ArrayImgs.floats(size, size);
+		Random random = new Random(42);
+		image.forEach(pixel -> pixel.set(random.nextFloat()));
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Benchmark
+	public DefaultPredictionOutput run() throws Exception {
+		DefaultModelZooPrediction prediction = new DefaultModelZooPrediction(context);
+		prediction.setTrainedModel(archive);
+		prediction.setInput(image, "XY");
+		prediction.getOptions()
+				.numberOfTiles(tiles)
+				.pipelineQueueDepth(pipelineQueueDepth);
+		prediction.run();
+		return prediction.getOutput();
+	}
+}
@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.consumer.model.tensorflow;
+
+import net.imagej.tensorflow.Tensors;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tensorflow.Tensor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares converting a float image into a tensor pixel by pixel ({@link Tensors#tensor})
+ * with copying its storage array ({@link TensorFlowConverter#tensorFromArrays}),
+ * and converting a tensor back into an image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TensorFlowConverterBenchmark {
+
+	@Param({"256", "1024"})
+	public int size;
+
+	/**
+	 * storage: tensor axes in the order of the image storage, permuted: XY swapped
+	 */
+	@Param({"storage", "permuted"})
+	public String mapping;
+
+	private Img<FloatType> image;
+	private int[] mappingIndices;
+	private Tensor<?> tensor;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		image = ArrayImgs.floats(size, size, 4, 1);
+		Random random = new Random(42);
+		image.forEach(pixel -> pixel.set(random.nextFloat()));
+		mappingIndices = mapping.equals("storage") ? new int[]{3, 2, 1, 0} : new int[]{2, 3, 1, 0};
+		tensor = TensorFlowConverter.imageToTensor(image, mappingIndices);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		tensor.close();
+	}
+
+	@Benchmark
+	public void imageToTensorPixelWise() {
+		Tensors.tensor(image, mappingIndices).close();
+	}
+
+	@Benchmark
+	public void imageToTensor() {
+		TensorFlowConverter.imageToTensor(image, mappingIndices).close();
+	}
+
+	@Benchmark
+	public void tensorToImage(Blackhole blackhole) {
+		RandomAccessibleInterval<FloatType> result = TensorFlowConverter.tensorToImage(tensor, mappingIndices);
+		blackhole.consume(result);
+	}
+
+	@Benchmark
+	public void tensorToDataReference(Blackhole blackhole) {
+		blackhole.consume(TensorFlowConverter.tensorToDataReference(tensor, mappingIndices, new FloatType()));
+	}
+}
@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.modelzoo.consumer.IdentityModel;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.TiledView;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading all tiles of an image through {@link TiledView} and a full tiling pass
+ * (tile assignment and {@link TiledImageDataReference#resolveCurrentTile}) with an {@link IdentityModel}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TilingBenchmark {
+
+	private static final int HALO = 16;
+
+	@Param({"512", "2048"})
+	public int size;
+
+	@Param({"1", "4", "16"})
+	public int tiles;
+
+	private Img<FloatType> image;
+	private TiledView<FloatType> tiledView;
+	private IdentityModel model;
+
+	@Setup
+	public void setup() {
+		image = ArrayImgs.floats(size, size);
+		Random random = new Random(42);
+		image.forEach(pixel -> pixel.set(random.nextFloat()));
+		long tilesPerDim = (long) Math.ceil(Math.sqrt(tiles));
+		long tileSize = (size - 1) / tilesPerDim + 1;
+		tiledView = new TiledView<>(Views.interval(Views.extendMirrorDouble(image), image),
+				new long[]{tileSize, tileSize}, new long[]{HALO, HALO});
+		model = new IdentityModel(HALO);
+	}
+
+	@Benchmark
+	public double tiledViewRandomAccess() {
+		RandomAccess<RandomAccessibleInterval<FloatType>> access = tiledView.randomAccess();
+		double sum = 0;
+		for (long y = 0; y < tiledView.dimension(1); y++) {
+			for (long x = 0; x < tiledView.dimension(0); x++) {
+				access.setPosition(new long[]{x, y});
+				for (FloatType pixel : Views.flatIterable(access.get())) {
+					sum += pixel.get();
+				}
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval<?> resolveCurrentTile() {
+		OutputImageNode outputNode = model.getOutputNode();
+		model.getInputNode().setData(new DefaultImageDataReference<>(image, new FloatType()));
+		outputNode.setData(new DefaultImageDataReference<>(null, new FloatType()));
+		DefaultTiling tiling = new DefaultTiling(outputNode);
+		tiling.setNumberOfTiles(tiles);
+		tiling.init();
+		while (tiling.hasTilesLeft()) {
+			tiling.assignNextTile();
+			model.predict();
+			tiling.resolveCurrentTile();
+		}
+		tiling.finish();
+		return outputNode.getData().getData();
+	}
+}
@@ -0,0 +1,212 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.plugin.transformation;
+
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.transformation.BinarizeTransformation;
+import io.bioimage.specification.transformation.ClipTransformation;
+import io.bioimage.specification.transformation.PercentileTransformation;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import io.bioimage.specification.transformation.ScaleMinMaxTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import net.imagej.modelzoo.consumer.IdentityModel;
+import net.imagej.modelzoo.consumer.ModelZooPredictionOptions;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.ImageNode;
+import net.imagej.modelzoo.consumer.model.node.processor.ImageNodeProcessor;
+import net.imagej.modelzoo.consumer.model.node.processor.NodeProcessorException;
+import net.imagej.modelzoo.plugin.transformation.postprocessing.BinarizePostprocessing;
+import net.imagej.modelzoo.plugin.transformation.postprocessing.ClipPostprocessing;
+import net.imagej.modelzoo.plugin.transformation.postprocessing.ScaleLinearPostprocessing;
+import net.imagej.modelzoo.plugin.transformation.postprocessing.ScaleMinMaxPostprocessing;
+import net.imagej.modelzoo.plugin.transformation.preprocessing.ClipPreprocessing;
+import net.imagej.modelzoo.plugin.transformation.preprocessing.NormalizePercentilePreprocessing;
+import net.imagej.modelzoo.plugin.transformation.preprocessing.ZeroMeanUnitVariancePreprocessing;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.scijava.Context;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each pre- and postprocessing transformation on a float image. Since some transformations
+ * return lazy views, every benchmark reads the full result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformationBenchmark {
+
+	@Param({"512", "2048"})
+	public int size;
+
+	private Context context;
+	private IdentityModel model;
+	private Img<FloatType> image;
+	private ModelZooPredictionOptions.Values options;
+
+	private ZeroMeanUnitVariancePreprocessing zeroMeanUnitVariance;
+	private NormalizePercentilePreprocessing normalizePercentile;
+	private ClipPreprocessing clipPreprocessing;
+	private BinarizePostprocessing binarize;
+	private ClipPostprocessing clipPostprocessing;
+	private ScaleLinearPostprocessing scaleLinear;
+	private ScaleMinMaxPostprocessing scaleMinMax;
+
+	@Setup
+	public void setup() throws NodeProcessorException {
+		context = new Context();
+		image = ArrayImgs.floats(size, size);
+		Random random = new Random(42);
+		image.forEach(pixel -> pixel.set(random.nextFloat()));
+		model = new IdentityModel(0);
+		model.getInputNode().initializeWithData(new DefaultImageDataReference<>(image, new FloatType()));
+		options = ModelZooPredictionOptions.options().values;
+
+		ZeroMeanUnitVarianceTransformation zeroMeanUnitVarianceSpec = new ZeroMeanUnitVarianceTransformation();
+		zeroMeanUnitVarianceSpec.setMean(0.5);
+		zeroMeanUnitVarianceSpec.setStd(0.3);
+		zeroMeanUnitVariance = setup(new ZeroMeanUnitVariancePreprocessing(), zeroMeanUnitVarianceSpec, model.getInputNode());
+
+		PercentileTransformation percentileSpec = new PercentileTransformation();
+		percentileSpec.setMinPercentile(3);
+		percentileSpec.setMaxPercentile(99.8);
+		normalizePercentile = setup(new NormalizePercentilePreprocessing(), percentileSpec, model.getInputNode());
+
+		ClipTransformation clipSpec = new ClipTransformation();
+		clipSpec.setMin(0.1);
+		clipSpec.setMax(0.9);
+		clipPreprocessing = setup(new ClipPreprocessing(), clipSpec, model.getInputNode());
+		clipPostprocessing = setup(new ClipPostprocessing(), clipSpec, model.getOutputNode());
+
+		BinarizeTransformation binarizeSpec = new BinarizeTransformation();
+		binarizeSpec.setThreshold(0.5);
+		binarize = setup(new BinarizePostprocessing(), binarizeSpec, model.getOutputNode());
+
+		ScaleLinearTransformation scaleLinearSpec = new ScaleLinearTransformation();
+		scaleLinearSpec.setGain(2);
+		scaleLinearSpec.setOffset(-1);
+		scaleLinear = setup(new ScaleLinearPostprocessing(), scaleLinearSpec, model.getOutputNode());
+
+		// scale min max reuses the percentiles the input node was normalized with
+		ScaleMinMaxTransformation scaleMinMaxSpec = new ScaleMinMaxTransformation();
+		scaleMinMaxSpec.setMinPercentile(3);
+		scaleMinMaxSpec.setMaxPercentile(99.8);
+		scaleMinMaxSpec.setReferenceInput(model.getInputNode().getName());
+		scaleMinMax = setup(new ScaleMinMaxPostprocessing(), scaleMinMaxSpec, model.getOutputNode());
+		model.getInputNode().getProcessors().add(normalizePercentile);
+		run(normalizePercentile);
+	}
+
+	private <T extends TransformationSpecification, P extends ImageNodeProcessor<T>> P setup(P processor, T specification, ImageNode node) {
+		context.inject(processor);
+		processor.readSpecification(specification);
+		processor.setup(node, model);
+		return processor;
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.dispose();
+	}
+
+	private double run(ImageNodeProcessor<?>... processors) throws NodeProcessorException {
+		ImageNode node = processors[0].getImageNode();
+		node.setData(new DefaultImageDataReference<>(image, new FloatType()));
+		for (ImageNodeProcessor<?> processor : processors) {
+			processor.run(options);
+		}
+		RandomAccessibleInterval<? extends RealType<?>> result = node.getData().getData();
+		double sum = 0;
+		for (RealType<?> pixel : Views.iterable(result)) {
+			sum += pixel.getRealDouble();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double zeroMeanUnitVariance() throws NodeProcessorException {
+		return run(zeroMeanUnitVariance);
+	}
+
+	@Benchmark
+	public double normalizePercentile() throws NodeProcessorException {
+		return run(normalizePercentile);
+	}
+
+	@Benchmark
+	public double clipPreprocessing() throws NodeProcessorException {
+		return run(clipPreprocessing);
+	}
+
+	@Benchmark
+	public double preprocessingChain() throws NodeProcessorException {
+		return run(zeroMeanUnitVariance, clipPreprocessing, normalizePercentile);
+	}
+
+	@Benchmark
+	public double binarize() throws NodeProcessorException {
+		return run(binarize);
+	}
+
+	@Benchmark
+	public double clipPostprocessing() throws NodeProcessorException {
+		return run(clipPostprocessing);
+	}
+
+	@Benchmark
+	public double scaleLinear() throws NodeProcessorException {
+		return run(scaleLinear);
+	}
+
+	@Benchmark
+	public double scaleMinMax() throws NodeProcessorException {
+		return run(scaleMinMax);
+	}
+}
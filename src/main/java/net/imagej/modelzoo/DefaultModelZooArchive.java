@@ -31,8 +31,10 @@ package net.imagej.modelzoo;
 import io.bioimage.specification.ModelSpecification;
 import io.bioimage.specification.WeightsSpecification;
 import io.bioimage.specification.weights.TensorFlowSavedModelBundleSpecification;
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
 import net.imagej.modelzoo.consumer.model.ModelZooModel;
 import net.imagej.modelzoo.consumer.model.TensorSample;
+import net.imagej.modelzoo.io.ModelZooIOService;
 import org.apache.commons.compress.utils.FileNameUtils;
 import org.scijava.Context;
 import org.scijava.io.location.FileLocation;
@@ -65,6 +67,9 @@ public class DefaultModelZooArchive implements ModelZooArchive {
 	@Parameter
 	private LogService logService;
 
+	@Parameter(required = false)
+	private ModelZooIOService ioService;
+
 	private Location source;
 	private ModelSpecification specification;
 	private List<TensorSample> sampleInputs;
@@ -93,6 +98,11 @@ public class DefaultModelZooArchive implements ModelZooArchive {
 
 	@Override
 	public ModelZooModel createModelInstance() throws Exception {
+		return createModelInstance(ModelLoadOptions.options());
+	}
+
+	@Override
+	public ModelZooModel createModelInstance(ModelLoadOptions options) throws Exception {
 		if(specification == null || source == null) {
 			System.out.println("Cannot load model without source and specification");
 		}
@@ -108,7 +118,7 @@ public class DefaultModelZooArchive implements ModelZooArchive {
 						// older specs did not zip the weights
 						weightsSource = this.source;
 					} else {
-						File weightsFile = extract(source);
+						File weightsFile = extractWeights(source);
 						weightsSource = new FileLocation(weightsFile);
 					}
 				}
@@ -116,6 +126,7 @@ public class DefaultModelZooArchive implements ModelZooArchive {
 		}
 		if(model != null) {
 			model.loadLibrary();
+			model.setLoadOptions(options);
 			model.loadModel(weightsSource, getNameWithTimeStamp(), getSpecification());
 			cleanup(weightsSource);
 		} else {
@@ -124,16 +135,28 @@ public class DefaultModelZooArchive implements ModelZooArchive {
 		return model;
 	}
 
+	/**
+	 * @return the weights file extracted into the extraction cache, or into a temporary file if there is no cache
+	 */
+	private File extractWeights(String path) throws IOException {
+		if(ioService == null || !(getLocation() instanceof FileLocation)) return extract(path);
+		return ioService.extractionCache().extract(((FileLocation) getLocation()).getFile(), path);
+	}
+
 	private void cleanup(Location weightsSource) {
-		// in case the weights where extracted from the model,
+		// in case the weights where extracted from the model into a temporary file,
 		//  the temporary weights file can be deleted after loading the model
 		if(!weightsSource.equals(source)) {
-			if(weightsSource instanceof FileLocation) {
+			if(weightsSource instanceof FileLocation && !isCached(((FileLocation) weightsSource).getFile())) {
 				((FileLocation) weightsSource).getFile().delete();
 			}
 		}
 	}
 
+	private boolean isCached(File file) {
+		return ioService != null && file.toPath().startsWith(ioService.extractionCache().getDirectory());
+	}
+
 	private String getNameWithTimeStamp() {
 		String timeString = "";
 		try {
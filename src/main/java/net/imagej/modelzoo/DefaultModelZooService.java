@@ -42,6 +42,7 @@ import net.imagej.modelzoo.consumer.model.prediction.PredictionInput;
 import net.imagej.modelzoo.consumer.model.prediction.PredictionOutput;
 import net.imagej.modelzoo.consumer.sanitycheck.DefaultModelZooSanityCheckFromFileCommand;
 import net.imagej.modelzoo.consumer.sanitycheck.DefaultModelZooSanityCheckFromImageCommand;
+import net.imagej.modelzoo.consumer.statistics.ImageStatisticsCache;
 import net.imagej.modelzoo.io.ModelZooIOService;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.NativeType;
@@ -62,6 +63,12 @@ import org.scijava.ui.UIService;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Plugin(type = Service.class)
 public class DefaultModelZooService extends AbstractService implements ModelZooService {
@@ -91,11 +98,36 @@ public class DefaultModelZooService extends AbstractService implements ModelZooS
 	private final static String groundTruthParameter = "inputGroundTruth";
 	private final static String outputParameter = "output";
 
+	private final ModelZooModelPool models = new ModelZooModelPool();
+	private final ImageStatisticsCache statistics = new ImageStatisticsCache();
+	private ExecutorService predictionExecutor;
+
 	@Override
 	public ModelZooIOService io() {
 		return io;
 	}
 
+	@Override
+	public ModelZooModelPool models() {
+		return models;
+	}
+
+	@Override
+	public ImageStatisticsCache statistics() {
+		return statistics;
+	}
+
+	@Override
+	public void dispose() {
+		synchronized (this) {
+			if(predictionExecutor != null) predictionExecutor.shutdownNow();
+			predictionExecutor = null;
+		}
+		models.dispose();
+		statistics.clear();
+		super.dispose();
+	}
+
 	@Override
 	public boolean canRunPredictionInteractive(ModelZooArchive trainedModel) {
 		CommandInfo predictionCommand = null;
@@ -143,6 +175,66 @@ public class DefaultModelZooService extends AbstractService implements ModelZooS
 		return predict(trainedModel, imageInput, options);
 	}
 
+	@Override
+	public <T extends RealType<T> & NativeType<T>> CompletableFuture<PredictionOutput> predictAsync(ModelZooArchive trainedModel, RandomAccessibleInterval<T> input, String axes, ModelZooPredictionOptions options) {
+		CompletableFuture<PredictionOutput> future = new CompletableFuture<>();
+		ModelZooPrediction prediction = getPrediction(trainedModel, options);
+		if (prediction == null) {
+			future.completeExceptionally(new IllegalArgumentException("No prediction available for model " + trainedModel.getSpecification().getName() + "."));
+			return future;
+		}
+		String inputName = trainedModel.getSpecification().getInputs().get(0).getName();
+		prediction.setTrainedModel(trainedModel);
+		prediction.setInput(new ImageInput<>(inputName, input, axes));
+		// the thread running the prediction, interrupted on cancel to stop waiting for tiles
+		AtomicReference<Thread> runner = new AtomicReference<>();
+		future.whenComplete((output, throwable) -> {
+			if(!future.isCancelled()) return;
+			prediction.cancel();
+			synchronized (runner) {
+				if(runner.get() != null) runner.get().interrupt();
+			}
+		});
+		Executor executor = options.values.executor() != null ? options.values.executor() : getPredictionExecutor();
+		try {
+			executor.execute(() -> {
+				synchronized (runner) {
+					// cancelled before it started
+					if(future.isDone()) return;
+					runner.set(Thread.currentThread());
+				}
+				try {
+					prediction.run();
+					PredictionOutput output = prediction.getOutput();
+					if(output == null) throw new IllegalStateException("Prediction did not finish, see log for details.");
+					future.complete(output);
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				} finally {
+					synchronized (runner) {
+						runner.set(null);
+						// the executor thread is reused, the interrupt only applies to this prediction
+						Thread.interrupted();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private synchronized ExecutorService getPredictionExecutor() {
+		if(predictionExecutor == null) {
+			predictionExecutor = Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, "modelzoo-prediction");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return predictionExecutor;
+	}
+
 	@Override
 	public ModelZooPrediction getPrediction(ModelZooArchive trainedModel, ModelZooPredictionOptions options) {
 		// it's not yet decided how the runner is listed in the specification
@@ -28,6 +28,7 @@
  */
 package net.imagej.modelzoo;
 
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
 import net.imagej.modelzoo.consumer.model.ModelZooModel;
 import io.bioimage.specification.ModelSpecification;
 import net.imagej.modelzoo.consumer.model.TensorSample;
@@ -65,6 +66,15 @@ public interface ModelZooArchive {
 	 */
 	ModelZooModel createModelInstance() throws Exception;
 
+	/**
+	 * @return an instance of the model specified by {@link #getSpecification()}, loaded from {@link #getLocation()}
+	 * into a session configured by the given options. By default, the options are ignored.
+	 * @throws FileNotFoundException in case the model source is not found
+	 */
+	default ModelZooModel createModelInstance(ModelLoadOptions options) throws Exception {
+		return createModelInstance();
+	}
+
 	void setSampleInputs(List<TensorSample> sampleInputs);
 
 	void setSampleOutputs(List<TensorSample> sampleOutputs);
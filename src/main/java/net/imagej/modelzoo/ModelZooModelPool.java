@@ -0,0 +1,276 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo;
+
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
+import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import org.scijava.Disposable;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps loaded {@link ModelZooModel} instances around so that subsequent predictions with the same archive
+ * don't have to load the weights again. Instances are keyed by the archive file and its modification time.
+ * Each instance is only borrowed by one prediction at a time, idle instances are disposed after
+ * {@link #setMaxIdleTime(long)} or if the resident size of all instances exceeds {@link #setMaxResidentBytes(long)}.
+ * Instances sharing their weights (see {@link ModelZooModel#isShared()}) are counted once per key.
+ */
+public class ModelZooModelPool implements Disposable {
+
+	private static class PooledModel {
+		final String key;
+		final ModelZooModel model;
+		final long residentBytes;
+		final boolean shared;
+		long lastReleased;
+
+		PooledModel(String key, ModelZooModel model, long residentBytes) {
+			this.key = key;
+			this.model = model;
+			this.residentBytes = residentBytes;
+			this.shared = model.isShared();
+		}
+	}
+
+	private final Map<String, List<PooledModel>> idle = new HashMap<>();
+	private final Map<ModelZooModel, PooledModel> borrowed = new IdentityHashMap<>();
+	private final Map<String, Integer> sharedInstances = new HashMap<>();
+	private long maxIdleTime = TimeUnit.MINUTES.toMillis(5);
+	private long maxResidentBytes = Runtime.getRuntime().maxMemory() / 2;
+	private long residentBytes = 0;
+	private ScheduledExecutorService evictionTimer;
+
+	/**
+	 * @return an initialized model instance for the given archive, either from the pool or newly loaded.
+	 * Has to be passed back via {@link #release(ModelZooModel)} once the prediction is done.
+	 */
+	public ModelZooModel borrow(ModelZooArchive archive) throws Exception {
+		return borrow(archive, ModelLoadOptions.options());
+	}
+
+	/**
+	 * @return an initialized model instance for the given archive loaded with the given options, see {@link #borrow(ModelZooArchive)}.
+	 * Instances are only shared between borrowers using the same options.
+	 */
+	public ModelZooModel borrow(ModelZooArchive archive, ModelLoadOptions options) throws Exception {
+		String key = getKey(archive.getLocation());
+		if(key == null) return archive.createModelInstance(options);
+		if(!options.values.isDefault()) key += "_" + options.values;
+		PooledModel pooled = takeIdle(key);
+		if(pooled != null) {
+			try {
+				pooled.model.reset();
+			} catch (Exception e) {
+				synchronized (this) {
+					borrowed.remove(pooled.model);
+					removeResident(pooled);
+				}
+				pooled.model.dispose();
+				throw e;
+			}
+			return pooled.model;
+		}
+		ModelZooModel model = archive.createModelInstance(options);
+		if(model == null || !model.isInitialized()) return model;
+		synchronized (this) {
+			pooled = new PooledModel(key, model, estimateResidentBytes(archive.getLocation()));
+			borrowed.put(model, pooled);
+			addResident(pooled);
+		}
+		return model;
+	}
+
+	/**
+	 * Returns a model previously borrowed from this pool. Models which are not known to the pool are disposed.
+	 */
+	public void release(ModelZooModel model) {
+		if(model == null) return;
+		List<PooledModel> evicted;
+		synchronized (this) {
+			PooledModel pooled = borrowed.remove(model);
+			if(pooled == null || !model.isInitialized()) {
+				if(pooled != null) removeResident(pooled);
+				evicted = new ArrayList<>();
+			} else {
+				pooled.lastReleased = System.currentTimeMillis();
+				idle.computeIfAbsent(pooled.key, k -> new ArrayList<>()).add(pooled);
+				evicted = collectEvictable();
+				scheduleEviction();
+				model = null;
+			}
+		}
+		if(model != null) model.dispose();
+		evicted.forEach(pooled -> pooled.model.dispose());
+	}
+
+	/**
+	 * Disposes all idle instances which exceeded the maximal idle time or the resident size limit.
+	 */
+	public void evict() {
+		List<PooledModel> evicted;
+		synchronized (this) {
+			evicted = collectEvictable();
+		}
+		evicted.forEach(pooled -> pooled.model.dispose());
+	}
+
+	public void setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+
+	public void setMaxResidentBytes(long maxResidentBytes) {
+		this.maxResidentBytes = maxResidentBytes;
+	}
+
+	public synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	@Override
+	public void dispose() {
+		List<PooledModel> evicted = new ArrayList<>();
+		synchronized (this) {
+			idle.values().forEach(evicted::addAll);
+			idle.clear();
+			residentBytes = 0;
+			borrowed.clear();
+			sharedInstances.clear();
+			if(evictionTimer != null) {
+				evictionTimer.shutdownNow();
+				evictionTimer = null;
+			}
+		}
+		evicted.forEach(pooled -> pooled.model.dispose());
+	}
+
+	private synchronized PooledModel takeIdle(String key) {
+		List<PooledModel> models = idle.get(key);
+		if(models == null || models.isEmpty()) return null;
+		PooledModel pooled = models.remove(models.size() - 1);
+		if(models.isEmpty()) idle.remove(key);
+		borrowed.put(pooled.model, pooled);
+		return pooled;
+	}
+
+	private List<PooledModel> collectEvictable() {
+		List<PooledModel> res = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (Iterator<List<PooledModel>> iterator = idle.values().iterator(); iterator.hasNext(); ) {
+			List<PooledModel> models = iterator.next();
+			for (Iterator<PooledModel> modelIterator = models.iterator(); modelIterator.hasNext(); ) {
+				PooledModel pooled = modelIterator.next();
+				if(now - pooled.lastReleased > maxIdleTime) {
+					modelIterator.remove();
+					res.add(pooled);
+					removeResident(pooled);
+				}
+			}
+			if(models.isEmpty()) iterator.remove();
+		}
+		while(residentBytes > maxResidentBytes) {
+			PooledModel oldest = null;
+			for (List<PooledModel> models : idle.values()) {
+				for (PooledModel pooled : models) {
+					// shared weights which are still used by a borrowed instance cannot be freed
+					if(pooled.shared && isSharedByBorrowed(pooled.key)) continue;
+					if(oldest == null || pooled.lastReleased < oldest.lastReleased) oldest = pooled;
+				}
+			}
+			if(oldest == null) break;
+			List<PooledModel> models = idle.get(oldest.key);
+			for (Iterator<PooledModel> iterator = models.iterator(); iterator.hasNext(); ) {
+				PooledModel pooled = iterator.next();
+				if(pooled != oldest && !(oldest.shared && pooled.shared)) continue;
+				iterator.remove();
+				res.add(pooled);
+				removeResident(pooled);
+			}
+			if(models.isEmpty()) idle.remove(oldest.key);
+		}
+		return res;
+	}
+
+	private void addResident(PooledModel pooled) {
+		if(pooled.shared && sharedInstances.merge(pooled.key, 1, Integer::sum) > 1) return;
+		residentBytes += pooled.residentBytes;
+	}
+
+	private void removeResident(PooledModel pooled) {
+		if(pooled.shared) {
+			int remaining = sharedInstances.merge(pooled.key, -1, Integer::sum);
+			if(remaining > 0) return;
+			sharedInstances.remove(pooled.key);
+		}
+		residentBytes -= pooled.residentBytes;
+	}
+
+	private boolean isSharedByBorrowed(String key) {
+		for (PooledModel pooled : borrowed.values()) {
+			if(pooled.shared && pooled.key.equals(key)) return true;
+		}
+		return false;
+	}
+
+	private void scheduleEviction() {
+		if(evictionTimer == null) {
+			evictionTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "modelzoo-model-pool");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		evictionTimer.schedule(this::evict, maxIdleTime + 1, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return a key identifying the archive file and its modification time, null if the location is not a file
+	 */
+	public static String getKey(Location location) {
+		if(!(location instanceof FileLocation)) return null;
+		File file = ((FileLocation) location).getFile();
+		if(!file.isFile()) return null;
+		return file.getAbsoluteFile().toURI() + "_" + file.lastModified();
+	}
+
+	private static long estimateResidentBytes(Location location) {
+		// the weights are stored compressed, the loaded graph is usually larger
+		return 2 * ((FileLocation) location).getFile().length();
+	}
+}
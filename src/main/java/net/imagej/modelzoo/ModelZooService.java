@@ -31,7 +31,9 @@ package net.imagej.modelzoo;
 import net.imagej.ImageJService;
 import net.imagej.modelzoo.consumer.ModelZooPrediction;
 import net.imagej.modelzoo.consumer.ModelZooPredictionOptions;
+import net.imagej.modelzoo.consumer.PredictionProgressListener;
 import net.imagej.modelzoo.consumer.model.prediction.PredictionOutput;
+import net.imagej.modelzoo.consumer.statistics.ImageStatisticsCache;
 import net.imagej.modelzoo.io.ModelZooIOService;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.NativeType;
@@ -39,11 +41,23 @@ import net.imglib2.type.numeric.RealType;
 import org.scijava.module.ModuleException;
 
 import java.io.FileNotFoundException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface ModelZooService extends ImageJService {
 
 	ModelZooIOService io();
 
+	/**
+	 * @return the pool of loaded model instances shared by all predictions
+	 */
+	ModelZooModelPool models();
+
+	/**
+	 * @return the statistics of input images used for normalization, shared by all predictions
+	 */
+	ImageStatisticsCache statistics();
+
 	boolean canRunPredictionInteractive(ModelZooArchive trainedModel);
 	boolean canRunSanityCheckInteractive(ModelZooArchive trainedModel);
 
@@ -54,6 +68,14 @@ public interface ModelZooService extends ImageJService {
 	}
 	<T extends RealType<T> & NativeType<T>> PredictionOutput predict(ModelZooArchive trainedModel, RandomAccessibleInterval<T> input, String axes, ModelZooPredictionOptions options) throws Exception;
 
+	/**
+	 * Runs the prediction on {@link ModelZooPredictionOptions#executor(Executor)}. Cancelling the returned future
+	 * interrupts the prediction thread, the remaining tiles are skipped and the model is released.
+	 * A model call which is already running cannot be aborted, the model is released once it returns.
+	 * Progress is reported to {@link ModelZooPredictionOptions#progressListener(PredictionProgressListener)}.
+	 */
+	<T extends RealType<T> & NativeType<T>> CompletableFuture<PredictionOutput> predictAsync(ModelZooArchive trainedModel, RandomAccessibleInterval<T> input, String axes, ModelZooPredictionOptions options);
+
 	void predictInteractive(ModelZooArchive trainedModel) throws FileNotFoundException, ModuleException;
 	void batchPredictInteractive(ModelZooArchive trainedModel) throws FileNotFoundException, ModuleException;
 
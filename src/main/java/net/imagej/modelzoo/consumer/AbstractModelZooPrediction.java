@@ -31,8 +31,12 @@ package net.imagej.modelzoo.consumer;
 
 import net.imagej.DatasetService;
 import net.imagej.modelzoo.ModelZooArchive;
+import net.imagej.modelzoo.ModelZooModelPool;
 import net.imagej.modelzoo.ModelZooService;
+import net.imagej.modelzoo.consumer.metrics.PredictionMetrics;
+import net.imagej.modelzoo.consumer.metrics.PredictionMetricsEvent;
 import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
 import net.imagej.modelzoo.consumer.model.node.ImageNode;
 import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
 import net.imagej.modelzoo.consumer.model.node.processor.NodeProcessor;
@@ -40,17 +44,24 @@ import net.imagej.modelzoo.consumer.model.node.processor.NodeProcessorException;
 import net.imagej.modelzoo.consumer.model.prediction.PredictionInput;
 import net.imagej.modelzoo.consumer.model.prediction.PredictionOutput;
 import net.imagej.modelzoo.consumer.preprocessing.InputMappingHandler;
+import net.imglib2.util.Intervals;
 import org.scijava.Context;
+import org.scijava.Disposable;
+import org.scijava.event.EventService;
 import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
-public abstract class AbstractModelZooPrediction<I extends PredictionInput, O extends PredictionOutput> implements ModelZooPrediction<I, O> {
+public abstract class AbstractModelZooPrediction<I extends PredictionInput, O extends PredictionOutput> implements ModelZooPrediction<I, O>, Disposable {
 
 	@Parameter
 	private LogService log;
@@ -64,6 +75,9 @@ public abstract class AbstractModelZooPrediction<I extends PredictionInput, O ex
 	@Parameter
 	private DatasetService datasetService;
 
+	@Parameter(required = false)
+	private EventService eventService;
+
 	private ModelZooPredictionOptions options = ModelZooPredictionOptions.options();
 
 	private final InputMappingHandler inputHandling;
@@ -74,9 +88,12 @@ public abstract class AbstractModelZooPrediction<I extends PredictionInput, O ex
 	private Map<String, Object> outputs;
 
 	private I input;
-	protected boolean canceled;
-	private TiledPredictionExecutor executor;
+	protected volatile boolean canceled;
+	private volatile TiledPredictionExecutor executor;
+	private LazyPredictionExecutor lazyExecutor;
 	private List<PredictionCompletedCallback> onCompletedCallbacks;
+	private PredictionMetrics metrics;
+
 	public AbstractModelZooPrediction() {
 		inputHandling = new InputMappingHandler();
 		onCompletedCallbacks = new ArrayList<>();
@@ -95,27 +112,83 @@ public abstract class AbstractModelZooPrediction<I extends PredictionInput, O ex
 	@Override
 	public void run() throws OutOfMemoryError, Exception {
 
+		dispose();
+		metrics = new PredictionMetrics();
+		try (PredictionMetrics.AllocationTracker ignored = metrics.trackAllocations()) {
+			runTracked();
+		} finally {
+			publishMetrics();
+		}
+	}
+
+	private void runTracked() throws Exception {
 		input.attachToInputHandler(inputHandling);
-		ModelZooModel model = loadModel(modelArchive);
+		log.debug("Model load options: " + options.values.modelLoadOptions().values);
+		ModelZooModel model;
+		try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.LOAD_MODEL)) {
+			model = loadModel(modelArchive);
+		}
 		if (model == null || !validateModel(model)) return;
+		model.setMetrics(metrics);
 		try {
 			if(canceled) return;
-			preprocessing(model);
+			try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.PREPROCESSING)) {
+				preprocessing(model);
+			}
 			if(canceled) return;
-			executePrediction(model);
+			metrics.addInputVoxels(countVoxels(model.getInputNodes()));
+			try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.PREDICTION)) {
+				if(options.values.lazy()) executeLazyPrediction(model);
+				else executePrediction(model);
+			}
 			if(canceled) return;
-			postprocessing(model);
+			try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.POSTPROCESSING)) {
+				postprocessing(model);
+			}
 			if(canceled) return;
+			metrics.addOutputVoxels(countVoxels(model.getOutputNodes()));
 			this.output = createOutput(model);
 			log.info("Prediction done.");
 		} finally {
 			for (PredictionCompletedCallback onCompletedCallback : onCompletedCallbacks) {
 				onCompletedCallback.run();
 			}
-			model.dispose();
+			if(lazyExecutor == null) releaseModel(model);
 		}
 	}
 
+	private static long countVoxels(List<? extends ModelZooNode<?>> nodes) {
+		long res = 0;
+		for (ModelZooNode<?> node : nodes) {
+			if(!ImageNode.class.isAssignableFrom(node.getClass())) continue;
+			ImageDataReference<?> data = ((ImageNode) node).getData();
+			if(data != null && data.getData() != null) res += Intervals.numElements(data.getData());
+		}
+		return res;
+	}
+
+	/**
+	 * Logs the metrics of the last run, publishes them as {@link PredictionMetricsEvent}
+	 * and writes them to {@link ModelZooPredictionOptions#metricsFile(Path)} if set.
+	 */
+	private void publishMetrics() {
+		metrics.finish();
+		log.info(metrics);
+		if(eventService != null) eventService.publish(new PredictionMetricsEvent(this, metrics));
+		Path metricsFile = options.values.metricsFile();
+		if(metricsFile == null) return;
+		try {
+			Files.write(metricsFile, metrics.toJson().getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			log.error("Could not write prediction metrics to " + metricsFile, e);
+		}
+	}
+
+	@Override
+	public PredictionMetrics getMetrics() {
+		return metrics;
+	}
+
 	@Override
 	public void setInput(I input) {
 		this.input = input;
@@ -146,14 +219,19 @@ public abstract class AbstractModelZooPrediction<I extends PredictionInput, O ex
 		}
 		if(!inputValidationAndMapping(model)) {
 			log.error("Model and input data do not match. Exiting.");
-			model.dispose();
+			releaseModel(model);
 			return false;
 		}
 		return true;
 	}
 
 	protected ModelZooModel loadModel(ModelZooArchive modelArchive) throws Exception {
-		return modelArchive.createModelInstance();
+		return modelZooService.models().borrow(modelArchive, options.values.modelLoadOptions());
+	}
+
+	protected void releaseModel(ModelZooModel model) {
+		if(model != null) model.setMetrics(null);
+		modelZooService.models().release(model);
 	}
 
 	protected void preprocessing(ModelZooModel model) throws NodeProcessorException {
@@ -169,6 +247,10 @@ public abstract class AbstractModelZooPrediction<I extends PredictionInput, O ex
 		for (ModelZooNode<?> outputNode : model.getOutputNodes()) {
 			for (NodeProcessor processor : outputNode.getProcessors()) {
 				if(canceled) return;
+				// lazily predicted tiles are transformed one by one
+				if(lazyExecutor != null && lazyExecutor.isTileTransformation(outputNode, processor)) continue;
+				// or were fused into writing the tiles
+				if(lazyExecutor == null && executor != null && executor.isFusedTransformation(outputNode, processor)) continue;
 				processor.run(options.values);
 			}
 		}
@@ -196,31 +278,104 @@ public abstract class AbstractModelZooPrediction<I extends PredictionInput, O ex
 		setTrainedModel(modelZooService.io().open(trainedModel));
 	}
 
-	protected void executePrediction(ModelZooModel model) throws OutOfMemoryError {
+	protected void executePrediction(ModelZooModel model) throws Exception {
 		executor = new TiledPredictionExecutor(model, context);
 		executor.setTilingEnabled(options.values.tilingEnabled());
 		executor.setNumberOfTiles(options.values.numberOfTiles());
 		executor.setBatchSize(options.values.batchSize());
 		executor.setCacheDir(options.values.cacheDirectory());
+		executor.setOutputSink(options.values.outputSink());
+		executor.setPipelineQueueDepth(options.values.pipelineQueueDepth());
+		executor.setMemoryBudget(options.values.memoryBudget());
+		executor.setResumable(options.values.resumable(), getModelKey());
+		executor.setFusePostprocessing(options.values.fusePostprocessing(), options.values);
+		executor.setMetrics(metrics);
+		executor.setProgressListener(options.values.progressListener());
 		boolean isOutOfMemory = true;
 		boolean canHandleOutOfMemory = true;
 
-		while (isOutOfMemory && !canceled) {
-			try {
-				executor.run();
-				isOutOfMemory = false;
-			} catch (final OutOfMemoryError e) {
-				log.debug(e);
-				canHandleOutOfMemory = executor.increaseTiling();
-				options.numberOfTiles(executor.getNumberOfTiles());
-				options.batchSize(executor.getBatchSize());
-				if(!canHandleOutOfMemory) throw new OutOfMemoryError();
-			} finally {
-				executor.dispose();
+		try {
+			addWorkers(executor::addWorker);
+			while (isOutOfMemory && !canceled) {
+				try {
+					executor.run();
+					isOutOfMemory = false;
+					// e.g. the thread was interrupted
+					if(executor.isCanceled()) canceled = true;
+				} catch (final OutOfMemoryError e) {
+					log.debug(e);
+					canHandleOutOfMemory = executor.increaseTiling();
+					options.numberOfTiles(executor.getNumberOfTiles());
+					options.batchSize(executor.getBatchSize());
+					if(!canHandleOutOfMemory) throw new OutOfMemoryError();
+				} finally {
+					executor.dispose();
+				}
+			}
+		} finally {
+			executor.getWorkers().forEach(this::releaseModel);
+		}
+	}
+
+	/**
+	 * Borrows additional instances of the model until there are {@link ModelZooPredictionOptions#numberOfWorkers(int)} models.
+	 */
+	private void addWorkers(Consumer<ModelZooModel> addWorker) throws Exception {
+		for (int i = 1; i < options.values.numberOfWorkers(); i++) {
+			ModelZooModel worker = loadModel(modelArchive);
+			if(worker == null || !worker.isInitialized()) {
+				releaseModel(worker);
+				break;
 			}
+			worker.setMetrics(metrics);
+			addWorker.accept(worker);
 		}
 	}
 
+	/**
+	 * Prepares computing the outputs on demand, see {@link ModelZooPredictionOptions#lazy(boolean)}.
+	 * The models are released in {@link #dispose()}.
+	 */
+	protected void executeLazyPrediction(ModelZooModel model) throws Exception {
+		lazyExecutor = new LazyPredictionExecutor(model, context);
+		lazyExecutor.setNumberOfTiles(options.values.numberOfTiles());
+		lazyExecutor.setBatchSize(options.values.batchSize());
+		lazyExecutor.setMaxCachedTiles(options.values.maxCachedTiles());
+		lazyExecutor.setOptions(options.values);
+		lazyExecutor.setMetrics(metrics);
+		try {
+			addWorkers(lazyExecutor::addWorker);
+			lazyExecutor.run();
+		} catch (Exception | OutOfMemoryError e) {
+			List<ModelZooModel> workers = lazyExecutor.getModels();
+			for (ModelZooModel worker : workers.subList(1, workers.size())) {
+				releaseModel(worker);
+			}
+			lazyExecutor = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the models used for computing the outputs of a lazy prediction.
+	 * Output cells which have not been computed yet cannot be accessed afterwards.
+	 */
+	@Override
+	public void dispose() {
+		if(lazyExecutor == null) return;
+		lazyExecutor.dispose();
+		for (ModelZooModel model : lazyExecutor.getModels()) {
+			releaseModel(model);
+		}
+		lazyExecutor = null;
+	}
+
+	private String getModelKey() {
+		if(modelArchive == null || modelArchive.getLocation() == null) return null;
+		String key = ModelZooModelPool.getKey(modelArchive.getLocation());
+		return key != null ? key : modelArchive.getLocation().getURI().toString();
+	}
+
 	protected boolean inputValidationAndMapping(ModelZooModel model) {
 		if(!contextInjected) {
 			contextInjected = true;
@@ -247,10 +402,16 @@ public abstract class AbstractModelZooPrediction<I extends PredictionInput, O ex
 		return datasetService;
 	}
 
+	/**
+	 * Stops the prediction after the tiles which are currently predicted, remaining tiles are skipped.
+	 * Interrupting the thread calling {@link #run()} stops it from waiting for tiles of other threads as well.
+	 * A model call which is already running cannot be aborted, the model is released once {@link #run()} returns.
+	 */
 	@Override
 	public void cancel() {
 		this.canceled = true;
-		executor.cancel("");
+		TiledPredictionExecutor executor = this.executor;
+		if(executor != null) executor.cancel("");
 		log().info("Prediction canceled.");
 	}
 
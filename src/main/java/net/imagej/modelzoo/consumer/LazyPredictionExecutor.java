@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer;
+
+import net.imagej.modelzoo.consumer.metrics.PredictionMetrics;
+import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imagej.modelzoo.consumer.model.node.processor.ImageNodeProcessor;
+import net.imagej.modelzoo.consumer.model.node.processor.NodeProcessor;
+import net.imagej.modelzoo.consumer.model.node.processor.NodeProcessorException;
+import net.imagej.modelzoo.consumer.tiling.LazyTiling;
+import org.scijava.Context;
+import org.scijava.Disposable;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs a prediction whose tiling outputs are computed tile by tile once they are accessed, see {@link LazyTiling}.
+ * Tiles can be predicted concurrently by additional instances of the same model added via {@link #addWorker(ModelZooModel)}.
+ * All models stay in use until {@link #dispose()} is called.
+ */
+public class LazyPredictionExecutor implements Disposable {
+
+	@Parameter
+	private LogService log;
+
+	private final ModelZooModel model;
+	private final List<ModelZooModel> models = new ArrayList<>();
+	private final BlockingQueue<ModelZooModel> idleModels = new LinkedBlockingQueue<>();
+	private int nTiles = 8;
+	private int batchSize = 10;
+	private int maxCachedTiles = 64;
+	private ModelZooPredictionOptions.Values options = ModelZooPredictionOptions.options().values;
+
+	private InputImageNode tilingInput;
+	private List<OutputImageNode> tilingOutputs = new ArrayList<>();
+	private volatile boolean disposed = false;
+	private PredictionMetrics metrics = new PredictionMetrics();
+
+	LazyPredictionExecutor(ModelZooModel model, Context context) {
+		this.model = model;
+		models.add(model);
+		idleModels.add(model);
+		context.inject(this);
+	}
+
+	/**
+	 * Adds another instance of the same model for predicting tiles concurrently.
+	 * Inputs and data mappings are copied from the main model.
+	 */
+	public void addWorker(ModelZooModel worker) {
+		WorkerModels.copyNodes(model, worker);
+		models.add(worker);
+		idleModels.add(worker);
+	}
+
+	public void run() throws Exception {
+		tilingOutputs = TiledPredictionExecutor.getTilingOutputs(model);
+		if(tilingOutputs.isEmpty()) {
+			log.warn("Model outputs cannot be tiled, predicting them right away.");
+			model.predict();
+			return;
+		}
+		tilingInput = tilingOutputs.get(0).getReference();
+		LazyTiling tiling = new LazyTiling(tilingInput, tilingOutputs);
+		tiling.setNumberOfTiles(nTiles);
+		tiling.setBatchSize(batchSize);
+		tiling.setMaxCachedTiles(maxCachedTiles);
+		tiling.setLogger(log);
+		tiling.init(this::predictTile);
+		log.info("Prepared lazy prediction of " + tiling.getTilesTotalCount() + " tile(s) with " + models.size() + " worker(s).");
+	}
+
+	private List<ImageDataReference<?>> predictTile(ImageDataReference<?> tile) throws Exception {
+		ModelZooModel worker = idleModels.take();
+		List<ImageDataReference<?>> outputs;
+		try {
+			if(disposed) throw new IllegalStateException("Lazy prediction has been disposed.");
+			if(worker == model) {
+				// the nodes of the main model hold the lazily computed outputs, they are restored after predicting the tile
+				synchronized (this) {
+					List<Object> data = getNodeData();
+					try {
+						outputs = predict(worker, tile);
+					} finally {
+						setNodeData(data);
+					}
+				}
+			} else {
+				outputs = predict(worker, tile);
+			}
+		} finally {
+			idleModels.put(worker);
+		}
+		try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.TILE_OUTPUT)) {
+			return transform(outputs);
+		}
+	}
+
+	private List<ImageDataReference<?>> predict(ModelZooModel worker, ImageDataReference<?> tile) {
+		try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.MODEL)) {
+			List<ImageDataReference<?>> outputs = WorkerModels.predict(model, worker, tilingInput, tilingOutputs, tile);
+			metrics.addTiles(1);
+			return outputs;
+		}
+	}
+
+	private List<Object> getNodeData() {
+		List<Object> data = new ArrayList<>();
+		model.getInputNodes().forEach(node -> data.add(node.getData()));
+		model.getOutputNodes().forEach(node -> data.add(node.getData()));
+		return data;
+	}
+
+	private void setNodeData(List<Object> data) {
+		List<ModelZooNode<?>> nodes = new ArrayList<>(model.getInputNodes());
+		nodes.addAll(model.getOutputNodes());
+		for (int i = 0; i < nodes.size(); i++) {
+			WorkerModels.setData((ModelZooNode) nodes.get(i), data.get(i));
+		}
+	}
+
+	/**
+	 * Applies the transformations of the tiling outputs (e.g. scaling or thresholding) to a single predicted tile.
+	 * The transformations operate on the data of the output nodes of the main model, therefore only one tile is transformed at a time.
+	 */
+	private synchronized List<ImageDataReference<?>> transform(List<ImageDataReference<?>> outputs) throws NodeProcessorException {
+		List<ImageDataReference<?>> res = new ArrayList<>();
+		for (int i = 0; i < tilingOutputs.size(); i++) {
+			OutputImageNode outputNode = tilingOutputs.get(i);
+			ImageDataReference<?> data = outputNode.getData();
+			outputNode.setData(outputs.get(i));
+			try {
+				for (NodeProcessor processor : outputNode.getProcessors()) {
+					if(isTileTransformation(processor)) processor.run(options);
+				}
+				res.add(outputNode.getData());
+			} finally {
+				outputNode.setData(data);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return whether the processor is a pixel wise transformation from the model specification which is applied to each tile
+	 * instead of the whole output of the given node
+	 */
+	boolean isTileTransformation(ModelZooNode<?> node, NodeProcessor processor) {
+		return tilingOutputs.contains(node) && isTileTransformation(processor);
+	}
+
+	private static boolean isTileTransformation(NodeProcessor processor) {
+		return processor instanceof ImageNodeProcessor;
+	}
+
+	public void setNumberOfTiles(int nTiles) {
+		this.nTiles = nTiles;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setMaxCachedTiles(int maxCachedTiles) {
+		this.maxCachedTiles = maxCachedTiles;
+	}
+
+	/**
+	 * Tiles predicted on access are recorded in the given metrics, also after {@link #run()} returned.
+	 */
+	public void setMetrics(PredictionMetrics metrics) {
+		this.metrics = metrics == null ? new PredictionMetrics() : metrics;
+	}
+
+	public void setOptions(ModelZooPredictionOptions.Values options) {
+		this.options = options;
+	}
+
+	/**
+	 * @return the main model and all workers
+	 */
+	public List<ModelZooModel> getModels() {
+		return models;
+	}
+
+	/**
+	 * Stops predicting tiles, cells which have not been computed yet cannot be accessed afterwards.
+	 * Does not dispose the models.
+	 */
+	@Override
+	public void dispose() {
+		disposed = true;
+	}
+}
@@ -30,6 +30,7 @@
 package net.imagej.modelzoo.consumer;
 
 import net.imagej.modelzoo.ModelZooArchive;
+import net.imagej.modelzoo.consumer.metrics.PredictionMetrics;
 import net.imagej.modelzoo.consumer.model.prediction.ImageInput;
 import net.imagej.modelzoo.consumer.model.prediction.PredictionInput;
 import net.imagej.modelzoo.consumer.model.prediction.PredictionOutput;
@@ -58,6 +59,13 @@ public interface ModelZooPrediction<I extends PredictionInput, O extends Predict
 
 	ModelZooPredictionOptions getOptions();
 
+	/**
+	 * @return the timings and resource usage of the last run, null if they are not recorded
+	 */
+	default PredictionMetrics getMetrics() {
+		return null;
+	}
+
 	ModelZooArchive getTrainedModel();
 
 	void setTrainedModel(ModelZooArchive trainedModel);
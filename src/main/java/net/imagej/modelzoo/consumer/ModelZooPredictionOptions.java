@@ -28,11 +28,15 @@
  */
 package net.imagej.modelzoo.consumer;
 
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
+import net.imagej.modelzoo.io.chunked.ChunkedContainer;
+import net.imagej.modelzoo.io.chunked.OutputSink;
 import net.imglib2.cache.img.DiskCachedCellImgOptions;
 import org.scijava.optional.AbstractOptions;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.Executor;
 
 public class ModelZooPredictionOptions extends AbstractOptions<ModelZooPredictionOptions> {
 
@@ -43,6 +47,18 @@ public class ModelZooPredictionOptions extends AbstractOptions<ModelZooPredictio
 	private static final String cacheDirectoryKey = "cacheDirectory";
 	private static final String showProgressDialogKey = "showProgressDialog";
 	private static final String convertIntoInputFormatKey = "convertIntoInputFormat";
+	private static final String pipelineQueueDepthKey = "pipelineQueueDepth";
+	private static final String memoryBudgetKey = "memoryBudget";
+	private static final String resumableKey = "resumable";
+	private static final String lazyKey = "lazy";
+	private static final String numberOfWorkersKey = "numberOfWorkers";
+	private static final String maxCachedTilesKey = "maxCachedTiles";
+	private static final String modelLoadOptionsKey = "modelLoadOptions";
+	private static final String fusePostprocessingKey = "fusePostprocessing";
+	private static final String metricsFileKey = "metricsFile";
+	private static final String progressListenerKey = "progressListener";
+	private static final String executorKey = "executor";
+	private static final String outputSinkKey = "outputSink";
 
 	/**
 	 * @return Default {@link ModelZooPredictionOptions} instance
@@ -87,6 +103,107 @@ public class ModelZooPredictionOptions extends AbstractOptions<ModelZooPredictio
 		return setValue(convertIntoInputFormatKey, convertIntoInputFormat);
 	}
 
+	/**
+	 * @param pipelineQueueDepth How many tiles can be buffered between preparing the input tiles,
+	 *                           running the model and writing the output tiles. If larger than 0,
+	 *                           these stages are executed in parallel. 0 means serial execution.
+	 */
+	public ModelZooPredictionOptions pipelineQueueDepth(int pipelineQueueDepth) {
+		return setValue(pipelineQueueDepthKey, pipelineQueueDepth);
+	}
+
+	/**
+	 * @param memoryBudget Number of bytes one prediction may use. If set, the number of tiles and the batch size
+	 *                     are planned up front to fit into this budget (overriding {@link #numberOfTiles(int)}
+	 *                     and lowering {@link #batchSize(int)}) and multiple tiles are stacked along the batch axis
+	 *                     of the model if the budget allows it. 0 means no planning and one tile per prediction.
+	 */
+	public ModelZooPredictionOptions memoryBudget(long memoryBudget) {
+		return setValue(memoryBudgetKey, memoryBudget);
+	}
+
+	/**
+	 * @param resumable Whether finished tiles are stored in the cache directory. Running the same prediction again
+	 *                  (same model, input and tiling parameters) with the same cache directory only predicts the
+	 *                  tiles which were not finished before. Requires {@link #cacheDirectory(Path)}.
+	 */
+	public ModelZooPredictionOptions resumable(boolean resumable) {
+		return setValue(resumableKey, resumable);
+	}
+
+	/**
+	 * @param lazy Whether the outputs are computed on demand. If true, running the prediction only predicts the first tile,
+	 *             the outputs are cached images whose cells are predicted from the matching input tile once they are accessed.
+	 *             The transformations of the outputs are applied to each tile. The model stays in use until the prediction is disposed.
+	 */
+	public ModelZooPredictionOptions lazy(boolean lazy) {
+		return setValue(lazyKey, lazy);
+	}
+
+	/**
+	 * @param numberOfWorkers How many model instances predict tiles concurrently, each taking the next tile of the input.
+	 *                        Instances loaded from the same archive share the TensorFlow session.
+	 */
+	public ModelZooPredictionOptions numberOfWorkers(int numberOfWorkers) {
+		return setValue(numberOfWorkersKey, numberOfWorkers);
+	}
+
+	/**
+	 * @param maxCachedTiles How many predicted tiles of each output of a lazy prediction are kept in memory, see {@link #lazy(boolean)}
+	 */
+	public ModelZooPredictionOptions maxCachedTiles(int maxCachedTiles) {
+		return setValue(maxCachedTilesKey, maxCachedTiles);
+	}
+
+	/**
+	 * @param fusePostprocessing Whether consecutive pointwise postprocessing transformations (e.g. scale linear, clip, binarize)
+	 *                           of tiled outputs are composed into one operation which is applied to each tile while it is written
+	 *                           into the output. The output is created directly in the resulting type, e.g. the input type
+	 *                           if {@link #convertIntoInputFormat(boolean)} is set, instead of as an intermediate float image.
+	 */
+	public ModelZooPredictionOptions fusePostprocessing(boolean fusePostprocessing) {
+		return setValue(fusePostprocessingKey, fusePostprocessing);
+	}
+
+	/**
+	 * @param metricsFile File the metrics of each prediction are written to as JSON, see {@link ModelZooPrediction#getMetrics()}
+	 */
+	public ModelZooPredictionOptions metricsFile(Path metricsFile) {
+		return setValue(metricsFileKey, metricsFile);
+	}
+
+	/**
+	 * @param progressListener Notified whenever predicted tiles have been written into the output
+	 */
+	public ModelZooPredictionOptions progressListener(PredictionProgressListener progressListener) {
+		return setValue(progressListenerKey, progressListener);
+	}
+
+	/**
+	 * @param executor Runs the predictions started via {@link net.imagej.modelzoo.ModelZooService#predictAsync},
+	 *                 by default they run on threads of the service
+	 */
+	public ModelZooPredictionOptions executor(Executor executor) {
+		return setValue(executorKey, executor);
+	}
+
+	/**
+	 * @param outputSink Receives the tiles of each output while predicting, e.g. {@link ChunkedContainer#n5(Path)},
+	 *                   instead of caching them on disk. Only applies to tiled predictions. The postprocessing of these outputs
+	 *                   is always applied while writing the tiles, see {@link #fusePostprocessing(boolean)}, the prediction fails
+	 *                   for outputs with postprocessing which cannot be applied to single tiles.
+	 */
+	public ModelZooPredictionOptions outputSink(OutputSink outputSink) {
+		return setValue(outputSinkKey, outputSink);
+	}
+
+	/**
+	 * @param modelLoadOptions How the session of the model is configured, e.g. the number of threads it may use
+	 */
+	public ModelZooPredictionOptions modelLoadOptions(ModelLoadOptions modelLoadOptions) {
+		return setValue(modelLoadOptionsKey, modelLoadOptions);
+	}
+
 	/**
 	 * see (@link {@link DiskCachedCellImgOptions#cacheDirectory(Path)}
 	 */
@@ -137,5 +254,77 @@ public class ModelZooPredictionOptions extends AbstractOptions<ModelZooPredictio
 		public boolean convertIntoInputFormat() {
 			return getValueOrDefault(convertIntoInputFormatKey, false);
 		}
+		/**
+		 * @return How many tiles can be buffered between the stages of a pipelined tile execution (0 = serial execution)
+		 */
+		public int pipelineQueueDepth() {
+			return getValueOrDefault(pipelineQueueDepthKey, 0);
+		}
+		/**
+		 * @return Number of bytes one prediction may use for planning the tiling (0 = no planning, one tile per prediction)
+		 */
+		public long memoryBudget() {
+			return getValueOrDefault(memoryBudgetKey, 0L);
+		}
+		/**
+		 * @return Whether finished tiles are stored in the cache directory to continue an interrupted prediction
+		 */
+		public boolean resumable() {
+			return getValueOrDefault(resumableKey, false);
+		}
+		/**
+		 * @return Whether the outputs are computed on demand
+		 */
+		public boolean lazy() {
+			return getValueOrDefault(lazyKey, false);
+		}
+		/**
+		 * @return How many model instances predict tiles concurrently
+		 */
+		public int numberOfWorkers() {
+			return getValueOrDefault(numberOfWorkersKey, 1);
+		}
+		/**
+		 * @return How many predicted tiles of each output of a lazy prediction are kept in memory
+		 */
+		public int maxCachedTiles() {
+			return getValueOrDefault(maxCachedTilesKey, 64);
+		}
+		/**
+		 * @return Whether pointwise postprocessing transformations are applied while writing the tiles
+		 */
+		public boolean fusePostprocessing() {
+			return getValueOrDefault(fusePostprocessingKey, false);
+		}
+		/**
+		 * @return File the metrics of each prediction are written to (null = not written)
+		 */
+		public Path metricsFile() {
+			return getValueOrDefault(metricsFileKey, null);
+		}
+		/**
+		 * @return Notified whenever predicted tiles have been written into the output (null = no notifications)
+		 */
+		public PredictionProgressListener progressListener() {
+			return getValueOrDefault(progressListenerKey, null);
+		}
+		/**
+		 * @return Runs asynchronous predictions (null = threads of the service)
+		 */
+		public Executor executor() {
+			return getValueOrDefault(executorKey, null);
+		}
+		/**
+		 * @return Receives the tiles of each output while predicting (null = outputs are cached on disk)
+		 */
+		public OutputSink outputSink() {
+			return getValueOrDefault(outputSinkKey, null);
+		}
+		/**
+		 * @return How the session of the model is configured
+		 */
+		public ModelLoadOptions modelLoadOptions() {
+			return getValueOrDefault(modelLoadOptionsKey, ModelLoadOptions.options());
+		}
 	}
 }
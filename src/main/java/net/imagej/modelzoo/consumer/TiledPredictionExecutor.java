@@ -29,13 +29,23 @@
 
 package net.imagej.modelzoo.consumer;
 
+import net.imagej.modelzoo.consumer.metrics.PredictionMetrics;
 import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
 import net.imagej.modelzoo.consumer.model.node.InputImageNode;
 import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
 import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imagej.modelzoo.consumer.model.node.processor.NodeProcessor;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseImageNodePostprocessor;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imagej.modelzoo.consumer.postprocessing.ResizePostprocessor;
 import net.imagej.modelzoo.consumer.tiling.DefaultTiling;
+import net.imagej.modelzoo.consumer.tiling.TilingPlanner;
+import net.imagej.modelzoo.io.chunked.OutputSink;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
 import org.scijava.Cancelable;
 import org.scijava.Context;
 import org.scijava.app.StatusService;
@@ -43,12 +53,30 @@ import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class TiledPredictionExecutor implements Cancelable {
 
+	private static final ImageDataReference<?> NO_MORE_INPUT = new DefaultImageDataReference<FloatType>(null, null);
+	private static final List<ImageDataReference<?>> NO_MORE_OUTPUT = Collections.emptyList();
+
 	@Parameter
 	private LogService log;
 
@@ -56,19 +84,46 @@ public class TiledPredictionExecutor implements Cancelable {
 	private StatusService statusService;
 
 	private final ModelZooModel model;
+	private final List<ModelZooModel> workers = new ArrayList<>();
+	private volatile boolean stopWorkers = false;
 	private DefaultTiling tiling;
+	private DefaultTiling subTiling;
 	private int nTiles = 8;
 	private int oldNTiles;
 	private int oldBatchesSize;
 	private boolean processedTiles = false;
-	private boolean canceled = false;
+	private volatile boolean canceled = false;
 	private int batchSize = 10;
 	private boolean tilingEnabled = true;
+	private int pipelineQueueDepth = 0;
+	private long memoryBudget = 0;
+	private long[] plannedTiling = null;
+	private double plannedOverhead = Double.NaN;
+	private boolean resumable = false;
+	private String modelKey = null;
+	private boolean fusePostprocessing = false;
+	private ModelZooPredictionOptions.Values options = ModelZooPredictionOptions.options().values;
+	private final Map<ModelZooNode<?>, List<NodeProcessor>> fusedProcessors = new HashMap<>();
+	private PredictionMetrics metrics = new PredictionMetrics();
+	private PredictionProgressListener progressListener;
 
 	private Path cacheDir = null;
+	private OutputSink outputSink = null;
 	private ArrayList<OutputImageNode> tilingOutputs;
 	private InputImageNode tilingInput;
 
+	// state for resuming after running out of memory
+	private ImageDataReference<?> failedTile;
+	private final Deque<ImageDataReference<?>> pendingTiles = new ArrayDeque<>();
+	// tiles of a parallel prediction which ran out of memory, written back by their tile indices
+	private final Deque<IndexedTile> failedIndexedTiles = new ConcurrentLinkedDeque<>();
+	private volatile boolean stopProducer = false;
+	private boolean subdivided = false;
+	private int subTiles = 1;
+	private int subBatchSize = 1;
+	private int subTilesNum = 0;
+	private int lastSubTilesNum = -1;
+
 	TiledPredictionExecutor(ModelZooModel model, Context context) {
 		this.model = model;
 		context.inject(this);
@@ -77,17 +132,37 @@ public class TiledPredictionExecutor implements Cancelable {
 	public void run() throws OutOfMemoryError, IllegalArgumentException {
 
 		try {
-			assignTilingNodes();
+			if (failedTile == null && failedIndexedTiles.isEmpty()) assignTilingNodes();
 			if (!tilingEnabled || tilingInput == null) {
-				model.predict();
-			} else {
-				initTiling();
-				while (processNextTile()) {
+				try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.MODEL)) {
 					model.predict();
-					tiling.resolveCurrentTile();
+				}
+				metrics.addTiles(1);
+				if (progressListener != null) progressListener.tilesDone(1, 1);
+			} else {
+				if (failedTile != null) {
+					log.info("Resuming prediction with tile " + tiling.getDoneTileCount() + " of " + tiling.getTilesTotalCount() + "..");
+					runSerial();
+				} else if (!failedIndexedTiles.isEmpty()) {
+					log.info("Resuming prediction with " + (tiling.getTilesTotalCount() - tiling.getResolvedTileCount()) + " of " + tiling.getTilesTotalCount() + " tiles left..");
+					runIndexed();
+				} else {
+					initTiling();
+					if (!workers.isEmpty()) {
+						runParallel();
+					} else if (pipelineQueueDepth > 0) {
+						runPipelined();
+					} else {
+						runSerial();
+					}
 				}
 				statusService.showProgress(1, 1);
-				if(!isCanceled()) tiling.finish();
+				if(!isCanceled()) {
+					tiling.finish();
+					metrics.addTiles(tiling.getTilesTotalCount() - tiling.getRestoredTileCount());
+					metrics.setDiskCacheBytes(tiling.getDiskCacheBytes());
+					logComputeOverhead();
+				}
 			}
 		} catch (final CancellationException | RejectedExecutionException e) {
 			//canceled
@@ -100,17 +175,22 @@ public class TiledPredictionExecutor implements Cancelable {
 			if (exc.getMessage() != null && exc.getMessage().contains("OOM")) {
 				throw new OutOfMemoryError();
 			}
-			exc.printStackTrace();
+			log.error(exc);
 			throw exc;
 		}
 	}
 
+	private void assignTilingNodes() {
+		tilingOutputs = getTilingOutputs(model);
+		tilingInput = tilingOutputs.isEmpty() ? null : tilingOutputs.get(0).getReference();
+	}
+
 	/**
 	 * Take the first image output which has a reference to an input image, collect all other output nodes connected to this input
 	 */
-	private void assignTilingNodes() {
-		tilingInput = null;
-		tilingOutputs = new ArrayList<>();
+	static ArrayList<OutputImageNode> getTilingOutputs(ModelZooModel model) {
+		InputImageNode tilingInput = null;
+		ArrayList<OutputImageNode> tilingOutputs = new ArrayList<>();
 		for (ModelZooNode<?> outputNode : model.getOutputNodes()) {
 			// check for each output node if there is a reference to the input node
 			// if yes, we assume it might be possible to tile
@@ -128,6 +208,34 @@ public class TiledPredictionExecutor implements Cancelable {
 				}
 			}
 		}
+		return tilingOutputs;
+	}
+
+	/**
+	 * Adds another instance of the same model which predicts tiles concurrently with the main model.
+	 * Inputs and data mappings are copied from the main model.
+	 */
+	public void addWorker(ModelZooModel worker) {
+		WorkerModels.copyNodes(model, worker);
+		workers.add(worker);
+	}
+
+	/**
+	 * @return the models added via {@link #addWorker(ModelZooModel)}
+	 */
+	public List<ModelZooModel> getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * The tile stages of the following predictions are recorded in the given metrics.
+	 */
+	public void setMetrics(PredictionMetrics metrics) {
+		this.metrics = metrics == null ? new PredictionMetrics() : metrics;
+	}
+
+	public void setProgressListener(PredictionProgressListener progressListener) {
+		this.progressListener = progressListener;
 	}
 
 	public void setNumberOfTiles(int nTiles) {
@@ -138,10 +246,27 @@ public class TiledPredictionExecutor implements Cancelable {
 		this.batchSize = batchSize;
 	}
 
+	/**
+	 * Adjusts the tiling after running out of memory. If the model failed on a specific tile,
+	 * the completed tiles are kept and {@link #run()} continues with the failed tile,
+	 * predicting it and all remaining tiles in sub tiles with smaller batches or more tiles.
+	 * Otherwise the prediction is restarted with less stacked tiles, more tiles or smaller batches.
+	 *
+	 * @return false if the tiling cannot be increased any further
+	 */
 	public boolean increaseTiling() {
 
+		if (tiling != null && (failedTile != null || !failedIndexedTiles.isEmpty())) {
+			return increaseSubTiling();
+		}
 		// We expect it to be an out of memory exception and
-		// try it again with more tiles or smaller batches.
+		// try it again with less stacked tiles, more tiles or smaller batches.
+		if (tiling.getTilesPerBatch() > 1) {
+			memoryBudget /= 2;
+			tiling.resetInputData();
+			log.warn("Out of memory exception occurred. Trying with memory budget of " + memoryBudget + " bytes...");
+			return true;
+		}
 		int nTiles = tiling.getTilesNum();
 		int batchSize = tiling.getBatchSize();
 		if (oldNTiles == nTiles && oldBatchesSize == batchSize) {
@@ -158,6 +283,7 @@ public class TiledPredictionExecutor implements Cancelable {
 
 		setNumberOfTiles(nTiles);
 		setBatchSize(batchSize);
+		plannedTiling = null;
 		tiling.resetInputData();
 
 		log.warn(
@@ -167,27 +293,473 @@ public class TiledPredictionExecutor implements Cancelable {
 		return true;
 	}
 
+	private boolean increaseSubTiling() {
+		if (!subdivided) {
+			subdivided = true;
+			subBatchSize = batchSize;
+			if (tiling.getTilesPerBatch() > 1) {
+				log.warn("Out of memory exception occurred. Resuming without stacking tiles...");
+				return true;
+			}
+		}
+		if (subBatchSize > 1) {
+			subBatchSize /= 2;
+		} else {
+			if (subTilesNum == lastSubTilesNum) return false;
+			lastSubTilesNum = subTilesNum;
+			subTiles *= 2;
+		}
+		log.warn("Out of memory exception occurred. Resuming with remaining tiles split into " + subTiles +
+				" sub tiles, batch size " + subBatchSize + "...");
+		return true;
+	}
+
+	private void runSerial() {
+		while (timedNextTile()) {
+			ImageDataReference<?> tile = tilingInput.getData();
+			try {
+				predictTile();
+			} catch (OutOfMemoryError | IllegalStateException e) {
+				failedTile = tile;
+				throw e;
+			}
+			checkInterrupted();
+			try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.TILE_OUTPUT)) {
+				tiling.resolveCurrentTile();
+			}
+			disposeSubTiling();
+			notifyProgress();
+		}
+	}
+
+	private boolean timedNextTile() {
+		try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.TILE_INPUT)) {
+			return nextTile();
+		}
+	}
+
+	private boolean nextTile() {
+		if (isCanceled()) return false;
+		checkInterrupted();
+		if (failedTile != null) {
+			tilingInput.setData(failedTile);
+			failedTile = null;
+			showTileStatus();
+			return true;
+		}
+		if (!pendingTiles.isEmpty()) {
+			tiling.assignTile(pendingTiles.poll());
+			showTileStatus();
+			return true;
+		}
+		return processNextTile();
+	}
+
+	/**
+	 * Continues a parallel prediction which ran out of memory with the main model, starting with the failed tiles.
+	 * The tiles are written back by their indices, since the parallel prediction resolved them in any order.
+	 */
+	private void runIndexed() {
+		while (!isCanceled()) {
+			checkInterrupted();
+			IndexedTile next = failedIndexedTiles.poll();
+			if (next == null) {
+				List<Long> tileIndices = new ArrayList<>();
+				ImageDataReference<?> tile;
+				try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.TILE_INPUT)) {
+					tile = tiling.prepareNextTile(tileIndices);
+				}
+				if (tile == null) break;
+				next = new IndexedTile(tileIndices, tile);
+			}
+			tilingInput.setData(next.tile);
+			showTileStatus();
+			try {
+				predictTile();
+			} catch (OutOfMemoryError | IllegalStateException e) {
+				failedIndexedTiles.addFirst(next);
+				throw e;
+			}
+			checkInterrupted();
+			try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.TILE_OUTPUT)) {
+				tiling.resolveTiles(next.tileIndices, tiling.getCurrentOutputData());
+			}
+			disposeSubTiling();
+			notifyProgress();
+		}
+		processedTiles = true;
+		tiling.resetInputData();
+	}
+
+	/**
+	 * Runs the model on the tile currently assigned to the input node.
+	 */
+	private void predictTile() {
+		try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.MODEL)) {
+			if (subdivided) {
+				predictInSubTiles();
+			} else {
+				model.predict();
+			}
+		}
+	}
+
+	/**
+	 * Splits the current tile once more and writes the sub tile predictions into the output nodes,
+	 * to be resolved by the outer tiling afterwards.
+	 */
+	private void predictInSubTiles() {
+		disposeSubTiling();
+		subTiling = new DefaultTiling(tilingInput, tilingOutputs);
+		subTiling.setLogger(log);
+		subTiling.setNumberOfTiles(subTiles);
+		subTiling.setBatchSize(subBatchSize);
+		subTiling.init();
+		subTilesNum = subTiling.getTilesNum();
+		while (!isCanceled() && subTiling.hasTilesLeft()) {
+			checkInterrupted();
+			subTiling.assignNextTile();
+			model.predict();
+			checkInterrupted();
+			subTiling.resolveCurrentTile();
+		}
+		subTiling.finish();
+	}
+
+	/**
+	 * Deletes the cached output of the last sub tiling, once it was written into the output of the main tiling.
+	 */
+	private void disposeSubTiling() {
+		if (subTiling == null) return;
+		subTiling.dispose();
+		subTiling = null;
+	}
+
 	private boolean processNextTile() {
 		// go to next tile
 		if(isCanceled()) return false;
-		if (processedTiles || !tiling.hasTilesLeft()) {
+		if (processedTiles || !tiling.hasInputTilesLeft()) {
 			processedTiles = true;
 			return false;
 		}
 		tiling.assignNextTile();
+		showTileStatus();
+		return true;
+	}
+
+	private void notifyProgress() {
+		if (progressListener != null) progressListener.tilesDone(tiling.getResolvedTileCount(), tiling.getTilesTotalCount());
+	}
+
+	private void showTileStatus() {
 		statusService.showStatus(tiling.getDoneTileCount()-1, (int) tiling.getTilesTotalCount(), "Predicting tile " + (tiling.getDoneTileCount()) + " of " + tiling.getTilesTotalCount() + "..");
 		log.info("Processing tile " + (tiling.getDoneTileCount()) + "..");
-		return true;
+	}
+
+	/**
+	 * Lets the main model and all workers predict tiles concurrently. Each model takes the next input tile from the tiling
+	 * and writes its prediction back into the output as soon as it is done, the output tiles are written one at a time.
+	 * A model running out of memory keeps its tile and stops, the finished tiles are kept and the failed and remaining
+	 * tiles are predicted by the main model after {@link #increaseTiling()}, see {@link #runIndexed()}.
+	 */
+	private void runParallel() {
+		List<ModelZooModel> models = new ArrayList<>();
+		models.add(model);
+		models.addAll(workers);
+		ExecutorService pool = Executors.newFixedThreadPool(models.size(), r -> new Thread(r, "modelzoo-worker"));
+		try {
+			stopWorkers = false;
+			List<Future<?>> futures = new ArrayList<>();
+			for (ModelZooModel worker : models) {
+				futures.add(pool.submit(() -> {
+					try (PredictionMetrics.AllocationTracker ignored = metrics.trackAllocations()) {
+						predictTiles(worker);
+					}
+					return null;
+				}));
+			}
+			Throwable failure = null;
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					stopWorkers = true;
+					if (failure == null) failure = e.getCause();
+				}
+			}
+			if (failure instanceof Error) throw (Error) failure;
+			if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+			if (failure != null) throw new IllegalStateException(failure);
+			processedTiles = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		} finally {
+			// the models are released afterwards, they must not be running anymore
+			shutdownAndWait(pool);
+			tiling.resetInputData();
+		}
+	}
+
+	private void predictTiles(ModelZooModel worker) {
+		while (!isCanceled() && !stopWorkers) {
+			checkInterrupted();
+			List<Long> tileIndices = new ArrayList<>();
+			ImageDataReference<?> tile;
+			try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.TILE_INPUT)) {
+				tile = tiling.prepareNextTile(tileIndices);
+			}
+			if (tile == null) return;
+			List<ImageDataReference<?>> outputs;
+			try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.MODEL)) {
+				outputs = WorkerModels.predict(model, worker, tilingInput, tilingOutputs, tile);
+			} catch (OutOfMemoryError | IllegalStateException e) {
+				failedIndexedTiles.add(new IndexedTile(tileIndices, tile));
+				throw e;
+			}
+			checkInterrupted();
+			try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.TILE_OUTPUT)) {
+				tiling.resolveTiles(tileIndices, outputs);
+			}
+			notifyProgress();
+			showTileStatus();
+		}
+	}
+
+	/**
+	 * Runs the tiles in three stages: One thread copies the upcoming input tiles into memory,
+	 * the calling thread runs the model and another thread writes the finished tiles into the output.
+	 * The stages are connected by queues of size {@link #pipelineQueueDepth}.
+	 */
+	private void runPipelined() {
+		BlockingQueue<ImageDataReference<?>> preparedTiles = new ArrayBlockingQueue<>(pipelineQueueDepth);
+		BlockingQueue<List<ImageDataReference<?>>> predictedTiles = new ArrayBlockingQueue<>(pipelineQueueDepth);
+		ExecutorService stages = Executors.newFixedThreadPool(2, r -> new Thread(r, "modelzoo-tiling"));
+		try {
+			stopProducer = false;
+			Future<?> producer = stages.submit(() -> {
+				try (PredictionMetrics.AllocationTracker ignored = metrics.trackAllocations()) {
+					while (!isCanceled() && !stopProducer && tiling.hasInputTilesLeft()) {
+						ImageDataReference<?> tile;
+						try (PredictionMetrics.Timer ignored1 = metrics.start(PredictionMetrics.TILE_INPUT)) {
+							tile = tiling.prepareNextTile();
+						}
+						preparedTiles.put(tile);
+					}
+				}
+				preparedTiles.put(NO_MORE_INPUT);
+				return null;
+			});
+			Future<?> writer = stages.submit(() -> {
+				try (PredictionMetrics.AllocationTracker ignored = metrics.trackAllocations()) {
+					List<ImageDataReference<?>> outputs;
+					while ((outputs = predictedTiles.take()) != NO_MORE_OUTPUT) {
+						try (PredictionMetrics.Timer ignored1 = metrics.start(PredictionMetrics.TILE_OUTPUT)) {
+							tiling.resolveTile(outputs);
+						}
+						notifyProgress();
+					}
+				}
+				return null;
+			});
+			ImageDataReference<?> tile;
+			while ((tile = take(preparedTiles, producer)) != NO_MORE_INPUT && !isCanceled()) {
+				tiling.assignTile(tile);
+				showTileStatus();
+				try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.MODEL)) {
+					model.predict();
+				} catch (OutOfMemoryError | IllegalStateException e) {
+					failedTile = tile;
+					stopPipeline(preparedTiles, producer, predictedTiles, writer);
+					throw e;
+				}
+				put(predictedTiles, tiling.getCurrentOutputData(), writer);
+			}
+			put(predictedTiles, NO_MORE_OUTPUT, writer);
+			writer.get();
+			processedTiles = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) throw (Error) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		} finally {
+			shutdownAndWait(stages);
+		}
+	}
+
+	/**
+	 * Lets the writer finish all predicted tiles and keeps the prepared tiles for resuming serially.
+	 */
+	private void stopPipeline(BlockingQueue<ImageDataReference<?>> preparedTiles, Future<?> producer,
+	                          BlockingQueue<List<ImageDataReference<?>>> predictedTiles, Future<?> writer) throws InterruptedException, ExecutionException {
+		stopProducer = true;
+		while (!producer.isDone() || !preparedTiles.isEmpty()) {
+			ImageDataReference<?> tile = preparedTiles.poll(100, TimeUnit.MILLISECONDS);
+			if (tile != null && tile != NO_MORE_INPUT) pendingTiles.add(tile);
+		}
+		put(predictedTiles, NO_MORE_OUTPUT, writer);
+		writer.get();
+	}
+
+	/**
+	 * Interrupts the threads of the pool and waits until they are finished, also if the calling thread is interrupted.
+	 */
+	private static void shutdownAndWait(ExecutorService pool) {
+		pool.shutdownNow();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (pool.awaitTermination(1, TimeUnit.MINUTES)) break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Cancels the prediction if the thread predicting the tiles was interrupted.
+	 */
+	private static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted()) throw new CancellationException();
+	}
+
+	private static <T> T take(BlockingQueue<T> queue, Future<?> producer) throws InterruptedException, ExecutionException {
+		T element;
+		while ((element = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+			if (producer.isDone()) {
+				element = queue.poll();
+				if (element != null) return element;
+				producer.get();
+				throw new CancellationException();
+			}
+		}
+		return element;
+	}
+
+	private static <T> void put(BlockingQueue<T> queue, T element, Future<?> consumer) throws InterruptedException, ExecutionException {
+		while (!queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+			if (consumer.isDone()) {
+				consumer.get();
+				throw new CancellationException();
+			}
+		}
 	}
 
 	private <TO extends RealType<TO> & NativeType<TO>, TI extends RealType<TI> & NativeType<TI>> void initTiling() {
 		processedTiles = false;
+		if (memoryBudget > 0 && tiling == null) planTiling();
 		tiling = new DefaultTiling(tilingInput, tilingOutputs, cacheDir);
 		tiling.setNumberOfTiles(nTiles);
+		tiling.setTiling(plannedTiling);
 		tiling.setBatchSize(batchSize);
+		tiling.setMemoryBudget(memoryBudget);
+		tiling.setOutputSink(outputSink);
+		tiling.setLogger(log);
+		if (resumable) {
+			if (cacheDir == null) log.warn("Resumable prediction needs a cache directory, tiles will not be stored.");
+			else tiling.setCheckpointKey(modelKey == null ? "" : modelKey);
+		}
+		fusePostprocessing();
 		tiling.init();
 	}
 
+	/**
+	 * Composes the leading pointwise postprocessors of each tiled output into one operation which is applied to each tile
+	 * while it is written into the output, converting it directly into the type of the last of these postprocessors.
+	 * Outputs written into an {@link OutputSink} are always postprocessed this way, since the dataset is written while predicting.
+	 */
+	private void fusePostprocessing() {
+		fusedProcessors.clear();
+		if (!fusePostprocessing && outputSink == null) return;
+		for (OutputImageNode node : tilingOutputs) {
+			if (node.getData() == null || node.getData().getDataType() == null) {
+				checkSinkPostprocessing(node, Collections.emptyList());
+				continue;
+			}
+			RealType<?> type = node.getData().getDataType();
+			PointwiseOperation operation = PointwiseOperation.identity();
+			List<NodeProcessor> fused = new ArrayList<>();
+			for (NodeProcessor processor : node.getProcessors()) {
+				// resizing only crops the output
+				if (processor instanceof ResizePostprocessor) continue;
+				if (!(processor instanceof PointwiseImageNodePostprocessor)) break;
+				PointwiseImageNodePostprocessor<?> pointwise = (PointwiseImageNodePostprocessor<?>) processor;
+				pointwise.prepare(options);
+				type = getOutputType(pointwise, type);
+				operation = operation.then(pointwise.createOperation(type));
+				fused.add(processor);
+			}
+			checkSinkPostprocessing(node, fused);
+			if (fused.isEmpty()) continue;
+			tiling.setPostprocessing(node, operation, type);
+			fusedProcessors.put(node, fused);
+			log.info("Postprocessing output " + node.getName() + " while writing the tiles: " + operation
+					+ " into " + type.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * The dataset of the sink would keep the unprocessed output, the prediction is refused instead.
+	 */
+	private void checkSinkPostprocessing(OutputImageNode node, List<NodeProcessor> fused) {
+		if (outputSink == null) return;
+		for (NodeProcessor processor : node.getProcessors()) {
+			if (processor instanceof ResizePostprocessor || fused.contains(processor)) continue;
+			throw new IllegalArgumentException("Output " + node.getName() + " cannot be written into the container while predicting, "
+					+ processor.getClass().getSimpleName() + " cannot be applied to the tiles.");
+		}
+	}
+
+	private static <T extends RealType<T> & NativeType<T>> RealType<?> getOutputType(PointwiseImageNodePostprocessor<?> processor, RealType<?> type) {
+		return processor.getOutputType((T) type);
+	}
+
+	/**
+	 * @return whether the processor was already applied to the tiles of the given output node
+	 * and needs to be skipped when postprocessing the output
+	 */
+	public boolean isFusedTransformation(ModelZooNode<?> node, NodeProcessor processor) {
+		List<NodeProcessor> fused = fusedProcessors.get(node);
+		return fused != null && fused.contains(processor);
+	}
+
+	private void planTiling() {
+		TilingPlanner.Plan plan = new TilingPlanner(tilingInput, tilingOutputs).plan(memoryBudget, batchSize);
+		nTiles = plan.getNumberOfTiles();
+		batchSize = plan.getBatchSize();
+		plannedTiling = plan.getTiling();
+		plannedOverhead = plan.getOverhead();
+		String message = "Planned " + nTiles + " tile(s) " + Arrays.toString(plannedTiling) + " with batch size " + batchSize
+				+ " using about " + plan.getEstimatedBytes() + " of " + memoryBudget + " bytes per prediction"
+				+ " and predicting " + formatPercentage(plannedOverhead) + " more voxels than the input.";
+		if (plan.fitsBudget()) {
+			log.info(message);
+		} else {
+			log.warn(message + " The tiles cannot be split any further.");
+		}
+	}
+
+	/**
+	 * Reports how many voxels were predicted in addition to the input voxels because of the halo of the tiles,
+	 * compared to the planned overhead.
+	 */
+	private void logComputeOverhead() {
+		double overhead = tiling.getComputeOverhead();
+		if (subdivided || Double.isNaN(overhead)) return;
+		String message = "Predicted " + formatPercentage(overhead) + " more voxels than the input";
+		if (!Double.isNaN(plannedOverhead)) message += " (planned: " + formatPercentage(plannedOverhead) + ")";
+		log.info(message + ".");
+	}
+
+	private static String formatPercentage(double value) {
+		return String.format("%.1f%%", value * 100);
+	}
+
 	@Override
 	public boolean isCanceled() {
 		return canceled;
@@ -211,18 +783,64 @@ public class TiledPredictionExecutor implements Cancelable {
 	}
 
 	public int getNumberOfTiles() {
+		if (subdivided) return tiling.getTilesNum() * subTiles;
 		return nTiles;
 	}
 
 	public int getBatchSize() {
+		if (subdivided) return subBatchSize;
 		return batchSize;
 	}
 
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public void setPipelineQueueDepth(int pipelineQueueDepth) {
+		this.pipelineQueueDepth = pipelineQueueDepth;
+	}
+
 	public void setCacheDir(Path cacheDir) {
 		this.cacheDir = cacheDir;
 	}
 
+	/**
+	 * @param outputSink Receives the output tiles while predicting, the postprocessing of these outputs is applied to the tiles
+	 */
+	public void setOutputSink(OutputSink outputSink) {
+		this.outputSink = outputSink;
+	}
+
+	/**
+	 * @param resumable Whether finished tiles are stored in the cache directory so that a prediction can be continued
+	 * @param modelKey Identifies the model used for the prediction
+	 */
+	public void setResumable(boolean resumable, String modelKey) {
+		this.resumable = resumable;
+		this.modelKey = modelKey;
+	}
+
+	/**
+	 * @param fusePostprocessing Whether the pointwise postprocessors of the outputs are applied while writing the tiles
+	 * @param options Options the postprocessors are prepared with
+	 */
+	public void setFusePostprocessing(boolean fusePostprocessing, ModelZooPredictionOptions.Values options) {
+		this.fusePostprocessing = fusePostprocessing;
+		this.options = options;
+	}
+
+	private static class IndexedTile {
+		final List<Long> tileIndices;
+		final ImageDataReference<?> tile;
+
+		IndexedTile(List<Long> tileIndices, ImageDataReference<?> tile) {
+			this.tileIndices = tileIndices;
+			this.tile = tile;
+		}
+	}
+
 	public void dispose() {
-		if(tiling != null) tiling.dispose();
+		// the outputs of the main tiling are the result of the prediction and are kept
+		disposeSubTiling();
 	}
 }
@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer;
+
+import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.ImageNode;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for predicting tiles with additional instances of a model, each with its own nodes.
+ */
+final class WorkerModels {
+
+	private WorkerModels() {
+	}
+
+	/**
+	 * Copies the data and data mappings of all nodes of the main model to the nodes of the worker.
+	 */
+	static void copyNodes(ModelZooModel model, ModelZooModel worker) {
+		copyNodes(model.getInputNodes(), worker.getInputNodes());
+		copyNodes(model.getOutputNodes(), worker.getOutputNodes());
+	}
+
+	private static void copyNodes(List<ModelZooNode<?>> from, List<ModelZooNode<?>> to) {
+		for (int i = 0; i < from.size() && i < to.size(); i++) {
+			copyNode(from.get(i), (ModelZooNode) to.get(i));
+		}
+	}
+
+	private static <T> void copyNode(ModelZooNode<T> from, ModelZooNode<T> to) {
+		if(from instanceof ImageNode && to instanceof ImageNode) {
+			((ImageNode) to).setDataMapping(((ImageNode) from).getDataMapping());
+		}
+		if(from.getData() != null) to.setData(from.getData());
+	}
+
+	/**
+	 * Predicts a tile with the worker, using the worker nodes matching the given tiling nodes of the main model.
+	 *
+	 * @return the predicted data of the worker nodes matching the tiling outputs
+	 */
+	static List<ImageDataReference<?>> predict(ModelZooModel model, ModelZooModel worker, InputImageNode tilingInput,
+	                                            List<OutputImageNode> tilingOutputs, ImageDataReference<?> tile) {
+		setData((ModelZooNode) worker.getInputNodes().get(model.getInputNodes().indexOf(tilingInput)), tile);
+		worker.predict();
+		List<ImageDataReference<?>> outputs = new ArrayList<>();
+		for (OutputImageNode outputNode : tilingOutputs) {
+			ModelZooNode<?> workerOutput = worker.getOutputNodes().get(model.getOutputNodes().indexOf(outputNode));
+			outputs.add((ImageDataReference<?>) workerOutput.getData());
+		}
+		return outputs;
+	}
+
+	static <T> void setData(ModelZooNode<T> node, T data) {
+		node.setData(data);
+	}
+}
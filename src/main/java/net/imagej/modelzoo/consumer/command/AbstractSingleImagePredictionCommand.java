@@ -34,6 +34,8 @@ import net.imagej.modelzoo.ModelZooService;
 import net.imagej.modelzoo.consumer.ModelZooPredictionOptions;
 import net.imagej.modelzoo.consumer.SingleImagePrediction;
 import net.imagej.modelzoo.consumer.model.prediction.ImageInput;
+import net.imagej.modelzoo.io.chunked.ChunkedContainer;
+import net.imagej.modelzoo.io.chunked.ChunkedDataset;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
@@ -41,6 +43,7 @@ import org.scijava.Context;
 import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 import org.scijava.ui.UIService;
+import org.scijava.widget.FileWidget;
 
 import java.io.File;
 import java.io.IOException;
@@ -51,9 +54,13 @@ public abstract class AbstractSingleImagePredictionCommand<T extends RealType<T>
 	@Parameter(label = "Trained model file (.zip)")
 	private File modelFile;
 
-	@Parameter(persist = false)
+	@Parameter(persist = false, required = false)
 	private RandomAccessibleInterval<T> input;
 
+	@Parameter(label = "Read input from container (.n5, .zarr, .ome.zarr)", required = false, persist = false, style = FileWidget.DIRECTORY_STYLE,
+			description = "<html>Used instead of the input image. Only the tiles being predicted are read into memory.")
+	private File inputContainer = null;
+
 	@Parameter(label = "Axes of prediction input (subset of XYZCB, B = batch)", description = "<html>You can predict one dimension independently per position.<br>Use B ( = batch) for this dimension.")
 	private String axes = "XY";
 
@@ -69,6 +76,10 @@ public abstract class AbstractSingleImagePredictionCommand<T extends RealType<T>
 	@Parameter(label = "Convert output into input image format", required = false)
 	private boolean convertOutputToInputFormat = false;
 
+	@Parameter(label = "Write output into container (.n5, .zarr, .ome.zarr)", required = false, persist = false, style = FileWidget.SAVE_STYLE,
+			description = "<html>The output tiles are written into the container while predicting.<br>Leave empty to keep the output in memory.")
+	private File outputContainer = null;
+
 	@Parameter
 	private LogService log;
 
@@ -89,6 +100,10 @@ public abstract class AbstractSingleImagePredictionCommand<T extends RealType<T>
 
 		final long startTime = System.currentTimeMillis();
 
+		if(input == null && inputContainer == null) {
+			log.error("No input image or input container given.");
+			return;
+		}
 		try {
 			P prediction = createPrediction();
 			if(prediction == null) return;
@@ -122,15 +137,30 @@ public abstract class AbstractSingleImagePredictionCommand<T extends RealType<T>
 	protected abstract void createOutput(P prediction);
 
 	private ModelZooPredictionOptions createOptions() {
-		return ModelZooPredictionOptions.options()
+		ModelZooPredictionOptions options = ModelZooPredictionOptions.options()
 				.numberOfTiles(numTiles)
 				.batchSize(batchSize)
 				.showProgressDialog(showProgressDialog)
 				.convertIntoInputFormat(convertOutputToInputFormat);
+		if(outputContainer != null) {
+			ChunkedContainer container = ChunkedContainer.forPath(outputContainer.toPath());
+			if(container == null) log.warn("Unknown container format, output is not written into " + outputContainer);
+			else options.outputSink(container);
+		}
+		return options;
+	}
+
+	protected void setInput(P prediction) throws IOException {
+		prediction.setInput(new ImageInput<>("input", inputContainer != null ? openInputContainer() : input, axes));
 	}
 
-	protected void setInput(P prediction) {
-		prediction.setInput(new ImageInput<>("input", input, axes));
+	/**
+	 * @return the dataset in the input container as image which reads its chunks when they are accessed
+	 */
+	private RandomAccessibleInterval<T> openInputContainer() throws IOException {
+		ChunkedDataset<?> dataset = ChunkedDataset.open(inputContainer.toPath());
+		log.info("Reading input from " + dataset.getDirectory());
+		return (RandomAccessibleInterval<T>) dataset.getImage();
 	}
 
 	public P getPrediction() {
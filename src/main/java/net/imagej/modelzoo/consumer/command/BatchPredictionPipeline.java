@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.command;
+
+import org.scijava.log.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads, predicts and writes a list of files. The files are processed one after another until the first file
+ * was predicted, e.g. interactively to choose the parameters for all files. In parallel mode, the remaining files are
+ * processed concurrently afterwards, each stage in its own thread pool.
+ * A failure only affects the file it occurred for.
+ */
+class BatchPredictionPipeline<I, O> {
+
+	interface Stage<A, B> {
+		B process(File file, A value) throws Exception;
+	}
+
+	private final Stage<File, I> reader;
+	private final Stage<I, O> predictor;
+	private final Stage<O, ?> writer;
+	private final Logger log;
+	private Stage<I, O> firstPredictor;
+	private boolean parallel = false;
+	private int readerThreads = 1;
+	private int predictionThreads = 1;
+	private int writerThreads = 1;
+	private int maxImagesInMemory = 1;
+	private boolean keepInputOrder = true;
+
+	BatchPredictionPipeline(Stage<File, I> reader, Stage<I, O> predictor, Stage<O, ?> writer, Logger log) {
+		this.reader = reader;
+		this.predictor = predictor;
+		this.writer = writer;
+		this.log = log;
+		this.firstPredictor = predictor;
+	}
+
+	/**
+	 * @param firstPredictor predicts the first file which could be read, on the calling thread
+	 */
+	void setFirstPredictor(Stage<I, O> firstPredictor) {
+		this.firstPredictor = firstPredictor;
+	}
+
+	void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	void setThreads(int readerThreads, int predictionThreads, int writerThreads) {
+		this.readerThreads = readerThreads;
+		this.predictionThreads = predictionThreads;
+		this.writerThreads = writerThreads;
+	}
+
+	/**
+	 * @param maxImagesInMemory the maximal number of files being processed concurrently in parallel mode
+	 */
+	void setMaxImagesInMemory(int maxImagesInMemory) {
+		this.maxImagesInMemory = maxImagesInMemory;
+	}
+
+	/**
+	 * @param keepInputOrder whether the outputs are written in the order of the input files in parallel mode
+	 */
+	void setKeepInputOrder(boolean keepInputOrder) {
+		this.keepInputOrder = keepInputOrder;
+	}
+
+	/**
+	 * @return the number of files which failed
+	 */
+	int run(List<File> inputFiles) {
+		int failedCount = 0;
+		int firstPredicted = -1;
+		for (int i = 0; i < inputFiles.size(); i++) {
+			if(parallel && firstPredicted >= 0) {
+				return failedCount + runParallel(inputFiles.subList(firstPredicted + 1, inputFiles.size()));
+			}
+			File inputFile = inputFiles.get(i);
+			try {
+				I input = reader.process(inputFile, inputFile);
+				O outputs;
+				if(firstPredicted < 0) {
+					firstPredicted = i;
+					outputs = firstPredictor.process(inputFile, input);
+				} else {
+					outputs = predictor.process(inputFile, input);
+				}
+				writer.process(inputFile, outputs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.warn("ModelZoo batch prediction canceled.");
+				return failedCount;
+			} catch (Exception e) {
+				failedCount++;
+				log.error("ModelZoo batch prediction failed for " + inputFile, e);
+			}
+		}
+		return failedCount;
+	}
+
+	private int runParallel(List<File> inputFiles) {
+		ExecutorService readers = Executors.newFixedThreadPool(readerThreads);
+		ExecutorService inference = Executors.newFixedThreadPool(predictionThreads);
+		ExecutorService writers = Executors.newFixedThreadPool(writerThreads);
+		Semaphore imagesInMemory = new Semaphore(maxImagesInMemory);
+		AtomicInteger failedCount = new AtomicInteger();
+		List<CompletableFuture<?>> results = new ArrayList<>();
+		CompletableFuture<?> previousWrite = CompletableFuture.completedFuture(null);
+		try {
+			for (File inputFile : inputFiles) {
+				imagesInMemory.acquire();
+				CompletableFuture<O> predicted = CompletableFuture
+						.supplyAsync(() -> process(reader, inputFile, inputFile), readers)
+						.thenApplyAsync(input -> process(predictor, inputFile, input), inference);
+				CompletableFuture<?> written;
+				if(keepInputOrder) {
+					written = predicted.thenCombineAsync(previousWrite, (outputs, previous) -> process(writer, inputFile, outputs), writers);
+					previousWrite = written.handle((result, e) -> null);
+				} else {
+					written = predicted.thenApplyAsync(outputs -> process(writer, inputFile, outputs), writers);
+				}
+				results.add(written.handle((result, e) -> {
+					imagesInMemory.release();
+					if (e != null) {
+						failedCount.incrementAndGet();
+						log.error("ModelZoo batch prediction failed for " + inputFile, e.getCause() != null ? e.getCause() : e);
+					}
+					return null;
+				}));
+			}
+			CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.warn("ModelZoo batch prediction canceled.");
+		} finally {
+			readers.shutdownNow();
+			inference.shutdownNow();
+			writers.shutdownNow();
+		}
+		return failedCount.get();
+	}
+
+	private static <A, B> B process(Stage<A, B> stage, File file, A value) {
+		try {
+			return stage.process(file, value);
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		}
+	}
+}
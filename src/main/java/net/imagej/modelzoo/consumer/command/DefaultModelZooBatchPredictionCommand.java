@@ -32,6 +32,9 @@ package net.imagej.modelzoo.consumer.command;
 import io.scif.services.DatasetIOService;
 import net.imagej.Dataset;
 import net.imagej.modelzoo.ModelZooService;
+import net.imagej.modelzoo.io.chunked.ChunkedContainer;
+import net.imagej.modelzoo.io.chunked.ChunkedDataset;
+import net.imglib2.RandomAccessibleInterval;
 import org.scijava.command.Command;
 import org.scijava.command.DynamicCommand;
 import org.scijava.io.location.FileLocation;
@@ -49,11 +52,18 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 
 @Plugin(type = Command.class)
 public class DefaultModelZooBatchPredictionCommand extends DynamicCommand {
 
+	private static final String FORMAT_INPUT = "Same as input";
+	private static final String FORMAT_N5 = "N5";
+	private static final String FORMAT_ZARR = "Zarr";
+	private static final String FORMAT_OME_ZARR = "OME-Zarr";
+
 	@Parameter(label = "Import model (.zip) from file")
 	private File modelFile;
 
@@ -66,6 +76,28 @@ public class DefaultModelZooBatchPredictionCommand extends DynamicCommand {
 	@Parameter(style = FileWidget.DIRECTORY_STYLE)
 	private File outputDirectory;
 
+	@Parameter(label = "Output format", required = false, choices = {FORMAT_INPUT, FORMAT_N5, FORMAT_ZARR, FORMAT_OME_ZARR},
+			description = "<html>Outputs in N5 or Zarr format are written tile by tile while predicting.")
+	private String outputFormat = FORMAT_INPUT;
+
+	@Parameter(label = "Process files in parallel", required = false)
+	private boolean parallel = false;
+
+	@Parameter(label = "Number of reading threads", required = false, min = "1")
+	private int readerThreads = 2;
+
+	@Parameter(label = "Number of prediction threads", required = false, min = "1")
+	private int predictionThreads = 1;
+
+	@Parameter(label = "Number of writing threads", required = false, min = "1")
+	private int writerThreads = 2;
+
+	@Parameter(label = "Maximum number of images in memory", required = false, min = "1")
+	private int maxImagesInMemory = 4;
+
+	@Parameter(label = "Write outputs in input order", required = false)
+	private boolean keepInputOrder = true;
+
 	@Parameter
 	private LogService log;
 
@@ -91,43 +123,121 @@ public class DefaultModelZooBatchPredictionCommand extends DynamicCommand {
 
 		List<File>  inputFiles = Arrays.asList(files);
 		Collections.sort(inputFiles);
-		boolean firstRun = true;
-		for (File inputFile : inputFiles) {
-			try {
-				Dataset input = datasetIOService.open(inputFile.getAbsolutePath());
-				prediction.setInput("input", input);
-				prediction.resolveInput("input");
-				if(firstRun) {
-					// for the first run, execute the command interactively
-					// to harvest missing inputs. for consecutive runs,
-					// we assume the same input parameters will be used
-					firstRun = false;
-					Map<String, Object> chosenParameters = prediction.getInputs();
-					chosenParameters.forEach(this::setInput);
-					context().service(ModuleService.class).run(prediction, true).get();
-				} else {
-					context().service(ModuleService.class).run(prediction, false).get();
-				}
-				saveOutputs(inputFile, prediction);
-			} catch (IOException | ExecutionException | InterruptedException e) {
-				e.printStackTrace();
+		ModuleService moduleService = context().service(ModuleService.class);
+		BlockingQueue<Module> predictions = new ArrayBlockingQueue<>(predictionThreads);
+		predictions.add(prediction);
+		BatchPredictionPipeline<RandomAccessibleInterval<?>, Map<String, Object>> pipeline = new BatchPredictionPipeline<>(
+				(inputFile, ignored) -> openInput(inputFile),
+				(inputFile, input) -> predict(moduleService, predictions, inputFile, input),
+				this::saveOutputs,
+				log);
+		pipeline.setFirstPredictor((inputFile, input) -> {
+			// for the first run, execute the command interactively
+			// to harvest missing inputs. for consecutive runs,
+			// we assume the same input parameters will be used
+			setPredictionInput(prediction, inputFile, input);
+			Map<String, Object> chosenParameters = prediction.getInputs();
+			chosenParameters.forEach(this::setInput);
+			moduleService.run(prediction, true).get();
+			// the following predictions run concurrently on copies of the prediction with the chosen inputs
+			for (int i = 1; parallel && i < predictionThreads; i++) {
+				predictions.add(copyPrediction(moduleService));
 			}
+			return new HashMap<>(prediction.getOutputs());
+		});
+		pipeline.setParallel(parallel);
+		pipeline.setThreads(readerThreads, predictionThreads, writerThreads);
+		pipeline.setMaxImagesInMemory(maxImagesInMemory);
+		pipeline.setKeepInputOrder(keepInputOrder);
+		int failedCount = pipeline.run(inputFiles);
+		if(failedCount > 0) {
+			log.warn("ModelZoo batch prediction failed for " + failedCount + " of " + inputFiles.size() + " file(s).");
 		}
 
 		log.info("ModelZoo batch prediction exit (took " + (System.currentTimeMillis() - startTime) + " milliseconds)");
 
 	}
 
-	private void saveOutputs(File inputFile, Module prediction) throws IOException {
+	private Module copyPrediction(ModuleService moduleService) {
+		Module copy = moduleService.createModule(prediction.getInfo());
+		prediction.getInputs().forEach(copy::setInput);
+		prediction.getInfo().inputs().forEach(item -> {
+			if(prediction.isInputResolved(item.getName())) copy.resolveInput(item.getName());
+		});
+		return copy;
+	}
+
+	/**
+	 * Opens N5 and Zarr containers as images which read their chunks when they are accessed,
+	 * so that only the tiles being predicted are loaded. Other files are opened via {@link DatasetIOService}.
+	 */
+	private RandomAccessibleInterval<?> openInput(File inputFile) throws IOException {
+		if(isContainer(inputFile)) return ChunkedDataset.open(inputFile.toPath()).getImage();
+		return datasetIOService.open(inputFile.getAbsolutePath());
+	}
+
+	private static boolean isContainer(File file) {
+		return file.isDirectory() && ChunkedContainer.forPath(file.toPath()) != null;
+	}
+
+	/**
+	 * @return the file name without extension, e.g. "sample" for "sample.tif" or "sample.ome.zarr"
+	 */
+	private static String getBaseName(File file) {
+		String name = file.getName();
+		for (String extension : new String[]{".ome.zarr", ".zarr", ".n5"}) {
+			if(name.toLowerCase().endsWith(extension)) return name.substring(0, name.length() - extension.length());
+		}
+		return name.replaceFirst("\\.[^\\.]+$", "");
+	}
+
+	private Map<String, Object> predict(ModuleService moduleService, BlockingQueue<Module> predictions, File inputFile, RandomAccessibleInterval<?> input) throws InterruptedException, ExecutionException {
+		Module module = predictions.take();
+		try {
+			setPredictionInput(module, inputFile, input);
+			moduleService.run(module, false).get();
+			return new HashMap<>(module.getOutputs());
+		} finally {
+			predictions.add(module);
+		}
+	}
+
+	private void setPredictionInput(Module module, File inputFile, RandomAccessibleInterval<?> input) {
+		module.setInput("input", input);
+		module.resolveInput("input");
+		setOutputContainer(module, inputFile);
+	}
+
+	/**
+	 * Lets the prediction write its outputs into an N5 or Zarr container named after the input file, if one of these formats is chosen.
+	 */
+	private void setOutputContainer(Module module, File inputFile) {
+		String extension = getContainerExtension();
+		if(extension == null || module.getInfo().getInput("outputContainer") == null) return;
+		module.setInput("outputContainer", new File(outputDirectory, getBaseName(inputFile) + extension));
+		module.resolveInput("outputContainer");
+	}
+
+	private String getContainerExtension() {
+		if(FORMAT_N5.equals(outputFormat)) return ".n5";
+		if(FORMAT_ZARR.equals(outputFormat)) return ".zarr";
+		if(FORMAT_OME_ZARR.equals(outputFormat)) return ".ome.zarr";
+		return null;
+	}
+
+	private Void saveOutputs(File inputFile, Map<String, Object> outputs) throws IOException {
+		// the outputs were written into the container while predicting
+		if(getContainerExtension() != null) return null;
 		HashMap<String, Object> nonNullOutputs = new HashMap<>();
-		prediction.getOutputs().forEach((s, o) -> {
+		outputs.forEach((s, o) -> {
 			if (o != null) nonNullOutputs.put(s, o);
 		});
 		for (Map.Entry<String, Object> entry : nonNullOutputs.entrySet()) {
 			Object object = entry.getValue();
 			if (object instanceof Dataset) {
 				Dataset output = (Dataset) object;
-				String outName = inputFile.getName();
+				// outputs of N5 and Zarr inputs are saved as TIFF
+				String outName = isContainer(inputFile) ? getBaseName(inputFile) + ".tif" : inputFile.getName();
 				if (nonNullOutputs.size() > 1) {
 					String[] tokens = outName.split("\\.(?=[^\\.]+$)");
 					outName = tokens[0] + "_" + output.getName() + "." + tokens[1];
@@ -137,6 +247,7 @@ public class DefaultModelZooBatchPredictionCommand extends DynamicCommand {
 				datasetIOService.save(output, new FileLocation(outputFile));
 			}
 		}
+		return null;
 	}
 
 	private boolean valid(File dir, String name) {
@@ -0,0 +1,280 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.metrics;
+
+import com.google.gson.GsonBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Timings and resource usage of one prediction. Stages are timed with {@link #start(String)}, stages of the same name
+ * (e.g. the prediction of each tile) are accumulated. Stages can be nested and can be recorded from several threads,
+ * e.g. {@link #MODEL} contains {@link #SESSION_RUN} and is summed up over all workers.
+ * Allocated bytes are only known for the threads wrapped by {@link #trackAllocations()} and only if the JVM supports it.
+ */
+public class PredictionMetrics {
+
+	public static final String LOAD_MODEL = "loadModel";
+	public static final String PREPROCESSING = "preprocessing";
+	public static final String PREDICTION = "prediction";
+	public static final String TILE_INPUT = "tileInput";
+	public static final String MODEL = "model";
+	public static final String TENSOR_INPUT = "tensorInput";
+	public static final String SESSION_RUN = "sessionRun";
+	public static final String TENSOR_OUTPUT = "tensorOutput";
+	public static final String TILE_OUTPUT = "tileOutput";
+	public static final String POSTPROCESSING = "postprocessing";
+
+	public static class Stage {
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLong count = new AtomicLong();
+
+		public long getNanos() {
+			return nanos.get();
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+	}
+
+	/**
+	 * Records the time until it is closed.
+	 */
+	public class Timer implements AutoCloseable {
+		private final Stage stage;
+		private final long start = System.nanoTime();
+
+		private Timer(Stage stage) {
+			this.stage = stage;
+		}
+
+		@Override
+		public void close() {
+			stage.nanos.addAndGet(System.nanoTime() - start);
+			stage.count.incrementAndGet();
+			sampleHeap();
+		}
+	}
+
+	/**
+	 * Records the bytes allocated by the current thread until it is closed.
+	 */
+	public class AllocationTracker implements AutoCloseable {
+		private final long thread = Thread.currentThread().getId();
+		private final long start;
+
+		private AllocationTracker() {
+			start = getAllocatedBytes(thread);
+		}
+
+		@Override
+		public void close() {
+			long end = getAllocatedBytes(thread);
+			if(start >= 0 && end >= 0) allocatedBytes.addAndGet(end - start);
+		}
+	}
+
+	private final Map<String, Stage> stages = Collections.synchronizedMap(new LinkedHashMap<>());
+	private final long created = System.nanoTime();
+	private final AtomicLong tiles = new AtomicLong();
+	private final AtomicLong inputVoxels = new AtomicLong();
+	private final AtomicLong outputVoxels = new AtomicLong();
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private final AtomicLong diskCacheBytes = new AtomicLong();
+	private final LongAccumulator peakHeapBytes = new LongAccumulator(Math::max, 0);
+	private volatile long totalNanos = -1;
+
+	public Timer start(String stage) {
+		return new Timer(getStage(stage));
+	}
+
+	public AllocationTracker trackAllocations() {
+		return new AllocationTracker();
+	}
+
+	/**
+	 * Stops the overall timer of the prediction.
+	 */
+	public void finish() {
+		totalNanos = System.nanoTime() - created;
+		sampleHeap();
+	}
+
+	public void addTiles(long tiles) {
+		this.tiles.addAndGet(tiles);
+	}
+
+	public void addInputVoxels(long voxels) {
+		inputVoxels.addAndGet(voxels);
+	}
+
+	public void addOutputVoxels(long voxels) {
+		outputVoxels.addAndGet(voxels);
+	}
+
+	public void setDiskCacheBytes(long bytes) {
+		diskCacheBytes.set(bytes);
+	}
+
+	/**
+	 * @return the accumulated stages in the order they were first started
+	 */
+	public Map<String, Stage> getStages() {
+		synchronized (stages) {
+			return new LinkedHashMap<>(stages);
+		}
+	}
+
+	public long getNanos(String stage) {
+		Stage res = stages.get(stage);
+		return res == null ? 0 : res.getNanos();
+	}
+
+	/**
+	 * @return the time since the metrics were created, until {@link #finish()} if it was called
+	 */
+	public long getTotalNanos() {
+		return totalNanos >= 0 ? totalNanos : System.nanoTime() - created;
+	}
+
+	public long getTiles() {
+		return tiles.get();
+	}
+
+	public long getInputVoxels() {
+		return inputVoxels.get();
+	}
+
+	public long getOutputVoxels() {
+		return outputVoxels.get();
+	}
+
+	/**
+	 * @return the tiles predicted per second during the {@link #PREDICTION} stage
+	 */
+	public double getTilesPerSecond() {
+		return perSecond(tiles.get(), getNanos(PREDICTION));
+	}
+
+	/**
+	 * @return the input voxels predicted per second during the {@link #PREDICTION} stage
+	 */
+	public double getVoxelsPerSecond() {
+		return perSecond(inputVoxels.get(), getNanos(PREDICTION));
+	}
+
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * @return the highest heap usage observed at the end of a stage
+	 */
+	public long getPeakHeapBytes() {
+		return peakHeapBytes.get();
+	}
+
+	public long getDiskCacheBytes() {
+		return diskCacheBytes.get();
+	}
+
+	public String toJson() {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("totalMillis", toMillis(getTotalNanos()));
+		Map<String, Object> stageJson = new LinkedHashMap<>();
+		getStages().forEach((name, stage) -> {
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("millis", toMillis(stage.getNanos()));
+			entry.put("count", stage.getCount());
+			stageJson.put(name, entry);
+		});
+		json.put("stages", stageJson);
+		json.put("tiles", getTiles());
+		json.put("tilesPerSecond", getTilesPerSecond());
+		json.put("inputVoxels", getInputVoxels());
+		json.put("outputVoxels", getOutputVoxels());
+		json.put("voxelsPerSecond", getVoxelsPerSecond());
+		json.put("allocatedBytes", getAllocatedBytes());
+		json.put("peakHeapBytes", getPeakHeapBytes());
+		json.put("diskCacheBytes", getDiskCacheBytes());
+		return new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create().toJson(json);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder res = new StringBuilder("Prediction took " + toMillis(getTotalNanos()) + " ms (");
+		String separator = "";
+		for (Map.Entry<String, Stage> stage : getStages().entrySet()) {
+			res.append(separator).append(stage.getKey()).append(": ").append(toMillis(stage.getValue().getNanos())).append(" ms");
+			separator = ", ";
+		}
+		res.append("), ").append(tiles.get()).append(" tile(s), ")
+				.append(String.format("%.1f", getTilesPerSecond())).append(" tiles/s, ")
+				.append(String.format("%.0f", getVoxelsPerSecond())).append(" voxels/s, peak heap ")
+				.append(getPeakHeapBytes() >> 20).append(" MB");
+		return res.toString();
+	}
+
+	private Stage getStage(String name) {
+		synchronized (stages) {
+			return stages.computeIfAbsent(name, k -> new Stage());
+		}
+	}
+
+	private void sampleHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		peakHeapBytes.accumulate(runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	private static double perSecond(long value, long nanos) {
+		if(nanos <= 0) return 0;
+		return value / (nanos / 1e9);
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	private static long getAllocatedBytes(long thread) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+		return threads.getThreadAllocatedBytes(thread);
+	}
+}
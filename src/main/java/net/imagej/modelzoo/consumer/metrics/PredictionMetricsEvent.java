@@ -0,0 +1,61 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.metrics;
+
+import net.imagej.modelzoo.consumer.ModelZooPrediction;
+import org.scijava.event.SciJavaEvent;
+
+/**
+ * Published via the EventService of the context when a prediction is done, listen to it with an EventHandler
+ * to collect the {@link PredictionMetrics} of all predictions.
+ */
+public class PredictionMetricsEvent extends SciJavaEvent {
+
+	private final ModelZooPrediction<?, ?> prediction;
+	private final PredictionMetrics metrics;
+
+	public PredictionMetricsEvent(ModelZooPrediction<?, ?> prediction, PredictionMetrics metrics) {
+		this.prediction = prediction;
+		this.metrics = metrics;
+	}
+
+	public ModelZooPrediction<?, ?> getPrediction() {
+		return prediction;
+	}
+
+	public PredictionMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + "\n\tmetrics = " + metrics;
+	}
+}
@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.model;
+
+import org.scijava.optional.AbstractOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Options for the session a {@link ModelZooModel} is loaded into. Options which are not set are left to the framework.
+ */
+public class ModelLoadOptions extends AbstractOptions<ModelLoadOptions> {
+
+	public final Values values = new Values();
+	private static final String intraOpThreadsKey = "intraOpThreads";
+	private static final String interOpThreadsKey = "interOpThreads";
+	private static final String perSessionThreadsKey = "perSessionThreads";
+	private static final String cpuDevicesKey = "cpuDevices";
+	private static final String optimizerLevelKey = "optimizerLevel";
+	private static final String xlaKey = "xla";
+	private static final String gpuAllowGrowthKey = "gpuAllowGrowth";
+	private static final String gpuMemoryFractionKey = "gpuMemoryFraction";
+	private static final String allocatorTypeKey = "allocatorType";
+	private static final String[] keys = {intraOpThreadsKey, interOpThreadsKey, perSessionThreadsKey, cpuDevicesKey,
+			optimizerLevelKey, xlaKey, gpuAllowGrowthKey, gpuMemoryFractionKey, allocatorTypeKey};
+
+	/**
+	 * @return Default {@link ModelLoadOptions} instance
+	 */
+	public static ModelLoadOptions options()
+	{
+		return new ModelLoadOptions();
+	}
+
+	/**
+	 * @param intraOpThreads How many threads a single operation, e.g. a convolution, may use
+	 */
+	public ModelLoadOptions intraOpThreads(int intraOpThreads) {
+		return setValue(intraOpThreadsKey, intraOpThreads);
+	}
+
+	/**
+	 * @param interOpThreads How many independent operations may run at the same time
+	 */
+	public ModelLoadOptions interOpThreads(int interOpThreads) {
+		return setValue(interOpThreadsKey, interOpThreads);
+	}
+
+	/**
+	 * @param perSessionThreads Whether the session gets its own thread pools instead of sharing the global ones of the process
+	 */
+	public ModelLoadOptions perSessionThreads(boolean perSessionThreads) {
+		return setValue(perSessionThreadsKey, perSessionThreads);
+	}
+
+	/**
+	 * @param cpuDevices How many CPU devices the session may place operations on
+	 */
+	public ModelLoadOptions cpuDevices(int cpuDevices) {
+		return setValue(cpuDevicesKey, cpuDevices);
+	}
+
+	/**
+	 * @param optimizerLevel Graph optimization level, 0 disables the optimizations, 1 enables common subexpression
+	 *                       elimination and constant folding
+	 */
+	public ModelLoadOptions optimizerLevel(int optimizerLevel) {
+		return setValue(optimizerLevelKey, optimizerLevel);
+	}
+
+	/**
+	 * @param xla Whether operations are compiled with the XLA just-in-time compiler
+	 */
+	public ModelLoadOptions xla(boolean xla) {
+		return setValue(xlaKey, xla);
+	}
+
+	/**
+	 * @param gpuAllowGrowth Whether GPU memory is allocated on demand instead of reserving it up front
+	 */
+	public ModelLoadOptions gpuAllowGrowth(boolean gpuAllowGrowth) {
+		return setValue(gpuAllowGrowthKey, gpuAllowGrowth);
+	}
+
+	/**
+	 * @param gpuMemoryFraction Which fraction of the memory of each GPU the process may use
+	 */
+	public ModelLoadOptions gpuMemoryFraction(double gpuMemoryFraction) {
+		return setValue(gpuMemoryFractionKey, gpuMemoryFraction);
+	}
+
+	/**
+	 * @param allocatorType Name of the GPU memory allocator, e.g. "BFC"
+	 */
+	public ModelLoadOptions allocatorType(String allocatorType) {
+		return setValue(allocatorTypeKey, allocatorType);
+	}
+
+	public class Values extends AbstractValues {
+		/**
+		 * @return How many threads a single operation may use (0 = framework default)
+		 */
+		public int intraOpThreads() {
+			return getValueOrDefault(intraOpThreadsKey, 0);
+		}
+		/**
+		 * @return How many independent operations may run at the same time (0 = framework default)
+		 */
+		public int interOpThreads() {
+			return getValueOrDefault(interOpThreadsKey, 0);
+		}
+		/**
+		 * @return Whether the session gets its own thread pools
+		 */
+		public boolean perSessionThreads() {
+			return getValueOrDefault(perSessionThreadsKey, false);
+		}
+		/**
+		 * @return How many CPU devices the session may use (0 = framework default)
+		 */
+		public int cpuDevices() {
+			return getValueOrDefault(cpuDevicesKey, 0);
+		}
+		/**
+		 * @return Graph optimization level (null = framework default)
+		 */
+		public Integer optimizerLevel() {
+			return getValueOrDefault(optimizerLevelKey, null);
+		}
+		/**
+		 * @return Whether operations are compiled with XLA (null = framework default)
+		 */
+		public Boolean xla() {
+			return getValueOrDefault(xlaKey, null);
+		}
+		/**
+		 * @return Whether GPU memory is allocated on demand
+		 */
+		public boolean gpuAllowGrowth() {
+			return getValueOrDefault(gpuAllowGrowthKey, false);
+		}
+		/**
+		 * @return Which fraction of the memory of each GPU the process may use (0 = framework default)
+		 */
+		public double gpuMemoryFraction() {
+			return getValueOrDefault(gpuMemoryFractionKey, 0.);
+		}
+		/**
+		 * @return Name of the GPU memory allocator (null = framework default)
+		 */
+		public String allocatorType() {
+			return getValueOrDefault(allocatorTypeKey, null);
+		}
+		/**
+		 * @return Whether none of the options are set
+		 */
+		public boolean isDefault() {
+			for (String key : keys) {
+				if(getValueOrDefault(key, null) != null) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return the options which are set, e.g. {@code intraOpThreads=4, xla=false}
+		 */
+		@Override
+		public String toString() {
+			List<String> res = new ArrayList<>();
+			for (String key : keys) {
+				Object value = getValueOrDefault(key, null);
+				if(value != null) res.add(key + "=" + value);
+			}
+			return res.isEmpty() ? "defaults" : String.join(", ", res);
+		}
+	}
+}
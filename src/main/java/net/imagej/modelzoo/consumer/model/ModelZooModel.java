@@ -31,6 +31,7 @@ package net.imagej.modelzoo.consumer.model;
 
 import io.bioimage.specification.ModelSpecification;
 import io.scif.MissingLibraryException;
+import net.imagej.modelzoo.consumer.metrics.PredictionMetrics;
 import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
 import org.scijava.Disposable;
 import org.scijava.io.location.Location;
@@ -53,6 +54,33 @@ public interface ModelZooModel extends Disposable, SciJavaPlugin {
 
 	boolean libraryLoaded();
 
+	/**
+	 * Configures the session the model is loaded into by the next call of {@link #loadModel(Location, String, ModelSpecification)}.
+	 */
+	default void setLoadOptions(ModelLoadOptions options) {
+	}
+
 	void predict() throws IllegalArgumentException, OutOfMemoryError;
 
+	/**
+	 * @param metrics records the stages of {@link #predict()}, null to stop recording
+	 */
+	default void setMetrics(PredictionMetrics metrics) {
+	}
+
+	/**
+	 * Restores the state right after {@link #loadModel(Location, String, ModelSpecification)}
+	 * so that the same instance can be used for another prediction.
+	 */
+	default void reset() {
+	}
+
+	/**
+	 * @return true if the loaded weights are shared with the other instances of the same model,
+	 * e.g. because they are cached by a service, and therefore only occupy memory once
+	 */
+	default boolean isShared() {
+		return false;
+	}
+
 }
@@ -35,9 +35,11 @@ import net.imglib2.type.numeric.RealType;
 public class InputImageNode extends ImageNode {
 
 	private ImageDataReference<?> originalDataType;
+	private ImageDataReference<?> originalData;
 
 	public void setOriginalData(ImageDataReference<?> data) {
 		originalDataType = getEmptyReference(data);
+		originalData = data;
 	}
 
 	private <T extends RealType<T> & NativeType<T>> DefaultImageDataReference<T> getEmptyReference(ImageDataReference<T> data) {
@@ -50,6 +52,13 @@ public class InputImageNode extends ImageNode {
 		super.initializeWithData(data);
 	}
 
+	/**
+	 * @return the data this node was initialized with, before it was processed
+	 */
+	public ImageDataReference<?> getOriginalData() {
+		return originalData;
+	}
+
 	public <O extends RealType<O> & NativeType<O>> O getOriginalDataType() {
 		return (O) originalDataType.getDataType();
 	}
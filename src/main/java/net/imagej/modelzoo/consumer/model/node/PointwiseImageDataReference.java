@@ -0,0 +1,87 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.model.node;
+
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Float view of a source image with a {@link PointwiseOperation} applied to each value.
+ * Applying another pointwise operation composes both operations instead of wrapping the view again,
+ * so each value is read from the source and transformed exactly once.
+ */
+public class PointwiseImageDataReference<I extends RealType<I> & NativeType<I>> implements ImageDataReference<FloatType> {
+
+	private final RandomAccessibleInterval<I> source;
+	private final PointwiseOperation operation;
+	private final RandomAccessibleInterval<FloatType> data;
+
+	private PointwiseImageDataReference(RandomAccessibleInterval<I> source, PointwiseOperation operation) {
+		this.source = source;
+		this.operation = operation;
+		this.data = Converters.convert(source, (in, out) -> out.setReal(operation.apply(in.getRealDouble())), new FloatType());
+	}
+
+	/**
+	 * @return the given data with the operation applied, composed with the operations the data was already transformed with
+	 */
+	public static <T extends RealType<T> & NativeType<T>> PointwiseImageDataReference<?> apply(ImageDataReference<T> in, PointwiseOperation operation) {
+		if(in instanceof PointwiseImageDataReference) {
+			return ((PointwiseImageDataReference<?>) in).then(operation);
+		}
+		return new PointwiseImageDataReference<>(in.getData(), operation);
+	}
+
+	private PointwiseImageDataReference<I> then(PointwiseOperation next) {
+		return new PointwiseImageDataReference<>(source, operation.then(next));
+	}
+
+	public RandomAccessibleInterval<I> getSource() {
+		return source;
+	}
+
+	public PointwiseOperation getOperation() {
+		return operation;
+	}
+
+	@Override
+	public RandomAccessibleInterval<FloatType> getData() {
+		return data;
+	}
+
+	@Override
+	public FloatType getDataType() {
+		return new FloatType();
+	}
+}
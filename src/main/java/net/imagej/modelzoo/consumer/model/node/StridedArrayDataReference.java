@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.consumer.model.node;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+import java.lang.reflect.Array;
+
+/**
+ * Image data backed by a single primitive array in which each image dimension has a fixed stride,
+ * e.g. the content of a tensor. Besides the imglib2 view returned by {@link #getData()}, regions of the
+ * array can be copied directly into other arrays via {@link #copyTo(Object, long[], long[])}.
+ */
+public class StridedArrayDataReference<T extends RealType<T> & NativeType<T>> extends DefaultImageDataReference<T> {
+
+	private final Object array;
+	private final long[] strides;
+	private final Class<?> elementType;
+
+	/**
+	 * @param data view on the array
+	 * @param type the data type of the node
+	 * @param array the primitive array backing the view
+	 * @param strides the stride of each image dimension in the array
+	 * @param elementType the imglib2 type class of the elements in the view
+	 */
+	public StridedArrayDataReference(RandomAccessibleInterval<?> data, T type, Object array, long[] strides, Class<?> elementType) {
+		super((RandomAccessibleInterval<T>) data, type);
+		this.array = array;
+		this.strides = strides;
+		this.elementType = elementType;
+	}
+
+	public Class<?> getElementType() {
+		return elementType;
+	}
+
+	/**
+	 * Copies the region of this image starting at {@code offset} with the size {@code targetDims} into the target array.
+	 * The target array has to have the same primitive type and is expected to store the region in imglib2 storage order.
+	 *
+	 * @return false if the region or the target array do not match, nothing is copied in this case
+	 */
+	public boolean copyTo(Object target, long[] offset, long[] targetDims) {
+		int n = strides.length;
+		if (target.getClass() != array.getClass() || offset.length != n || targetDims.length != n) return false;
+		long size = 1;
+		for (int d = 0; d < n; d++) {
+			if (offset[d] < 0 || offset[d] + targetDims[d] > getData().dimension(d)) return false;
+			size *= targetDims[d];
+		}
+		if (size == 0 || size > Array.getLength(target)) return false;
+		int lineLength = (int) targetDims[0];
+		int lineStride = (int) strides[0];
+		long[] position = new long[n];
+		long sourceIndex = 0;
+		for (int d = 0; d < n; d++) {
+			sourceIndex += offset[d] * strides[d];
+		}
+		for (int targetIndex = 0; targetIndex < size; targetIndex += lineLength) {
+			copyLine((int) sourceIndex, lineStride, target, targetIndex, lineLength);
+			for (int d = 1; d < n; d++) {
+				position[d]++;
+				sourceIndex += strides[d];
+				if (position[d] < targetDims[d]) break;
+				sourceIndex -= strides[d] * targetDims[d];
+				position[d] = 0;
+			}
+		}
+		return true;
+	}
+
+	private void copyLine(int sourceIndex, int stride, Object target, int targetIndex, int length) {
+		if (stride == 1) {
+			System.arraycopy(array, sourceIndex, target, targetIndex, length);
+		} else if (array instanceof float[]) {
+			float[] source = (float[]) array;
+			float[] targetArray = (float[]) target;
+			for (int i = 0; i < length; i++) {
+				targetArray[targetIndex + i] = source[sourceIndex + i * stride];
+			}
+		} else if (array instanceof double[]) {
+			double[] source = (double[]) array;
+			double[] targetArray = (double[]) target;
+			for (int i = 0; i < length; i++) {
+				targetArray[targetIndex + i] = source[sourceIndex + i * stride];
+			}
+		} else if (array instanceof int[]) {
+			int[] source = (int[]) array;
+			int[] targetArray = (int[]) target;
+			for (int i = 0; i < length; i++) {
+				targetArray[targetIndex + i] = source[sourceIndex + i * stride];
+			}
+		} else {
+			long[] source = (long[]) array;
+			long[] targetArray = (long[]) target;
+			for (int i = 0; i < length; i++) {
+				targetArray[targetIndex + i] = source[sourceIndex + i * stride];
+			}
+		}
+	}
+}
@@ -72,4 +72,8 @@ public abstract class DefaultImageNodePostprocessor<T extends TransformationSpec
 	protected ModelZooPredictionOptions.Values getOptions() {
 		return options;
 	}
+
+	protected void setOptions(ModelZooPredictionOptions.Values options) {
+		this.options = options;
+	}
 }
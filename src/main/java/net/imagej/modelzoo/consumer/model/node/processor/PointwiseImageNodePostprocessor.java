@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.model.node.processor;
+
+import io.bioimage.specification.TransformationSpecification;
+import net.imagej.modelzoo.consumer.ModelZooPredictionOptions;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.ops.OpService;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import org.scijava.plugin.Parameter;
+
+/**
+ * Postprocessor transforming each value independently. Consecutive pointwise postprocessors of a node can be fused
+ * into one operation which is applied while writing the predicted tiles into the output.
+ */
+public abstract class PointwiseImageNodePostprocessor<T extends TransformationSpecification> extends DefaultImageNodePostprocessor<T> {
+
+	@Parameter
+	private OpService opService;
+
+	@Override
+	protected <I extends RealType<I> & NativeType<I>, O extends RealType<O> & NativeType<O>> ImageDataReference<O> process(ImageDataReference<I> in, ImageDataReference<O> outType) {
+		O resOutType = getOutputType(outType.getDataType());
+		PointwiseOperation operation = createOperation(resOutType);
+		RandomAccessibleInterval<O> out;
+		if(sameType(in.getDataType(), resOutType)) {
+			out = (RandomAccessibleInterval<O>) in.getData();
+		} else {
+			out = opService.create().img(in.getData(), resOutType);
+		}
+		LoopBuilder.setImages(in.getData(), out).multiThreaded().forEachPixel((i, o) -> {
+			o.setReal(operation.apply(i.getRealDouble()));
+		});
+		return new DefaultImageDataReference<>(out, resOutType);
+	}
+
+	/**
+	 * Prepares computing the operation and the output type without running the processor.
+	 */
+	public void prepare(ModelZooPredictionOptions.Values options) {
+		setOptions(options);
+	}
+
+	public abstract PointwiseOperation createOperation();
+
+	/**
+	 * @param outputType the type the result is written into, see {@link #getOutputType(RealType)}
+	 * @return the operation including any adjustment to the output type, e.g. clamping to its range
+	 */
+	public PointwiseOperation createOperation(RealType<?> outputType) {
+		return createOperation();
+	}
+
+	/**
+	 * @param inType the type of the data the processor is applied to
+	 * @return the type the result is written into
+	 */
+	public <O extends RealType<O> & NativeType<O>> O getOutputType(O inType) {
+		return inType;
+	}
+
+	/**
+	 * @return the operation with its results clamped to the range of the given type
+	 */
+	public static PointwiseOperation inTypeRange(PointwiseOperation operation, RealType<?> type) {
+		return operation.then(PointwiseOperation.clip(type.getMinValue(), type.getMaxValue()));
+	}
+}
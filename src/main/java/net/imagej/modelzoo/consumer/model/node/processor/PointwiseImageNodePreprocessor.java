@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.model.node.processor;
+
+import io.bioimage.specification.TransformationSpecification;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.PointwiseImageDataReference;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Preprocessor transforming each value independently. Consecutive pointwise preprocessors of a node are fused
+ * into one float conversion of the original input, see {@link PointwiseImageDataReference}.
+ */
+public abstract class PointwiseImageNodePreprocessor<T extends TransformationSpecification> extends DefaultImageNodePreprocessor<T> {
+
+	@Override
+	protected <I extends RealType<I> & NativeType<I>, O extends RealType<O> & NativeType<O>> ImageDataReference<?> process(ImageDataReference<I> in, ImageDataReference<O> outType) {
+		PointwiseOperation operation = createOperation(in);
+		if(keepsDataType() && !(outType.getDataType() instanceof FloatType)) {
+			O type = outType.getDataType();
+			RandomAccessibleInterval<O> converted = Converters.convert(in.getData(), (input, output) -> output.setReal(operation.apply(input.getRealDouble())), type);
+			return new DefaultImageDataReference<>(converted, type);
+		}
+		return PointwiseImageDataReference.apply(in, operation);
+	}
+
+	/**
+	 * @return whether the result has the type of the processed data instead of float,
+	 * in which case the operation is only fused if the processed data is float already
+	 */
+	protected boolean keepsDataType() {
+		return false;
+	}
+
+	/**
+	 * @param in the data as transformed by the previous processors, used for data dependent parameters
+	 */
+	protected abstract <I extends RealType<I> & NativeType<I>> PointwiseOperation createOperation(ImageDataReference<I> in);
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.model.node.processor;
+
+/**
+ * A transformation of single values of the form {@code clamp(scale * value + offset, min, max)}, optionally followed
+ * by a threshold mapping the result to one of two values. Chains of affine, clipping and threshold transformations
+ * collapse into one operation of this form.
+ */
+public final class PointwiseOperation {
+
+	private static final PointwiseOperation IDENTITY = affine(1, 0);
+
+	private final double scale;
+	private final double offset;
+	private final double min;
+	private final double max;
+	// NaN if there is no threshold
+	private final double threshold;
+	private final double below;
+	private final double above;
+
+	private PointwiseOperation(double scale, double offset, double min, double max, double threshold, double below, double above) {
+		this.scale = scale;
+		this.offset = offset;
+		this.min = min;
+		this.max = max;
+		this.threshold = threshold;
+		this.below = below;
+		this.above = above;
+	}
+
+	public static PointwiseOperation identity() {
+		return IDENTITY;
+	}
+
+	public static PointwiseOperation affine(double scale, double offset) {
+		return new PointwiseOperation(scale, offset, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NaN, 0, 0);
+	}
+
+	public static PointwiseOperation clip(double min, double max) {
+		return new PointwiseOperation(1, 0, min, max, Double.NaN, 0, 0);
+	}
+
+	/**
+	 * @return an operation mapping values below the threshold to 0 and all other values to 1
+	 */
+	public static PointwiseOperation binarize(double threshold) {
+		return new PointwiseOperation(1, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, threshold, 0, 1);
+	}
+
+	/**
+	 * @return the operation applying this operation first and the given one to the result
+	 */
+	public PointwiseOperation then(PointwiseOperation next) {
+		if(hasThreshold()) {
+			return new PointwiseOperation(scale, offset, min, max, threshold, next.apply(below), next.apply(above));
+		}
+		if(scale == 0) return affine(0, next.apply(apply(0)));
+		if(next.scale == 0) return affine(0, next.apply(0));
+		// an affine transformation of a clipped value is the affine transformation clipped at the transformed bounds
+		double boundA = next.scale * min + next.offset;
+		double boundB = next.scale * max + next.offset;
+		double lower = Math.min(boundA, boundB);
+		double upper = Math.max(boundA, boundB);
+		return new PointwiseOperation(next.scale * scale, next.scale * offset + next.offset,
+				clamp(lower, next.min, next.max), clamp(upper, next.min, next.max),
+				next.threshold, next.below, next.above);
+	}
+
+	public double apply(double value) {
+		double res = clamp(scale * value + offset, min, max);
+		if(hasThreshold()) return res < threshold ? below : above;
+		return res;
+	}
+
+	public boolean isIdentity() {
+		return scale == 1 && offset == 0 && min == Double.NEGATIVE_INFINITY && max == Double.POSITIVE_INFINITY && !hasThreshold();
+	}
+
+	private boolean hasThreshold() {
+		return !Double.isNaN(threshold);
+	}
+
+	private static double clamp(double value, double min, double max) {
+		return value < min ? min : value > max ? max : value;
+	}
+
+	@Override
+	public String toString() {
+		String res = "clamp(" + scale + " * x + " + offset + ", " + min + ", " + max + ")";
+		if(hasThreshold()) res += " < " + threshold + " ? " + below + " : " + above;
+		return res;
+	}
+}
@@ -30,19 +30,36 @@
 package net.imagej.modelzoo.consumer.model.tensorflow;
 
 import net.imagej.modelzoo.consumer.converter.RealIntConverter;
+import net.imagej.modelzoo.consumer.model.node.StridedArrayDataReference;
 import net.imagej.tensorflow.Tensors;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converters;
 import net.imglib2.converter.RealDoubleConverter;
 import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.AbstractIntegerType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
 import org.tensorflow.DataType;
 import org.tensorflow.Tensor;
 
+import java.lang.reflect.Array;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 public class TensorFlowConverter {
 
 	public static <T extends RealType<T>>
@@ -61,10 +78,86 @@ public class TensorFlowConverter {
 		return null;
 	}
 
+	/**
+	 * Copies the content of the tensor into a primitive array once and wraps it as image. The tensor
+	 * layout stays accessible via {@link StridedArrayDataReference} for copying regions of it directly.
+	 *
+	 * @return null if the tensor type is not supported, use {@link #tensorToImage(Tensor, int[])} in this case
+	 */
+	public static <T extends RealType<T> & NativeType<T>> StridedArrayDataReference<T> tensorToDataReference(final Tensor tensor, final int[] mapping, final T dataType) {
+		long[] shape = tensor.shape();
+		int n = shape.length;
+		if (mapping.length != n) return null;
+		long[] storageDims = new long[n];
+		for (int i = 0; i < n; i++) {
+			storageDims[i] = shape[n - 1 - i];
+		}
+		int size = tensor.numElements();
+		Object array;
+		Img<?> img;
+		if (tensor.dataType().equals(DataType.FLOAT)) {
+			float[] data = new float[size];
+			tensor.writeTo(FloatBuffer.wrap(data));
+			array = data;
+			img = ArrayImgs.floats(data, storageDims);
+		} else if (tensor.dataType().equals(DataType.DOUBLE)) {
+			double[] data = new double[size];
+			tensor.writeTo(DoubleBuffer.wrap(data));
+			array = data;
+			img = ArrayImgs.doubles(data, storageDims);
+		} else if (tensor.dataType().equals(DataType.INT32)) {
+			int[] data = new int[size];
+			tensor.writeTo(IntBuffer.wrap(data));
+			array = data;
+			img = ArrayImgs.ints(data, storageDims);
+		} else if (tensor.dataType().equals(DataType.INT64)) {
+			long[] data = new long[size];
+			tensor.writeTo(LongBuffer.wrap(data));
+			array = data;
+			img = ArrayImgs.longs(data, storageDims);
+		} else {
+			return null;
+		}
+		long[] tensorStrides = new long[n];
+		long stride = 1;
+		for (int i = n - 1; i >= 0; i--) {
+			tensorStrides[i] = stride;
+			stride *= shape[i];
+		}
+		long[] strides = new long[n];
+		int[] storageDimOfImageDim = new int[n];
+		for (int d = 0; d < n; d++) {
+			strides[d] = tensorStrides[mapping[d]];
+			storageDimOfImageDim[d] = n - 1 - mapping[d];
+		}
+		RandomAccessibleInterval<?> view = permute(img, storageDimOfImageDim);
+		return new StridedArrayDataReference<>(view, dataType, array, strides, img.firstElement().getClass());
+	}
+
+	/**
+	 * @return a view in which dimension d corresponds to dimension {@code source[d]} of the given image
+	 */
+	private static <T> RandomAccessibleInterval<T> permute(RandomAccessibleInterval<T> img, int[] source) {
+		int[] current = new int[source.length];
+		for (int d = 0; d < current.length; d++) {
+			current[d] = d;
+		}
+		for (int d = 0; d < source.length; d++) {
+			int from = d;
+			while (current[from] != source[d]) from++;
+			if (from == d) continue;
+			img = Views.permute(img, from, d);
+			current[from] = current[d];
+			current[d] = source[d];
+		}
+		return img;
+	}
+
 	public static <T extends RealType<T>> Tensor imageToTensor(
 			RandomAccessibleInterval<T> image, final int[] mapping) {
 
-		Tensor tensor;
+		Tensor tensor = tensorFromArrays(image, mapping);
+		if (tensor != null) return tensor;
 		try {
 			tensor = Tensors.tensor(image, mapping);
 		} catch (IllegalArgumentException e) {
@@ -81,4 +174,133 @@ public class TensorFlowConverter {
 		}
 		return tensor;
 	}
+
+	/**
+	 * Creates a tensor from {@link ArrayImg}s and {@link PlanarImg}s of {@link FloatType} or {@link DoubleType}
+	 * by copying their storage arrays in bulk instead of iterating over the image pixel by pixel.
+	 * The mapping is applied as strided copy, if the storage order already matches the tensor
+	 * the storage array is passed to TensorFlow directly.
+	 *
+	 * @return null if the image is not backed by such arrays
+	 */
+	static Tensor tensorFromArrays(RandomAccessibleInterval<?> image, int[] mapping) {
+		List<Object> arrays = getStorageArrays(image);
+		int n = image.numDimensions();
+		if (arrays == null || n == 0 || mapping.length != n || Intervals.numElements(image) == 0) return null;
+		long[] dims = Intervals.dimensionsAsLongArray(image);
+		long[] shape = new long[n];
+		for (int d = 0; d < n; d++) {
+			shape[mapping[d]] = dims[d];
+		}
+		Object data = arrays.get(0);
+		if (arrays.size() > 1 || !isStorageOrder(mapping)) {
+			data = Array.newInstance(data.getClass().getComponentType(), (int) Intervals.numElements(image));
+			copyStrided(arrays, dims, shape, mapping, data);
+		}
+		if (data instanceof float[]) {
+			return Tensor.create(shape, FloatBuffer.wrap((float[]) data));
+		}
+		return Tensor.create(shape, DoubleBuffer.wrap((double[]) data));
+	}
+
+	private static List<Object> getStorageArrays(RandomAccessibleInterval<?> image) {
+		List<Object> res = new ArrayList<>();
+		if (image instanceof ArrayImg) {
+			res.add(((ArrayImg<?, ?>) image).update(null));
+		} else if (image instanceof PlanarImg) {
+			PlanarImg<?, ?> planarImg = (PlanarImg<?, ?>) image;
+			for (int i = 0; i < planarImg.numSlices(); i++) {
+				res.add(planarImg.getPlane(i));
+			}
+		} else {
+			return null;
+		}
+		Class<?> typeClass = ((Img<?>) image).firstElement().getClass();
+		for (int i = 0; i < res.size(); i++) {
+			if (!(res.get(i) instanceof ArrayDataAccess)) return null;
+			Object array = ((ArrayDataAccess<?>) res.get(i)).getCurrentStorageArray();
+			boolean isFloat = typeClass.equals(FloatType.class) && array instanceof float[];
+			boolean isDouble = typeClass.equals(DoubleType.class) && array instanceof double[];
+			if (!isFloat && !isDouble) return null;
+			res.set(i, array);
+		}
+		return res;
+	}
+
+	/**
+	 * @return whether the image dimensions are in reversed tensor order, meaning the first image dimension
+	 * is the last (fastest changing) tensor dimension, equal to the storage order of imglib2 images
+	 */
+	private static boolean isStorageOrder(int[] mapping) {
+		for (int d = 0; d < mapping.length; d++) {
+			if (mapping[d] != mapping.length - 1 - d) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the arrays of an image in imglib2 storage order into a tensor array,
+	 * line by line along the first image dimension. Singleton dimensions are skipped and
+	 * dimensions which are contiguous in both image and tensor are merged into longer lines,
+	 * as long as a line does not exceed one array.
+	 */
+	private static void copyStrided(List<Object> arrays, long[] dims, long[] shape, int[] mapping, Object target) {
+		long[] tensorStrides = new long[shape.length];
+		long stride = 1;
+		for (int i = shape.length - 1; i >= 0; i--) {
+			tensorStrides[i] = stride;
+			stride *= shape[i];
+		}
+		int arrayLength = Array.getLength(arrays.get(0));
+		List<long[]> lines = new ArrayList<>();
+		long elements = 1;
+		for (int d = 0; d < dims.length; d++) {
+			if (dims[d] == 1) continue;
+			long[] previous = lines.isEmpty() ? null : lines.get(lines.size() - 1);
+			long dimStride = tensorStrides[mapping[d]];
+			elements *= dims[d];
+			if (previous != null && previous[1] * previous[0] == dimStride && (lines.size() > 1 || elements <= arrayLength)) {
+				previous[0] *= dims[d];
+			} else {
+				lines.add(new long[]{dims[d], dimStride});
+			}
+		}
+		if (lines.isEmpty()) lines.add(new long[]{1, 1});
+		int n = lines.size();
+		int lineLength = (int) lines.get(0)[0];
+		int lineStride = (int) lines.get(0)[1];
+		long[] position = new long[n];
+		long targetIndex = 0;
+		for (Object array : arrays) {
+			for (int sourceIndex = 0; sourceIndex < arrayLength; sourceIndex += lineLength) {
+				copyLine(array, sourceIndex, target, (int) targetIndex, lineStride, lineLength);
+				for (int d = 1; d < n; d++) {
+					long[] line = lines.get(d);
+					position[d]++;
+					targetIndex += line[1];
+					if (position[d] < line[0]) break;
+					targetIndex -= line[1] * line[0];
+					position[d] = 0;
+				}
+			}
+		}
+	}
+
+	private static void copyLine(Object source, int sourceIndex, Object target, int targetIndex, int stride, int length) {
+		if (stride == 1) {
+			System.arraycopy(source, sourceIndex, target, targetIndex, length);
+		} else if (source instanceof float[]) {
+			float[] sourceArray = (float[]) source;
+			float[] targetArray = (float[]) target;
+			for (int i = 0; i < length; i++) {
+				targetArray[targetIndex + i * stride] = sourceArray[sourceIndex + i];
+			}
+		} else {
+			double[] sourceArray = (double[]) source;
+			double[] targetArray = (double[]) target;
+			for (int i = 0; i < length; i++) {
+				targetArray[targetIndex + i * stride] = sourceArray[sourceIndex + i];
+			}
+		}
+	}
 }
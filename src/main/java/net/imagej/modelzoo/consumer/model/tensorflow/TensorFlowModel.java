@@ -30,6 +30,7 @@
 package net.imagej.modelzoo.consumer.model.tensorflow;
 
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.TextFormat;
 import io.bioimage.specification.InputNodeSpecification;
 import io.bioimage.specification.ModelSpecification;
 import io.bioimage.specification.OutputNodeSpecification;
@@ -37,9 +38,12 @@ import io.bioimage.specification.weights.TensorFlowSavedModelBundleSpecification
 import io.scif.MissingLibraryException;
 import net.imagej.DatasetService;
 import net.imagej.modelzoo.consumer.DefaultSpecificationLoader;
+import net.imagej.modelzoo.consumer.metrics.PredictionMetrics;
 import net.imagej.modelzoo.consumer.model.DefaultModelZooModel;
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
 import net.imagej.modelzoo.consumer.model.ModelZooModel;
 import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
 import net.imagej.modelzoo.consumer.model.node.InputImageNode;
 import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
 import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
@@ -57,7 +61,9 @@ import org.scijava.log.LogService;
 import org.scijava.plugin.Attr;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
+import org.tensorflow.SavedModelBundle;
 import org.tensorflow.Tensor;
+import org.tensorflow.framework.ConfigProto;
 import org.tensorflow.framework.MetaGraphDef;
 import org.tensorflow.framework.SignatureDef;
 
@@ -88,6 +94,10 @@ public class TensorFlowModel extends DefaultModelZooModel {
 	private Context context;
 
 	private CachedModelBundle model;
+	private SavedModelBundle configuredModel;
+	private ModelLoadOptions loadOptions = ModelLoadOptions.options();
+	private PredictionMetrics metrics;
+	private ModelSpecification specification;
 	private SignatureDef sig;
 	private boolean tensorFlowLoaded = false;
 	// Same as
@@ -154,22 +164,55 @@ public class TensorFlowModel extends DefaultModelZooModel {
 		loadSignature();
 		inputNodes.clear();
 		if(!verifyOrFixSpecification(specification)) return;
+		this.specification = specification;
 		DefaultSpecificationLoader loader = new DefaultSpecificationLoader(context, specification, this);
 		loader.process();
 	}
 
+	@Override
+	public void reset() {
+		// the nodes and their processors hold data of the previous prediction and need to be rebuilt
+		if(specification == null) return;
+		new DefaultSpecificationLoader(context, specification, this).process();
+	}
+
+	@Override
+	public void setLoadOptions(ModelLoadOptions options) {
+		this.loadOptions = options;
+	}
+
 	private void loadSignature() throws InvalidProtocolBufferException {
-		sig = MetaGraphDef.parseFrom(model.model().metaGraphDef()).getSignatureDefOrThrow(
+		sig = MetaGraphDef.parseFrom(bundle().metaGraphDef()).getSignatureDefOrThrow(
 				DEFAULT_SERVING_SIGNATURE_DEF_KEY);
 		log.info("Model inputs: " + sig.getInputsMap().toString().replace("\n", " ").replace("\t", " "));
 		log.info("Model outputs: " + sig.getOutputsMap().toString().replace("\n", " ").replace("\t", " "));
 	}
 
 	private void loadModelFile(Location source, String modelName) throws IOException {
-		if (model != null) {
-			model.close();
+		closeModel();
+		if (loadOptions.values.isDefault()) {
+			model = tensorFlowService.loadCachedModel(source, modelName, MODEL_TAG);
+			return;
 		}
-		model = tensorFlowService.loadCachedModel(source, modelName, MODEL_TAG);
+		ConfigProto config = TensorFlowSessionLoader.createConfig(loadOptions.values);
+		log.info("TensorFlow session config: " + TextFormat.shortDebugString(config));
+		configuredModel = TensorFlowSessionLoader.load(source, config, MODEL_TAG);
+	}
+
+	private SavedModelBundle bundle() {
+		return configuredModel != null ? configuredModel : model.model();
+	}
+
+	/**
+	 * Closes the session loaded with custom options. Cached bundles are shared by all instances
+	 * of the same model and stay open until the {@link TensorFlowService} is disposed.
+	 */
+	private void closeModel() {
+		if (configuredModel != null) {
+			configuredModel.close();
+		}
+		model = null;
+		configuredModel = null;
 	}
 
 	private boolean verifyOrFixSpecification(ModelSpecification specification) {
@@ -204,19 +247,36 @@ public class TensorFlowModel extends DefaultModelZooModel {
 
 	@Override
 	public void predict() throws IllegalArgumentException, OutOfMemoryError {
-		List<Tensor<?>> inputTensors = getInputTensors();
+		List<Tensor<?>> inputTensors;
+		try (PredictionMetrics.Timer ignored = startTimer(PredictionMetrics.TENSOR_INPUT)) {
+			inputTensors = getInputTensors();
+		}
 		List<String> outputNames = getOutputNames();
-		List<Tensor<?>> outputTensors = TensorFlowRunner.executeGraph(
-				model.model(),
-				inputTensors,
-				getInputNames(),
-				outputNames);
+		List<Tensor<?>> outputTensors;
+		try (PredictionMetrics.Timer ignored = startTimer(PredictionMetrics.SESSION_RUN)) {
+			outputTensors = TensorFlowRunner.executeGraph(
+					bundle(),
+					inputTensors,
+					getInputNames(),
+					outputNames);
+		}
 
-		setOutputTensors(outputTensors);
+		try (PredictionMetrics.Timer ignored = startTimer(PredictionMetrics.TENSOR_OUTPUT)) {
+			setOutputTensors(outputTensors);
+		}
 		inputTensors.forEach(Tensor::close);
 		outputTensors.forEach(Tensor::close);
 	}
 
+	@Override
+	public void setMetrics(PredictionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	private PredictionMetrics.Timer startTimer(String stage) {
+		return metrics == null ? null : metrics.start(stage);
+	}
+
 	private List<Tensor<?>> getInputTensors() {
 		List<Tensor<?>> res = new ArrayList<>();
 		for (ModelZooNode<?> _node : getInputNodes()) {
@@ -254,8 +314,11 @@ public class TensorFlowModel extends DefaultModelZooModel {
 			Tensor tensor = tensors.get(i);
 			OutputImageNode node = (OutputImageNode) getOutputNodes().get(i);
 //			System.out.println(Arrays.toString(node.getMappingIndices()));
-			RandomAccessibleInterval<TO> output = TensorFlowConverter.tensorToImage(tensor, node.getMappingIndices());
-			node.setData(new DefaultImageDataReference(output, node.getData().getDataType()));
+			ImageDataReference output = TensorFlowConverter.tensorToDataReference(tensor, node.getMappingIndices(), (TO) node.getData().getDataType());
+			if (output == null) {
+				output = new DefaultImageDataReference(TensorFlowConverter.tensorToImage(tensor, node.getMappingIndices()), node.getData().getDataType());
+			}
+			node.setData(output);
 		}
 	}
 
@@ -266,6 +329,11 @@ public class TensorFlowModel extends DefaultModelZooModel {
 
 	@Override
 	public boolean isInitialized() {
+		return model != null || configuredModel != null;
+	}
+
+	@Override
+	public boolean isShared() {
 		return model != null;
 	}
 
@@ -274,6 +342,7 @@ public class TensorFlowModel extends DefaultModelZooModel {
 		super.dispose();
 		tensorFlowLoaded = false;
 		sig = null;
-		model = null;
+		specification = null;
+		closeModel();
 	}
 }
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.model.tensorflow;
+
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
+import org.apache.commons.io.FileUtils;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.framework.ConfigProto;
+import org.tensorflow.framework.GPUOptions;
+import org.tensorflow.framework.GraphOptions;
+import org.tensorflow.framework.OptimizerOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Loads a SavedModel bundle into a session configured by {@link ModelLoadOptions}.
+ * The cached bundles of the TensorFlowService cannot be configured, sessions loaded here are owned by the model.
+ */
+class TensorFlowSessionLoader {
+
+	private static final String SAVED_MODEL_FILE = "saved_model.pb";
+
+	static ConfigProto createConfig(ModelLoadOptions.Values options) {
+		ConfigProto.Builder config = ConfigProto.newBuilder();
+		config.setIntraOpParallelismThreads(options.intraOpThreads());
+		config.setInterOpParallelismThreads(options.interOpThreads());
+		config.setUsePerSessionThreads(options.perSessionThreads());
+		if(options.cpuDevices() > 0) config.putDeviceCount("CPU", options.cpuDevices());
+		OptimizerOptions.Builder optimizer = OptimizerOptions.newBuilder();
+		if(options.optimizerLevel() != null) {
+			optimizer.setOptLevel(options.optimizerLevel() > 0 ? OptimizerOptions.Level.L1 : OptimizerOptions.Level.L0);
+		}
+		if(options.xla() != null) {
+			optimizer.setGlobalJitLevel(options.xla() ? OptimizerOptions.GlobalJitLevel.ON_1 : OptimizerOptions.GlobalJitLevel.OFF);
+		}
+		config.setGraphOptions(GraphOptions.newBuilder().setOptimizerOptions(optimizer));
+		GPUOptions.Builder gpu = GPUOptions.newBuilder();
+		gpu.setAllowGrowth(options.gpuAllowGrowth());
+		gpu.setPerProcessGpuMemoryFraction(options.gpuMemoryFraction());
+		if(options.allocatorType() != null) gpu.setAllocatorType(options.allocatorType());
+		config.setGpuOptions(gpu);
+		return config.build();
+	}
+
+	/**
+	 * @param source a directory containing the SavedModel or a ZIP file of it
+	 */
+	static SavedModelBundle load(Location source, ConfigProto config, String... tags) throws IOException {
+		if(!(source instanceof FileLocation)) {
+			throw new IOException("Cannot load a configured TensorFlow session from " + source.getURI());
+		}
+		File file = ((FileLocation) source).getFile();
+		if(file.isDirectory()) return load(file.toPath(), config, tags);
+		Path dir = Files.createTempDirectory("modelzoo-savedmodel");
+		try {
+			unzip(file, dir);
+			return load(dir, config, tags);
+		} finally {
+			// the bundle is read completely when loading the session
+			FileUtils.deleteQuietly(dir.toFile());
+		}
+	}
+
+	private static SavedModelBundle load(Path dir, ConfigProto config, String... tags) throws IOException {
+		Path modelDir;
+		try (Stream<Path> files = Files.walk(dir)) {
+			Optional<Path> model = files.filter(path -> path.getFileName().toString().equals(SAVED_MODEL_FILE)).findFirst();
+			if(!model.isPresent()) throw new IOException("No " + SAVED_MODEL_FILE + " found in " + dir);
+			modelDir = model.get().getParent();
+		}
+		return SavedModelBundle.loader(modelDir.toString())
+				.withConfigProto(config.toByteArray())
+				.withTags(tags)
+				.load();
+	}
+
+	private static void unzip(File file, Path dir) throws IOException {
+		try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(file.toPath()))) {
+			ZipEntry entry;
+			while((entry = zip.getNextEntry()) != null) {
+				Path target = dir.resolve(entry.getName()).normalize();
+				if(!target.startsWith(dir)) throw new IOException("Invalid entry in " + file + ": " + entry.getName());
+				if(entry.isDirectory()) {
+					Files.createDirectories(target);
+				} else {
+					Files.createDirectories(target.getParent());
+					Files.copy(zip, target);
+				}
+			}
+		}
+	}
+}
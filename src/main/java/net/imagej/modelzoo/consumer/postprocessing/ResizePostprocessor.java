@@ -67,7 +67,7 @@ public class ResizePostprocessor implements NodeProcessor<TransformationSpecific
 		long[] expectedSize = new long[img.numDimensions()];
 		int[] mappingIndices = node.getMappingIndices();
 		for (int i = 0; i < img.numDimensions(); i++) {
-			Long newSize = getExpectedSize(mappingIndices[i]);
+			Long newSize = getExpectedSize(node, mappingIndices[i]);
 			if (newSize == null) expectedSize[i] = -1;
 			else expectedSize[i] = newSize;
 		}
@@ -77,7 +77,10 @@ public class ResizePostprocessor implements NodeProcessor<TransformationSpecific
 		return img;
 	}
 
-	private Long getExpectedSize(int mappingIndex) {
+	/**
+	 * @return size of the output axis with the given mapping index, computed from the actual size of the input
+	 */
+	public static Long getExpectedSize(OutputImageNode node, int mappingIndex) {
 		ModelZooAxis inAxis = node.getReference().getAxes().get(mappingIndex);
 		ModelZooAxis outAxis = node.getAxes().get(mappingIndex);
 		Long actual = inAxis.getActual();
@@ -0,0 +1,92 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.server;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.DefaultModelZooPrediction;
+import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import net.imagej.modelzoo.consumer.model.node.ImageNode;
+import net.imagej.modelzoo.consumer.model.prediction.DefaultPredictionOutput;
+import net.imagej.modelzoo.consumer.model.prediction.PredictionOutput;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.view.Views;
+import org.scijava.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Predicts images of several requests stacked along the batch axis of the model
+ * and splits the outputs into one {@link PredictionOutput} per request.
+ */
+class BatchedPrediction extends DefaultModelZooPrediction {
+
+	private final int batchSize;
+	private List<PredictionOutput> batchOutputs;
+
+	BatchedPrediction(Context context, int batchSize) {
+		super(context);
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	protected DefaultPredictionOutput createOutput(ModelZooModel model) {
+		List<DefaultPredictionOutput> outputs = new ArrayList<>();
+		for (int i = 0; i < batchSize; i++) {
+			outputs.add(new DefaultPredictionOutput());
+		}
+		model.getOutputNodes().forEach(node -> {
+			String name = legacyRenaming(node.getName());
+			if(!ImageNode.class.isAssignableFrom(node.getClass())) {
+				outputs.forEach(output -> output.put(name, node.getData()));
+				return;
+			}
+			ImageNode imageNode = (ImageNode) node;
+			RandomAccessibleInterval data = imageNode.getData().getData();
+			// the batch axis of the model is mapped to the time axis
+			int batchDim = Arrays.<AxisType>asList(imageNode.getDataAxesArray()).indexOf(Axes.TIME);
+			for (int i = 0; i < batchSize; i++) {
+				RandomAccessibleInterval slice = batchDim < 0 ? data : Views.hyperSlice(data, batchDim, data.min(batchDim) + i);
+				outputs.get(i).put(name, datasetService().create(slice));
+			}
+		});
+		batchOutputs = new ArrayList<>(outputs);
+		return super.createOutput(model);
+	}
+
+	/**
+	 * @return the outputs of each stacked image in the order of the stack, null if the prediction did not finish
+	 */
+	List<PredictionOutput> getBatchOutputs() {
+		return batchOutputs;
+	}
+}
@@ -0,0 +1,256 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.imagej.modelzoo.ModelZooArchive;
+import net.imagej.modelzoo.ModelZooService;
+import net.imagej.modelzoo.consumer.model.prediction.PredictionOutput;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.scijava.Context;
+import org.scijava.Disposable;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Minimal HTTP front-end of a {@link PredictionServer}, listening on the loopback interface.
+ * <p>
+ * {@code POST /predict?model=<archive>&axes=XY&shape=256,256[&output=<name>]} with the pixels of the image as big endian
+ * 32 bit floats (first dimension varying fastest) responds with the pixels of the output in the same format and its
+ * dimensions in the {@code X-Shape} header. The archive is opened via {@link ModelZooService#io()}, without
+ * {@code output} the first image output in alphabetical order is returned. Full queues are answered with 503.
+ */
+public class PredictionHttpServer implements Disposable {
+
+	@Parameter
+	private ModelZooService modelZooService;
+
+	@Parameter
+	private LogService log;
+
+	private final PredictionServer server;
+	private final Map<String, ModelZooArchive> archives = new HashMap<>();
+	private HttpServer httpServer;
+	private ExecutorService executor;
+
+	public PredictionHttpServer(PredictionServer server, Context context) {
+		this.server = server;
+		context.inject(this);
+	}
+
+	/**
+	 * @param port the port to listen on, 0 picks a free port, see {@link #getPort()}
+	 */
+	public synchronized void start(int port) throws IOException {
+		if(httpServer != null) throw new IllegalStateException("Server is already running on port " + getPort() + ".");
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/predict", this::handlePredict);
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "modelzoo-http");
+			thread.setDaemon(true);
+			return thread;
+		});
+		httpServer.setExecutor(executor);
+		httpServer.start();
+		log.info("Prediction server listening on port " + getPort() + ".");
+	}
+
+	public synchronized int getPort() {
+		return httpServer == null ? -1 : httpServer.getAddress().getPort();
+	}
+
+	@Override
+	public synchronized void dispose() {
+		if(httpServer == null) return;
+		httpServer.stop(0);
+		executor.shutdownNow();
+		httpServer = null;
+	}
+
+	private void handlePredict(HttpExchange exchange) throws IOException {
+		try {
+			if(!"POST".equals(exchange.getRequestMethod())) {
+				sendError(exchange, 405, "Use POST to request a prediction.");
+				return;
+			}
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			ModelZooArchive model = getArchive(getParameter(params, "model"));
+			long[] shape = parseShape(getParameter(params, "shape"));
+			Img<FloatType> input = ArrayImgs.floats(readFloats(exchange.getRequestBody(), shape), shape);
+			PredictionOutput output = server.submit(model, input, getParameter(params, "axes")).get();
+			RandomAccessibleInterval<? extends RealType<?>> image = getImageOutput(output, params.get("output"));
+			byte[] data = writeFloats(image);
+			exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			exchange.getResponseHeaders().set("X-Shape", joinShape(Intervals.dimensionsAsLongArray(image)));
+			exchange.sendResponseHeaders(200, data.length);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(data);
+			}
+		} catch (IllegalArgumentException e) {
+			sendError(exchange, 400, e.getMessage());
+		} catch (RejectedExecutionException e) {
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			sendError(exchange, 503, e.getMessage());
+		} catch (ExecutionException e) {
+			log.error(e.getCause());
+			sendError(exchange, 500, String.valueOf(e.getCause()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			sendError(exchange, 503, "Server is shutting down.");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private synchronized ModelZooArchive getArchive(String source) {
+		ModelZooArchive archive = archives.get(source);
+		if(archive != null) return archive;
+		try {
+			archive = modelZooService.io().open(source);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not open model " + source + ": " + e.getMessage());
+		}
+		archives.put(source, archive);
+		return archive;
+	}
+
+	private static RandomAccessibleInterval<? extends RealType<?>> getImageOutput(PredictionOutput output, String name) {
+		Map<String, Object> outputs = new TreeMap<>(output.asMap());
+		if(name != null) {
+			Object data = outputs.get(name);
+			if(!(data instanceof RandomAccessibleInterval)) throw new IllegalArgumentException("Model has no image output named " + name + ".");
+			return (RandomAccessibleInterval<? extends RealType<?>>) data;
+		}
+		for (Object data : outputs.values()) {
+			if(data instanceof RandomAccessibleInterval) return (RandomAccessibleInterval<? extends RealType<?>>) data;
+		}
+		throw new IllegalArgumentException("Model has no image output.");
+	}
+
+	private static float[] readFloats(InputStream in, long[] shape) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, read);
+		}
+		long count = Intervals.numElements(shape);
+		if(bytes.size() != count * Float.BYTES) {
+			throw new IllegalArgumentException("Expected " + count * Float.BYTES + " bytes for shape " + joinShape(shape) + ", got " + bytes.size() + ".");
+		}
+		float[] res = new float[(int) count];
+		ByteBuffer.wrap(bytes.toByteArray()).asFloatBuffer().get(res);
+		return res;
+	}
+
+	private static byte[] writeFloats(RandomAccessibleInterval<? extends RealType<?>> image) {
+		long count = Intervals.numElements(image);
+		if(count * Float.BYTES > Integer.MAX_VALUE) throw new IllegalArgumentException("Output is too large to be sent.");
+		ByteBuffer res = ByteBuffer.allocate((int) count * Float.BYTES);
+		for (RealType<?> pixel : Views.flatIterable(image)) {
+			res.putFloat(pixel.getRealFloat());
+		}
+		return res.array();
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> res = new HashMap<>();
+		if(query == null) return res;
+		for (String param : query.split("&")) {
+			int separator = param.indexOf('=');
+			if(separator < 0) continue;
+			res.put(URLDecoder.decode(param.substring(0, separator), "UTF-8"), URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+		}
+		return res;
+	}
+
+	private static String getParameter(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if(value == null || value.isEmpty()) throw new IllegalArgumentException("Missing parameter " + name + ".");
+		return value;
+	}
+
+	private static long[] parseShape(String shape) {
+		String[] dims = shape.split(",");
+		long[] res = new long[dims.length];
+		for (int i = 0; i < dims.length; i++) {
+			try {
+				res[i] = Long.parseLong(dims[i].trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid shape " + shape + ".");
+			}
+			if(res[i] < 1) throw new IllegalArgumentException("Invalid shape " + shape + ".");
+		}
+		return res;
+	}
+
+	private static String joinShape(long[] shape) {
+		StringBuilder res = new StringBuilder();
+		for (int i = 0; i < shape.length; i++) {
+			if(i > 0) res.append(',');
+			res.append(shape[i]);
+		}
+		return res.toString();
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] data = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, data.length);
+		try (OutputStream body = exchange.getResponseBody()) {
+			body.write(data);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.server;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.transformation.PercentileTransformation;
+import io.bioimage.specification.transformation.ScaleMinMaxTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import net.imagej.modelzoo.ModelZooArchive;
+import net.imagej.modelzoo.ModelZooModelPool;
+import net.imagej.modelzoo.ModelZooService;
+import net.imagej.modelzoo.consumer.ModelZooPredictionOptions;
+import net.imagej.modelzoo.consumer.model.prediction.PredictionOutput;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import org.scijava.Context;
+import org.scijava.Disposable;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs predictions for many callers within the same process. The models stay loaded in {@link ModelZooService#models()}
+ * between requests. Concurrent requests for the same model with images of the same size and axes are stacked along
+ * the batch axis of the model and predicted at once, up to {@link ModelZooPredictionOptions#batchSize(int)} images
+ * which arrived within {@link #setMaxLatency(long, TimeUnit)}. Each model has its own queue, requests exceeding
+ * {@link #setQueueCapacity(int)} are rejected.
+ */
+public class PredictionServer implements Disposable {
+
+	@Parameter
+	private Context context;
+
+	@Parameter
+	private ModelZooService modelZooService;
+
+	@Parameter
+	private LogService log;
+
+	private final Map<String, RequestBatcher<Request<?>>> batchers = new HashMap<>();
+	private ModelZooPredictionOptions options = ModelZooPredictionOptions.options();
+	private long maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(10);
+	private int queueCapacity = 64;
+	private boolean disposed = false;
+
+	private static class Request<T extends RealType<T> & NativeType<T>> {
+		final ModelZooArchive model;
+		final RandomAccessibleInterval<T> input;
+		final String axes;
+		final CompletableFuture<PredictionOutput> future = new CompletableFuture<>();
+
+		Request(ModelZooArchive model, RandomAccessibleInterval<T> input, String axes) {
+			this.model = model;
+			this.input = input;
+			this.axes = axes;
+		}
+
+		Object getBatchKey() {
+			return Arrays.asList(axes, Arrays.toString(Intervals.dimensionsAsLongArray(input)), Util.getTypeFromInterval(input).getClass());
+		}
+	}
+
+	public PredictionServer(Context context) {
+		context.inject(this);
+	}
+
+	/**
+	 * Queues the prediction of an image.
+	 *
+	 * @return the output of the prediction once it is done
+	 * @throws RejectedExecutionException if the queue of the model is full or the server has been disposed
+	 */
+	public <T extends RealType<T> & NativeType<T>> CompletableFuture<PredictionOutput> submit(ModelZooArchive model, RandomAccessibleInterval<T> input, String axes) {
+		Request<T> request = new Request<>(model, input, axes);
+		getBatcher(model).submit(request);
+		return request.future;
+	}
+
+	/**
+	 * The batch size only applies to models which have not been used yet.
+	 */
+	public void setOptions(ModelZooPredictionOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * @param maxLatency how long a request may wait for other requests to be predicted with
+	 */
+	public void setMaxLatency(long maxLatency, TimeUnit unit) {
+		this.maxLatencyNanos = unit.toNanos(maxLatency);
+	}
+
+	/**
+	 * @param queueCapacity how many requests can be queued per model before new requests are rejected
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @return the number of queued requests of all models
+	 */
+	public synchronized int getQueueSize() {
+		return batchers.values().stream().mapToInt(RequestBatcher::getQueueSize).sum();
+	}
+
+	/**
+	 * Stops accepting requests, queued requests are still predicted.
+	 */
+	@Override
+	public synchronized void dispose() {
+		disposed = true;
+		batchers.values().forEach(RequestBatcher::shutdown);
+		batchers.clear();
+	}
+
+	private synchronized RequestBatcher<Request<?>> getBatcher(ModelZooArchive model) {
+		if(disposed) throw new RejectedExecutionException("Prediction server has been disposed.");
+		return batchers.computeIfAbsent(getModelKey(model), key -> new RequestBatcher<>("modelzoo-server " + key,
+				Request::getBatchKey, this::predict, this::fail, options.values.batchSize(), maxLatencyNanos, TimeUnit.NANOSECONDS, queueCapacity));
+	}
+
+	private static String getModelKey(ModelZooArchive model) {
+		if(model.getLocation() == null) return String.valueOf(System.identityHashCode(model));
+		String key = ModelZooModelPool.getKey(model.getLocation());
+		return key != null ? key : model.getLocation().getURI().toString();
+	}
+
+	private void predict(List<Request<?>> batch) {
+		Request<?> first = batch.get(0);
+		if(batch.size() == 1 || !canBatch(first.model.getSpecification(), first.axes)) {
+			batch.forEach(this::predictSingle);
+			return;
+		}
+		try {
+			List<PredictionOutput> outputs = predictBatch(batch);
+			for (int i = 0; i < batch.size(); i++) {
+				batch.get(i).future.complete(outputs.get(i));
+			}
+		} catch (Exception | OutOfMemoryError e) {
+			log.error("Batched prediction of " + batch.size() + " images failed.", e);
+			batch.forEach(request -> request.future.completeExceptionally(e));
+		}
+	}
+
+	/**
+	 * Fails the requests of the batch which have not been answered yet.
+	 */
+	private void fail(List<Request<?>> batch, Throwable e) {
+		log.error("Prediction of " + batch.size() + " queued image(s) failed.", e);
+		batch.forEach(request -> request.future.completeExceptionally(e));
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void predictSingle(Request<T> request) {
+		try {
+			PredictionOutput output = modelZooService.predict(request.model, request.input, request.axes, options);
+			if(output == null) throw new IllegalStateException("Prediction failed, see log for details.");
+			request.future.complete(output);
+		} catch (Exception | OutOfMemoryError e) {
+			request.future.completeExceptionally(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends RealType<T> & NativeType<T>> List<PredictionOutput> predictBatch(List<Request<?>> batch) throws Exception {
+		List<RandomAccessibleInterval<T>> inputs = new ArrayList<>();
+		batch.forEach(request -> inputs.add(((Request<T>) request).input));
+		Request<?> first = batch.get(0);
+		BatchedPrediction prediction = new BatchedPrediction(context, batch.size());
+		prediction.setOptions(options);
+		prediction.setTrainedModel(first.model);
+		// the batch axis of the model is mapped to the time axis
+		prediction.setInput(first.model.getSpecification().getInputs().get(0).getName(), Views.stack(inputs), first.axes + "T");
+		prediction.run();
+		List<PredictionOutput> outputs = prediction.getBatchOutputs();
+		if(outputs == null) throw new IllegalStateException("Prediction failed, see log for details.");
+		return outputs;
+	}
+
+	/**
+	 * Images can only be stacked if the model has a single input with a batch axis and if none of the
+	 * transformations of the model is computed from the image content, e.g. percentile normalization.
+	 */
+	static boolean canBatch(ModelSpecification specification, String axes) {
+		if(specification.getExecutionModel() != null) return false;
+		if(specification.getInputs().size() != 1) return false;
+		if(axes.toUpperCase().contains("T")) return false;
+		InputNodeSpecification input = specification.getInputs().get(0);
+		if(input.getAxes() == null || !input.getAxes().toLowerCase().contains("b")) return false;
+		if(!isSampleIndependent(input.getPreprocessing())) return false;
+		for (OutputNodeSpecification output : specification.getOutputs()) {
+			if(!isSampleIndependent(output.getPostprocessing())) return false;
+		}
+		return true;
+	}
+
+	private static boolean isSampleIndependent(List<TransformationSpecification> transformations) {
+		if(transformations == null) return true;
+		for (TransformationSpecification transformation : transformations) {
+			if(transformation instanceof PercentileTransformation) return false;
+			if(transformation instanceof ScaleMinMaxTransformation) return false;
+			if(transformation instanceof ZeroMeanUnitVarianceTransformation) {
+				ZeroMeanUnitVarianceTransformation zeroMean = (ZeroMeanUnitVarianceTransformation) transformation;
+				if(zeroMean.getMean() == null || zeroMean.getStd() == null) return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Queues requests and hands them to a single dispatcher thread in batches. Requests with the same batch key
+ * are collected until the batch is full or the oldest request waited for the maximum latency.
+ * Requests with other keys stay queued in their order and are dispatched in later batches.
+ */
+final class RequestBatcher<R> {
+
+	private static class Entry<R> {
+		final R request;
+		final Object key;
+		final long queued = System.nanoTime();
+
+		Entry(R request, Object key) {
+			this.request = request;
+			this.key = key;
+		}
+	}
+
+	private final Deque<Entry<R>> queue = new ArrayDeque<>();
+	private final Function<R, Object> batchKey;
+	private final Consumer<List<R>> handler;
+	private final BiConsumer<List<R>, Throwable> failureHandler;
+	private final int maxBatchSize;
+	private final long maxLatencyNanos;
+	private final int capacity;
+	private final Thread dispatcher;
+	private boolean shutdown = false;
+
+	/**
+	 * @param batchKey requests with equal keys can be handled in one batch
+	 * @param handler handles a batch of requests
+	 * @param failureHandler called with the batch if the handler throws, e.g. to fail the requests which were not answered yet
+	 * @param capacity maximum number of queued requests, further requests are rejected
+	 */
+	RequestBatcher(String name, Function<R, Object> batchKey, Consumer<List<R>> handler, BiConsumer<List<R>, Throwable> failureHandler,
+			int maxBatchSize, long maxLatency, TimeUnit unit, int capacity) {
+		this.batchKey = batchKey;
+		this.handler = handler;
+		this.failureHandler = failureHandler;
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.maxLatencyNanos = unit.toNanos(maxLatency);
+		this.capacity = capacity;
+		dispatcher = new Thread(this::dispatch, name);
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * @throws RejectedExecutionException if the queue is full or the batcher has been shut down
+	 */
+	synchronized void submit(R request) {
+		if(shutdown) throw new RejectedExecutionException("Request batcher has been shut down.");
+		if(queue.size() >= capacity) throw new RejectedExecutionException("Request queue is full (" + capacity + " requests).");
+		queue.add(new Entry<>(request, batchKey.apply(request)));
+		notifyAll();
+	}
+
+	synchronized int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops accepting requests, already queued requests are still handled.
+	 */
+	synchronized void shutdown() {
+		shutdown = true;
+		notifyAll();
+	}
+
+	boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		dispatcher.join(Math.max(1, unit.toMillis(timeout)));
+		return !dispatcher.isAlive();
+	}
+
+	private void dispatch() {
+		while (true) {
+			List<R> batch;
+			try {
+				batch = nextBatch();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(batch == null) return;
+			try {
+				handler.accept(batch);
+			} catch (RuntimeException | Error e) {
+				failureHandler.accept(batch, e);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next batch, null if the batcher was shut down and all requests have been handled.
+	 */
+	private synchronized List<R> nextBatch() throws InterruptedException {
+		while (queue.isEmpty()) {
+			if(shutdown) return null;
+			wait();
+		}
+		Entry<R> first = queue.peekFirst();
+		long deadline = first.queued + maxLatencyNanos;
+		long remaining;
+		while (!shutdown && countCompatible(first.key) < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0) {
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		List<R> batch = new ArrayList<>();
+		Iterator<Entry<R>> iterator = queue.iterator();
+		while (iterator.hasNext() && batch.size() < maxBatchSize) {
+			Entry<R> entry = iterator.next();
+			if(!Objects.equals(entry.key, first.key)) continue;
+			batch.add(entry.request);
+			iterator.remove();
+		}
+		return batch;
+	}
+
+	private int countCompatible(Object key) {
+		int res = 0;
+		for (Entry<R> entry : queue) {
+			if(Objects.equals(entry.key, key)) res++;
+		}
+		return res;
+	}
+}
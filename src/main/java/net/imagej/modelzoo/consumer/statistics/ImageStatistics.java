@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.statistics;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Range, mean and standard deviation of an image, computed in one parallel pass. NaN values are ignored.
+ * Percentiles are computed when they are first requested and are kept for later requests.
+ */
+public class ImageStatistics {
+
+	private final long count;
+	private final float min;
+	private final float max;
+	private final double mean;
+	private final double std;
+	private final Map<Float, Float> percentiles = new HashMap<>();
+
+	private ImageStatistics(Moments moments) {
+		count = moments.count;
+		min = moments.min;
+		max = moments.max;
+		mean = moments.mean;
+		std = count == 0 ? Double.NaN : Math.sqrt(moments.m2 / count);
+	}
+
+	public static <T extends RealType<T>> ImageStatistics compute(RandomAccessibleInterval<T> img) {
+		List<Interval> chunks = Percentiles.createChunks(img);
+		Moments moments = new Moments();
+		Parallelization.getTaskExecutor().forEachApply(chunks, chunk -> moments(img, chunk)).forEach(moments::add);
+		return new ImageStatistics(moments);
+	}
+
+	/**
+	 * @param img the image these statistics were computed from, used to compute percentiles which were not requested before
+	 * @return the requested percentiles, see {@link Percentiles#compute(RandomAccessibleInterval, float...)}
+	 */
+	public synchronized <T extends RealType<T>> float[] getPercentiles(RandomAccessibleInterval<T> img, float... percentiles) {
+		List<Float> missing = new ArrayList<>();
+		for (float percentile : percentiles) {
+			if(!this.percentiles.containsKey(percentile) && !missing.contains(percentile)) missing.add(percentile);
+		}
+		if(!missing.isEmpty()) {
+			float[] requested = new float[missing.size()];
+			for (int i = 0; i < requested.length; i++) {
+				requested[i] = missing.get(i);
+			}
+			float[] values = Percentiles.compute(img, min, max, count, requested);
+			for (int i = 0; i < requested.length; i++) {
+				this.percentiles.put(requested[i], values[i]);
+			}
+		}
+		float[] res = new float[percentiles.length];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = this.percentiles.get(percentiles[i]);
+		}
+		return res;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public float getMin() {
+		return min;
+	}
+
+	public float getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return the population standard deviation
+	 */
+	public double getStd() {
+		return std;
+	}
+
+	private static <T extends RealType<T>> Moments moments(RandomAccessibleInterval<T> img, Interval chunk) {
+		Moments res = new Moments();
+		Cursor<T> cursor = Views.flatIterable(Views.interval(img, chunk)).cursor();
+		while(cursor.hasNext()) {
+			float v = cursor.next().getRealFloat();
+			if(Float.isNaN(v)) continue;
+			if(v < res.min) res.min = v;
+			if(v > res.max) res.max = v;
+			res.count++;
+			double delta = v - res.mean;
+			res.mean += delta / res.count;
+			res.m2 += delta * (v - res.mean);
+		}
+		return res;
+	}
+
+	private static class Moments {
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		long count = 0;
+		double mean = 0;
+		// sum of squared differences from the mean
+		double m2 = 0;
+
+		void add(Moments other) {
+			if(other.count == 0) return;
+			long total = count + other.count;
+			double delta = other.mean - mean;
+			mean += delta * other.count / total;
+			m2 += other.m2 + delta * delta * count * other.count / total;
+			count = total;
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+	}
+}
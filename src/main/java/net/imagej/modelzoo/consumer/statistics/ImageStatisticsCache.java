@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.statistics;
+
+import net.imagej.Dataset;
+import net.imagej.modelzoo.ModelZooService;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.PointwiseImageDataReference;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the {@link ImageStatistics} of prediction inputs so that normalizing the same data again,
+ * e.g. in repeated predictions or batch runs, does not compute them again.
+ * Datasets opened from a file are identified by the file and its modification time, other images by their instance.
+ * Statistics are kept per region of the image and per {@link PointwiseImageDataReference pointwise operation}
+ * the data was transformed with before.
+ */
+public class ImageStatisticsCache {
+
+	private final Map<String, Map<String, ImageStatistics>> byFile = new LinkedHashMap<String, Map<String, ImageStatistics>>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Map<String, ImageStatistics>> eldest) {
+			return size() > maxFiles;
+		}
+	};
+	private final Map<Object, Map<String, ImageStatistics>> byInstance = new WeakHashMap<>();
+	private int maxFiles = 1000;
+
+	/**
+	 * @return the cache of the service, or a new cache if no service is available
+	 */
+	public static ImageStatisticsCache of(ModelZooService modelZooService) {
+		if(modelZooService == null) return new ImageStatisticsCache();
+		return modelZooService.statistics();
+	}
+
+	/**
+	 * @return the statistics of the data, computed if they are not cached yet
+	 */
+	public <T extends RealType<T>> ImageStatistics get(ImageDataReference<?> data) {
+		RandomAccessibleInterval<T> img = (RandomAccessibleInterval<T>) data.getData();
+		Object source = img;
+		String variant = "";
+		if(data instanceof PointwiseImageDataReference) {
+			source = ((PointwiseImageDataReference<?>) data).getSource();
+			variant = ((PointwiseImageDataReference<?>) data).getOperation().toString();
+		}
+		return get(img, source, variant);
+	}
+
+	/**
+	 * @return the statistics of the image, computed if they are not cached yet
+	 */
+	public <T extends RealType<T>> ImageStatistics get(RandomAccessibleInterval<T> img) {
+		return get(img, img, "");
+	}
+
+	/**
+	 * Computes the percentiles of the data, see {@link ImageStatistics#getPercentiles(RandomAccessibleInterval, float...)}.
+	 */
+	public <T extends RealType<T>> float[] getPercentiles(ImageDataReference<?> data, float... percentiles) {
+		return get(data).getPercentiles((RandomAccessibleInterval<T>) data.getData(), percentiles);
+	}
+
+	public synchronized void clear() {
+		byFile.clear();
+		byInstance.clear();
+	}
+
+	public synchronized void setMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+	}
+
+	private <T extends RealType<T>> ImageStatistics get(RandomAccessibleInterval<T> img, Object source, String variant) {
+		String key = variant + Arrays.toString(Intervals.minAsLongArray(img)) + Arrays.toString(Intervals.maxAsLongArray(img));
+		return getEntries(source).computeIfAbsent(key, k -> ImageStatistics.compute(img));
+	}
+
+	private synchronized Map<String, ImageStatistics> getEntries(Object source) {
+		// a region of an image is identified by the image and the interval
+		while(source instanceof IntervalView) {
+			source = ((IntervalView<?>) source).getSource();
+		}
+		String fileKey = getFileKey(source);
+		if(fileKey != null) return byFile.computeIfAbsent(fileKey, k -> new ConcurrentHashMap<>());
+		return byInstance.computeIfAbsent(source, k -> new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * @return a key identifying the file the dataset was opened from and its modification time, null if the source is not a file
+	 */
+	private static String getFileKey(Object source) {
+		if(!(source instanceof Dataset)) return null;
+		String path = ((Dataset) source).getSource();
+		if(path == null) return null;
+		File file = new File(path);
+		if(!file.isFile()) return null;
+		return file.getAbsoluteFile().toURI() + "_" + file.lastModified();
+	}
+}
@@ -0,0 +1,374 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.consumer.statistics;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.parallel.Parallelization;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes percentiles of images of arbitrary size in bounded memory.
+ * The result is the same as sorting all (float) values and picking the value at index {@code round((n-1) * p / 100)}.
+ * Instead of sorting, the values are counted in histograms which are refined until the bin containing
+ * the requested rank is small enough to select the exact value from it. Each pass runs in parallel
+ * on chunks of the image which are aligned to the cells of cell images. NaN values are ignored,
+ * infinite values are counted but left out of the histograms.
+ */
+public final class Percentiles {
+
+	private static final int BINS = 1 << 16;
+	private static final int MAX_SELECTION_SIZE = 1 << 22;
+
+	private Percentiles() {
+	}
+
+	public static <T extends RealType<T>> float[] compute(RandomAccessibleInterval<T> img, float... percentiles) {
+		return compute(img, MAX_SELECTION_SIZE, percentiles);
+	}
+
+	static <T extends RealType<T>> float[] compute(RandomAccessibleInterval<T> img, int maxSelectionSize, float... percentiles) {
+		List<Interval> chunks = createChunks(img);
+		MinMax range = new MinMax();
+		Parallelization.getTaskExecutor().forEachApply(chunks, chunk -> minMax(img, chunk)).forEach(range::add);
+		return compute(img, chunks, range, maxSelectionSize, percentiles);
+	}
+
+	/**
+	 * Computes the percentiles of an image whose range and number of (non NaN) values are already known,
+	 * which saves the first pass over the image.
+	 */
+	static <T extends RealType<T>> float[] compute(RandomAccessibleInterval<T> img, float min, float max, long count, float... percentiles) {
+		// the number of infinite values is not known
+		if(Float.isInfinite(min) || Float.isInfinite(max)) return compute(img, percentiles);
+		MinMax range = new MinMax();
+		range.min = min;
+		range.max = max;
+		range.count = count;
+		return compute(img, createChunks(img), range, MAX_SELECTION_SIZE, percentiles);
+	}
+
+	private static <T extends RealType<T>> float[] compute(RandomAccessibleInterval<T> img, List<Interval> chunks, MinMax range, int maxSelectionSize, float... percentiles) {
+		float[] res = new float[percentiles.length];
+		if(range.count == 0) {
+			Arrays.fill(res, Float.NaN);
+			return res;
+		}
+		List<Target> targets = new ArrayList<>();
+		for (float percentile : percentiles) {
+			long rank = Math.round((range.count - 1) * (double) percentile / 100.);
+			Target target = new Target(Math.min(range.count - 1, Math.max(0, rank)), maxSelectionSize);
+			long finiteCount = range.count - range.negativeInfinite - range.positiveInfinite;
+			target.lo = range.min;
+			target.scale = BINS / ((double) range.max - range.min);
+			target.below = range.negativeInfinite;
+			target.count = finiteCount;
+			if(target.rank < range.negativeInfinite) target.done(Float.NEGATIVE_INFINITY);
+			else if(target.rank >= range.negativeInfinite + finiteCount) target.done(Float.POSITIVE_INFINITY);
+			else if(range.min == range.max) target.done(range.min);
+			target.collect = finiteCount <= maxSelectionSize;
+			targets.add(target);
+		}
+		while(targets.stream().anyMatch(target -> !target.done)) {
+			List<ChunkResult[]> results = Parallelization.getTaskExecutor().forEachApply(chunks, chunk -> process(img, chunk, targets));
+			for (int i = 0; i < targets.size(); i++) {
+				Target target = targets.get(i);
+				if(target.done) continue;
+				ChunkResult merged = target.collect ? ChunkResult.values((int) target.count) : ChunkResult.histogram();
+				for (ChunkResult[] result : results) {
+					merged.add(result[i]);
+				}
+				if(target.collect) {
+					target.done(select(merged.values, merged.size, (int) (target.rank - target.below)));
+				} else {
+					target.refine(merged);
+				}
+			}
+		}
+		for (int i = 0; i < res.length; i++) {
+			res[i] = targets.get(i).result;
+		}
+		return res;
+	}
+
+	/**
+	 * Computes the percentiles by copying all values into one array and selecting the requested ranks.
+	 * Only suitable for images with less than 2^31 pixels.
+	 */
+	public static <T extends RealType<T>> float[] computeBySelection(RandomAccessibleInterval<T> img, float... percentiles) {
+		long size = Intervals.numElements(img);
+		if(size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Image too large to compute percentiles by selection");
+		}
+		float[] values = new float[(int) size];
+		int count = 0;
+		for (T value : Views.flatIterable(img)) {
+			float v = value.getRealFloat();
+			if(!Float.isNaN(v)) values[count++] = v;
+		}
+		float[] res = new float[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++) {
+			if(count == 0) {
+				res[i] = Float.NaN;
+				continue;
+			}
+			long rank = Math.round((count - 1) * (double) percentiles[i] / 100.);
+			res[i] = select(values, count, (int) Math.min(count - 1, Math.max(0, rank)));
+		}
+		return res;
+	}
+
+	static List<Interval> createChunks(RandomAccessibleInterval<?> img) {
+		int n = img.numDimensions();
+		List<Interval> res = new ArrayList<>();
+		if(n == 0) {
+			res.add(img);
+			return res;
+		}
+		int dim = n - 1;
+		while(dim > 0 && img.dimension(dim) == 1) dim--;
+		long step = 1;
+		if(img instanceof AbstractCellImg) {
+			step = ((AbstractCellImg<?, ?, ?, ?>) img).getCellGrid().cellDimension(dim);
+		}
+		int tasks = Parallelization.getTaskExecutor().suggestNumberOfTasks();
+		long size = img.dimension(dim);
+		long perTask = (size + tasks - 1) / tasks;
+		long chunkSize = (perTask + step - 1) / step * step;
+		for (long start = 0; start < size; start += chunkSize) {
+			long[] min = Intervals.minAsLongArray(img);
+			long[] max = Intervals.maxAsLongArray(img);
+			min[dim] = img.min(dim) + start;
+			max[dim] = Math.min(img.max(dim), min[dim] + chunkSize - 1);
+			res.add(new FinalInterval(min, max));
+		}
+		return res;
+	}
+
+	private static <T extends RealType<T>> MinMax minMax(RandomAccessibleInterval<T> img, Interval chunk) {
+		MinMax res = new MinMax();
+		Cursor<T> cursor = Views.flatIterable(Views.interval(img, chunk)).cursor();
+		while(cursor.hasNext()) {
+			float v = cursor.next().getRealFloat();
+			if(Float.isNaN(v)) continue;
+			res.count++;
+			if(v == Float.NEGATIVE_INFINITY) res.negativeInfinite++;
+			else if(v == Float.POSITIVE_INFINITY) res.positiveInfinite++;
+			else {
+				if(v < res.min) res.min = v;
+				if(v > res.max) res.max = v;
+			}
+		}
+		return res;
+	}
+
+	private static <T extends RealType<T>> ChunkResult[] process(RandomAccessibleInterval<T> img, Interval chunk, List<Target> targets) {
+		ChunkResult[] res = new ChunkResult[targets.size()];
+		for (int i = 0; i < res.length; i++) {
+			Target target = targets.get(i);
+			if(!target.done) res[i] = target.collect ? ChunkResult.values(1024) : ChunkResult.histogram();
+		}
+		Cursor<T> cursor = Views.flatIterable(Views.interval(img, chunk)).cursor();
+		while(cursor.hasNext()) {
+			float v = cursor.next().getRealFloat();
+			if(Float.isNaN(v) || Float.isInfinite(v)) continue;
+			for (int i = 0; i < res.length; i++) {
+				Target target = targets.get(i);
+				if(target.done || !target.contains(v)) continue;
+				ChunkResult result = res[i];
+				if(target.collect) {
+					result.addValue(v);
+				} else {
+					result.histogram[binIndex(v, target.lo, target.scale)]++;
+					if(v < result.min) result.min = v;
+					if(v > result.max) result.max = v;
+				}
+			}
+		}
+		return res;
+	}
+
+	private static int binIndex(float v, double lo, double scale) {
+		double position = (v - lo) * scale;
+		if(position < 0) return 0;
+		if(position >= BINS) return BINS - 1;
+		return (int) position;
+	}
+
+	/**
+	 * Partially sorts the first {@code size} values until the value at index {@code k} is in place and returns it.
+	 */
+	static float select(float[] values, int size, int k) {
+		int left = 0;
+		int right = size - 1;
+		while(right > left) {
+			int mid = (left + right) >>> 1;
+			if(values[mid] < values[left]) swap(values, mid, left);
+			if(values[right] < values[left]) swap(values, right, left);
+			if(values[right] < values[mid]) swap(values, right, mid);
+			float pivot = values[mid];
+			int i = left;
+			int j = right;
+			while(i <= j) {
+				while(values[i] < pivot) i++;
+				while(values[j] > pivot) j--;
+				if(i <= j) swap(values, i++, j--);
+			}
+			if(k <= j) right = j;
+			else if(k >= i) left = i;
+			else break;
+		}
+		return values[k];
+	}
+
+	private static void swap(float[] values, int i, int j) {
+		float tmp = values[i];
+		values[i] = values[j];
+		values[j] = tmp;
+	}
+
+	/**
+	 * The range of the finite values, the count includes infinite values.
+	 */
+	private static class MinMax {
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		long count = 0;
+		long negativeInfinite = 0;
+		long positiveInfinite = 0;
+
+		void add(MinMax other) {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+			count += other.count;
+			negativeInfinite += other.negativeInfinite;
+			positiveInfinite += other.positiveInfinite;
+		}
+	}
+
+	private static class Target {
+		final long rank;
+		final int maxSelectionSize;
+		// the nested histogram bins containing the requested rank, as {lo, scale, index}
+		final List<double[]> bins = new ArrayList<>();
+		double lo;
+		double scale;
+		long below = 0;
+		long count;
+		boolean collect;
+		boolean done = false;
+		float result;
+
+		Target(long rank, int maxSelectionSize) {
+			this.rank = rank;
+			this.maxSelectionSize = maxSelectionSize;
+		}
+
+		boolean contains(float v) {
+			for (double[] bin : bins) {
+				if(binIndex(v, bin[0], bin[1]) != (int) bin[2]) return false;
+			}
+			return true;
+		}
+
+		void done(float result) {
+			this.result = result;
+			done = true;
+		}
+
+		void refine(ChunkResult merged) {
+			if(merged.min == merged.max) {
+				done(merged.min);
+				return;
+			}
+			int index = 0;
+			long cumulated = below;
+			while(cumulated + merged.histogram[index] <= rank) {
+				cumulated += merged.histogram[index];
+				index++;
+			}
+			below = cumulated;
+			count = merged.histogram[index];
+			bins.add(new double[]{lo, scale, index});
+			double newLo = lo + index / scale;
+			double newHi = lo + (index + 1) / scale;
+			lo = newLo;
+			scale = BINS / (newHi - newLo);
+			collect = count <= maxSelectionSize;
+		}
+	}
+
+	private static class ChunkResult {
+		long[] histogram;
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		float[] values;
+		int size = 0;
+
+		static ChunkResult histogram() {
+			ChunkResult res = new ChunkResult();
+			res.histogram = new long[BINS];
+			return res;
+		}
+
+		static ChunkResult values(int capacity) {
+			ChunkResult res = new ChunkResult();
+			res.values = new float[Math.max(1, capacity)];
+			return res;
+		}
+
+		void addValue(float v) {
+			if(size == values.length) values = Arrays.copyOf(values, values.length * 2);
+			values[size++] = v;
+		}
+
+		void add(ChunkResult other) {
+			if(values != null) {
+				for (int i = 0; i < other.size; i++) {
+					addValue(other.values[i]);
+				}
+			} else {
+				for (int i = 0; i < histogram.length; i++) {
+					histogram[i] += other.histogram[i];
+				}
+				min = Math.min(min, other.min);
+				max = Math.max(max, other.max);
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.modelzoo.io.chunked.ChunkedDataset;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes output tiles into the chunks of a {@link ChunkedDataset}. A tile matching a chunk is written as is, other tiles
+ * are copied into the chunks they intersect, which are written as soon as they are complete.
+ * Parts of the tiles outside of the dataset are ignored.
+ * Chunks are compressed and written on separate threads, the number of chunks waiting to be written is bounded.
+ */
+class ChunkWriter<T extends RealType<T> & NativeType<T>> {
+
+	private static class PartialChunk<T> {
+		final RandomAccessibleInterval<T> data;
+		long missingVoxels;
+
+		PartialChunk(RandomAccessibleInterval<T> data) {
+			this.data = data;
+			missingVoxels = Intervals.numElements(data);
+		}
+	}
+
+	private final ChunkedDataset<T> dataset;
+	private final CellGrid grid;
+	private final Interval bounds;
+	private final int threads;
+	private final ThreadPoolExecutor executor;
+	private final Semaphore pendingChunks;
+	private final Map<Long, PartialChunk<T>> partialChunks = new HashMap<>();
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+	ChunkWriter(ChunkedDataset<T> dataset) {
+		this.dataset = dataset;
+		this.grid = dataset.getGrid();
+		bounds = new FinalInterval(dataset.getDimensions());
+		threads = Runtime.getRuntime().availableProcessors();
+		executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "modelzoo-chunk-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		pendingChunks = new Semaphore(2 * threads);
+	}
+
+	ChunkedDataset<T> getDataset() {
+		return dataset;
+	}
+
+	/**
+	 * @return an image in memory covering the given interval of the output, to be passed to {@link #write(RandomAccessibleInterval)}
+	 */
+	RandomAccessibleInterval<T> createTile(Interval interval) {
+		return Views.translate(new ArrayImgFactory<>(dataset.getType()).create(interval), Intervals.minAsLongArray(interval));
+	}
+
+	/**
+	 * Writes the tile into the chunks it intersects. Has to be called from one thread at a time.
+	 * The tile must not be modified afterwards.
+	 */
+	void write(RandomAccessibleInterval<T> tile) throws IOException {
+		checkFailure();
+		Interval interval = Intervals.intersect(tile, bounds);
+		if(Intervals.isEmpty(interval)) return;
+		int n = interval.numDimensions();
+		long[] min = new long[n];
+		long[] max = new long[n];
+		for (int d = 0; d < n; d++) {
+			min[d] = interval.min(d) / grid.cellDimension(d);
+			max[d] = interval.max(d) / grid.cellDimension(d);
+		}
+		LocalizingIntervalIterator chunks = new LocalizingIntervalIterator(min, max);
+		long[] chunkPosition = new long[n];
+		while(chunks.hasNext()) {
+			chunks.fwd();
+			chunks.localize(chunkPosition);
+			Interval chunkInterval = dataset.getChunkInterval(chunkPosition);
+			if(Intervals.equals(chunkInterval, interval)) {
+				submit(chunkPosition.clone(), Views.interval(tile, interval));
+				continue;
+			}
+			long index = IntervalIndexer.positionToIndex(chunkPosition, grid.getGridDimensions());
+			PartialChunk<T> chunk = partialChunks.computeIfAbsent(index, i -> new PartialChunk<>(createTile(chunkInterval)));
+			Interval intersection = Intervals.intersect(chunkInterval, interval);
+			LoopBuilder.setImages(Views.interval(tile, intersection), Views.interval(chunk.data, intersection)).forEachPixel((in, out) -> out.set(in));
+			chunk.missingVoxels -= Intervals.numElements(intersection);
+			if(chunk.missingVoxels <= 0) {
+				partialChunks.remove(index);
+				submit(chunkPosition.clone(), chunk.data);
+			}
+		}
+	}
+
+	/**
+	 * Writes the chunks which were only written partially and waits until all chunks are written.
+	 */
+	void finish() throws IOException {
+		long[] chunkPosition = new long[grid.numDimensions()];
+		for (Map.Entry<Long, PartialChunk<T>> entry : partialChunks.entrySet()) {
+			IntervalIndexer.indexToPosition(entry.getKey(), grid.getGridDimensions(), chunkPosition);
+			submit(chunkPosition.clone(), entry.getValue().data);
+		}
+		partialChunks.clear();
+		try {
+			pendingChunks.acquire(2 * threads);
+			pendingChunks.release(2 * threads);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing chunks into " + dataset.getDirectory());
+		}
+		checkFailure();
+	}
+
+	private void submit(long[] chunkPosition, RandomAccessibleInterval<T> data) throws IOException {
+		try {
+			pendingChunks.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing chunks into " + dataset.getDirectory());
+		}
+		executor.execute(() -> {
+			try {
+				dataset.writeChunk(chunkPosition, Views.zeroMin(data));
+			} catch (IOException e) {
+				failure.compareAndSet(null, e);
+			} catch (RuntimeException e) {
+				failure.compareAndSet(null, new IOException(e));
+			} finally {
+				pendingChunks.release();
+			}
+		});
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure.get();
+		if(e != null) throw new IOException("Could not write chunk into " + dataset.getDirectory(), e);
+	}
+}
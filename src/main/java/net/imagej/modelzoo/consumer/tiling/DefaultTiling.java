@@ -32,12 +32,19 @@ package net.imagej.modelzoo.consumer.tiling;
 import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
 import net.imagej.modelzoo.consumer.model.node.InputImageNode;
 import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imagej.modelzoo.io.chunked.OutputSink;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DefaultTiling {
 
@@ -45,8 +52,15 @@ public class DefaultTiling {
 	private final List<OutputImageNode> outputNodes;
 	private final int defaultHalo = 32;
 	private Path cacheDir;
+	private OutputSink outputSink;
 	private int tilesNum = 1;
 	private int batchSize = 10;
+	private long memoryBudget = 0;
+	private String checkpointKey = null;
+	private Logger log = new StderrLogService();
+	private long[] tilesPerDim = null;
+	private final Map<OutputImageNode, PointwiseOperation> postprocessing = new HashMap<>();
+	private final Map<OutputImageNode, RealType<?>> postprocessedTypes = new HashMap<>();
 
 	private final ImageDataReference<?> originalData;
 	private TiledImageDataReference<?> tiledDataReference;
@@ -70,7 +84,7 @@ public class DefaultTiling {
 
 	public boolean hasTilesLeft() {
 //		return arrayProduct(Intervals.dimensionsAsLongArray(tiledInputView)) > doneTileCount;
-		return tiledDataReference.getTiledOutputs().get(0).tiledOutputViewCursor.hasNext();
+		return tiledDataReference.hasNextOutputTile();
 	}
 
 	public void resolveCurrentTile() {
@@ -78,7 +92,53 @@ public class DefaultTiling {
 		tiledDataReference.resolveCurrentTile(newData);
 	}
 
-	private List<ImageDataReference<?>> getCurrentOutputData() {
+	/**
+	 * Writes the given output data into the next output tile. Has to be called
+	 * in the same order in which the tiles were assigned.
+	 */
+	public void resolveTile(List<ImageDataReference<?>> outputData) {
+		tiledDataReference.resolveCurrentTile(outputData);
+	}
+
+	public boolean hasInputTilesLeft() {
+		return tiledDataReference.hasNextInputTile();
+	}
+
+	/**
+	 * Advances to the next input tile and copies it into memory, independent of the input node.
+	 * The copy can be assigned to the input node later on via {@link #assignTile(ImageDataReference)}.
+	 */
+	public ImageDataReference<?> prepareNextTile() {
+		return tiledDataReference.copyNextInputTile();
+	}
+
+	/**
+	 * Advances to the next input tile and copies it into memory. Can be called from multiple threads,
+	 * each prediction has to be written back via {@link #resolveTiles(List, List)} with the same tile indices.
+	 *
+	 * @param tileIndices filled with the indices of the copied tiles
+	 * @return the copied tile (or tiles stacked along the batch axis), null if there are no tiles left
+	 */
+	public ImageDataReference<?> prepareNextTile(List<Long> tileIndices) {
+		tileIndices.addAll(tiledDataReference.takeNextInputTiles());
+		if(tileIndices.isEmpty()) return null;
+		return tiledDataReference.copyInputTiles(tileIndices);
+	}
+
+	/**
+	 * Writes the given output data into the output tiles with the given indices, in any order.
+	 */
+	public synchronized void resolveTiles(List<Long> tileIndices, List<ImageDataReference<?>> outputData) {
+		tiledDataReference.resolveTiles(tileIndices, outputData);
+		doneTileCount += tileIndices.size();
+	}
+
+	public void assignTile(ImageDataReference<?> tile) {
+		inputNode.setData(tile);
+		doneTileCount += tiledDataReference.getTileCount(tile);
+	}
+
+	public List<ImageDataReference<?>> getCurrentOutputData() {
 		List<ImageDataReference<?>> newData = new ArrayList<>();
 		for (OutputImageNode outputNode : outputNodes) {
 			newData.add(outputNode.getData());
@@ -94,15 +154,72 @@ public class DefaultTiling {
 		this.batchSize = batchSize;
 	}
 
+	/**
+	 * @param tilesPerDim number of tiles along each dimension of the input, e.g. from {@link TilingPlanner.Plan#getTiling()}.
+	 *                    Overrides {@link #setNumberOfTiles(int)}, null restores it.
+	 */
+	public void setTiling(long[] tilesPerDim) {
+		this.tilesPerDim = tilesPerDim;
+	}
+
+	/**
+	 * @param memoryBudget Number of bytes which can be used for stacking multiple tiles into one prediction (0 = one tile per prediction)
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Enables storing finished tiles in the cache directory, so that a prediction with the same
+	 * model, input and tiling parameters can continue where a previous one stopped.
+	 *
+	 * @param modelKey identifies the model, null disables checkpoints
+	 */
+	public void setCheckpointKey(String modelKey) {
+		this.checkpointKey = modelKey;
+	}
+
+	/**
+	 * Applies the operation to the predicted tiles of the output while they are written into the output image,
+	 * which is created with the given type instead of the predicted type.
+	 */
+	public void setPostprocessing(OutputImageNode outputNode, PointwiseOperation operation, RealType<?> type) {
+		postprocessing.put(outputNode, operation);
+		postprocessedTypes.put(outputNode, type);
+	}
+
+	/**
+	 * Writes the output tiles into datasets created by the sink instead of caching them on disk.
+	 * The outputs are read back from these datasets once the prediction is finished.
+	 */
+	public void setOutputSink(OutputSink outputSink) {
+		this.outputSink = outputSink;
+	}
+
+	/**
+	 * @param log receives warnings and status messages of the tiling, e.g. about checkpoints
+	 */
+	public void setLogger(Logger log) {
+		this.log = log;
+	}
+
 	public void init() {
 		//TODO check if tilesNum / batchSize works?!
 		resetTileCount();
 		inputNode.setData(originalData);
 		tiledDataReference = new TiledImageDataReference<>(inputNode, outputNodes, inputNode.getData(), getCurrentOutputData(), cacheDir);
-		tiledDataReference.createTiledInputView(batchSize, defaultHalo, tilesNum);
+		tiledDataReference.setOutputSink(outputSink);
+		tiledDataReference.setLogger(log);
+		postprocessing.forEach((node, operation) -> tiledDataReference.setPostprocessing(node, operation, postprocessedTypes.get(node)));
+		tiledDataReference.createTiledInputView(batchSize, defaultHalo, tilesNum, tilesPerDim);
 		long[] tiles = Intervals.dimensionsAsLongArray(tiledDataReference.getTiledInputView());
 		tilesNum = (int) arrayProduct(tiles);
 		tiledDataReference.createTiledOutputView();
+		tiledDataReference.computeTilesPerBatch(memoryBudget);
+		if(checkpointKey != null) {
+			tiledDataReference.openCheckpoint(checkpointKey);
+			doneTileCount = tiledDataReference.getRestoredTileCount();
+		}
 	}
 
 	private static long arrayProduct(long[] array) {
@@ -113,7 +230,7 @@ public class DefaultTiling {
 		return rtn;
 	}
 
-	public int getDoneTileCount() {
+	public synchronized int getDoneTileCount() {
 		return doneTileCount;
 	}
 
@@ -122,8 +239,7 @@ public class DefaultTiling {
 	}
 
 	public void assignNextTile() {
-		tiledDataReference.assignNextTile();
-		doneTileCount++;
+		doneTileCount += tiledDataReference.assignNextTile();
 	}
 
 	public int getTilesNum() {
@@ -134,19 +250,56 @@ public class DefaultTiling {
 		return batchSize;
 	}
 
+	public int getTilesPerBatch() {
+		return tiledDataReference.getTilesPerBatch();
+	}
+
+	/**
+	 * @return the number of tiles restored from a checkpoint instead of being predicted
+	 */
+	public int getRestoredTileCount() {
+		return tiledDataReference == null ? 0 : tiledDataReference.getRestoredTileCount();
+	}
+
+	/**
+	 * @return the number of tiles written into the output so far, including tiles restored from a checkpoint
+	 */
+	public long getResolvedTileCount() {
+		return tiledDataReference == null ? 0 : tiledDataReference.getResolvedTileCount();
+	}
+
+	/**
+	 * @return the size of the files the tiled output is cached in
+	 */
+	public long getDiskCacheBytes() {
+		return tiledDataReference == null ? 0 : tiledDataReference.getDiskCacheBytes();
+	}
+
 	public void resetInputData() {
 		inputNode.setData(originalData);
 	}
 
+	/**
+	 * Deletes the temporary files the outputs are cached in, the outputs cannot be accessed afterwards.
+	 */
 	public void dispose() {
-//		if(outputData != null) outputData.shutdown();
+		if(tiledDataReference != null) tiledDataReference.dispose();
 	}
 
 	public long getTilesTotalCount() {
 		return tiledDataReference.getTilesTotalCount();
 	}
 
+	/**
+	 * @return voxels predicted in addition to the input voxels (halo and expansion to the tile grid), relative to the number of input voxels,
+	 * NaN if tiles were restored from a checkpoint
+	 */
+	public double getComputeOverhead() {
+		return tiledDataReference.getComputeOverhead();
+	}
+
 	public void finish() {
 		tiledDataReference.assignFullOutput();
+		tiledDataReference.deleteCheckpoint();
 	}
 }
@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imglib2.cache.img.CachedCellImg;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tiling for predictions which are computed on demand. Instead of iterating over all tiles, each output
+ * becomes a {@link CachedCellImg} with one cell per output tile. A cell is computed by predicting the
+ * corresponding input tile (including its halo) the first time it is accessed.
+ */
+public class LazyTiling {
+
+	private final InputImageNode inputNode;
+	private final List<OutputImageNode> outputNodes;
+	private final int defaultHalo = 32;
+	private int tilesNum = 1;
+	private int batchSize = 10;
+	private int maxCachedTiles = 64;
+	private Logger log = new StderrLogService();
+
+	private TiledImageDataReference<?> tiledDataReference;
+
+	public LazyTiling(InputImageNode tilingInput, List<OutputImageNode> tilingOutputs) {
+		this.inputNode = tilingInput;
+		this.outputNodes = tilingOutputs;
+	}
+
+	public void setNumberOfTiles(int nTiles) {
+		tilesNum = nTiles;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param maxCachedTiles How many computed cells of each output are kept in memory
+	 */
+	public void setMaxCachedTiles(int maxCachedTiles) {
+		this.maxCachedTiles = maxCachedTiles;
+	}
+
+	public void setLogger(Logger log) {
+		this.log = log;
+	}
+
+	/**
+	 * Predicts the first tile to determine the output data types and assigns the lazily computed images to the output nodes.
+	 */
+	public void init(TilePredictor predictor) throws Exception {
+		List<ImageDataReference<?>> outputData = new ArrayList<>();
+		for (OutputImageNode outputNode : outputNodes) {
+			outputData.add(outputNode.getData());
+		}
+		tiledDataReference = new TiledImageDataReference<>(inputNode, outputNodes, inputNode.getData(), outputData, null);
+		tiledDataReference.setLogger(log);
+		tiledDataReference.createTiledInputView(batchSize, defaultHalo, tilesNum, null);
+		tiledDataReference.createLazyOutputs(predictor, maxCachedTiles);
+		tiledDataReference.assignFullOutput();
+	}
+
+	public long getTilesTotalCount() {
+		return tiledDataReference.getTilesTotalCount();
+	}
+}
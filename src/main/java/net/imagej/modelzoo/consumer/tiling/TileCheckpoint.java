@@ -0,0 +1,282 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import com.google.gson.Gson;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.scijava.log.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+/**
+ * Keeps the predicted output of each finished tile in a subdirectory of the cache directory,
+ * together with a log of the finished tiles and the hashes of their input. A prediction with the same key
+ * can restore these tiles instead of predicting them again, as long as their input did not change.
+ */
+public class TileCheckpoint {
+
+	static final String DIRECTORY = "checkpoint";
+	private static final String MANIFEST = "manifest.json";
+	private static final String COMPLETED_TILES = "tiles.txt";
+
+	private static class Manifest {
+		String key;
+		int precision;
+	}
+
+	private final Path directory;
+	private final Manifest manifest;
+	private final Logger log;
+	private final Set<Long> restoredTiles;
+
+	/**
+	 * Opens the checkpoint in the given cache directory. If the existing checkpoint was written
+	 * with a different key, it is discarded. Finished tiles are only restored if the stored hash
+	 * of their input matches the current one.
+	 *
+	 * @param precision 32 or 64, the number of bits used to store each output value
+	 * @param inputHashes computes the hash of the current input of a tile, see {@link #hash(RandomAccessibleInterval)}
+	 */
+	public TileCheckpoint(Path cacheDir, String key, int precision, LongFunction<String> inputHashes, Logger log) throws IOException {
+		directory = cacheDir.resolve(DIRECTORY);
+		this.log = log;
+		Manifest existing = readManifest();
+		Map<Long, String> completed = new LinkedHashMap<>();
+		if(existing != null && key.equals(existing.key) && existing.precision == precision) {
+			manifest = existing;
+			readCompletedTiles().forEach((tile, hash) -> {
+				if(hash.equals(inputHashes.apply(tile))) completed.put(tile, hash);
+			});
+		} else {
+			delete();
+			manifest = new Manifest();
+			manifest.key = key;
+			manifest.precision = precision;
+		}
+		Files.createDirectories(directory);
+		writeManifest();
+		// drops tiles with changed input and incomplete lines, new tiles are appended afterwards
+		writeCompletedTiles(completed);
+		restoredTiles = Collections.unmodifiableSet(completed.keySet());
+	}
+
+	/**
+	 * @return the tiles which were finished in a previous run
+	 */
+	public Set<Long> getRestoredTiles() {
+		return restoredTiles;
+	}
+
+	public boolean isRestored(long tile) {
+		return restoredTiles.contains(tile);
+	}
+
+	/**
+	 * Reads the stored data of a finished tile into the given image.
+	 */
+	public <T extends RealType<T>> void restore(long tile, int output, RandomAccessibleInterval<T> target) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getTileFile(tile, output))))) {
+			for (T pixel : Views.flatIterable(target)) {
+				pixel.setReal(manifest.precision == 32 ? in.readFloat() : in.readDouble());
+			}
+		}
+	}
+
+	/**
+	 * Stores the output data of a finished tile and appends it to the log of finished tiles,
+	 * after the data has been written to disk.
+	 *
+	 * @param inputHash hash of the input of the tile
+	 */
+	public synchronized void save(long tile, String inputHash, List<RandomAccessibleInterval<? extends RealType<?>>> outputs) throws IOException {
+		for (int i = 0; i < outputs.size(); i++) {
+			File file = getTileFile(tile, i).toFile();
+			try (FileOutputStream stream = new FileOutputStream(file)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+				Cursor<? extends RealType<?>> cursor = Views.flatIterable(outputs.get(i)).cursor();
+				while (cursor.hasNext()) {
+					double value = cursor.next().getRealDouble();
+					if (manifest.precision == 32) out.writeFloat((float) value);
+					else out.writeDouble(value);
+				}
+				out.flush();
+				stream.getFD().sync();
+			}
+		}
+		try (FileOutputStream stream = new FileOutputStream(directory.resolve(COMPLETED_TILES).toFile(), true)) {
+			stream.write((tile + " " + inputHash + "\n").getBytes(StandardCharsets.UTF_8));
+			stream.getFD().sync();
+		}
+	}
+
+	/**
+	 * Removes the checkpoint, e.g. after all tiles are finished.
+	 */
+	public void delete() throws IOException {
+		File[] files = directory.toFile().listFiles();
+		if(files == null) return;
+		for (File file : files) {
+			Files.delete(file.toPath());
+		}
+	}
+
+	private Path getTileFile(long tile, int output) {
+		return directory.resolve("tile-" + tile + "-" + output + ".raw");
+	}
+
+	private Manifest readManifest() {
+		Path file = directory.resolve(MANIFEST);
+		if(!Files.exists(file)) return null;
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return new Gson().fromJson(reader, Manifest.class);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Could not read tile checkpoint " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void writeManifest() throws IOException {
+		Path tmp = directory.resolve(MANIFEST + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			new Gson().toJson(manifest, writer);
+		}
+		Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the finished tiles and the hashes of their input, ignoring lines which were not written completely
+	 */
+	private Map<Long, String> readCompletedTiles() throws IOException {
+		Map<Long, String> res = new LinkedHashMap<>();
+		Path file = directory.resolve(COMPLETED_TILES);
+		if(!Files.exists(file)) return res;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] entry = line.split(" ");
+				if(entry.length != 2 || entry[1].length() != 64) continue;
+				try {
+					res.put(Long.parseLong(entry[0]), entry[1]);
+				} catch (NumberFormatException e) {
+					// incomplete line
+				}
+			}
+		}
+		return res;
+	}
+
+	private void writeCompletedTiles(Map<Long, String> completed) throws IOException {
+		Path tmp = directory.resolve(COMPLETED_TILES + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			for (Map.Entry<Long, String> entry : completed.entrySet()) {
+				writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+			}
+		}
+		Files.move(tmp, directory.resolve(COMPLETED_TILES), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return 32 if all values of the given type can be stored as float, 64 otherwise
+	 */
+	static int getPrecision(RealType<?> type) {
+		return type instanceof FloatType || type.getBitsPerPixel() <= 16 ? 32 : 64;
+	}
+
+	/**
+	 * Builds a key from the given parameters, the content of the input is checked per tile via {@link #hash(RandomAccessibleInterval)}.
+	 */
+	static String createKey(Object... parameters) {
+		MessageDigest digest = createDigest();
+		for (Object parameter : parameters) {
+			digest.update(String.valueOf(parameter).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Hashes all values of the given image, reading it once in flat iteration order.
+	 */
+	static String hash(RandomAccessibleInterval<? extends RealType<?>> img) {
+		MessageDigest digest = createDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+		for (RealType<?> pixel : Views.flatIterable(img)) {
+			if(!buffer.hasRemaining()) {
+				digest.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			buffer.putDouble(pixel.getRealDouble());
+		}
+		digest.update(buffer.array(), 0, buffer.position());
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder res = new StringBuilder();
+		for (byte b : bytes) {
+			res.append(String.format("%02x", b));
+		}
+		return res.toString();
+	}
+}
@@ -0,0 +1,202 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.model.node.ModelZooAxis;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+
+/**
+ * Maps the tiles of the input image to the output of a node, using the scale and offset of the output axes.
+ * <p>
+ * An input tile covers its block plus the halo on both sides, except towards the border of the input.
+ * Its prediction has the size of the tile times the scale plus the offset, with the offset split between the start
+ * and the end. Pixel {@code p} of the prediction of tile {@code t} therefore is pixel
+ * {@code p + scale * max(0, t * block - halo)} of the full output, which has the size {@code grid * block * scale + offset}.
+ * Each tile owns the output pixels computed from its block. The first and the last tile additionally own the border
+ * introduced by a positive offset, a negative offset crops the border.
+ * </p>
+ * <p>
+ * Axes which are not split are predicted as a whole by each tile: axes with a single tile, axes with a scale of 0
+ * (a fixed size given by the offset, e.g. the number of output channels) and axes which the input does not have.
+ * </p>
+ */
+class TileGeometry {
+
+	private final int[] inputDims;
+	private final long[] grid;
+	private final long[] tileSize;
+	private final long[] tileStart;
+	private final long[] haloShift;
+	private final long[] dims;
+
+	/**
+	 * @param inputAxes axes of the input data
+	 * @param blockSize size of one input tile without halo
+	 * @param halo halo of the input tiles
+	 * @param inputGrid number of input tiles along each input dimension
+	 * @param outputNode node whose axes define scale and offset of the output
+	 */
+	TileGeometry(AxisType[] inputAxes, long[] blockSize, long[] halo, long[] inputGrid, OutputImageNode outputNode) {
+		int n = outputNode.numDimensions();
+		inputDims = new int[n];
+		grid = new long[n];
+		tileSize = new long[n];
+		tileStart = new long[n];
+		haloShift = new long[n];
+		dims = new long[n];
+		for (int i = 0; i < n; i++) {
+			ModelZooAxis outputAxis = outputNode.getDataAxis(i);
+			inputDims[i] = -1;
+			grid[i] = 1;
+			for (int j = 0; j < inputAxes.length; j++) {
+				if (inputAxes[j].equals(outputAxis.getType())) {
+					inputDims[i] = j;
+					break;
+				}
+			}
+			Double scale = outputAxis.getScale();
+			Integer offset = outputAxis.getOffset();
+			if(scale == null) scale = 1.;
+			if(offset == null) offset = 0;
+			if(inputDims[i] < 0) {
+				dims[i] = Math.max(1, offset);
+				tileSize[i] = dims[i];
+				continue;
+			}
+			int j = inputDims[i];
+			grid[i] = inputGrid[j];
+			tileSize[i] = scaleExactly(blockSize[j], scale, outputAxis);
+			haloShift[i] = scaleExactly(halo[j], scale, outputAxis);
+			tileStart[i] = Math.floorDiv(offset, 2);
+			dims[i] = Math.max(1, tileSize[i] * grid[i] + offset);
+			if(scale == 0 || grid[i] == 1) {
+				// the first tile owns the whole axis
+				tileSize[i] = dims[i];
+				tileStart[i] = 0;
+			}
+		}
+	}
+
+	private static long scaleExactly(long size, double scale, ModelZooAxis axis) {
+		double scaled = size * scale;
+		long rounded = Math.round(scaled);
+		if(Math.abs(scaled - rounded) > 1e-6) {
+			throw new IllegalArgumentException("Tile size " + size + " along axis " + axis.getType()
+					+ " cannot be scaled by " + scale + " to a whole number of pixels, the step of the input axis has to be a multiple of " + Math.round(1 / scale));
+		}
+		return rounded;
+	}
+
+	int numDimensions() {
+		return dims.length;
+	}
+
+	/**
+	 * @return size of the full output
+	 */
+	long[] getOutputDimensions() {
+		return dims.clone();
+	}
+
+	/**
+	 * @return size of the output computed from one input block, without the border of the first and last tile
+	 */
+	long[] getOutputTileSize() {
+		return tileSize.clone();
+	}
+
+	/**
+	 * @return input dimension matching the given output dimension, -1 if the input has no axis of this type
+	 */
+	int getInputDimension(int outputDim) {
+		return inputDims[outputDim];
+	}
+
+	/**
+	 * @param inputTile position of the tile in the tiled input view
+	 * @return the part of the full output owned by the tile
+	 */
+	Interval getOutputInterval(long[] inputTile) {
+		long[] min = new long[dims.length];
+		long[] max = new long[dims.length];
+		for (int i = 0; i < dims.length; i++) {
+			if(inputDims[i] < 0) {
+				max[i] = dims[i] - 1;
+				continue;
+			}
+			long t = inputTile[inputDims[i]];
+			min[i] = t == 0 ? 0 : tileStart[i] + t * tileSize[i];
+			max[i] = t == grid[i] - 1 ? dims[i] - 1 : tileStart[i] + (t + 1) * tileSize[i] - 1;
+			min[i] = Math.min(Math.max(0, min[i]), dims[i]);
+			max[i] = Math.min(max[i], dims[i] - 1);
+		}
+		return new FinalInterval(min, max);
+	}
+
+	/**
+	 * @param inputTile position of the tile in the tiled input view
+	 * @return the part of the tile prediction (starting at 0) which is written into {@link #getOutputInterval(long[])}
+	 */
+	Interval getSourceInterval(long[] inputTile) {
+		Interval target = getOutputInterval(inputTile);
+		long[] min = new long[dims.length];
+		long[] max = new long[dims.length];
+		for (int i = 0; i < dims.length; i++) {
+			long shift = inputDims[i] < 0 ? 0 : Math.max(0, inputTile[inputDims[i]] * tileSize[i] - haloShift[i]);
+			min[i] = target.min(i) - shift;
+			max[i] = target.max(i) - shift;
+		}
+		return new FinalInterval(min, max);
+	}
+
+	/**
+	 * @param outputInterval part of the full output
+	 * @return range of input tile positions whose output intersects the given interval
+	 */
+	Interval getInputTiles(Interval outputInterval, int numInputDimensions) {
+		long[] min = new long[numInputDimensions];
+		long[] max = new long[numInputDimensions];
+		for (int i = 0; i < dims.length; i++) {
+			int j = inputDims[i];
+			if(j < 0) continue;
+			min[j] = getInputTile(i, outputInterval.min(i));
+			max[j] = getInputTile(i, outputInterval.max(i));
+		}
+		return new FinalInterval(min, max);
+	}
+
+	private long getInputTile(int outputDim, long position) {
+		long t = Math.floorDiv(position - tileStart[outputDim], tileSize[outputDim]);
+		return Math.min(Math.max(0, t), grid[outputDim] - 1);
+	}
+}
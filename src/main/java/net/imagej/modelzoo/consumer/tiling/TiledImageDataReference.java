@@ -28,39 +28,84 @@
  */
 package net.imagej.modelzoo.consumer.tiling;
 
+import net.imagej.Dataset;
+import net.imagej.ImgPlus;
 import net.imagej.axis.AxisType;
 import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
 import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
 import net.imagej.modelzoo.consumer.model.node.InputImageNode;
 import net.imagej.modelzoo.consumer.model.node.ModelZooAxis;
 import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imagej.modelzoo.consumer.model.node.StridedArrayDataReference;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imagej.modelzoo.consumer.postprocessing.ResizePostprocessor;
+import net.imagej.modelzoo.io.chunked.ChunkedDataset;
+import net.imagej.modelzoo.io.chunked.OutputSink;
 import net.imglib2.Cursor;
+import net.imglib2.Dirty;
 import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.TiledView;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
 import net.imglib2.cache.img.DiskCachedCellImg;
 import net.imglib2.cache.img.DiskCachedCellImgFactory;
 import net.imglib2.cache.img.DiskCachedCellImgOptions;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
+import org.apache.commons.io.FileUtils;
+import org.scijava.log.Logger;
+import org.scijava.log.StderrLogService;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends DefaultImageDataReference<TI> {
 
 	class TiledOutput<TO extends RealType<TO> & NativeType<TO>> {
 		OutputImageNode outputNode;
 		ImageDataReference<TO> outputReference;
-		Cursor<RandomAccessibleInterval<TO>> tiledOutputViewCursor;
-		DiskCachedCellImg<TO, ?> outputData;
+		TileGeometry geometry;
+		long tileIndex = 0;
+		CachedCellImg<TO, ?> outputData;
+		TO outputType;
+		int batchDim = -1;
+		PointwiseOperation postprocessing;
+		RealType<?> postprocessedType;
+		ChunkWriter<TO> chunkWriter;
 
 		public TiledOutput(OutputImageNode outputImageNode, ImageDataReference<TO> imageDataReference) {
 			outputNode = outputImageNode;
@@ -72,11 +117,40 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 		}
 	}
 
+	private class PredictedTile {
+		final FutureTask<List<ImageDataReference<?>>> prediction;
+		int remainingCells;
+
+		PredictedTile(long tile) {
+			prediction = new FutureTask<>(() -> tilePredictor.predict(copyInputTile(tile)));
+			remainingCells = countCells(tile);
+		}
+	}
+
 	private final InputImageNode inputNode;
 	private TiledView<TI> tiledInputView;
-	private Cursor<RandomAccessibleInterval<TI>> tiledInputViewCursor;
 	private Path cacheDir;
+	private OutputSink outputSink;
+	private final Set<Path> diskCacheDirs = new LinkedHashSet<>();
+	private final Set<Path> temporaryCacheDirs = new LinkedHashSet<>();
 	private List<TiledOutput<?>> tiledOutputs;
+	private int tilesPerBatch = 1;
+	private int batchDim = -1;
+	private final Queue<Integer> batchTileCounts = new ConcurrentLinkedQueue<>();
+	private TileCheckpoint checkpoint;
+	private Logger log = new StderrLogService();
+	private long inputTileIndex = 0;
+	private TilePredictor tilePredictor;
+	private int maxPredictedTiles = 1;
+	private final AtomicLong predictedVoxels = new AtomicLong();
+	private final AtomicLong resolvedTiles = new AtomicLong();
+	private final Map<Long, PredictedTile> predictedTiles = new LinkedHashMap<Long, PredictedTile>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, PredictedTile> eldest) {
+			// predictions of tiles whose cells were not accessed for all outputs
+			return size() > maxPredictedTiles;
+		}
+	};
 
 	TiledImageDataReference(InputImageNode inputNode, List<OutputImageNode> outputNodes, ImageDataReference<TI> inputReference, List<ImageDataReference<?>> outputReferences, Path cacheDir) {
 		super(inputReference.getData(), inputReference.getDataType());
@@ -92,6 +166,28 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 		return tiledOutputs;
 	}
 
+	/**
+	 * Applies the operation to each predicted tile of the output while writing it, the output is created with the given type.
+	 */
+	void setPostprocessing(OutputImageNode outputNode, PointwiseOperation operation, RealType<?> type) {
+		for (TiledOutput<?> tiledOutput : tiledOutputs) {
+			if(tiledOutput.outputNode != outputNode) continue;
+			tiledOutput.postprocessing = operation;
+			tiledOutput.postprocessedType = type;
+		}
+	}
+
+	/**
+	 * Writes the output tiles into datasets created by the sink instead of caching them on disk.
+	 */
+	void setOutputSink(OutputSink outputSink) {
+		this.outputSink = outputSink;
+	}
+
+	void setLogger(Logger log) {
+		this.log = log;
+	}
+
 	TiledView<TI> getTiledInputView() {
 		return tiledInputView;
 	}
@@ -110,33 +206,380 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 
 
 	void resolveCurrentTile(List<ImageDataReference<?>> data) {
+		Integer tileCount = batchTileCounts.poll();
+		if(tileCount == null) tileCount = 1;
+		List<Long> tileIndices = new ArrayList<>();
+		for (int k = 0; k < tileCount; k++) {
+			for (TiledOutput<?> tiledOutput : tiledOutputs) {
+				skipRestoredOutputTiles(tiledOutput);
+			}
+			tileIndices.add(tiledOutputs.get(0).tileIndex);
+			for (TiledOutput<?> tiledOutput : tiledOutputs) {
+				tiledOutput.tileIndex++;
+			}
+		}
+		resolveTiles(tileIndices, data);
+	}
+
+	/**
+	 * Writes the predicted data of the given tiles into the outputs, stacked along the batch axis if there is more than one tile.
+	 * Can be called from multiple threads with tiles from {@link #takeNextInputTiles()}, the tiles are written one after another.
+	 */
+	synchronized void resolveTiles(List<Long> tileIndices, List<ImageDataReference<?>> data) {
 		for (int i = 0; i < tiledOutputs.size(); i++) {
 			tiledOutputs.get(i).setOutputReference(data.get(i));
 		}
-		long[] padding = tiledInputView.getOverlap();
-		for (int i = 0; i < padding.length; i++) {
-			padding[i] = -padding[i];
+		int tileCount = tileIndices.size();
+		List<List<RandomAccessibleInterval<? extends RealType<?>>>> resolved = new ArrayList<>();
+		for (int k = 0; k < tileCount; k++) {
+			resolved.add(new ArrayList<>());
 		}
 		for (int d = 0; d < data.size(); d++) {
 			TiledOutput<?> tiledOutput = tiledOutputs.get(d);
-			RandomAccessibleInterval<? extends RealType<?>> currentTile = tiledOutput.tiledOutputViewCursor.next();
-			IntervalView<? extends RealType<?>> dataWithoutPadding = Views.expandBorder(tiledOutput.outputReference.getData(), padding);
-			LoopBuilder.setImages(dataWithoutPadding, currentTile).multiThreaded().forEachPixel((in, out) -> {
-				out.setReal(in.getRealDouble());
-			});
+			for (int k = 0; k < tileCount; k++) {
+				long[] tilePosition = getInputTilePosition(tileIndices.get(k));
+				if(tiledOutput.chunkWriter != null) {
+					RandomAccessibleInterval<? extends RealType<?>> tileData = tiledOutput.outputReference.getData();
+					if(tileCount > 1) tileData = batchSlice(tileData, tiledOutput.batchDim, k, tileCount);
+					resolved.get(k).add(writeChunks(tiledOutput, tilePosition, tileData));
+					continue;
+				}
+				RandomAccessibleInterval<? extends RealType<?>> currentTile = getOutputTile(tiledOutput, tilePosition);
+				resolved.get(k).add(currentTile);
+				Interval source = tiledOutput.geometry.getSourceInterval(tilePosition);
+				if(tiledOutput.postprocessing == null && writeIntoCell(tiledOutput, currentTile, source, k, tileCount)) continue;
+				RandomAccessibleInterval<? extends RealType<?>> tileData = tiledOutput.outputReference.getData();
+				if(tileCount > 1) tileData = batchSlice(tileData, tiledOutput.batchDim, k, tileCount);
+				if(tiledOutput.postprocessing != null) {
+					copyTile(tileData, Intervals.minAsLongArray(source), currentTile, tiledOutput.postprocessing);
+				} else {
+					copyTile(tileData, Intervals.minAsLongArray(source), currentTile);
+				}
+			}
+		}
+		if(checkpoint != null) {
+			for (int k = 0; k < tileCount; k++) {
+				saveCheckpoint(tileIndices.get(k), resolved.get(k));
+			}
+		}
+		resolvedTiles.addAndGet(tileCount);
+	}
+
+	/**
+	 * Restores the tiles finished in a previous run with the same model, input and tiling parameters.
+	 * Restored tiles are skipped when iterating over the input and output tiles.
+	 *
+	 * @param modelKey identifies the model, will be part of the checkpoint key
+	 */
+	void openCheckpoint(String modelKey) {
+		if(cacheDir == null) return;
+		List<Object> parameters = new ArrayList<>();
+		parameters.add(modelKey);
+		parameters.add(Arrays.toString(Intervals.dimensionsAsLongArray(getData())));
+		parameters.add(Arrays.toString(inputNode.getDataAxesArray()));
+		parameters.add(Arrays.toString(tiledInputView.getBlockSize()));
+		parameters.add(Arrays.toString(tiledInputView.getOverlap()));
+		parameters.add(Arrays.toString(Intervals.dimensionsAsLongArray(tiledInputView)));
+		int precision = 32;
+		for (TiledOutput<?> tiledOutput : tiledOutputs) {
+			parameters.add(tiledOutput.outputNode.getName());
+			parameters.add(Arrays.toString(Intervals.dimensionsAsLongArray(tiledOutput.outputData)));
+			parameters.add(tiledOutput.outputType.getClass().getName());
+			if(tiledOutput.postprocessing != null) parameters.add(tiledOutput.postprocessing.toString());
+			precision = Math.max(precision, TileCheckpoint.getPrecision(tiledOutput.outputType));
+		}
+		try {
+			checkpoint = new TileCheckpoint(cacheDir, TileCheckpoint.createKey(parameters.toArray()), precision, this::hashInputTile, log);
+			for (Long tile : checkpoint.getRestoredTiles()) {
+				for (int i = 0; i < tiledOutputs.size(); i++) {
+					restoreTile(tiledOutputs.get(i), i, tile);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Could not restore tiles from checkpoint, predicting all tiles: " + e.getMessage());
+			checkpoint = null;
+			return;
+		}
+		if(!checkpoint.getRestoredTiles().isEmpty()) {
+			log.info("Restored " + checkpoint.getRestoredTiles().size() + " tile(s) from checkpoint in " + cacheDir);
+		}
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void restoreTile(TiledOutput<T> tiledOutput, int output, long tile) throws IOException {
+		if(tiledOutput.chunkWriter == null) {
+			checkpoint.restore(tile, output, getOutputTile(tiledOutput, getInputTilePosition(tile)));
+			return;
+		}
+		RandomAccessibleInterval<T> target = tiledOutput.chunkWriter.createTile(tiledOutput.geometry.getOutputInterval(getInputTilePosition(tile)));
+		checkpoint.restore(tile, output, target);
+		tiledOutput.chunkWriter.write(target);
+	}
+
+	/**
+	 * Copies the predicted tile into memory and passes it on to the chunks of the output dataset.
+	 */
+	private <T extends RealType<T> & NativeType<T>> RandomAccessibleInterval<T> writeChunks(TiledOutput<T> tiledOutput, long[] tilePosition, RandomAccessibleInterval<? extends RealType<?>> tileData) {
+		Interval outputInterval = tiledOutput.geometry.getOutputInterval(tilePosition);
+		if(Intervals.isEmpty(outputInterval)) return Views.interval(tiledOutput.outputData, outputInterval);
+		RandomAccessibleInterval<T> tile = tiledOutput.chunkWriter.createTile(outputInterval);
+		long[] sourceMin = Intervals.minAsLongArray(tiledOutput.geometry.getSourceInterval(tilePosition));
+		if(tiledOutput.postprocessing != null) {
+			copyTile(tileData, sourceMin, tile, tiledOutput.postprocessing);
+		} else {
+			copyTile(tileData, sourceMin, tile);
+		}
+		try {
+			tiledOutput.chunkWriter.write(tile);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return tile;
+	}
+
+	private long[] getInputTilePosition(long tile) {
+		long[] position = new long[tiledInputView.numDimensions()];
+		IntervalIndexer.indexToPosition(tile, Intervals.dimensionsAsLongArray(tiledInputView), position);
+		return position;
+	}
+
+	private <T extends RealType<T> & NativeType<T>> RandomAccessibleInterval<T> getOutputTile(TiledOutput<T> tiledOutput, long[] inputTile) {
+		return Views.interval(tiledOutput.outputData, tiledOutput.geometry.getOutputInterval(inputTile));
+	}
+
+	/**
+	 * Copies the part of the predicted data which belongs to the target interval.
+	 * The predicted data might be larger than the tile plus padding if it was predicted in sub tiles.
+	 *
+	 * @param sourceMin position of the target minimum in the predicted data, relative to its minimum
+	 */
+	private static void copyTile(RandomAccessibleInterval<? extends RealType<?>> tileData, long[] sourceMin, RandomAccessibleInterval<? extends RealType<?>> target) {
+		long[] min = Intervals.minAsLongArray(tileData);
+		for (int i = 0; i < min.length; i++) {
+			min[i] += sourceMin[i];
+		}
+		IntervalView<? extends RealType<?>> sourceData = Views.offsetInterval(tileData, min, Intervals.dimensionsAsLongArray(target));
+		LoopBuilder.setImages(sourceData, target).multiThreaded().forEachPixel((in, out) -> {
+			out.setReal(in.getRealDouble());
+		});
+	}
+
+	private static void copyTile(RandomAccessibleInterval<? extends RealType<?>> tileData, long[] sourceMin, RandomAccessibleInterval<? extends RealType<?>> target, PointwiseOperation operation) {
+		long[] min = Intervals.minAsLongArray(tileData);
+		for (int i = 0; i < min.length; i++) {
+			min[i] += sourceMin[i];
+		}
+		IntervalView<? extends RealType<?>> sourceData = Views.offsetInterval(tileData, min, Intervals.dimensionsAsLongArray(target));
+		LoopBuilder.setImages(sourceData, target).multiThreaded().forEachPixel((in, out) -> {
+			out.setReal(operation.apply(in.getRealDouble()));
+		});
+	}
+
+	/**
+	 * @return the size of the files the output cells and checkpoints are stored in
+	 */
+	long getDiskCacheBytes() {
+		long res = 0;
+		for (Path dir : diskCacheDirs) {
+			if(!Files.isDirectory(dir)) continue;
+			try (Stream<Path> files = Files.walk(dir)) {
+				res += files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+			} catch (IOException | UncheckedIOException e) {
+				// files are deleted while walking, e.g. on dispose
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the number of tiles written into the outputs, including tiles restored from a checkpoint
+	 */
+	long getResolvedTileCount() {
+		return getRestoredTileCount() + resolvedTiles.get();
+	}
+
+	int getRestoredTileCount() {
+		return checkpoint == null ? 0 : checkpoint.getRestoredTiles().size();
+	}
+
+	private void saveCheckpoint(long tile, List<RandomAccessibleInterval<? extends RealType<?>>> outputs) {
+		try {
+			checkpoint.save(tile, hashInputTile(tile), outputs);
+		} catch (IOException e) {
+			log.warn("Could not write tile checkpoint, the prediction continues without it: " + e.getMessage());
+			checkpoint = null;
+		}
+	}
+
+	private String hashInputTile(long tile) {
+		return TileCheckpoint.hash(getInputTile(getInputTilePosition(tile)));
+	}
+
+	void deleteCheckpoint() {
+		if(checkpoint == null) return;
+		try {
+			checkpoint.delete();
+		} catch (IOException e) {
+			log.warn("Could not delete tile checkpoint: " + e.getMessage());
+		}
+	}
+
+	private void skipRestoredOutputTiles(TiledOutput<?> tiledOutput) {
+		while(checkpoint != null && checkpoint.isRestored(tiledOutput.tileIndex)) {
+			tiledOutput.tileIndex++;
+		}
+	}
+
+	boolean hasNextOutputTile() {
+		TiledOutput<?> tiledOutput = tiledOutputs.get(0);
+		skipRestoredOutputTiles(tiledOutput);
+		return tiledOutput.tileIndex < getTilesTotalCount();
+	}
+
+	private void skipRestoredInputTiles() {
+		while(checkpoint != null && inputTileIndex < getTilesTotalCount() && checkpoint.isRestored(inputTileIndex)) {
+			inputTileIndex++;
 		}
 	}
 
-	void createTiledInputView(int batchSize, int defaultHalo, int tilesMin) {
+
+	/**
+	 * The tile covers its block plus the halo, but the halo is omitted towards the border of the (expanded) input.
+	 * Border tiles are therefore smaller than the inner tiles, but still fit the step of the input axes.
+	 */
+	private Interval getInputTileInterval(long[] position) {
+		RandomAccessibleInterval<TI> source = tiledInputView.getSource();
+		long[] blockSize = tiledInputView.getBlockSize();
+		long[] overlap = tiledInputView.getOverlap();
+		long[] min = new long[position.length];
+		long[] max = new long[position.length];
+		for (int d = 0; d < position.length; d++) {
+			min[d] = Math.max(0, position[d] * blockSize[d] - overlap[d]);
+			max[d] = Math.min(source.max(d), (position[d] + 1) * blockSize[d] - 1 + overlap[d]);
+		}
+		return new FinalInterval(min, max);
+	}
+
+	private RandomAccessibleInterval<TI> getInputTile(long[] position) {
+		return Views.zeroMin(Views.interval(tiledInputView.getSource(), getInputTileInterval(position)));
+	}
+
+	/**
+	 * @return voxels predicted in addition to the input voxels so far (halo and expansion to the tile grid), relative to the number of input voxels,
+	 * NaN if tiles were restored from a checkpoint
+	 */
+	double getComputeOverhead() {
+		if(getRestoredTileCount() > 0) return Double.NaN;
+		return (double) predictedVoxels.get() / Intervals.numElements(getData()) - 1;
+	}
+
+	/**
+	 * Copies the predicted tile straight from the output tensor array into the storage array of the output cell.
+	 *
+	 * @return false if the tile does not match a cell or the output is not backed by a {@link StridedArrayDataReference}
+	 */
+	private boolean writeIntoCell(TiledOutput<?> tiledOutput, Interval currentTile, Interval sourceTile, int k, int tileCount) {
+		if(!(tiledOutput.outputReference instanceof StridedArrayDataReference)) return false;
+		StridedArrayDataReference<?> source = (StridedArrayDataReference<?>) tiledOutput.outputReference;
+		if(tiledOutput.outputType == null || source.getElementType() != tiledOutput.outputType.getClass()) return false;
+		CellGrid grid = tiledOutput.outputData.getCellGrid();
+		int n = currentTile.numDimensions();
+		if(source.getData().numDimensions() != n) return false;
+		long[] cellPosition = new long[n];
+		for (int d = 0; d < n; d++) {
+			int cellSize = grid.cellDimension(d);
+			if(currentTile.min(d) % cellSize != 0) return false;
+			cellPosition[d] = currentTile.min(d) / cellSize;
+		}
+		RandomAccess<? extends Cell<?>> cellAccess = tiledOutput.outputData.getCells().randomAccess();
+		cellAccess.setPosition(cellPosition);
+		Cell<?> cell = cellAccess.get();
+		long[] cellDims = new long[n];
+		long[] offset = new long[n];
+		for (int d = 0; d < n; d++) {
+			cellDims[d] = cell.dimension(d);
+			if(cellDims[d] != currentTile.dimension(d)) return false;
+			offset[d] = sourceTile.min(d);
+			if(tileCount > 1 && d == tiledOutput.batchDim) {
+				offset[d] += k * (source.getData().dimension(d) / tileCount);
+			}
+		}
+		Object access = cell.getData();
+		if(!(access instanceof ArrayDataAccess)) return false;
+		if(!source.copyTo(((ArrayDataAccess<?>) access).getCurrentStorageArray(), offset, cellDims)) return false;
+		if(access instanceof Dirty) ((Dirty) access).setDirty();
+		return true;
+	}
+
+	/**
+	 * Decides how many tiles are stacked along the batch axis of the input and predicted at once.
+	 * Only possible if the model accepts a variable batch size and all outputs have a batch axis.
+	 */
+	void computeTilesPerBatch(long memoryBudget) {
+		tilesPerBatch = 1;
+		batchDim = -1;
+		if(memoryBudget <= 0) return;
+		int dim = getInputBatchDim();
+		if(dim < 0) return;
+		Integer step = inputNode.getDataAxis(dim).getStep();
+		if(step == null || step <= 0) return;
+		for (TiledOutput<?> tiledOutput : tiledOutputs) {
+			if(tiledOutput.batchDim < 0) return;
+		}
+		batchDim = dim;
+		List<OutputImageNode> outputNodes = new ArrayList<>();
+		for (TiledOutput<?> tiledOutput : tiledOutputs) {
+			outputNodes.add(tiledOutput.outputNode);
+		}
+		long tileBytes = new TilingPlanner(inputNode, outputNodes).estimateBytes(getTileSizeWithPadding());
+		tilesPerBatch = (int) Math.max(1, Math.min(getTilesTotalCount(), memoryBudget / tileBytes));
+	}
+
+	private long[] getTileSizeWithPadding() {
+		long[] tileSize = tiledInputView.getBlockSize().clone();
+		long[] overlap = tiledInputView.getOverlap();
+		for (int i = 0; i < tileSize.length; i++) {
+			tileSize[i] += 2 * overlap[i];
+		}
+		return tileSize;
+	}
+
+	int getTilesPerBatch() {
+		return tilesPerBatch;
+	}
+
+	int getTileCount(ImageDataReference<?> batch) {
+		if(batchDim < 0) return 1;
+		return (int) (batch.getData().dimension(batchDim) / getTileSizeWithPadding()[batchDim]);
+	}
+
+	private static <T> RandomAccessibleInterval<T> batchSlice(RandomAccessibleInterval<T> img, int dim, int index, int count) {
+		long[] min = Intervals.minAsLongArray(img);
+		long[] max = Intervals.maxAsLongArray(img);
+		long size = img.dimension(dim) / count;
+		min[dim] += index * size;
+		max[dim] = min[dim] + size - 1;
+		return Views.zeroMin(Views.interval(img, min, max));
+	}
+
+	/**
+	 * @param tilesPerDim number of tiles along each dimension, if null the tiling is computed from tilesMin
+	 */
+	void createTiledInputView(int batchSize, int defaultHalo, int tilesMin, long[] tilesPerDim) {
 
 		long[] tiling = new long[getData().numDimensions()];
 		Arrays.fill(tiling, 1);
-		tiling = computeTiling(tiling, tilesMin);
-		long[] padding = getPadding(tiling, defaultHalo);
+		if(tilesPerDim != null) {
+			for (int i = 0; i < tiling.length; i++) {
+				if(inputNode.getDataAxis(i).getTiling() == TilingAction.TILE_WITH_PADDING) tiling[i] = tilesPerDim[i];
+			}
+		} else {
+			tiling = computeTiling(tiling, tilesMin);
+		}
+		long[] padding = getPadding(inputNode, defaultHalo);
 		computeBatching(tiling, batchSize);
-		System.out.println("Input dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(getData())));
-		System.out.println("Axes: " + Arrays.toString(inputNode.getDataAxesArray()));
-		System.out.println("Dividing image into " + arrayProduct(tiling) + " tile(s)..");
+		log.debug("Input dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(getData())));
+		log.debug("Axes: " + Arrays.toString(inputNode.getDataAxesArray()));
+		log.debug("Dividing image into " + arrayProduct(tiling) + " tile(s)..");
 
 		RandomAccessibleInterval<TI> expandedInput = expandToFitBatchSize(inputNode, getData(), tiling);
 //		System.out.println("expandedinput: " + Arrays.toString(Intervals.dimensionsAsIntArray(expandedInput)));
@@ -146,15 +589,17 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 //		System.out.println("tiling: " + Arrays.toString(tiling));
 		long[] tileSize = calculateTileSize(expandedInput, tiling);
 
-		System.out.println("Size of single image tile: " + Arrays.toString(tileSize));
+		log.debug("Size of single image tile: " + Arrays.toString(tileSize));
 
 		final TiledView<TI> tiledView = new TiledView<>(expandedInput, tileSize, padding);
 
-		System.out.println("Final image tiling: " + Arrays.toString(Intervals.dimensionsAsIntArray(tiledView)));
-		System.out.println("Final tile padding: " + Arrays.toString(padding));
+		log.debug("Final image tiling: " + Arrays.toString(Intervals.dimensionsAsIntArray(tiledView)));
+		log.debug("Final tile padding: " + Arrays.toString(padding));
 
 		this.tiledInputView = tiledView;
-		tiledInputViewCursor = Views.iterable(tiledInputView).cursor();
+		inputTileIndex = 0;
+		predictedVoxels.set(0);
+		resolvedTiles.set(0);
 	}
 
 	void createTiledOutputView() {
@@ -165,55 +610,256 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 	}
 
 	private <T extends RealType<T> & NativeType<T>> void createTiledOutputView(TiledOutput<T> tiledOutput, int d) {
-		long[] grid = new long[tiledOutput.outputNode.numDimensions()];
-		long[] padding = new long[tiledOutput.outputNode.numDimensions()];
-		long[] dims = new long[tiledOutput.outputNode.numDimensions()];
-		AxisType[] inputAxes = inputNode.getDataAxesArray();
-		Arrays.fill(grid, 1);
-
-		for (int i = 0; i < grid.length; i++) {
-			ModelZooAxis outputAxis = tiledOutput.outputNode.getDataAxis(i);
-			Double scale = outputAxis.getScale();
-			Integer offset = outputAxis.getOffset();
-			if(scale == null) scale = 1.;
-			if(offset == null) offset = 0;
-			for (int j = 0; j < inputAxes.length; j++) {
-				if (inputAxes[j].equals(outputAxis.getType())) {
-					grid[i] = tiledInputView.dimension(j);
-					dims[i] = (long) (tiledInputView.getBlockSize()[j]*grid[i]* scale + offset);
-					break;
-				}
-			}
-		}
+		tiledOutput.geometry = createGeometry(tiledOutput);
+		long[] dims = tiledOutput.geometry.getOutputDimensions();
 
 		// is this necessary?
 		T dataType = tiledOutput.outputReference.getDataType();
+		if(tiledOutput.postprocessedType != null) dataType = (T) tiledOutput.postprocessedType.createVariable();
 		if(dataType == null) dataType = (T) inputNode.getData().getDataType();
 		if(dataType == null) dataType = (T) tiledInputView.randomAccess().get().randomAccess().get().copy();
 
-		long[] tileSize = calculateTileSize(dims, grid);
-		int[] intTileSize = new int[tileSize.length];
-		for (int i = 0; i < tileSize.length; i++) {
-			intTileSize[i] = (int) tileSize[i];
+		long[] tileSize = tiledOutput.geometry.getOutputTileSize();
+		int[] intTileSize = toIntArray(tileSize);
+		log.debug("Size of single output tile: " + Arrays.toString(intTileSize));
+		log.debug("Output dimensions: " + Arrays.toString(dims));
+		if(outputSink != null && arrayProduct(tileSize) < Integer.MAX_VALUE) {
+			createSinkOutput(tiledOutput, dims, intTileSize, dataType);
+			return;
 		}
-		System.out.println("Size of single output tile: " + Arrays.toString(intTileSize));
-		System.out.println("Output dimensions: " + Arrays.toString(dims));
 		clearCacheDir();
 //		if(outputData != null) outputData.shutdown();
-		DiskCachedCellImg<T, ?> cellImg = new DiskCachedCellImgFactory<>(dataType,
-				DiskCachedCellImgOptions.options()
-						.cacheType(DiskCachedCellImgOptions.CacheType.SOFTREF)
-						.cacheDirectory(cacheDir)
-						.deleteCacheDirectoryOnExit(cacheDir == null)).create(dims);
+		// without cache directory, the cells are stored in a temporary directory which is deleted on exit
+		Path cellDir = cacheDir;
+		if(cellDir == null) {
+			try {
+				cellDir = Files.createTempDirectory("modelzoo-tiles");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			temporaryCacheDirs.add(cellDir);
+		}
+		diskCacheDirs.add(cellDir);
+		DiskCachedCellImgOptions options = DiskCachedCellImgOptions.options()
+				.cacheType(DiskCachedCellImgOptions.CacheType.SOFTREF)
+				.cacheDirectory(cellDir)
+				.deleteCacheDirectoryOnExit(cacheDir == null);
+		// one cell per output tile, so that predicted tiles can be written into the cell storage directly
+		if(arrayProduct(tileSize) < Integer.MAX_VALUE) options = options.cellDimensions(intTileSize);
+		DiskCachedCellImg<T, ?> cellImg = new DiskCachedCellImgFactory<>(dataType, options).create(dims);
 		tiledOutput.outputData = cellImg;
-		TiledView<T> tiledOutputView = new TiledView<>(cellImg, tileSize, padding);
-		tiledOutput.tiledOutputViewCursor = Views.iterable(tiledOutputView).cursor();
+		tiledOutput.outputType = dataType;
+		assignOutputBatchDim(tiledOutput);
+	}
+
+	/**
+	 * Creates the output dataset with one chunk per output tile, without the expansion of the input to the tile grid.
+	 * The output image reads the chunks back from the dataset once the prediction is finished.
+	 */
+	private <T extends RealType<T> & NativeType<T>> void createSinkOutput(TiledOutput<T> tiledOutput, long[] dims, int[] tileSize, T dataType) {
+		OutputImageNode outputNode = tiledOutput.outputNode;
+		AxisType[] axes = new AxisType[dims.length];
+		long[] datasetDims = dims.clone();
+		int[] mappingIndices = outputNode.getMappingIndices();
+		for (int i = 0; i < axes.length; i++) {
+			axes[i] = outputNode.getDataAxis(i).getType();
+			if(outputNode.getReference() == null || outputNode.getReference().getAxes().get(mappingIndices[i]).getActual() == null) continue;
+			datasetDims[i] = Math.max(1, Math.min(dims[i], ResizePostprocessor.getExpectedSize(outputNode, mappingIndices[i])));
+		}
+		ChunkedDataset<T> dataset;
+		try {
+			dataset = outputSink.createDataset(outputNode.getName(), datasetDims, tileSize, dataType, axes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.info("Writing output into " + dataset.getDirectory());
+		tiledOutput.chunkWriter = new ChunkWriter<>(dataset);
+		ReadOnlyCachedCellImgOptions options = ReadOnlyCachedCellImgOptions.options()
+				.cellDimensions(tileSize)
+				.cacheType(ReadOnlyCachedCellImgOptions.CacheType.SOFTREF);
+		Interval datasetInterval = new FinalInterval(datasetDims);
+		// voxels outside of the dataset are left empty, the output is cropped to the size of the dataset afterwards
+		CellLoader<T> loader = cell -> {
+			Interval chunk = Intervals.intersect(cell, datasetInterval);
+			if(!Intervals.isEmpty(chunk)) dataset.readChunk(getChunkPosition(cell, tileSize), Views.interval(cell, chunk));
+		};
+		tiledOutput.outputData = new ReadOnlyCachedCellImgFactory(options).create(dims, dataType, loader);
+		tiledOutput.outputType = dataType;
+		assignOutputBatchDim(tiledOutput);
+	}
+
+	private static long[] getChunkPosition(Interval cell, int[] chunkSize) {
+		long[] position = new long[chunkSize.length];
+		for (int d = 0; d < position.length; d++) {
+			position[d] = cell.min(d) / chunkSize[d];
+		}
+		return position;
+	}
+
+	private TileGeometry createGeometry(TiledOutput<?> tiledOutput) {
+		return new TileGeometry(inputNode.getDataAxesArray(), tiledInputView.getBlockSize(), tiledInputView.getOverlap(),
+				Intervals.dimensionsAsLongArray(tiledInputView), tiledOutput.outputNode);
+	}
+
+	private void assignOutputBatchDim(TiledOutput<?> tiledOutput) {
+		AxisType[] inputAxes = inputNode.getDataAxesArray();
+		int inputBatchDim = getInputBatchDim();
+		for (int i = 0; inputBatchDim >= 0 && i < tiledOutput.outputNode.numDimensions(); i++) {
+			if (tiledOutput.outputNode.getDataAxis(i).getType().equals(inputAxes[inputBatchDim])) {
+				tiledOutput.batchDim = i;
+			}
+		}
+	}
+
+	private static int[] toIntArray(long[] array) {
+		int[] res = new int[array.length];
+		for (int i = 0; i < array.length; i++) {
+			res[i] = (int) array[i];
+		}
+		return res;
+	}
+
+	/**
+	 * Creates each output as a read-only {@link CachedCellImg} with one cell per output tile instead of iterating over the tiles.
+	 * A cell is computed the first time it is accessed by predicting the corresponding input tile including its padding.
+	 * The first tile is predicted right away, its results determine the data types of the outputs.
+	 *
+	 * @param maxCachedTiles how many cells of each output are kept in memory
+	 */
+	void createLazyOutputs(TilePredictor predictor, int maxCachedTiles) throws Exception {
+		tilePredictor = predictor;
+		maxPredictedTiles = Math.max(1, maxCachedTiles);
+		for (TiledOutput<?> tiledOutput : tiledOutputs) {
+			tiledOutput.geometry = createGeometry(tiledOutput);
+		}
+		List<ImageDataReference<?>> firstTile = getPredictedTile(0, false);
+		for (int d = 0; d < tiledOutputs.size(); d++) {
+			createLazyOutput(tiledOutputs.get(d), d, firstTile.get(d), maxCachedTiles);
+		}
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void createLazyOutput(TiledOutput<T> tiledOutput, int output, ImageDataReference<?> predicted, int maxCachedTiles) {
+		long[] dims = tiledOutput.geometry.getOutputDimensions();
+		long[] tileSize = tiledOutput.geometry.getOutputTileSize();
+		T dataType = (T) predicted.getDataType();
+		if(dataType == null) dataType = (T) Util.getTypeFromInterval(predicted.getData()).createVariable();
+		log.debug("Size of single output tile: " + Arrays.toString(tileSize));
+		log.debug("Output dimensions: " + Arrays.toString(dims));
+		ReadOnlyCachedCellImgOptions options = ReadOnlyCachedCellImgOptions.options()
+				.cellDimensions(toIntArray(tileSize))
+				.cacheType(ReadOnlyCachedCellImgOptions.CacheType.BOUNDED)
+				.maxCacheSize(maxCachedTiles);
+		CellLoader<T> loader = cell -> loadCell(tiledOutput, output, cell);
+		tiledOutput.outputData = new ReadOnlyCachedCellImgFactory(options).create(dims, dataType, loader);
+		tiledOutput.outputType = dataType;
+		assignOutputBatchDim(tiledOutput);
+	}
+
+	/**
+	 * Fills the cell from the predictions of all input tiles whose output intersects it.
+	 * Cells and tiles only match if the output axes have no offset.
+	 */
+	private <T extends RealType<T> & NativeType<T>> void loadCell(TiledOutput<T> tiledOutput, int output, SingleCellArrayImg<T, ?> cell) throws Exception {
+		Interval inputTiles = tiledOutput.geometry.getInputTiles(cell, tiledInputView.numDimensions());
+		Cursor<?> tiles = Views.iterable(Views.interval(tiledInputView, inputTiles)).localizingCursor();
+		long[] tilePosition = new long[tiledInputView.numDimensions()];
+		while(tiles.hasNext()) {
+			tiles.fwd();
+			tiles.localize(tilePosition);
+			long tile = IntervalIndexer.positionToIndex(tilePosition, Intervals.dimensionsAsLongArray(tiledInputView));
+			RandomAccessibleInterval<? extends RealType<?>> tileData = getPredictedTile(tile, true).get(output).getData();
+			Interval tileOutput = tiledOutput.geometry.getOutputInterval(tilePosition);
+			Interval target = Intervals.intersect(tileOutput, cell);
+			if(Intervals.isEmpty(target)) continue;
+			long[] sourceMin = Intervals.minAsLongArray(tiledOutput.geometry.getSourceInterval(tilePosition));
+			for (int i = 0; i < sourceMin.length; i++) {
+				sourceMin[i] += target.min(i) - tileOutput.min(i);
+			}
+			copyTile(tileData, sourceMin, Views.interval(cell, target));
+		}
+	}
+
+	/**
+	 * @return number of cells of all outputs which are computed from the prediction of the given tile
+	 */
+	private int countCells(long tile) {
+		long[] tilePosition = getInputTilePosition(tile);
+		int count = 0;
+		for (TiledOutput<?> tiledOutput : tiledOutputs) {
+			Interval target = tiledOutput.geometry.getOutputInterval(tilePosition);
+			if(Intervals.isEmpty(target)) continue;
+			long[] tileSize = tiledOutput.geometry.getOutputTileSize();
+			long cells = 1;
+			for (int i = 0; i < tileSize.length; i++) {
+				long cellSize = Math.max(1, tileSize[i]);
+				cells *= target.max(i) / cellSize - target.min(i) / cellSize + 1;
+			}
+			count += cells;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the prediction of the given input tile, predicting it if no other thread does so already.
+	 * A prediction is kept until all cells intersecting its output have been computed from it.
+	 *
+	 * @param consume whether the result is used for the cell of one of the outputs
+	 */
+	private List<ImageDataReference<?>> getPredictedTile(long tile, boolean consume) throws Exception {
+		PredictedTile predicted;
+		boolean predict = false;
+		synchronized (predictedTiles) {
+			predicted = predictedTiles.get(tile);
+			if(predicted == null) {
+				predicted = new PredictedTile(tile);
+				predictedTiles.put(tile, predicted);
+				predict = true;
+			}
+			if(consume && --predicted.remainingCells <= 0) predictedTiles.remove(tile);
+		}
+		if(predict) predicted.prediction.run();
+		try {
+			return predicted.prediction.get();
+		} catch (ExecutionException e) {
+			synchronized (predictedTiles) {
+				predictedTiles.remove(tile, predicted);
+			}
+			if(e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			if(e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw e;
+		}
+	}
+
+	private ImageDataReference<TI> copyInputTile(long tile) {
+		RandomAccessibleInterval<TI> tileData = getInputTile(getInputTilePosition(tile));
+		predictedVoxels.addAndGet(Intervals.numElements(tileData));
+		TI type = getDataType();
+		if(type == null) type = Util.getTypeFromInterval(tileData).createVariable();
+		Img<TI> copy = new ArrayImgFactory<>(type).create(tileData);
+		LoopBuilder.setImages(tileData, copy).forEachPixel((in, out) -> out.set(in));
+		return new DefaultImageDataReference<>(copy, type);
+	}
+
+	/**
+	 * Stops writing the output cells and deletes the temporary directories they are stored in.
+	 * The outputs cannot be accessed afterwards.
+	 */
+	void dispose() {
+		for (TiledOutput<?> tiledOutput : tiledOutputs) {
+			if(tiledOutput.outputData instanceof DiskCachedCellImg) ((DiskCachedCellImg<?, ?>) tiledOutput.outputData).shutdown();
+			tiledOutput.outputData = null;
+		}
+		for (Path dir : temporaryCacheDirs) {
+			FileUtils.deleteQuietly(dir.toFile());
+			diskCacheDirs.remove(dir);
+		}
+		temporaryCacheDirs.clear();
 	}
 
 	private void clearCacheDir() {
 		if(cacheDir == null) return;
 		if(!cacheDir.toFile().exists()) {
-			System.err.println("Cache directory " + cacheDir + " does not exist");
+			log.warn("Cache directory " + cacheDir + " does not exist");
 			return;
 		}
 		File[] files = cacheDir.toFile().listFiles();
@@ -247,11 +893,13 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 
 	}
 
-	private long[] getPadding(long[] tiling, int defaultHalo) {
-		long[] padding = new long[tiling.length];
+	static long[] getPadding(InputImageNode inputNode, int defaultHalo) {
+		long[] padding = new long[inputNode.numDimensions()];
 		for (int i = 0; i < padding.length; i++) {
 //			if (tiling[i] > 1) {
 			ModelZooAxis axis = inputNode.getDataAxis(i);
+			// tiles stacked along the batch axis are independent of each other
+			if (axis.getTiling() == TilingAction.TILE_WITHOUT_PADDING) continue;
 			Integer halo = axis.getHalo();
 			Integer step = axis.getStep();
 			if (halo == null) halo = defaultHalo;
@@ -272,18 +920,7 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 		if (currentTiles >= tilesMin) {
 			return tiling;
 		} else {
-			long[] singleTile = new long[inputNode.numDimensions()];
-			int maxDim = -1;
-			for (int i = 0; i < singleTile.length; i++) {
-				ModelZooAxis axis = inputNode.getDataAxis(i);
-				if (axis.getTiling() == TilingAction.TILE_WITH_PADDING) {
-					singleTile[i] = getTileSize(getData().dimension(i), tiling[i], axis);
-					if (singleTile[i] > axis.getMin() && (maxDim < 0 ||
-							singleTile[i] > singleTile[maxDim])) {
-						maxDim = i;
-					}
-				}
-			}
+			int maxDim = nextTilingDim(inputNode, Intervals.dimensionsAsLongArray(getData()), tiling);
 			if (maxDim >= 0) {
 				tiling[maxDim] += 1;
 				return computeTiling(tiling, tilesMin);
@@ -293,6 +930,25 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 		}
 	}
 
+	/**
+	 * @return the dimension with the largest tile which can still be split further, -1 if there is none
+	 */
+	static int nextTilingDim(InputImageNode inputNode, long[] dims, long[] tiling) {
+		long[] singleTile = new long[inputNode.numDimensions()];
+		int maxDim = -1;
+		for (int i = 0; i < singleTile.length; i++) {
+			ModelZooAxis axis = inputNode.getDataAxis(i);
+			if (axis.getTiling() == TilingAction.TILE_WITH_PADDING) {
+				singleTile[i] = getTileSize(dims[i], tiling[i], axis);
+				if (singleTile[i] > axis.getMin() && (maxDim < 0 ||
+						singleTile[i] > singleTile[maxDim])) {
+					maxDim = i;
+				}
+			}
+		}
+		return maxDim;
+	}
+
 	private RandomAccessibleInterval<TI> expandToFitBatchSize(InputImageNode inputNode, RandomAccessibleInterval<TI> img, long[] tiling) {
 		for (int i = 0; i < inputNode.numDimensions(); i++) {
 			ModelZooAxis axis = inputNode.getDataAxis(i);
@@ -318,7 +974,7 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 		return tileSize;
 	}
 
-	private long getTileSize(long imgDimension, long tiling, ModelZooAxis axis) {
+	static long getTileSize(long imgDimension, long tiling, ModelZooAxis axis) {
 		Integer step = axis.getStep();
 		Integer min = axis.getMin();
 		if (step == null) step = 1;
@@ -329,19 +985,68 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 		return Math.max(res, min);
 	}
 
+	/**
+	 * Expands the image to a multiple of the tile size. If the input is stored in chunks, the tiles are aligned
+	 * to the chunks where the step of the axis allows, which might increase the number of tiles.
+	 */
 	private RandomAccessibleInterval<TI> expandToFitBlockSize(
 			InputImageNode inputNode, RandomAccessibleInterval<TI> dataset, long[] tiling) {
+		long[] chunkSize = getInputChunkSize();
 		for (int i = 0; i < dataset.numDimensions(); i++) {
 			ModelZooAxis axis = inputNode.getDataAxis(i);
 			if (axis.getTiling() == TilingAction.TILE_WITH_PADDING) {
 				long tileSize = getTileSize(dataset.dimension(i), tiling[i], axis);
-				System.out.println("tile size " + i + ": " + tileSize + " step: " + axis.getStep());
+				if(chunkSize != null && i < chunkSize.length && tiling[i] > 1) {
+					long alignedTileSize = alignToChunks(dataset.dimension(i), tiling[i], tileSize, chunkSize[i], axis);
+					if(alignedTileSize != tileSize) {
+						tileSize = alignedTileSize;
+						tiling[i] = (dataset.dimension(i) + tileSize - 1) / tileSize;
+					}
+				}
+				log.debug("tile size " + i + ": " + tileSize + " step: " + axis.getStep());
 				dataset = expandDimToSize(dataset, i, tileSize * tiling[i]);
 			}
 		}
 		return dataset;
 	}
 
+	/**
+	 * @return a tile size which is a multiple of both the chunk size and the step of the axis: the next smaller one if it does not
+	 * increase the number of tiles, otherwise the next larger one if it is at most a quarter larger, otherwise the given tile size
+	 */
+	static long alignToChunks(long dimension, long tiles, long tileSize, long chunkSize, ModelZooAxis axis) {
+		long step = axis.getStep() == null || axis.getStep() <= 0 ? 1 : axis.getStep();
+		long min = axis.getMin() == null ? 1 : axis.getMin();
+		if(chunkSize <= 1) return tileSize;
+		long multiple = chunkSize / gcd(chunkSize, step) * step;
+		long smaller = tileSize / multiple * multiple;
+		if(smaller >= Math.max(min, 1) && (dimension + smaller - 1) / smaller <= tiles) return smaller;
+		long larger = smaller + multiple;
+		if(4 * (larger - tileSize) <= tileSize) return larger;
+		return tileSize;
+	}
+
+	private static long gcd(long a, long b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	/**
+	 * @return the cell dimensions of the input image if it is a cell image (e.g. read from an N5 or Zarr dataset), null otherwise
+	 */
+	private long[] getInputChunkSize() {
+		ImageDataReference<?> original = inputNode.getOriginalData();
+		Object data = original == null ? null : original.getData();
+		if(data instanceof Dataset) data = ((Dataset) data).getImgPlus();
+		if(data instanceof ImgPlus) data = ((ImgPlus<?>) data).getImg();
+		if(!(data instanceof AbstractCellImg)) return null;
+		CellGrid grid = ((AbstractCellImg<?, ?, ?, ?>) data).getCellGrid();
+		long[] chunkSize = new long[grid.numDimensions()];
+		for (int d = 0; d < chunkSize.length; d++) {
+			chunkSize[d] = grid.cellDimension(d);
+		}
+		return chunkSize;
+	}
+
 	private static <T> RandomAccessibleInterval<T> expandDimToSize(
 			final RandomAccessibleInterval<T> im, final int d, final long size) {
 		final int n = im.numDimensions();
@@ -354,13 +1059,89 @@ class TiledImageDataReference<TI extends RealType<TI> & NativeType<TI>> extends
 				max));
 	}
 
-	void assignNextTile() {
-		inputNode.setData(new DefaultImageDataReference<>(tiledInputViewCursor.next(), getDataType()));
+	int assignNextTile() {
+		if(tilesPerBatch > 1) {
+			ImageDataReference<TI> batch = copyNextInputTile();
+			inputNode.setData(batch);
+			return getTileCount(batch);
+		}
+		List<Long> tiles = takeNextInputTiles();
+		RandomAccessibleInterval<TI> tile = getInputTile(getInputTilePosition(tiles.get(0)));
+		predictedVoxels.addAndGet(Intervals.numElements(tile));
+		inputNode.setData(new DefaultImageDataReference<>(tile, getDataType()));
+		batchTileCounts.add(1);
+		return 1;
+	}
+
+	synchronized boolean hasNextInputTile() {
+		skipRestoredInputTiles();
+		return inputTileIndex < getTilesTotalCount();
+	}
+
+	/**
+	 * Copies the next tile (or the next {@link #tilesPerBatch} tiles of the same size, stacked along the batch axis) into memory.
+	 */
+	ImageDataReference<TI> copyNextInputTile() {
+		List<Long> tiles = takeNextInputTiles();
+		batchTileCounts.add(tiles.size());
+		return copyInputTiles(tiles);
+	}
+
+	/**
+	 * Advances to the next tile (or the next {@link #tilesPerBatch} tiles of the same size) of the input.
+	 *
+	 * @return the indices of the tiles, empty if there are no tiles left
+	 */
+	synchronized List<Long> takeNextInputTiles() {
+		List<Long> res = new ArrayList<>();
+		Interval first = null;
+		while(res.size() < tilesPerBatch && hasNextInputTile()) {
+			Interval tile = getInputTileInterval(getInputTilePosition(inputTileIndex));
+			if(first != null && !Intervals.equalDimensions(first, tile)) break;
+			first = tile;
+			res.add(inputTileIndex++);
+		}
+		return res;
+	}
+
+	/**
+	 * Copies the given tiles into memory, stacked along the batch axis if there is more than one tile.
+	 */
+	ImageDataReference<TI> copyInputTiles(List<Long> tileIndices) {
+		List<RandomAccessibleInterval<TI>> tiles = new ArrayList<>();
+		for (Long tile : tileIndices) {
+			tiles.add(getInputTile(getInputTilePosition(tile)));
+			predictedVoxels.addAndGet(Intervals.numElements(tiles.get(tiles.size() - 1)));
+		}
+		TI type = getDataType();
+		if(type == null) type = Util.getTypeFromInterval(tiles.get(0)).createVariable();
+		long[] dims = Intervals.dimensionsAsLongArray(tiles.get(0));
+		if(tiles.size() > 1) dims[batchDim] *= tiles.size();
+		Img<TI> copy = new ArrayImgFactory<>(type).create(dims);
+		for (int k = 0; k < tiles.size(); k++) {
+			RandomAccessibleInterval<TI> target = tiles.size() > 1 ? batchSlice(copy, batchDim, k, tiles.size()) : copy;
+			LoopBuilder.setImages(tiles.get(k), target).multiThreaded().forEachPixel((in, out) -> out.set(in));
+		}
+		return new DefaultImageDataReference<>(copy, type);
+	}
+
+	private int getInputBatchDim() {
+		for (int i = 0; i < getData().numDimensions(); i++) {
+			if (inputNode.getDataAxis(i).getTiling() == TilingAction.TILE_WITHOUT_PADDING) return i;
+		}
+		return -1;
 	}
 
 	public void assignFullOutput() {
 		for (TiledOutput<?> tiledOutput : tiledOutputs) {
-			tiledOutput.outputNode.setData(new DefaultImageDataReference(tiledOutput.outputData, tiledOutput.outputNode.getData().getDataType()));
+			if(tiledOutput.chunkWriter != null) {
+				try {
+					tiledOutput.chunkWriter.finish();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			tiledOutput.outputNode.setData(new DefaultImageDataReference(tiledOutput.outputData, tiledOutput.outputType));
 		}
 	}
 }
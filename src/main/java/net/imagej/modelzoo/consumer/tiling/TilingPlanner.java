@@ -0,0 +1,347 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.ModelZooAxis;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Estimates the memory needed to predict a single tile and chooses the number of tiles and the batch size
+ * so that one prediction fits into a given memory budget, before running the model.
+ */
+public class TilingPlanner {
+
+	public static class Plan {
+		private final long[] tiling;
+		private final int batchSize;
+		private final long estimatedBytes;
+		private final boolean fitsBudget;
+		private final double overhead;
+
+		Plan(long[] tiling, int batchSize, long estimatedBytes, boolean fitsBudget, double overhead) {
+			this.tiling = tiling;
+			this.batchSize = batchSize;
+			this.estimatedBytes = estimatedBytes;
+			this.fitsBudget = fitsBudget;
+			this.overhead = overhead;
+		}
+
+		public int getNumberOfTiles() {
+			return (int) arrayProduct(tiling);
+		}
+
+		/**
+		 * @return number of tiles along each dimension of the input
+		 */
+		public long[] getTiling() {
+			return tiling.clone();
+		}
+
+		/**
+		 * @return voxels predicted in addition to the input voxels (halo and expansion to the tile grid), relative to the number of input voxels
+		 */
+		public double getOverhead() {
+			return overhead;
+		}
+
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		public long getEstimatedBytes() {
+			return estimatedBytes;
+		}
+
+		/**
+		 * @return false if even the smallest possible tile exceeds the budget
+		 */
+		public boolean fitsBudget() {
+			return fitsBudget;
+		}
+	}
+
+	private static final int tensorBytesPerPixel = 4;
+	private final InputImageNode inputNode;
+	private final List<OutputImageNode> outputNodes;
+	private int defaultHalo = 32;
+	private double activationFactor = 4;
+
+	public TilingPlanner(InputImageNode inputNode, List<OutputImageNode> outputNodes) {
+		this.inputNode = inputNode;
+		this.outputNodes = outputNodes;
+	}
+
+	public void setDefaultHalo(int defaultHalo) {
+		this.defaultHalo = defaultHalo;
+	}
+
+	/**
+	 * @param activationFactor Memory used by the intermediate layers of the network, relative to the input and output tensors.
+	 *                         It is not part of the model specification and has to be guessed.
+	 */
+	public void setActivationFactor(double activationFactor) {
+		this.activationFactor = activationFactor;
+	}
+
+	/**
+	 * Starts with a single tile and the given batch size and halves the batch size until the estimated memory
+	 * of one prediction fits into the budget. If a single tile does not fit, the number of tiles along each
+	 * tiled dimension is chosen so that the least voxels are predicted in total, counting the halo of all tiles.
+	 */
+	public Plan plan(long memoryBudget, int maxBatchSize) {
+		long[] dims = Intervals.dimensionsAsLongArray(inputNode.getData().getData());
+		long[] padding = TiledImageDataReference.getPadding(inputNode, defaultHalo);
+		long[] tiling = new long[dims.length];
+		Arrays.fill(tiling, 1);
+		int batchSize = Math.max(1, maxBatchSize);
+		while (true) {
+			long bytes = estimateBytes(getTileSize(dims, tiling, batchSize, padding));
+			if (bytes <= memoryBudget) return new Plan(tiling, batchSize, bytes, true, getOverhead(dims, tiling, batchSize, padding));
+			if (batchSize == 1) break;
+			batchSize /= 2;
+		}
+		TilingSearch search = new TilingSearch(dims, padding, memoryBudget);
+		search.run(0, 1);
+		if (search.best != null) {
+			return new Plan(search.best, 1, search.bestBytes, true, getOverhead(dims, search.best, 1, padding));
+		}
+		for (int i = 0; i < dims.length; i++) {
+			List<Long> counts = search.counts.get(i);
+			tiling[i] = counts.get(counts.size() - 1);
+		}
+		return new Plan(tiling, 1, estimateBytes(getTileSize(dims, tiling, 1, padding)), false, getOverhead(dims, tiling, 1, padding));
+	}
+
+	/**
+	 * Enumerates the number of tiles along each tiled dimension, skipping counts which result in the same tile size.
+	 * The total number of predicted voxels is the product of the voxels predicted along each dimension,
+	 * which allows discarding most combinations early.
+	 */
+	private class TilingSearch {
+		private final long[] dims;
+		private final long[] padding;
+		private final long memoryBudget;
+		private final List<List<Long>> counts = new ArrayList<>();
+		private final List<double[]> voxels = new ArrayList<>();
+		// lowest number of voxels along a dimension when using the given or a higher tile count
+		private final List<double[]> minVoxels = new ArrayList<>();
+		private final long[] tiling;
+		private long[] best;
+		private double bestVoxels = Double.MAX_VALUE;
+		private long bestBytes;
+
+		TilingSearch(long[] dims, long[] padding, long memoryBudget) {
+			this.dims = dims;
+			this.padding = padding;
+			this.memoryBudget = memoryBudget;
+			tiling = new long[dims.length];
+			for (int i = 0; i < dims.length; i++) {
+				List<Long> dimCounts = getTileCounts(i);
+				double[] dimVoxels = new double[dimCounts.size()];
+				double[] dimMinVoxels = new double[dimCounts.size()];
+				for (int c = 0; c < dimVoxels.length; c++) {
+					dimVoxels[c] = getPredictedLength(dims[i], i, dimCounts.get(c), 1, padding[i]);
+				}
+				for (int c = dimVoxels.length - 1; c >= 0; c--) {
+					dimMinVoxels[c] = c == dimVoxels.length - 1 ? dimVoxels[c] : Math.min(dimVoxels[c], dimMinVoxels[c + 1]);
+				}
+				counts.add(dimCounts);
+				voxels.add(dimVoxels);
+				minVoxels.add(dimMinVoxels);
+			}
+		}
+
+		private List<Long> getTileCounts(int dim) {
+			List<Long> res = new ArrayList<>();
+			res.add(1L);
+			ModelZooAxis axis = inputNode.getDataAxis(dim);
+			if (axis.getTiling() != TilingAction.TILE_WITH_PADDING) return res;
+			long tileSize = TiledImageDataReference.getTileSize(dims[dim], 1, axis);
+			Integer min = axis.getMin();
+			for (long tiles = 2; tiles <= dims[dim] && (min == null || tileSize > min); tiles++) {
+				long size = TiledImageDataReference.getTileSize(dims[dim], tiles, axis);
+				if (size == tileSize) continue;
+				tileSize = size;
+				res.add(tiles);
+			}
+			return res;
+		}
+
+		void run(int dim, double partialVoxels) {
+			if (dim == dims.length) {
+				if (partialVoxels >= bestVoxels) return;
+				long bytes = estimateBytes(getTileSize(dims, tiling, 1, padding));
+				if (bytes > memoryBudget) return;
+				best = tiling.clone();
+				bestVoxels = partialVoxels;
+				bestBytes = bytes;
+				return;
+			}
+			double remaining = 1;
+			for (int i = dim + 1; i < dims.length; i++) {
+				remaining *= minVoxels.get(i)[0];
+			}
+			for (int c = 0; c < counts.get(dim).size(); c++) {
+				if (partialVoxels * minVoxels.get(dim)[c] * remaining >= bestVoxels) break;
+				tiling[dim] = counts.get(dim).get(c);
+				run(dim + 1, partialVoxels * voxels.get(dim)[c]);
+			}
+		}
+	}
+
+	/**
+	 * @return voxels predicted along one dimension, summed over all tiles along this dimension
+	 */
+	private long getPredictedLength(long size, int dim, long tiles, int batchSize, long padding) {
+		ModelZooAxis axis = inputNode.getDataAxis(dim);
+		long block = getBlockSize(size, tiles, batchSize, axis);
+		long count = getBlockCount(size, tiles, batchSize, axis);
+		long res = 0;
+		for (long k = 0; k < count; k++) {
+			res += getTileLength(k, block, block * count, padding);
+		}
+		return res;
+	}
+
+	private double getOverhead(long[] dims, long[] tiling, int batchSize, long[] padding) {
+		double predicted = 1;
+		for (int i = 0; i < dims.length; i++) {
+			predicted *= getPredictedLength(dims[i], i, tiling[i], batchSize, padding[i]);
+		}
+		return predicted / arrayProduct(dims) - 1;
+	}
+
+	/**
+	 * @return size of tile k including its halo, which is omitted towards the border
+	 */
+	private static long getTileLength(long k, long block, long extent, long padding) {
+		return Math.min(extent, (k + 1) * block + padding) - Math.max(0, k * block - padding);
+	}
+
+	/**
+	 * The tile length is concave in the tile index, the maximum is at the border or where the halo stops being cut.
+	 */
+	private static long getMaxTileLength(long block, long count, long padding) {
+		long extent = block * count;
+		long left = padding / block;
+		long right = (extent - padding) / block - 1;
+		long res = 0;
+		for (long k : new long[]{0, count - 1, left - 1, left, left + 1, right - 1, right, right + 1}) {
+			if (k < 0 || k >= count) continue;
+			res = Math.max(res, getTileLength(k, block, extent, padding));
+		}
+		return res;
+	}
+
+	private static long getBlockSize(long size, long tiles, int batchSize, ModelZooAxis axis) {
+		if (axis.getTiling() == TilingAction.TILE_WITH_PADDING) {
+			return TiledImageDataReference.getTileSize(size, tiles, axis);
+		}
+		if (axis.getTiling() == TilingAction.TILE_WITHOUT_PADDING) {
+			return TiledImageDataReference.getTileSize(size, getBlockCount(size, tiles, batchSize, axis), axis);
+		}
+		return size;
+	}
+
+	private static long getBlockCount(long size, long tiles, int batchSize, ModelZooAxis axis) {
+		if (axis.getTiling() == TilingAction.TILE_WITH_PADDING) return tiles;
+		if (axis.getTiling() == TilingAction.TILE_WITHOUT_PADDING) return (long) Math.ceil((double) size / batchSize);
+		return 1;
+	}
+
+	/**
+	 * The input tile (including padding) and all output tiles are held in memory as image and as tensor.
+	 * The intermediate layers of the network are accounted for via the activation factor.
+	 *
+	 * @param inputTileSize Size of one input tile including padding
+	 * @return Estimated peak memory in bytes needed for predicting one tile
+	 */
+	long estimateBytes(long[] inputTileSize) {
+		long inputPixels = arrayProduct(inputTileSize);
+		long imageBytes = inputPixels * bytesPerPixel(inputNode.getData());
+		long tensorPixels = inputPixels;
+		AxisType[] inputAxes = inputNode.getDataAxesArray();
+		for (OutputImageNode outputNode : outputNodes) {
+			long outputPixels = 1;
+			for (int i = 0; i < outputNode.numDimensions(); i++) {
+				ModelZooAxis outputAxis = outputNode.getDataAxis(i);
+				Double scale = outputAxis.getScale();
+				Integer offset = outputAxis.getOffset();
+				if(scale == null) scale = 1.;
+				if(offset == null) offset = 0;
+				for (int j = 0; j < inputAxes.length; j++) {
+					if (inputAxes[j].equals(outputAxis.getType())) {
+						outputPixels *= Math.max(1, (long) (inputTileSize[j] * scale + offset));
+						break;
+					}
+				}
+			}
+			imageBytes += outputPixels * bytesPerPixel(outputNode.getData());
+			tensorPixels += outputPixels;
+		}
+		long tensorBytes = tensorPixels * tensorBytesPerPixel;
+		return imageBytes + (long) (tensorBytes * (1 + activationFactor));
+	}
+
+	/**
+	 * @return size of the largest tile including its halo
+	 */
+	private long[] getTileSize(long[] dims, long[] tiling, int batchSize, long[] padding) {
+		long[] tileSize = new long[dims.length];
+		for (int i = 0; i < dims.length; i++) {
+			ModelZooAxis axis = inputNode.getDataAxis(i);
+			long block = getBlockSize(dims[i], tiling[i], batchSize, axis);
+			tileSize[i] = getMaxTileLength(block, getBlockCount(dims[i], tiling[i], batchSize, axis), padding[i]);
+		}
+		return tileSize;
+	}
+
+	private static long bytesPerPixel(ImageDataReference<?> reference) {
+		if (reference == null || reference.getDataType() == null) return tensorBytesPerPixel;
+		return Math.max(1, ((RealType<?>) reference.getDataType()).getBitsPerPixel() / 8);
+	}
+
+	private static long arrayProduct(long[] array) {
+		long rtn = 1;
+		for (long i : array) {
+			rtn *= i;
+		}
+		return rtn;
+	}
+}
@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.io;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Persistent cache of files extracted from model archives, so that loading a model again does not extract the weights again.
+ * Entries are identified by their name, size and CRC-32 checksum as recorded in the archive, which identifies their content
+ * without reading the archive. Entries stored without compression are copied from the archive by the file system
+ * (see {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}) instead of through buffers.
+ * If the cached files exceed {@link #setMaxBytes(long)}, the least recently used files are deleted.
+ */
+public class ArchiveEntryCache {
+
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	private final Path directory;
+	private long maxBytes;
+
+	public ArchiveEntryCache(Path directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	public static Path getDefaultDirectory() {
+		return Paths.get(System.getProperty("user.home"), ".imagej", "modelzoo", "extracted");
+	}
+
+	/**
+	 * @param archive the ZIP archive
+	 * @param entryName the path of the file in the archive
+	 * @return the extracted file, which is owned by the cache and must not be modified or deleted
+	 * @throws FileNotFoundException if the archive does not contain the entry
+	 */
+	public File extract(File archive, String entryName) throws IOException {
+		try (ZipFile zip = new ZipFile(archive)) {
+			ZipArchiveEntry entry = zip.getEntry(entryName);
+			if(entry == null) throw new FileNotFoundException("No entry " + entryName + " in " + archive);
+			Path target = directory.resolve(getKey(archive, entry));
+			if(Files.isRegularFile(target) && Files.size(target) == entry.getSize()) {
+				Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+				return target.toFile();
+			}
+			Files.createDirectories(directory);
+			Path partial = Files.createTempFile(directory, target.getFileName().toString(), PARTIAL_SUFFIX);
+			try {
+				if(entry.getMethod() == ZipEntry.STORED && entry.getDataOffset() >= 0) {
+					transfer(archive, entry.getDataOffset(), entry.getSize(), partial);
+				} else {
+					try (InputStream in = zip.getInputStream(entry)) {
+						Files.copy(in, partial, StandardCopyOption.REPLACE_EXISTING);
+					}
+				}
+				move(partial, target);
+			} finally {
+				Files.deleteIfExists(partial);
+			}
+			evict(target);
+			return target.toFile();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files until the cache does not exceed its maximal size.
+	 */
+	public void evict() throws IOException {
+		evict(null);
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	private synchronized void evict(Path keep) throws IOException {
+		if(!Files.isDirectory(directory)) return;
+		List<Path> files;
+		try (Stream<Path> list = Files.list(directory)) {
+			files = list.filter(path -> Files.isRegularFile(path) && !path.toString().endsWith(PARTIAL_SUFFIX))
+					.collect(Collectors.toCollection(ArrayList::new));
+		}
+		long size = 0;
+		for (Path file : files) {
+			size += Files.size(file);
+		}
+		files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+		for (Path file : files) {
+			if(size <= maxBytes) break;
+			if(file.equals(keep)) continue;
+			long fileSize = Files.size(file);
+			// files which are still being read can't be deleted on some systems
+			if(file.toFile().delete()) size -= fileSize;
+		}
+	}
+
+	private static void transfer(File archive, long offset, long size, Path target) throws IOException {
+		try (FileChannel in = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+		     FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long position = 0;
+			while(position < size) {
+				long transferred = in.transferTo(offset + position, size - position, out);
+				if(transferred <= 0) throw new IOException("Unexpected end of " + archive);
+				position += transferred;
+			}
+		}
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @return a file name identifying the content of the entry, keeping the file name of the entry
+	 */
+	private static String getKey(File archive, ZipArchiveEntry entry) {
+		String id = entry.getName() + "_" + entry.getSize() + "_" + entry.getCrc();
+		// without checksum, only the archive itself identifies the content
+		if(entry.getCrc() < 0) id += "_" + archive.getAbsolutePath() + "_" + archive.lastModified();
+		return sha1(id) + "_" + new File(entry.getName()).getName();
+	}
+
+	private static String sha1(String text) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+			StringBuilder res = new StringBuilder();
+			for (byte b : digest) {
+				res.append(String.format("%02x", b));
+			}
+			return res.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -28,20 +28,39 @@
  */
 package net.imagej.modelzoo.io;
 
+import io.scif.services.DatasetIOService;
 import net.imagej.modelzoo.ModelZooArchive;
 import io.bioimage.specification.ModelSpecification;
 import org.scijava.io.event.IOEvent;
 import org.scijava.io.location.Location;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.service.AbstractService;
 import org.scijava.service.Service;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Plugin(type = Service.class)
 public class DefaultModelZooIOService extends AbstractService implements ModelZooIOService {
 
+	private static final int MAX_CACHED_SAMPLES = 8;
+
+	// TODO remove when compatible with scifio 0.41.2
+	@Parameter
+	private DatasetIOService datasetIOService;
+
+	private final ArchiveEntryCache extractionCache = new ArchiveEntryCache(ArchiveEntryCache.getDefaultDirectory(), 4L << 30);
+	private final Map<String, Object> samples = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+			return size() > MAX_CACHED_SAMPLES;
+		}
+	};
+
 	@Override
 	public ModelZooArchive open(String location) throws IOException {
 		return createIOPlugin().open(location);
@@ -78,6 +97,40 @@ public class DefaultModelZooIOService extends AbstractService implements ModelZo
 		createIOPlugin().save(archivePath, specification, location);
 	}
 
+	@Override
+	public ArchiveEntryCache extractionCache() {
+		return extractionCache;
+	}
+
+	@Override
+	public Object openSample(File archive, String path) throws IOException {
+		String key = archive.getAbsolutePath() + "_" + archive.lastModified() + "_" + path;
+		synchronized (samples) {
+			if(samples.containsKey(key)) return samples.get(key);
+		}
+		File sampleFile;
+		try {
+			sampleFile = extractionCache.extract(archive, path);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		// TODO scifio DatasetIOPlugin fixed in future versions (fixed in 0.41.2)
+		//Object sample = ioService.open(sampleFile.getAbsolutePath());
+		Object sample = datasetIOService.open(sampleFile.getAbsolutePath());
+		synchronized (samples) {
+			samples.put(key, sample);
+		}
+		return sample;
+	}
+
+	@Override
+	public void dispose() {
+		synchronized (samples) {
+			samples.clear();
+		}
+		super.dispose();
+	}
+
 	private ModelZooIOPlugin createIOPlugin() {
 		ModelZooIOPlugin modelZooIOPlugin = new ModelZooIOPlugin();
 		getContext().inject(modelZooIOPlugin);
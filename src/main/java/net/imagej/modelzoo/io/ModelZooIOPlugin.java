@@ -33,15 +33,11 @@ import io.bioimage.specification.DefaultModelSpecification;
 import io.bioimage.specification.ModelSpecification;
 import io.bioimage.specification.io.SpecificationReader;
 import io.bioimage.specification.io.SpecificationWriter;
-import io.scif.services.DatasetIOService;
 import net.imagej.DatasetService;
 import net.imagej.modelzoo.DefaultModelZooArchive;
-import net.imagej.modelzoo.ImageTensorSample;
 import net.imagej.modelzoo.ModelZooArchive;
 import net.imagej.modelzoo.consumer.model.TensorSample;
 import net.imagej.modelzoo.specification.ImageJModelSpecification;
-import net.imglib2.RandomAccessibleInterval;
-import org.jetbrains.annotations.NotNull;
 import org.scijava.app.StatusService;
 import org.scijava.io.AbstractIOPlugin;
 import org.scijava.io.IOPlugin;
@@ -53,10 +49,8 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
@@ -88,9 +82,8 @@ public class ModelZooIOPlugin extends AbstractIOPlugin<ModelZooArchive> {
 	@Parameter
 	private DatasetService datasetService;
 
-	// TODO remove when compatible with scifio 0.41.2
 	@Parameter
-	private DatasetIOService datasetIOService;
+	private ModelZooIOService modelZooIOService;
 
 	@Override
 	public ModelZooArchive open(Location source) throws IOException {
@@ -122,7 +115,7 @@ public class ModelZooIOPlugin extends AbstractIOPlugin<ModelZooArchive> {
 			}
 			inSpec.close();
 			archive.setSpecification(specification);
-			setSampleImages(archive, specification, zf);
+			setSampleImages(archive, specification, new File(zf.getName()));
 		}
 		statusService.showStatus("Done opening " + source + ".");
 		return archive;
@@ -141,29 +134,24 @@ public class ModelZooIOPlugin extends AbstractIOPlugin<ModelZooArchive> {
 		return open(location);
 	}
 
-	private void setSampleImages(DefaultModelZooArchive archive, DefaultModelSpecification specification, ZipFile zf) throws IOException {
+	private void setSampleImages(DefaultModelZooArchive archive, DefaultModelSpecification specification, File source) {
+		// samples are only read from the archive when they are used
 		if(specification.getSampleInputs() != null) {
 			List<TensorSample> sampleInputs = new ArrayList<>();
 			for (String sampleInput : specification.getSampleInputs()) {
-				sampleInputs.add(extractImageSample(zf, sampleInput));
+				sampleInputs.add(new ArchiveTensorSample(modelZooIOService, source, sampleInput));
 			}
 			archive.setSampleInputs(sampleInputs);
 		}
 		if(specification.getSampleOutputs() != null) {
 			List<TensorSample> sampleOutputs = new ArrayList<>();
 			for (String sampleOutput : specification.getSampleOutputs()) {
-				sampleOutputs.add(extractImageSample(zf,sampleOutput));
+				sampleOutputs.add(new ArchiveTensorSample(modelZooIOService, source, sampleOutput));
 			}
 			archive.setSampleOutputs(sampleOutputs);
 		}
 	}
 
-	@NotNull
-	private ImageTensorSample extractImageSample(ZipFile zf, String sampleInput) throws IOException {
-		return new ImageTensorSample<>((RandomAccessibleInterval)extract(zf,sampleInput), sampleInput);
-	}
-
-
 	@Override
 	public void save(ModelZooArchive archive, Location destination) throws IOException {
 		save(archive, destination.getURI().getPath());
@@ -257,33 +245,6 @@ public class ModelZooIOPlugin extends AbstractIOPlugin<ModelZooArchive> {
 		return destination.getURI().getPath().endsWith("bioimage.io.zip");
 	}
 
-	private Object extract(ZipFile zf, String testInputLocation) throws IOException {
-		ZipEntry entry;
-		try {
-			entry = zf.getEntry(testInputLocation);
-		} catch (NullPointerException e) {
-			entry = null;
-		}
-		if (entry == null) return null;
-		InputStream inputStream = zf.getInputStream(entry);
-		File tmpTestInput = Files.createTempFile("", entry.getName()).toFile();
-		byte[] buffer = new byte[8 * 1024];
-		int bytesRead;
-		OutputStream outStream = new FileOutputStream(tmpTestInput);
-		while ((bytesRead = inputStream.read(buffer)) != -1) {
-			outStream.write(buffer, 0, bytesRead);
-		}
-		outStream.close();
-		inputStream.close();
-
-		// TODO scifio DatasetIOPlugin fixed in future versions (fixed in 0.41.2)
-		//Object result = ioService.open(tmpTestInput.getAbsolutePath());
-		Object result = datasetIOService.open(tmpTestInput.getAbsolutePath());
-
-		tmpTestInput.delete();
-		return result;
-	}
-
 	public void save(String archivePath, ModelSpecification specification, String location) throws IOException {
 		DefaultModelZooArchive archive = new DefaultModelZooArchive();
 		archive.setLocation(new FileLocation(archivePath));
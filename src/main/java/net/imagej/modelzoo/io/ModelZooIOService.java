@@ -47,4 +47,15 @@ public interface ModelZooIOService extends ImageJService {
 	void save(ModelZooArchive trainedModel, Location location) throws IOException;
 	void save(String archivePath, ModelSpecification specification, String location) throws IOException;
 
+	/**
+	 * @return the cache of files extracted from model archives
+	 */
+	ArchiveEntryCache extractionCache();
+
+	/**
+	 * Reads a sample image from a model archive. The most recently read samples are kept in memory.
+	 * @return the decoded sample, null if the archive does not contain the given path
+	 */
+	Object openSample(File archive, String path) throws IOException;
+
 }
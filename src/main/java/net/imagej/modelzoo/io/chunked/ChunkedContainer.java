@@ -0,0 +1,175 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.io.chunked;
+
+import com.google.gson.Gson;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes each output into a dataset of an N5, Zarr or OME-Zarr container on disk.
+ * OME-Zarr outputs are stored as image groups with a single resolution level.
+ */
+public class ChunkedContainer implements OutputSink {
+
+	public enum Format {
+		N5, ZARR, OME_ZARR
+	}
+
+	private final Path root;
+	private final Format format;
+	private ChunkedDataset.Compression compression = ChunkedDataset.Compression.GZIP;
+
+	public ChunkedContainer(Path root, Format format) {
+		this.root = root;
+		this.format = format;
+	}
+
+	public static ChunkedContainer n5(Path root) {
+		return new ChunkedContainer(root, Format.N5);
+	}
+
+	public static ChunkedContainer zarr(Path root) {
+		return new ChunkedContainer(root, Format.ZARR);
+	}
+
+	public static ChunkedContainer omeZarr(Path root) {
+		return new ChunkedContainer(root, Format.OME_ZARR);
+	}
+
+	/**
+	 * @return container in the format matching the extension of the path ({@code .n5}, {@code .ome.zarr} or {@code .zarr}), null for other paths
+	 */
+	public static ChunkedContainer forPath(Path root) {
+		String name = root.getFileName().toString().toLowerCase();
+		if(name.endsWith(".n5")) return n5(root);
+		if(name.endsWith(".ome.zarr")) return omeZarr(root);
+		if(name.endsWith(".zarr")) return zarr(root);
+		return null;
+	}
+
+	public ChunkedContainer setCompression(ChunkedDataset.Compression compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	@Override
+	public <T extends RealType<T> & NativeType<T>> ChunkedDataset<T> createDataset(String name, long[] dimensions, int[] chunkSize, T type, AxisType[] axes) throws IOException {
+		Path directory = root.resolve(toDatasetName(name));
+		switch (format) {
+			case N5:
+				writeJsonIfMissing(root.resolve(N5Dataset.ATTRIBUTES), Collections.singletonMap("n5", "2.0.0"));
+				return N5Dataset.create(directory, dimensions, chunkSize, type, compression);
+			case OME_ZARR:
+				writeJsonIfMissing(root.resolve(".zgroup"), Collections.singletonMap("zarr_format", 2));
+				Files.createDirectories(directory);
+				writeJson(directory.resolve(".zgroup"), Collections.singletonMap("zarr_format", 2));
+				writeJson(directory.resolve(".zattrs"), createMultiscales(name, axes));
+				return ZarrDataset.create(directory.resolve("0"), dimensions, chunkSize, type, compression);
+			default:
+				writeJsonIfMissing(root.resolve(".zgroup"), Collections.singletonMap("zarr_format", 2));
+				return ZarrDataset.create(directory, dimensions, chunkSize, type, compression);
+		}
+	}
+
+	/**
+	 * Replaces characters which are not allowed in dataset paths, e.g. the slashes in TensorFlow node names.
+	 */
+	static String toDatasetName(String name) {
+		String res = name == null ? "" : name.replaceAll("[^A-Za-z0-9_.\\-]", "_");
+		return res.isEmpty() || res.startsWith(".") ? "output" + res : res;
+	}
+
+	private static Map<String, Object> createMultiscales(String name, AxisType[] axes) {
+		List<Map<String, Object>> axesMetadata = new ArrayList<>();
+		List<Double> scale = new ArrayList<>();
+		// OME-Zarr lists the axes in Zarr order, reversed compared to imglib2
+		for (int i = axes.length - 1; i >= 0; i--) {
+			Map<String, Object> axis = new HashMap<>();
+			axis.put("name", toAxisName(axes[i]));
+			if(axes[i] == Axes.TIME) axis.put("type", "time");
+			else if(axes[i] == Axes.CHANNEL) axis.put("type", "channel");
+			else if(axes[i].isSpatial()) axis.put("type", "space");
+			axesMetadata.add(axis);
+			scale.add(1.0);
+		}
+		Map<String, Object> transformation = new HashMap<>();
+		transformation.put("type", "scale");
+		transformation.put("scale", scale);
+		Map<String, Object> dataset = new HashMap<>();
+		dataset.put("path", "0");
+		dataset.put("coordinateTransformations", Collections.singletonList(transformation));
+		Map<String, Object> multiscale = new HashMap<>();
+		multiscale.put("version", "0.4");
+		multiscale.put("name", name);
+		multiscale.put("axes", axesMetadata);
+		multiscale.put("datasets", Collections.singletonList(dataset));
+		return Collections.singletonMap("multiscales", Collections.singletonList(multiscale));
+	}
+
+	private static String toAxisName(AxisType axis) {
+		if(axis == Axes.TIME) return "t";
+		if(axis == Axes.CHANNEL) return "c";
+		return axis.getLabel().toLowerCase();
+	}
+
+	private static void writeJsonIfMissing(Path file, Object content) throws IOException {
+		if(Files.exists(file)) return;
+		Files.createDirectories(file.getParent());
+		writeJson(file, content);
+	}
+
+	private static void writeJson(Path file, Object content) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			new Gson().toJson(content, writer);
+		}
+	}
+}
@@ -0,0 +1,453 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.io.chunked;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An n-dimensional array stored as one file per chunk, see {@link N5Dataset} and {@link ZarrDataset}.
+ * Dimensions and chunk positions are in imglib2 order (X first), values are stored big-endian in the same order,
+ * which is the order of N5 blocks and of Zarr chunks in C order with reversed shape.
+ * Chunks can be written and read from multiple threads, each chunk is written to a temporary file which is moved into place.
+ */
+public abstract class ChunkedDataset<T extends RealType<T> & NativeType<T>> {
+
+	public enum Compression {
+		RAW, GZIP
+	}
+
+	enum DataType {
+		UINT8(new UnsignedByteType(), "uint8", "|u1"),
+		INT8(new ByteType(), "int8", "|i1"),
+		UINT16(new UnsignedShortType(), "uint16", ">u2"),
+		INT16(new ShortType(), "int16", ">i2"),
+		UINT32(new UnsignedIntType(), "uint32", ">u4"),
+		INT32(new IntType(), "int32", ">i4"),
+		UINT64(new UnsignedLongType(), "uint64", ">u8"),
+		INT64(new LongType(), "int64", ">i8"),
+		FLOAT32(new FloatType(), "float32", ">f4"),
+		FLOAT64(new DoubleType(), "float64", ">f8");
+
+		final RealType<?> type;
+		final String n5Name;
+		final String zarrName;
+
+		DataType(RealType<?> type, String n5Name, String zarrName) {
+			this.type = type;
+			this.n5Name = n5Name;
+			this.zarrName = zarrName;
+		}
+
+		int bytes() {
+			return Integer.parseInt(zarrName.substring(2));
+		}
+
+		static DataType of(RealType<?> type) {
+			for (DataType dataType : values()) {
+				if(dataType.type.getClass() == type.getClass()) return dataType;
+			}
+			throw new IllegalArgumentException("Data type " + type.getClass().getSimpleName() + " cannot be stored in chunks");
+		}
+
+		static DataType fromN5(String name) throws IOException {
+			for (DataType dataType : values()) {
+				if(dataType.n5Name.equals(name)) return dataType;
+			}
+			throw new IOException("Unsupported N5 data type: " + name);
+		}
+
+		static DataType fromZarr(String name) throws IOException {
+			for (DataType dataType : values()) {
+				if(dataType.zarrName.equals(name) || (dataType.bytes() == 1 && dataType.zarrName.substring(1).equals(name.substring(1)))) return dataType;
+			}
+			throw new IOException("Unsupported Zarr data type: " + name + " (only big-endian types are supported)");
+		}
+	}
+
+	private final Path directory;
+	private final long[] dimensions;
+	private final int[] chunkSize;
+	private final DataType dataType;
+	private final Compression compression;
+	private final T type;
+
+	ChunkedDataset(Path directory, long[] dimensions, int[] chunkSize, DataType dataType, Compression compression) {
+		this.directory = directory;
+		this.dimensions = dimensions.clone();
+		this.chunkSize = chunkSize.clone();
+		this.dataType = dataType;
+		this.compression = compression;
+		this.type = (T) dataType.type.createVariable();
+	}
+
+	/**
+	 * Opens an N5 dataset, a Zarr array or the first resolution level of an OME-Zarr image.
+	 * If the path is a container with exactly one dataset, this dataset is opened.
+	 */
+	public static ChunkedDataset<?> open(Path path) throws IOException {
+		if(Files.exists(path.resolve(ZarrDataset.ZARRAY))) return ZarrDataset.open(path);
+		if(isN5Dataset(path)) return N5Dataset.open(path);
+		Path multiscale = getFirstMultiscaleDataset(path);
+		if(multiscale != null) return open(multiscale);
+		List<Path> datasets = new ArrayList<>();
+		if(Files.isDirectory(path)) {
+			try (Stream<Path> children = Files.list(path)) {
+				children.filter(child -> Files.exists(child.resolve(ZarrDataset.ZARRAY)) || isN5Dataset(child) || getFirstMultiscaleDataset(child) != null)
+						.forEach(datasets::add);
+			}
+		}
+		if(datasets.size() == 1) return open(datasets.get(0));
+		if(datasets.isEmpty()) throw new IOException("No N5 or Zarr dataset found in " + path);
+		throw new IOException("More than one dataset found in " + path + ", please choose one of " + datasets);
+	}
+
+	private static boolean isN5Dataset(Path path) {
+		Path attributes = path.resolve(N5Dataset.ATTRIBUTES);
+		if(!Files.exists(attributes)) return false;
+		try (Reader reader = Files.newBufferedReader(attributes, StandardCharsets.UTF_8)) {
+			JsonElement json = new JsonParser().parse(reader);
+			return json.isJsonObject() && json.getAsJsonObject().has("dimensions");
+		} catch (IOException | JsonParseException e) {
+			return false;
+		}
+	}
+
+	private static Path getFirstMultiscaleDataset(Path path) {
+		Path attributes = path.resolve(".zattrs");
+		if(!Files.exists(attributes)) return null;
+		try (Reader reader = Files.newBufferedReader(attributes, StandardCharsets.UTF_8)) {
+			JsonObject json = new JsonParser().parse(reader).getAsJsonObject();
+			JsonObject multiscale = json.getAsJsonArray("multiscales").get(0).getAsJsonObject();
+			return path.resolve(multiscale.getAsJsonArray("datasets").get(0).getAsJsonObject().get("path").getAsString());
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the dataset as image which reads the chunks when they are accessed, the chunks are kept in memory until it runs low
+	 */
+	public CachedCellImg<T, ?> getImage() {
+		return getImage(ReadOnlyCachedCellImgOptions.options().cacheType(ReadOnlyCachedCellImgOptions.CacheType.SOFTREF));
+	}
+
+	/**
+	 * @return the dataset as image which reads the chunks when they are accessed, keeping at most the given number of chunks in memory
+	 */
+	public CachedCellImg<T, ?> getImage(int maxCachedChunks) {
+		return getImage(ReadOnlyCachedCellImgOptions.options()
+				.cacheType(ReadOnlyCachedCellImgOptions.CacheType.BOUNDED)
+				.maxCacheSize(maxCachedChunks));
+	}
+
+	private CachedCellImg<T, ?> getImage(ReadOnlyCachedCellImgOptions options) {
+		CellGrid grid = getGrid();
+		CellLoader<T> loader = cell -> {
+			long[] chunkPosition = new long[grid.numDimensions()];
+			grid.getCellPosition(Intervals.minAsLongArray(cell), chunkPosition);
+			readChunk(chunkPosition, cell);
+		};
+		return new ReadOnlyCachedCellImgFactory(options.cellDimensions(chunkSize)).create(dimensions, getType(), loader);
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long[] getDimensions() {
+		return dimensions.clone();
+	}
+
+	public int[] getChunkSize() {
+		return chunkSize.clone();
+	}
+
+	public T getType() {
+		return type.createVariable();
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public CellGrid getGrid() {
+		return new CellGrid(dimensions, chunkSize);
+	}
+
+	/**
+	 * @return the part of the dataset covered by the chunk, smaller than the chunk size at the upper border
+	 */
+	public Interval getChunkInterval(long[] chunkPosition) {
+		long[] min = new long[dimensions.length];
+		long[] max = new long[dimensions.length];
+		for (int d = 0; d < dimensions.length; d++) {
+			min[d] = chunkPosition[d] * chunkSize[d];
+			max[d] = Math.min(dimensions[d], min[d] + chunkSize[d]) - 1;
+		}
+		return new FinalInterval(min, max);
+	}
+
+	/**
+	 * @param data the content of the chunk, with the dimensions of {@link #getChunkInterval(long[])}
+	 */
+	public void writeChunk(long[] chunkPosition, RandomAccessibleInterval<T> data) throws IOException {
+		Interval interval = getChunkInterval(chunkPosition);
+		if(!Intervals.equalDimensions(interval, data)) {
+			throw new IllegalArgumentException("Chunk data has dimensions " + Intervals.toString(data) + ", expected " + Intervals.toString(interval));
+		}
+		int[] blockSize = getStoredBlockSize(interval);
+		ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(blockElements(blockSize) * dataType.bytes()));
+		Cursor<T> cursor = Views.flatIterable(data).cursor();
+		if(Intervals.equalDimensions(data, new FinalInterval(toLongArray(blockSize)))) {
+			while(cursor.hasNext()) put(buffer, cursor.next());
+		} else {
+			// chunks of fixed size, padded at the upper border
+			long[] pos = new long[blockSize.length];
+			while(cursor.hasNext()) {
+				T value = cursor.next();
+				cursor.localize(pos);
+				buffer.position(Math.toIntExact(indexInBlock(pos, Intervals.minAsLongArray(data), blockSize) * dataType.bytes()));
+				put(buffer, value);
+			}
+		}
+		Path file = getChunkFile(chunkPosition);
+		Files.createDirectories(file.getParent());
+		Path partial = file.resolveSibling(file.getFileName() + "." + Thread.currentThread().getId() + ".part");
+		try (OutputStream out = Files.newOutputStream(partial)) {
+			writeHeader(out, blockSize);
+			out.write(encode(buffer.array()));
+		}
+		try {
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads the chunk into the target, which has the dimensions of {@link #getChunkInterval(long[])}.
+	 * Chunks which were not written are filled with zeros.
+	 */
+	public void readChunk(long[] chunkPosition, RandomAccessibleInterval<T> target) throws IOException {
+		byte[] bytes;
+		int[] blockSize;
+		try (InputStream in = Files.newInputStream(getChunkFile(chunkPosition))) {
+			blockSize = readHeader(in, getStoredBlockSize(getChunkInterval(chunkPosition)));
+			bytes = decode(in);
+		} catch (NoSuchFileException e) {
+			for (T value : Views.iterable(target)) value.setZero();
+			return;
+		}
+		if(blockSize.length != target.numDimensions()) throw new IOException("Chunk " + getChunkFile(chunkPosition) + " has " + blockSize.length + " dimensions");
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long[] pos = new long[blockSize.length];
+		long[] min = Intervals.minAsLongArray(target);
+		Cursor<T> cursor = Views.flatIterable(target).localizingCursor();
+		while(cursor.hasNext()) {
+			T value = cursor.next();
+			cursor.localize(pos);
+			long index = indexInBlock(pos, min, blockSize);
+			if(index < 0 || (index + 1) * dataType.bytes() > bytes.length) throw new IOException("Chunk " + getChunkFile(chunkPosition) + " is too small");
+			buffer.position((int) (index * dataType.bytes()));
+			get(buffer, value);
+		}
+	}
+
+	/**
+	 * @return size of the block stored for the given chunk interval
+	 */
+	abstract int[] getStoredBlockSize(Interval chunkInterval);
+
+	abstract Path getChunkFile(long[] chunkPosition);
+
+	abstract void writeHeader(OutputStream out, int[] blockSize) throws IOException;
+
+	/**
+	 * @return the size of the stored block
+	 */
+	abstract int[] readHeader(InputStream in, int[] expectedBlockSize) throws IOException;
+
+	/**
+	 * @return whether stored zlib streams use the zlib format instead of the gzip format
+	 */
+	boolean isZlib() {
+		return false;
+	}
+
+	private byte[] encode(byte[] data) throws IOException {
+		if(compression == Compression.RAW) return data;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes, 1 << 16)) {
+			out.write(data);
+		}
+		return bytes.toByteArray();
+	}
+
+	private byte[] decode(InputStream in) throws IOException {
+		if(compression == Compression.GZIP) {
+			in = isZlib() ? new InflaterInputStream(in) : new GZIPInputStream(in, 1 << 16);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int read;
+		while((read = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static long indexInBlock(long[] pos, long[] min, int[] blockSize) {
+		long index = 0;
+		for (int d = blockSize.length - 1; d >= 0; d--) {
+			long p = pos[d] - min[d];
+			if(p >= blockSize[d]) return -1;
+			index = index * blockSize[d] + p;
+		}
+		return index;
+	}
+
+	private static long blockElements(int[] blockSize) {
+		long res = 1;
+		for (int size : blockSize) res *= size;
+		return res;
+	}
+
+	static long[] toLongArray(int[] array) {
+		long[] res = new long[array.length];
+		for (int i = 0; i < array.length; i++) res[i] = array[i];
+		return res;
+	}
+
+	private void put(ByteBuffer buffer, T value) {
+		switch (dataType) {
+			case UINT8:
+			case INT8:
+				buffer.put((byte) ((IntegerType<?>) value).getIntegerLong());
+				break;
+			case UINT16:
+			case INT16:
+				buffer.putShort((short) ((IntegerType<?>) value).getIntegerLong());
+				break;
+			case UINT32:
+			case INT32:
+				buffer.putInt((int) ((IntegerType<?>) value).getIntegerLong());
+				break;
+			case UINT64:
+			case INT64:
+				buffer.putLong(((IntegerType<?>) value).getIntegerLong());
+				break;
+			case FLOAT32:
+				buffer.putFloat(value.getRealFloat());
+				break;
+			case FLOAT64:
+				buffer.putDouble(value.getRealDouble());
+				break;
+		}
+	}
+
+	private void get(ByteBuffer buffer, T value) {
+		switch (dataType) {
+			case UINT8:
+				((IntegerType<?>) value).setInteger(buffer.get() & 0xff);
+				break;
+			case INT8:
+				((IntegerType<?>) value).setInteger(buffer.get());
+				break;
+			case UINT16:
+				((IntegerType<?>) value).setInteger(buffer.getShort() & 0xffff);
+				break;
+			case INT16:
+				((IntegerType<?>) value).setInteger(buffer.getShort());
+				break;
+			case UINT32:
+				((IntegerType<?>) value).setInteger(buffer.getInt() & 0xffffffffL);
+				break;
+			case INT32:
+				((IntegerType<?>) value).setInteger(buffer.getInt());
+				break;
+			case UINT64:
+			case INT64:
+				((IntegerType<?>) value).setInteger(buffer.getLong());
+				break;
+			case FLOAT32:
+				value.setReal(buffer.getFloat());
+				break;
+			case FLOAT64:
+				value.setReal(buffer.getDouble());
+				break;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.io.chunked;
+
+import com.google.gson.Gson;
+import net.imglib2.Interval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Dataset of an N5 container: the attributes are stored in {@code attributes.json}, each block in the file
+ * {@code <x>/<y>/..} relative to the dataset directory, with a header containing the size of the block.
+ * Blocks at the upper border are stored with their actual size.
+ */
+public class N5Dataset<T extends RealType<T> & NativeType<T>> extends ChunkedDataset<T> {
+
+	static final String ATTRIBUTES = "attributes.json";
+
+	private static class Attributes {
+		long[] dimensions;
+		int[] blockSize;
+		String dataType;
+		CompressionAttributes compression;
+		// written by N5 versions before 1.0
+		String compressionType;
+	}
+
+	private static class CompressionAttributes {
+		String type;
+		Integer level;
+		Boolean useZlib;
+	}
+
+	private final boolean zlib;
+
+	private N5Dataset(Path directory, long[] dimensions, int[] blockSize, DataType dataType, Compression compression, boolean zlib) {
+		super(directory, dimensions, blockSize, dataType, compression);
+		this.zlib = zlib;
+	}
+
+	public static <T extends RealType<T> & NativeType<T>> N5Dataset<T> create(Path directory, long[] dimensions, int[] blockSize, T type, Compression compression) throws IOException {
+		DataType dataType = DataType.of(type);
+		Attributes attributes = new Attributes();
+		attributes.dimensions = dimensions;
+		attributes.blockSize = blockSize;
+		attributes.dataType = dataType.n5Name;
+		attributes.compression = new CompressionAttributes();
+		attributes.compression.type = compression == Compression.GZIP ? "gzip" : "raw";
+		if(compression == Compression.GZIP) attributes.compression.level = -1;
+		Files.createDirectories(directory);
+		try (Writer writer = Files.newBufferedWriter(directory.resolve(ATTRIBUTES), StandardCharsets.UTF_8)) {
+			new Gson().toJson(attributes, writer);
+		}
+		return new N5Dataset<>(directory, dimensions, blockSize, dataType, compression, false);
+	}
+
+	public static N5Dataset<?> open(Path directory) throws IOException {
+		Attributes attributes;
+		try (Reader reader = Files.newBufferedReader(directory.resolve(ATTRIBUTES), StandardCharsets.UTF_8)) {
+			attributes = new Gson().fromJson(reader, Attributes.class);
+		}
+		if(attributes == null || attributes.dimensions == null || attributes.blockSize == null || attributes.dataType == null) {
+			throw new IOException(directory + " is not an N5 dataset");
+		}
+		String compressionType = attributes.compression != null ? attributes.compression.type : attributes.compressionType;
+		Compression compression;
+		if(compressionType == null || compressionType.equals("raw")) compression = Compression.RAW;
+		else if(compressionType.equals("gzip")) compression = Compression.GZIP;
+		else throw new IOException("Unsupported N5 compression: " + compressionType);
+		boolean zlib = attributes.compression != null && Boolean.TRUE.equals(attributes.compression.useZlib);
+		return new N5Dataset<>(directory, attributes.dimensions, attributes.blockSize, DataType.fromN5(attributes.dataType), compression, zlib);
+	}
+
+	@Override
+	int[] getStoredBlockSize(Interval chunkInterval) {
+		return Intervals.dimensionsAsIntArray(chunkInterval);
+	}
+
+	@Override
+	Path getChunkFile(long[] chunkPosition) {
+		Path file = getDirectory();
+		for (long position : chunkPosition) {
+			file = file.resolve(Long.toString(position));
+		}
+		return file;
+	}
+
+	@Override
+	void writeHeader(OutputStream out, int[] blockSize) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeShort(0);
+		data.writeShort(blockSize.length);
+		for (int size : blockSize) {
+			data.writeInt(size);
+		}
+		data.flush();
+	}
+
+	@Override
+	int[] readHeader(InputStream in, int[] expectedBlockSize) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		short mode = data.readShort();
+		if(mode != 0 && mode != 1) throw new IOException("Unsupported N5 block mode: " + mode);
+		int[] blockSize = new int[data.readShort()];
+		for (int d = 0; d < blockSize.length; d++) {
+			blockSize[d] = data.readInt();
+		}
+		// varlength blocks store the number of elements
+		if(mode == 1) data.readInt();
+		return blockSize;
+	}
+
+	@Override
+	boolean isZlib() {
+		return zlib;
+	}
+}
@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.io.chunked;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import net.imglib2.Interval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Array of a Zarr (v2) container: the metadata is stored in {@code .zarray}, each chunk in the file
+ * {@code <..>.<y>.<x>} relative to the array directory. Zarr lists the dimensions in reverse order, chunks are stored
+ * in C order and without header, chunks at the upper border are padded to the full chunk size.
+ */
+public class ZarrDataset<T extends RealType<T> & NativeType<T>> extends ChunkedDataset<T> {
+
+	static final String ZARRAY = ".zarray";
+
+	@SuppressWarnings("unused")
+	private static class ArrayMetadata {
+		int zarr_format = 2;
+		long[] shape;
+		int[] chunks;
+		String dtype;
+		Compressor compressor;
+		Number fill_value = 0;
+		String order = "C";
+		List<Object> filters;
+		String dimension_separator;
+	}
+
+	private static class Compressor {
+		String id;
+		Integer level;
+	}
+
+	private final String separator;
+	private final boolean zlib;
+
+	private ZarrDataset(Path directory, long[] dimensions, int[] chunkSize, DataType dataType, Compression compression, String separator, boolean zlib) {
+		super(directory, dimensions, chunkSize, dataType, compression);
+		this.separator = separator;
+		this.zlib = zlib;
+	}
+
+	public static <T extends RealType<T> & NativeType<T>> ZarrDataset<T> create(Path directory, long[] dimensions, int[] chunkSize, T type, Compression compression) throws IOException {
+		DataType dataType = DataType.of(type);
+		ArrayMetadata metadata = new ArrayMetadata();
+		metadata.shape = reverse(dimensions);
+		metadata.chunks = reverse(chunkSize);
+		metadata.dtype = dataType.zarrName;
+		metadata.dimension_separator = ".";
+		if(compression == Compression.GZIP) {
+			metadata.compressor = new Compressor();
+			metadata.compressor.id = "gzip";
+			metadata.compressor.level = 5;
+		}
+		Files.createDirectories(directory);
+		try (Writer writer = Files.newBufferedWriter(directory.resolve(ZARRAY), StandardCharsets.UTF_8)) {
+			new GsonBuilder().serializeNulls().disableHtmlEscaping().create().toJson(metadata, writer);
+		}
+		return new ZarrDataset<>(directory, dimensions, chunkSize, dataType, compression, ".", false);
+	}
+
+	public static ZarrDataset<?> open(Path directory) throws IOException {
+		ArrayMetadata metadata;
+		try (Reader reader = Files.newBufferedReader(directory.resolve(ZARRAY), StandardCharsets.UTF_8)) {
+			metadata = new Gson().fromJson(reader, ArrayMetadata.class);
+		}
+		if(metadata == null || metadata.shape == null || metadata.chunks == null || metadata.dtype == null) {
+			throw new IOException(directory + " is not a Zarr array");
+		}
+		if(!"C".equals(metadata.order)) throw new IOException("Unsupported Zarr order: " + metadata.order);
+		if(metadata.filters != null && !metadata.filters.isEmpty()) throw new IOException("Zarr filters are not supported");
+		Compression compression = Compression.RAW;
+		boolean zlib = false;
+		if(metadata.compressor != null) {
+			if("gzip".equals(metadata.compressor.id)) compression = Compression.GZIP;
+			else if("zlib".equals(metadata.compressor.id)) {
+				compression = Compression.GZIP;
+				zlib = true;
+			}
+			else throw new IOException("Unsupported Zarr compressor: " + metadata.compressor.id);
+		}
+		String separator = metadata.dimension_separator == null ? "." : metadata.dimension_separator;
+		return new ZarrDataset<>(directory, reverse(metadata.shape), reverse(metadata.chunks), DataType.fromZarr(metadata.dtype), compression, separator, zlib);
+	}
+
+	@Override
+	int[] getStoredBlockSize(Interval chunkInterval) {
+		return getChunkSize();
+	}
+
+	@Override
+	Path getChunkFile(long[] chunkPosition) {
+		StringBuilder key = new StringBuilder();
+		for (int d = chunkPosition.length - 1; d >= 0; d--) {
+			key.append(chunkPosition[d]);
+			if(d > 0) key.append(separator);
+		}
+		return getDirectory().resolve(key.toString());
+	}
+
+	@Override
+	void writeHeader(OutputStream out, int[] blockSize) {
+	}
+
+	@Override
+	int[] readHeader(InputStream in, int[] expectedBlockSize) {
+		return expectedBlockSize;
+	}
+
+	@Override
+	boolean isZlib() {
+		return zlib;
+	}
+
+	private static long[] reverse(long[] array) {
+		long[] res = new long[array.length];
+		for (int i = 0; i < array.length; i++) {
+			res[i] = array[array.length - 1 - i];
+		}
+		return res;
+	}
+
+	private static int[] reverse(int[] array) {
+		int[] res = new int[array.length];
+		for (int i = 0; i < array.length; i++) {
+			res[i] = array[array.length - 1 - i];
+		}
+		return res;
+	}
+}
@@ -29,31 +29,33 @@
 package net.imagej.modelzoo.plugin.transformation.postprocessing;
 
 import io.bioimage.specification.transformation.ScaleMinMaxTransformation;
+import net.imagej.modelzoo.ModelZooService;
 import net.imagej.modelzoo.consumer.model.ModelZooModel;
-import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
-import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
 import net.imagej.modelzoo.consumer.model.node.ImageNode;
 import net.imagej.modelzoo.consumer.model.node.InputImageNode;
 import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
-import net.imagej.modelzoo.consumer.model.node.processor.DefaultImageNodePostprocessor;
 import net.imagej.modelzoo.consumer.model.node.processor.NodePostprocessor;
 import net.imagej.modelzoo.consumer.model.node.processor.NodeProcessor;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseImageNodePostprocessor;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imagej.modelzoo.consumer.statistics.ImageStatisticsCache;
 import net.imagej.modelzoo.plugin.transformation.preprocessing.NormalizePercentilePreprocessing;
-import net.imagej.ops.OpService;
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import org.apache.commons.lang3.NotImplementedException;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+/**
+ * Reverts the percentile normalization of the reference input. If the reference input was not normalized with
+ * the same percentiles, the percentiles of its original data are used instead.
+ */
 @Plugin(type = NodePostprocessor.class, name = ScaleMinMaxTransformation.name)
 public class ScaleMinMaxPostprocessing
-		extends DefaultImageNodePostprocessor<ScaleMinMaxTransformation> {
+		extends PointwiseImageNodePostprocessor<ScaleMinMaxTransformation> {
 
-	@Parameter
-	private OpService opService;
+	@Parameter(required = false)
+	private ModelZooService modelZooService;
 
 	private Number minPercentile;
 	private Number maxPercentile;
@@ -64,33 +66,32 @@ public class ScaleMinMaxPostprocessing
 	private InputImageNode inputReference;
 
 	@Override
-	protected <I extends RealType<I> & NativeType<I>,
-			O extends RealType<O> & NativeType<O>> ImageDataReference<?> process(ImageDataReference<I> in, ImageDataReference<O> outType) {
-		calculateGainOffset(in.getData());
-		RandomAccessibleInterval<O> out;
-		O resOutType = outType.getDataType();
+	public PointwiseOperation createOperation() {
+		calculateGainOffset();
+		return PointwiseOperation.affine(factor.floatValue(), minVal.floatValue());
+	}
+
+	@Override
+	public <O extends RealType<O> & NativeType<O>> O getOutputType(O inType) {
+		findInputReference();
 		if(inputReference != null && getOptions().convertIntoInputFormat()) {
-			resOutType = inputReference.getOriginalDataType();
-		}
-		if(sameType(in.getDataType(), resOutType)) {
-			out = (RandomAccessibleInterval<O>) in.getData();
-		} else {
-			out = opService.create().img(in.getData(), resOutType);
+			return inputReference.getOriginalDataType();
 		}
-		LoopBuilder.setImages(in.getData(), out).multiThreaded().forEachPixel((i, o) -> {
-			o.setReal(i.getRealFloat()*factor.floatValue() + minVal.floatValue());
-		});
-		return new DefaultImageDataReference<>(out, resOutType);
+		return inType;
 	}
 
-	private <I extends RealType<I> & NativeType<I>> void calculateGainOffset(RandomAccessibleInterval<I> in) {
-		NormalizePercentilePreprocessing preprocessor = null;
+	private void findInputReference() {
 		inputReference = null;
 		for (ModelZooNode<?> inputNode : model.getInputNodes()) {
 			if(inputNode.getName().equals(inputReferenceName)) {
 				inputReference = (InputImageNode) inputNode;
 			}
 		}
+	}
+
+	private void calculateGainOffset() {
+		NormalizePercentilePreprocessing preprocessor = null;
+		findInputReference();
 		if(inputReference != null) {
 			for (NodeProcessor processor : inputReference.getProcessors()) {
 				if(processor instanceof NormalizePercentilePreprocessing) {
@@ -104,6 +105,12 @@ public class ScaleMinMaxPostprocessing
 				&& isEquals(preprocessor.getMaxPercentile(), maxPercentile)) {
 			minVal = preprocessor.getMinVal();
 			factor = 1./preprocessor.getFactor().floatValue();
+		} else if(inputReference != null && inputReference.getOriginalData() != null) {
+			// the reference input was not normalized with the same percentiles, use the percentiles of the original input
+			float[] percentiles = ImageStatisticsCache.of(modelZooService).getPercentiles(inputReference.getOriginalData(),
+					minPercentile.floatValue(), maxPercentile.floatValue());
+			minVal = percentiles[0];
+			factor = percentiles[1] - percentiles[0] < 0.0000001 ? 1 : percentiles[1] - percentiles[0];
 		} else {
 			throw new NotImplementedException();
 		}
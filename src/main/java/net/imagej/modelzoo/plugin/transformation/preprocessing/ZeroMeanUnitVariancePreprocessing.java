@@ -29,29 +29,46 @@
 package net.imagej.modelzoo.plugin.transformation.preprocessing;
 
 import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
-import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.ModelZooService;
 import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
-import net.imagej.modelzoo.consumer.model.node.processor.DefaultImageNodePreprocessor;
 import net.imagej.modelzoo.consumer.model.node.processor.NodePreprocessor;
-import net.imglib2.converter.Converter;
-import net.imglib2.converter.Converters;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseImageNodePreprocessor;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imagej.modelzoo.consumer.statistics.ImageStatistics;
+import net.imagej.modelzoo.consumer.statistics.ImageStatisticsCache;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.real.FloatType;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
 
 @Plugin(type = NodePreprocessor.class, name = ZeroMeanUnitVarianceTransformation.name)
-public class ZeroMeanUnitVariancePreprocessing extends DefaultImageNodePreprocessor<ZeroMeanUnitVarianceTransformation> {
+public class ZeroMeanUnitVariancePreprocessing extends PointwiseImageNodePreprocessor<ZeroMeanUnitVarianceTransformation> {
+
+	@Parameter(required = false)
+	private ModelZooService modelZooService;
+
+	@Parameter(required = false)
+	private LogService log;
 
 	private Number mean;
 	private Number std;
 
 	@Override
-	protected <I extends RealType<I> & NativeType<I>, O extends RealType<O> & NativeType<O>> ImageDataReference<FloatType> process(ImageDataReference<I> in, ImageDataReference<O> outType) {
-		Converter<? super I, FloatType> converter = (Converter<I, FloatType>) (input, output)
-				-> output.setReal((input.getRealFloat() - mean.floatValue()) / std.floatValue());
-		return new DefaultImageDataReference<>(Converters.convert(in.getData(), converter, new FloatType()), new FloatType());
+	protected <I extends RealType<I> & NativeType<I>> PointwiseOperation createOperation(ImageDataReference<I> in) {
+		double mean, std;
+		if(this.mean != null && this.std != null) {
+			mean = this.mean.doubleValue();
+			std = this.std.doubleValue();
+		} else {
+			// no fixed values in the specification, normalize with the statistics of the dataset
+			ImageStatistics statistics = ImageStatisticsCache.of(modelZooService).get(in);
+			mean = statistics.getMean();
+			std = statistics.getStd() < 0.0000001 ? 1 : statistics.getStd();
+			if(log != null) log.info("No mean and std in the zero mean unit variance specification, normalizing with the statistics of the input: mean " + mean + ", std " + std);
+		}
+		return PointwiseOperation.affine(1 / std, -mean / std);
 	}
 
 	@Override
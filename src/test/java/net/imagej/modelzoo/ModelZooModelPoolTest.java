@@ -0,0 +1,207 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo;
+
+import io.bioimage.specification.ModelSpecification;
+import net.imagej.modelzoo.consumer.model.DefaultModelZooModel;
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
+import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ModelZooModelPoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static class CountingModel extends DefaultModelZooModel {
+		boolean initialized = true;
+		boolean shared = false;
+		int resetCount = 0;
+
+		@Override
+		public void loadModel(Location source, String modelName, ModelSpecification specification) {
+		}
+
+		@Override
+		public boolean isInitialized() {
+			return initialized;
+		}
+
+		@Override
+		public boolean libraryLoaded() {
+			return true;
+		}
+
+		@Override
+		public void predict() {
+		}
+
+		@Override
+		public void reset() {
+			resetCount++;
+		}
+
+		@Override
+		public boolean isShared() {
+			return shared;
+		}
+
+		@Override
+		public void dispose() {
+			super.dispose();
+			initialized = false;
+		}
+	}
+
+	private static class CountingArchive extends DefaultModelZooArchive {
+		int instanceCount = 0;
+		boolean shared = false;
+
+		CountingArchive(File file) {
+			setLocation(new FileLocation(file));
+		}
+
+		@Override
+		public ModelZooModel createModelInstance(ModelLoadOptions options) {
+			instanceCount++;
+			CountingModel model = new CountingModel();
+			model.shared = shared;
+			return model;
+		}
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		CountingArchive archive = new CountingArchive(createArchiveFile(10));
+		ModelZooModelPool pool = new ModelZooModelPool();
+		CountingModel first = (CountingModel) pool.borrow(archive);
+		CountingModel second = (CountingModel) pool.borrow(archive);
+		assertNotSame(first, second);
+		assertEquals(2, archive.instanceCount);
+		pool.release(first);
+		CountingModel third = (CountingModel) pool.borrow(archive);
+		assertSame(first, third);
+		assertEquals(1, third.resetCount);
+		assertEquals(2, archive.instanceCount);
+		pool.release(second);
+		pool.release(third);
+		pool.dispose();
+		assertFalse(first.isInitialized());
+		assertFalse(second.isInitialized());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		CountingArchive archive = new CountingArchive(createArchiveFile(10));
+		ModelZooModelPool pool = new ModelZooModelPool();
+		pool.setMaxResidentBytes(30);
+		CountingModel first = (CountingModel) pool.borrow(archive);
+		CountingModel second = (CountingModel) pool.borrow(archive);
+		assertEquals(40, pool.getResidentBytes());
+		pool.release(first);
+		assertFalse(first.isInitialized());
+		assertEquals(20, pool.getResidentBytes());
+		pool.setMaxIdleTime(0);
+		pool.release(second);
+		Thread.sleep(5);
+		pool.evict();
+		assertFalse(second.isInitialized());
+		assertEquals(0, pool.getResidentBytes());
+		pool.dispose();
+	}
+
+	@Test
+	public void testSharedInstances() throws Exception {
+		CountingArchive archive = new CountingArchive(createArchiveFile(10));
+		archive.shared = true;
+		ModelZooModelPool pool = new ModelZooModelPool();
+		CountingModel first = (CountingModel) pool.borrow(archive);
+		CountingModel second = (CountingModel) pool.borrow(archive);
+		CountingModel third = (CountingModel) pool.borrow(archive);
+		assertEquals(20, pool.getResidentBytes());
+		pool.setMaxResidentBytes(10);
+		pool.release(first);
+		pool.release(second);
+		// the weights are still used by the third instance
+		assertTrue(first.isInitialized());
+		assertTrue(second.isInitialized());
+		assertEquals(20, pool.getResidentBytes());
+		pool.release(third);
+		assertFalse(first.isInitialized());
+		assertFalse(second.isInitialized());
+		assertFalse(third.isInitialized());
+		assertEquals(0, pool.getResidentBytes());
+		pool.dispose();
+	}
+
+	@Test
+	public void testLoadOptions() throws Exception {
+		CountingArchive archive = new CountingArchive(createArchiveFile(10));
+		ModelZooModelPool pool = new ModelZooModelPool();
+		ModelLoadOptions options = ModelLoadOptions.options().intraOpThreads(2).xla(false);
+		CountingModel first = (CountingModel) pool.borrow(archive, options);
+		pool.release(first);
+		assertNotSame(first, pool.borrow(archive));
+		assertSame(first, pool.borrow(archive, ModelLoadOptions.options().intraOpThreads(2).xla(false)));
+		assertEquals("intraOpThreads=2, xla=false", options.values.toString());
+		pool.dispose();
+	}
+
+	@Test
+	public void testUnpooledLocation() throws Exception {
+		CountingArchive archive = new CountingArchive(createArchiveFile(10));
+		archive.setLocation(null);
+		ModelZooModelPool pool = new ModelZooModelPool();
+		CountingModel model = (CountingModel) pool.borrow(archive);
+		assertTrue(model.isInitialized());
+		pool.release(model);
+		assertFalse(model.isInitialized());
+		pool.dispose();
+	}
+
+	private File createArchiveFile(int size) throws IOException {
+		File file = folder.newFile("model.bioimage.io.zip");
+		Files.write(file.toPath(), new byte[size]);
+		return file;
+	}
+}
@@ -0,0 +1,444 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer;
+
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.model.ModelZooModel;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.ModelZooAxis;
+import net.imagej.modelzoo.consumer.model.node.ModelZooNode;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseImageNodePostprocessor;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imagej.modelzoo.consumer.tiling.TilingAction;
+import net.imagej.modelzoo.io.chunked.ChunkedContainer;
+import net.imagej.modelzoo.io.chunked.ChunkedDataset;
+import net.imagej.modelzoo.plugin.transformation.postprocessing.ScaleLinearPostprocessing;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import org.scijava.io.location.Location;
+import org.scijava.log.LogService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TiledPredictionExecutorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Context context;
+
+	@Before
+	public void createContext() {
+		context = new Context(LogService.class, StatusService.class);
+	}
+
+	@After
+	public void disposeContext() {
+		context.dispose();
+	}
+
+	@Test
+	public void testPipelinedMatchesSerial() {
+		Img<FloatType> input = createImage();
+		RandomAccessibleInterval<FloatType> serial = predict(input, 0);
+		RandomAccessibleInterval<FloatType> pipelined = predict(input, 2);
+		assertImageEquals(serial, pipelined);
+		assertImageEquals(expected(input), pipelined);
+	}
+
+	@Test
+	public void testParallelMatchesSerial() {
+		Img<FloatType> input = createImage();
+		ScaleNetwork network = new ScaleNetwork(input);
+		TiledPredictionExecutor executor = new TiledPredictionExecutor(network, context);
+		executor.setNumberOfTiles(8);
+		executor.setBatchSize(1);
+		executor.addWorker(new ScaleNetwork(input));
+		executor.addWorker(new ScaleNetwork(input));
+		executor.run();
+		RandomAccessibleInterval<FloatType> parallel = (RandomAccessibleInterval<FloatType>) network.out.getData().getData();
+		assertImageEquals(predict(input, 0), parallel);
+		assertImageEquals(expected(input), parallel);
+	}
+
+	@Test
+	public void testResumeInSubTilesMatchesSerial() {
+		Img<FloatType> input = createImage();
+		ScaleNetwork network = new ScaleNetwork(input);
+		// runs out of memory from the fourth tile on, unless the tile is split further
+		network.failAfterCalls = 3;
+		network.maxTilePixels = 50 * 50;
+		TiledPredictionExecutor executor = new TiledPredictionExecutor(network, context);
+		executor.setNumberOfTiles(4);
+		executor.setBatchSize(1);
+		boolean outOfMemory = true;
+		while (outOfMemory) {
+			try {
+				executor.run();
+				outOfMemory = false;
+			} catch (OutOfMemoryError e) {
+				assertTrue(executor.increaseTiling());
+			} finally {
+				executor.dispose();
+			}
+		}
+		assertImageEquals(expected(input), (RandomAccessibleInterval<FloatType>) network.out.getData().getData());
+	}
+
+	@Test
+	public void testResumeParallelKeepsFinishedTiles() {
+		Img<FloatType> input = createImage();
+		ScaleNetwork network = new ScaleNetwork(input);
+		ScaleNetwork failingWorker = new ScaleNetwork(input);
+		// runs out of memory on its third tile
+		failingWorker.failAfterCalls = 2;
+		failingWorker.maxTilePixels = 0;
+		TiledPredictionExecutor executor = new TiledPredictionExecutor(network, context);
+		executor.setNumberOfTiles(8);
+		executor.setBatchSize(1);
+		executor.addWorker(failingWorker);
+		executor.addWorker(new ScaleNetwork(input));
+		AtomicInteger notifications = new AtomicInteger();
+		AtomicLong totalTiles = new AtomicLong();
+		executor.setProgressListener((done, total) -> {
+			notifications.incrementAndGet();
+			totalTiles.set(total);
+		});
+		int failures = 0;
+		boolean outOfMemory = true;
+		while (outOfMemory) {
+			try {
+				executor.run();
+				outOfMemory = false;
+			} catch (OutOfMemoryError e) {
+				failures++;
+				assertTrue(executor.increaseTiling());
+			} finally {
+				executor.dispose();
+			}
+		}
+		assertEquals(1, failures);
+		assertEquals(3, failingWorker.calls);
+		// each tile was written once, the finished tiles were not predicted again
+		assertEquals(totalTiles.get(), notifications.get());
+		assertImageEquals(expected(input), (RandomAccessibleInterval<FloatType>) network.out.getData().getData());
+	}
+
+	@Test
+	public void testFusedPostprocessingMatchesSerial() {
+		Img<FloatType> input = createImage();
+		ScaleNetwork network = new ScaleNetwork(input);
+		ScaleLinearPostprocessing postprocessing = addScaleLinear(network);
+		TiledPredictionExecutor executor = new TiledPredictionExecutor(network, context);
+		executor.setNumberOfTiles(8);
+		executor.setBatchSize(1);
+		executor.setFusePostprocessing(true, ModelZooPredictionOptions.options().convertIntoInputFormat(true).values);
+		executor.run();
+		assertTrue(executor.isFusedTransformation(network.out, postprocessing));
+		RandomAccessibleInterval<UnsignedByteType> fused = (RandomAccessibleInterval<UnsignedByteType>) network.out.getData().getData();
+		assertTrue(network.out.getData().getDataType() instanceof UnsignedByteType);
+		Img<UnsignedByteType> expected = expectedScaled(predict(input, 0));
+		assertArrayEquals(Intervals.dimensionsAsLongArray(expected), Intervals.dimensionsAsLongArray(fused));
+		LoopBuilder.setImages(expected, Views.zeroMin(fused)).forEachPixel((a, b) -> assertEquals(a.get(), b.get()));
+	}
+
+	@Test
+	public void testOutputSinkIsPostprocessed() throws IOException {
+		Img<FloatType> input = createImage();
+		ScaleNetwork network = new ScaleNetwork(input);
+		ScaleLinearPostprocessing postprocessing = addScaleLinear(network);
+		Path root = folder.newFolder("out.n5").toPath();
+		TiledPredictionExecutor executor = new TiledPredictionExecutor(network, context);
+		executor.setNumberOfTiles(8);
+		executor.setBatchSize(1);
+		executor.setOutputSink(ChunkedContainer.n5(root));
+		// fusing the postprocessing is not requested explicitly
+		executor.setFusePostprocessing(false, ModelZooPredictionOptions.options().convertIntoInputFormat(true).values);
+		executor.run();
+		assertTrue(executor.isFusedTransformation(network.out, postprocessing));
+		Img<UnsignedByteType> expected = expectedScaled(predict(input, 0));
+		ChunkedDataset<UnsignedByteType> dataset = (ChunkedDataset<UnsignedByteType>) ChunkedDataset.open(root.resolve(network.out.getName()));
+		assertTrue(dataset.getType() instanceof UnsignedByteType);
+		RandomAccessibleInterval<UnsignedByteType> written = dataset.getImage();
+		LoopBuilder.setImages(expected, Views.interval(written, expected)).forEachPixel((a, b) -> assertEquals(a.get(), b.get()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutputSinkRefusesUnfusedPostprocessing() throws IOException {
+		Img<FloatType> input = createImage();
+		ScaleNetwork network = new ScaleNetwork(input);
+		network.out.getProcessors().add(options -> {});
+		TiledPredictionExecutor executor = new TiledPredictionExecutor(network, context);
+		executor.setNumberOfTiles(8);
+		executor.setOutputSink(ChunkedContainer.n5(folder.newFolder("out.n5").toPath()));
+		executor.run();
+	}
+
+	/**
+	 * Scales the output by 100 and converts it into the 8-bit type of the original input.
+	 */
+	private static ScaleLinearPostprocessing addScaleLinear(ScaleNetwork network) {
+		network.in.setOriginalData(new DefaultImageDataReference<>(ArrayImgs.unsignedBytes(1, 1, 1), new UnsignedByteType()));
+		ScaleLinearTransformation specification = new ScaleLinearTransformation();
+		specification.setGain(100);
+		specification.setOffset(0);
+		ScaleLinearPostprocessing postprocessing = new ScaleLinearPostprocessing();
+		postprocessing.readSpecification(specification);
+		postprocessing.setup(network.out, network);
+		network.out.getProcessors().add(postprocessing);
+		return postprocessing;
+	}
+
+	/**
+	 * @return the serial prediction, postprocessed afterwards, values above 255 are clipped
+	 */
+	private static Img<UnsignedByteType> expectedScaled(RandomAccessibleInterval<FloatType> serial) {
+		PointwiseOperation operation = PointwiseImageNodePostprocessor.inTypeRange(PointwiseOperation.affine(100, 0), new UnsignedByteType());
+		Img<UnsignedByteType> expected = ArrayImgs.unsignedBytes(Intervals.dimensionsAsLongArray(serial));
+		LoopBuilder.setImages(Views.zeroMin(serial), expected).forEachPixel((a, b) -> b.setReal(operation.apply(a.get())));
+		return expected;
+	}
+
+	@Test
+	public void testCancelStopsSerial() throws InterruptedException {
+		assertCancelStops(0, 0, false);
+	}
+
+	@Test
+	public void testCancelStopsPipelined() throws InterruptedException {
+		assertCancelStops(2, 0, false);
+	}
+
+	@Test
+	public void testCancelStopsParallel() throws InterruptedException {
+		assertCancelStops(0, 2, false);
+	}
+
+	@Test
+	public void testInterruptStopsSerial() throws InterruptedException {
+		assertCancelStops(0, 0, true);
+	}
+
+	@Test
+	public void testInterruptStopsPipelined() throws InterruptedException {
+		assertCancelStops(2, 0, true);
+	}
+
+	@Test
+	public void testInterruptStopsParallel() throws InterruptedException {
+		assertCancelStops(0, 2, true);
+	}
+
+	/**
+	 * Cancels the prediction or interrupts the thread running it once the first tiles are written and checks
+	 * that the remaining tiles are not predicted and that no threads of the prediction are left running.
+	 */
+	private void assertCancelStops(int pipelineQueueDepth, int nWorkers, boolean interrupt) throws InterruptedException {
+		Img<FloatType> input = createImage();
+		List<ScaleNetwork> networks = new ArrayList<>();
+		networks.add(new ScaleNetwork(input));
+		TiledPredictionExecutor executor = new TiledPredictionExecutor(networks.get(0), context);
+		for (int i = 0; i < nWorkers; i++) {
+			networks.add(new ScaleNetwork(input));
+			executor.addWorker(networks.get(i + 1));
+		}
+		executor.setNumberOfTiles(16);
+		executor.setBatchSize(1);
+		executor.setPipelineQueueDepth(pipelineQueueDepth);
+		AtomicLong totalTiles = new AtomicLong();
+		Thread caller = Thread.currentThread();
+		executor.setProgressListener((done, total) -> {
+			totalTiles.set(total);
+			if (done < 2) return;
+			if (interrupt) caller.interrupt();
+			else executor.cancel("");
+		});
+		try {
+			executor.run();
+		} finally {
+			// clears the interrupt of this test
+			Thread.interrupted();
+		}
+		executor.dispose();
+		assertTrue(executor.isCanceled());
+		int calls = networks.stream().mapToInt(network -> network.calls).sum();
+		assertTrue(totalTiles.get() > 8);
+		assertTrue("predicted " + calls + " of " + totalTiles.get() + " tiles", calls <= 2 + pipelineQueueDepth + 1 + nWorkers);
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("modelzoo-")) {
+				thread.join(1000);
+				assertFalse(thread.getName() + " is still running", thread.isAlive());
+			}
+		}
+	}
+
+	private RandomAccessibleInterval<FloatType> predict(Img<FloatType> input, int pipelineQueueDepth) {
+		ScaleNetwork network = new ScaleNetwork(input);
+		TiledPredictionExecutor executor = new TiledPredictionExecutor(network, context);
+		executor.setNumberOfTiles(8);
+		executor.setBatchSize(1);
+		executor.setPipelineQueueDepth(pipelineQueueDepth);
+		executor.run();
+		assertTrue(network.calls > 1);
+		return (RandomAccessibleInterval<FloatType>) network.out.getData().getData();
+	}
+
+	static Img<FloatType> createImage() {
+		Img<FloatType> img = ArrayImgs.floats(128, 96, 4);
+		Random random = new Random(42);
+		img.forEach(pixel -> pixel.set(random.nextFloat()));
+		return img;
+	}
+
+	static RandomAccessibleInterval<FloatType> expected(Img<FloatType> input) {
+		Img<FloatType> expected = input.copy();
+		expected.forEach(pixel -> pixel.set(ScaleNetwork.apply(pixel.get())));
+		return expected;
+	}
+
+	static void assertImageEquals(RandomAccessibleInterval<FloatType> expected, RandomAccessibleInterval<FloatType> actual) {
+		assertArrayEquals(Intervals.dimensionsAsLongArray(expected), Intervals.dimensionsAsLongArray(actual));
+		LoopBuilder.setImages(expected, Views.zeroMin(actual)).forEachPixel((a, b) -> assertEquals(a.get(), b.get(), 0));
+	}
+
+	/**
+	 * Scales and offsets each pixel of the XYT input tiles.
+	 */
+	static class ScaleNetwork implements ModelZooModel {
+
+		final InputImageNode in = new InputImageNode();
+		final OutputImageNode out = new OutputImageNode();
+		volatile int calls = 0;
+		int failAfterCalls = Integer.MAX_VALUE;
+		long maxTilePixels = Long.MAX_VALUE;
+
+		ScaleNetwork(Img<FloatType> input) {
+			AxisType[] axes = {Axes.X, Axes.Y, Axes.TIME};
+			for (AxisType axisType : axes) {
+				in.addAxis(createAxis(axisType));
+				out.addAxis(createAxis(axisType));
+			}
+			in.setDataMapping(Arrays.asList(axes));
+			out.setDataMapping(Arrays.asList(axes));
+			out.setName("output");
+			in.setData(new DefaultImageDataReference<>(input, new FloatType()));
+			out.setData(new DefaultImageDataReference<>(input, new FloatType()));
+			out.setReference(in);
+		}
+
+		private static ModelZooAxis createAxis(AxisType type) {
+			ModelZooAxis axis = new ModelZooAxis(type);
+			if (type == Axes.TIME) {
+				axis.setTiling(TilingAction.TILE_WITHOUT_PADDING);
+				axis.setMin(1);
+				axis.setStep(1);
+			} else {
+				axis.setTiling(TilingAction.TILE_WITH_PADDING);
+				axis.setHalo(8);
+				axis.setMin(16);
+				axis.setStep(8);
+			}
+			return axis;
+		}
+
+		static float apply(float value) {
+			return 2 * value + 1;
+		}
+
+		@Override
+		public void predict() {
+			calls++;
+			RandomAccessibleInterval<FloatType> tile = (RandomAccessibleInterval<FloatType>) in.getData().getData();
+			if (calls > failAfterCalls && Intervals.numElements(tile) > maxTilePixels) throw new OutOfMemoryError();
+			Img<FloatType> result = ArrayImgs.floats(Intervals.dimensionsAsLongArray(tile));
+			LoopBuilder.setImages(Views.zeroMin(tile), result).forEachPixel((a, b) -> b.set(apply(a.get())));
+			out.setData(new DefaultImageDataReference<>(result, new FloatType()));
+		}
+
+		@Override
+		public void loadModel(Location location, String modelName, ModelSpecification specification) {
+		}
+
+		@Override
+		public List<ModelZooNode<?>> getInputNodes() {
+			return Collections.singletonList(in);
+		}
+
+		@Override
+		public List<ModelZooNode<?>> getOutputNodes() {
+			return Collections.singletonList(out);
+		}
+
+		@Override
+		public boolean isInitialized() {
+			return true;
+		}
+
+		@Override
+		public boolean libraryLoaded() {
+			return true;
+		}
+
+		@Override
+		public void dispose() {
+		}
+	}
+}
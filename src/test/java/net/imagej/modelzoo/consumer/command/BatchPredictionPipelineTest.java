@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.command;
+
+import org.junit.Test;
+import org.scijava.log.StderrLogService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchPredictionPipelineTest {
+
+	private final List<File> files = Arrays.asList(new File("a.tif"), new File("b.tif"), new File("c.tif"),
+			new File("d.tif"), new File("e.tif"), new File("f.tif"));
+
+	@Test
+	public void testUnreadableFirstFile() {
+		List<String> firstPredicted = Collections.synchronizedList(new ArrayList<>());
+		List<String> predicted = Collections.synchronizedList(new ArrayList<>());
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		BatchPredictionPipeline<String, String> pipeline = new BatchPredictionPipeline<>(
+				(file, ignored) -> {
+					if(file.getName().equals("a.tif")) throw new IOException("Cannot read " + file);
+					return file.getName();
+				},
+				(file, input) -> {
+					predicted.add(input);
+					return input;
+				},
+				(file, output) -> written.add(output),
+				new StderrLogService());
+		pipeline.setFirstPredictor((file, input) -> {
+			firstPredicted.add(input);
+			return input;
+		});
+		pipeline.setParallel(true);
+		pipeline.setThreads(2, 2, 2);
+		pipeline.setMaxImagesInMemory(2);
+		assertEquals(1, pipeline.run(files));
+		assertEquals(Collections.singletonList("b.tif"), firstPredicted);
+		// a prediction thread takes the next file as soon as it is read
+		assertEquals(new HashSet<>(Arrays.asList("c.tif", "d.tif", "e.tif", "f.tif")), new HashSet<>(predicted));
+		assertEquals(4, predicted.size());
+		assertEquals(Arrays.asList("b.tif", "c.tif", "d.tif", "e.tif", "f.tif"), written);
+	}
+
+	@Test
+	public void testKeepInputOrder() {
+		for (boolean keepInputOrder : new boolean[]{true, false}) {
+			List<String> written = Collections.synchronizedList(new ArrayList<>());
+			AtomicInteger inMemory = new AtomicInteger();
+			AtomicInteger maxInMemory = new AtomicInteger();
+			BatchPredictionPipeline<String, String> pipeline = new BatchPredictionPipeline<>(
+					(file, ignored) -> {
+						maxInMemory.accumulateAndGet(inMemory.incrementAndGet(), Math::max);
+						return file.getName();
+					},
+					(file, input) -> {
+						// earlier files take longer to predict
+						Thread.sleep(10 * (files.size() - files.indexOf(file)));
+						return input;
+					},
+					(file, output) -> {
+						written.add(output);
+						inMemory.decrementAndGet();
+						return null;
+					},
+					new StderrLogService());
+			pipeline.setParallel(true);
+			pipeline.setThreads(1, 3, 1);
+			pipeline.setMaxImagesInMemory(3);
+			pipeline.setKeepInputOrder(keepInputOrder);
+			assertEquals(0, pipeline.run(files));
+			assertTrue(maxInMemory.get() <= 3);
+			assertEquals(files.size(), written.size());
+			assertEquals(new HashSet<>(Arrays.asList("a.tif", "b.tif", "c.tif", "d.tif", "e.tif", "f.tif")), new HashSet<>(written));
+			if(keepInputOrder) assertEquals(Arrays.asList("a.tif", "b.tif", "c.tif", "d.tif", "e.tif", "f.tif"), written);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.metrics;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PredictionMetricsTest {
+
+	@Test
+	public void testStages() throws InterruptedException {
+		PredictionMetrics metrics = new PredictionMetrics();
+		try (PredictionMetrics.Timer ignored = metrics.start(PredictionMetrics.PREDICTION)) {
+			ExecutorService pool = Executors.newFixedThreadPool(2);
+			for (int i = 0; i < 4; i++) {
+				pool.submit(() -> {
+					try (PredictionMetrics.Timer ignored1 = metrics.start(PredictionMetrics.MODEL)) {
+						Thread.sleep(10);
+					}
+					metrics.addTiles(1);
+					return null;
+				});
+			}
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+		}
+		metrics.addInputVoxels(1000);
+		metrics.finish();
+		Map<String, PredictionMetrics.Stage> stages = metrics.getStages();
+		assertEquals(2, stages.size());
+		assertEquals(1, stages.get(PredictionMetrics.PREDICTION).getCount());
+		assertEquals(4, stages.get(PredictionMetrics.MODEL).getCount());
+		assertTrue(metrics.getNanos(PredictionMetrics.MODEL) >= TimeUnit.MILLISECONDS.toNanos(40));
+		assertTrue(metrics.getTotalNanos() >= metrics.getNanos(PredictionMetrics.PREDICTION));
+		assertEquals(4, metrics.getTiles());
+		assertEquals(metrics.getTiles() * 1e9 / metrics.getNanos(PredictionMetrics.PREDICTION), metrics.getTilesPerSecond(), 1e-6);
+		assertTrue(metrics.getPeakHeapBytes() > 0);
+
+		JsonObject json = new JsonParser().parse(metrics.toJson()).getAsJsonObject();
+		assertEquals(4, json.get("tiles").getAsLong());
+		assertEquals(1000, json.get("inputVoxels").getAsLong());
+		assertEquals(4, json.getAsJsonObject("stages").getAsJsonObject(PredictionMetrics.MODEL).get("count").getAsLong());
+	}
+
+	@Test
+	public void testAllocations() {
+		PredictionMetrics metrics = new PredictionMetrics();
+		try (PredictionMetrics.AllocationTracker ignored = metrics.trackAllocations()) {
+			byte[][] data = new byte[16][];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = new byte[1 << 16];
+			}
+			assertEquals(data.length, data.length);
+		}
+		// zero if the JVM does not support measuring allocations
+		assertTrue(metrics.getAllocatedBytes() == 0 || metrics.getAllocatedBytes() >= 1 << 20);
+	}
+}
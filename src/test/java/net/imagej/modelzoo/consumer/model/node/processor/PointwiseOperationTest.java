@@ -0,0 +1,272 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.model.node.processor;
+
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.transformation.BinarizeTransformation;
+import io.bioimage.specification.transformation.ClipTransformation;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import io.bioimage.specification.transformation.ScaleMinMaxTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import net.imagej.modelzoo.consumer.ModelZooPredictionOptions;
+import net.imagej.modelzoo.consumer.model.DefaultModelZooModel;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imagej.modelzoo.consumer.model.node.PointwiseImageDataReference;
+import net.imagej.modelzoo.plugin.transformation.postprocessing.BinarizePostprocessing;
+import net.imagej.modelzoo.plugin.transformation.postprocessing.ScaleLinearPostprocessing;
+import net.imagej.modelzoo.plugin.transformation.postprocessing.ScaleMinMaxPostprocessing;
+import net.imagej.modelzoo.plugin.transformation.preprocessing.ClipPreprocessing;
+import net.imagej.modelzoo.plugin.transformation.preprocessing.ZeroMeanUnitVariancePreprocessing;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+import org.scijava.io.location.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PointwiseOperationTest {
+
+	@Test
+	public void testComposition() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100; i++) {
+			List<PointwiseOperation> chain = new ArrayList<>();
+			PointwiseOperation fused = PointwiseOperation.identity();
+			for (int j = 0; j < 4; j++) {
+				PointwiseOperation operation = randomOperation(random);
+				chain.add(operation);
+				fused = fused.then(operation);
+			}
+			for (int j = 0; j < 20; j++) {
+				double value = random.nextGaussian() * 10;
+				double expected = value;
+				for (PointwiseOperation operation : chain) {
+					expected = operation.apply(expected);
+				}
+				assertEquals(expected, fused.apply(value), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testFusedPreprocessing() {
+		Img<UnsignedShortType> image = ArrayImgs.unsignedShorts(16, 16);
+		Random random = new Random(42);
+		image.forEach(pixel -> pixel.set(random.nextInt(1000)));
+		InputImageNode node = new InputImageNode();
+		node.setData(new DefaultImageDataReference<>(image, new UnsignedShortType()));
+
+		ZeroMeanUnitVarianceTransformation zeroMeanUnitVariance = new ZeroMeanUnitVarianceTransformation();
+		zeroMeanUnitVariance.setMean(500);
+		zeroMeanUnitVariance.setStd(200);
+		ClipTransformation clip = new ClipTransformation();
+		clip.setMin(-1);
+		clip.setMax(1.5);
+		ZeroMeanUnitVariancePreprocessing first = new ZeroMeanUnitVariancePreprocessing();
+		first.readSpecification(zeroMeanUnitVariance);
+		first.setup(node, null);
+		ClipPreprocessing second = new ClipPreprocessing();
+		second.readSpecification(clip);
+		second.setup(node, null);
+		ModelZooPredictionOptions.Values options = ModelZooPredictionOptions.options().values;
+		first.run(options);
+		second.run(options);
+
+		assertTrue(node.getData() instanceof PointwiseImageDataReference);
+		assertSame(image, ((PointwiseImageDataReference<?>) node.getData()).getSource());
+		Cursor<UnsignedShortType> cursor = image.localizingCursor();
+		RandomAccess<FloatType> result = ((PointwiseImageDataReference<?>) node.getData()).getData().randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			result.setPosition(cursor);
+			float expected = (cursor.get().getRealFloat() - 500) / 200;
+			expected = Math.max(-1, Math.min(expected, 1.5f));
+			assertEquals(expected, result.get().get(), 1e-6);
+		}
+	}
+
+	@Test
+	public void testZeroMeanUnitVarianceOfDataset() {
+		Img<FloatType> image = ArrayImgs.floats(new float[]{1, 2, 3, 4, 5, 6, 7, 8}, 8);
+		InputImageNode node = new InputImageNode();
+		node.setData(new DefaultImageDataReference<>(image, new FloatType()));
+		// the specification has no fixed mean and std
+		ZeroMeanUnitVariancePreprocessing processor = new ZeroMeanUnitVariancePreprocessing();
+		processor.readSpecification(new ZeroMeanUnitVarianceTransformation());
+		processor.setup(node, null);
+		processor.run(ModelZooPredictionOptions.options().values);
+
+		double mean = 4.5;
+		double std = Math.sqrt(5.25);
+		Cursor<FloatType> cursor = image.localizingCursor();
+		RandomAccess<FloatType> result = ((PointwiseImageDataReference<?>) node.getData()).getData().randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			result.setPosition(cursor);
+			assertEquals((cursor.get().get() - mean) / std, result.get().get(), 1e-6);
+		}
+	}
+
+	@Test
+	public void testClipKeepsDataType() {
+		Img<UnsignedShortType> image = ArrayImgs.unsignedShorts(16, 16);
+		Random random = new Random(42);
+		image.forEach(pixel -> pixel.set(random.nextInt(1000)));
+		InputImageNode node = new InputImageNode();
+		node.setData(new DefaultImageDataReference<>(image, new UnsignedShortType()));
+		ClipTransformation clip = new ClipTransformation();
+		clip.setMin(100);
+		clip.setMax(800);
+		ClipPreprocessing processor = new ClipPreprocessing();
+		processor.readSpecification(clip);
+		processor.setup(node, null);
+		processor.run(ModelZooPredictionOptions.options().values);
+
+		assertTrue(node.getData().getDataType() instanceof UnsignedShortType);
+		Cursor<UnsignedShortType> cursor = image.localizingCursor();
+		RandomAccess<UnsignedShortType> result = ((RandomAccessibleInterval<UnsignedShortType>) node.getData().getData()).randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			result.setPosition(cursor);
+			assertEquals(Math.max(100, Math.min(cursor.get().get(), 800)), result.get().get());
+		}
+	}
+
+	@Test
+	public void testScaleLinearClampsToOutputType() {
+		ScaleLinearTransformation scaleLinear = new ScaleLinearTransformation();
+		scaleLinear.setGain(100);
+		scaleLinear.setOffset(10);
+		ScaleLinearPostprocessing processor = new ScaleLinearPostprocessing();
+		processor.readSpecification(scaleLinear);
+
+		PointwiseOperation toByte = processor.createOperation(new UnsignedByteType());
+		assertEquals(0, toByte.apply(-1), 0);
+		assertEquals(110, toByte.apply(1), 0);
+		assertEquals(255, toByte.apply(3), 0);
+		PointwiseOperation toFloat = processor.createOperation(new FloatType());
+		assertEquals(-1e5 + 10, toFloat.apply(-1000), 0);
+		assertEquals(-Float.MAX_VALUE, toFloat.apply(Double.NEGATIVE_INFINITY), 0);
+		assertEquals(Float.MAX_VALUE, toFloat.apply(Double.POSITIVE_INFINITY), 0);
+	}
+
+	@Test
+	public void testBinarizeWritesZeroAndOne() {
+		BinarizeTransformation binarize = new BinarizeTransformation();
+		binarize.setThreshold(0.5);
+		BinarizePostprocessing processor = new BinarizePostprocessing();
+		processor.readSpecification(binarize);
+		assertBinarized(processor.createOperation(new FloatType()), new FloatType());
+		assertBinarized(processor.createOperation(new UnsignedByteType()), new UnsignedByteType());
+		assertBinarized(processor.createOperation(new BitType()), new BitType());
+	}
+
+	private static <T extends RealType<T>> void assertBinarized(PointwiseOperation operation, T type) {
+		T result = type.createVariable();
+		T expected = type.createVariable();
+		for (double value : new double[]{-1, 0.2, 0.5, 0.7, 300}) {
+			result.setReal(operation.apply(value));
+			if(value < 0.5) expected.setZero();
+			else expected.setOne();
+			assertTrue(expected.valueEquals(result));
+		}
+	}
+
+	@Test
+	public void testScaleMinMaxFallsBackToPercentilesOfReference() {
+		float[] values = new float[100];
+		for (int i = 0; i < values.length; i++) values[i] = i;
+		InputImageNode input = new InputImageNode();
+		input.setName("input");
+		input.setOriginalData(new DefaultImageDataReference<>(ArrayImgs.floats(values, 100), new FloatType()));
+		DefaultModelZooModel model = new DefaultModelZooModel() {
+			@Override
+			public void loadModel(Location source, String modelName, ModelSpecification specification) {
+			}
+
+			@Override
+			public boolean isInitialized() {
+				return true;
+			}
+
+			@Override
+			public boolean libraryLoaded() {
+				return true;
+			}
+
+			@Override
+			public void predict() {
+			}
+		};
+		model.getInputNodes().add(input);
+		// the reference input has no percentile normalization to revert
+		ScaleMinMaxTransformation scaleMinMax = new ScaleMinMaxTransformation();
+		scaleMinMax.setMinPercentile(10);
+		scaleMinMax.setMaxPercentile(90);
+		scaleMinMax.setReferenceInput("input");
+		ScaleMinMaxPostprocessing processor = new ScaleMinMaxPostprocessing();
+		processor.readSpecification(scaleMinMax);
+		processor.setup(new OutputImageNode(), model);
+
+		PointwiseOperation operation = processor.createOperation();
+		assertEquals(10, operation.apply(0), 1e-6);
+		assertEquals(89, operation.apply(1), 1e-6);
+	}
+
+	private static PointwiseOperation randomOperation(Random random) {
+		switch (random.nextInt(4)) {
+			case 0:
+				double min = random.nextGaussian() * 5;
+				return PointwiseOperation.clip(min, min + random.nextDouble() * 10);
+			case 1:
+				return PointwiseOperation.clip(0, Double.POSITIVE_INFINITY);
+			case 2:
+				return PointwiseOperation.binarize(random.nextGaussian() * 5);
+			default:
+				return PointwiseOperation.affine(random.nextGaussian() * 3, random.nextGaussian() * 5);
+		}
+	}
+}
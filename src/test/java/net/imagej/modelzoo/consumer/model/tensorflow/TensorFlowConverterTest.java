@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.consumer.model.tensorflow;
+
+import net.imagej.tensorflow.Tensors;
+import net.imagej.modelzoo.consumer.model.node.StridedArrayDataReference;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import org.junit.Test;
+import org.tensorflow.Tensor;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TensorFlowConverterTest {
+
+	private final int[][] mappings = {{3, 2, 1, 0}, {0, 1, 2, 3}, {2, 1, 3, 0}, {1, 3, 0, 2}};
+
+	@Test
+	public void testFloatArrayImg() {
+		Img<FloatType> img = ArrayImgs.floats(5, 4, 3, 2);
+		fill(img);
+		for (int[] mapping : mappings) {
+			assertSameFloatTensor(img, mapping);
+		}
+	}
+
+	@Test
+	public void testFloatPlanarImg() {
+		Img<FloatType> img = PlanarImgs.floats(5, 4, 3, 2);
+		fill(img);
+		for (int[] mapping : mappings) {
+			assertSameFloatTensor(img, mapping);
+		}
+	}
+
+	@Test
+	public void testDoubleArrayImg() {
+		Img<DoubleType> img = ArrayImgs.doubles(5, 4, 3, 2);
+		fill(img);
+		for (int[] mapping : mappings) {
+			try (Tensor<?> expected = Tensors.tensor(img, mapping);
+			     Tensor<?> actual = TensorFlowConverter.tensorFromArrays(img, mapping)) {
+				assertNotNull(actual);
+				assertArrayEquals(expected.shape(), actual.shape());
+				assertArrayEquals(doubles(expected), doubles(actual), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testTensorToDataReference() {
+		ArrayImg<FloatType, FloatArray> img = ArrayImgs.floats(5, 4, 3, 2);
+		fill(img);
+		for (int[] mapping : mappings) {
+			try (Tensor<?> tensor = TensorFlowConverter.tensorFromArrays(img, mapping)) {
+				StridedArrayDataReference<FloatType> reference = TensorFlowConverter.tensorToDataReference(tensor, mapping, new FloatType());
+				assertNotNull(reference);
+				assertEquals(FloatType.class, reference.getElementType());
+				assertArrayEquals(Intervals.dimensionsAsLongArray(img), Intervals.dimensionsAsLongArray(reference.getData()));
+				ArrayImg<FloatType, FloatArray> copy = ArrayImgs.floats(5, 4, 3, 2);
+				LoopBuilder.setImages(reference.getData(), copy).forEachPixel((in, out) -> out.set(in));
+				assertArrayEquals(img.update(null).getCurrentStorageArray(), copy.update(null).getCurrentStorageArray(), 0);
+
+				// copy the inner part into a smaller F-ordered array
+				float[] target = new float[3 * 2 * 1 * 2];
+				assertTrue(reference.copyTo(target, new long[]{1, 1, 2, 0}, new long[]{3, 2, 1, 2}));
+				RandomAccess<FloatType> expected = img.randomAccess();
+				int i = 0;
+				for (int l = 0; l < 2; l++) for (int z = 2; z < 3; z++) for (int y = 1; y < 3; y++) for (int x = 1; x < 4; x++) {
+					expected.setPosition(new long[]{x, y, z, l});
+					assertEquals(expected.get().getRealFloat(), target[i++], 0);
+				}
+				assertFalse(reference.copyTo(new double[24], new long[]{1, 1, 2, 0}, new long[]{3, 2, 1, 2}));
+			}
+		}
+	}
+
+	@Test
+	public void testUnsupportedImage() {
+		assertNull(TensorFlowConverter.tensorFromArrays(ArrayImgs.unsignedBytes(5, 4), new int[]{1, 0}));
+	}
+
+	private void assertSameFloatTensor(Img<FloatType> img, int[] mapping) {
+		try (Tensor<?> expected = Tensors.tensor(img, mapping);
+		     Tensor<?> actual = TensorFlowConverter.tensorFromArrays(img, mapping)) {
+			assertNotNull(actual);
+			assertArrayEquals(expected.shape(), actual.shape());
+			assertArrayEquals(floats(expected), floats(actual), 0);
+		}
+	}
+
+	private static <T extends RealType<T>> void fill(Img<T> img) {
+		Random random = new Random(42);
+		img.forEach(pixel -> pixel.setReal(random.nextFloat()));
+	}
+
+	private static float[] floats(Tensor<?> tensor) {
+		FloatBuffer buffer = FloatBuffer.allocate(tensor.numElements());
+		tensor.writeTo(buffer);
+		return buffer.array();
+	}
+
+	private static double[] doubles(Tensor<?> tensor) {
+		DoubleBuffer buffer = DoubleBuffer.allocate(tensor.numElements());
+		tensor.writeTo(buffer);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.model.tensorflow;
+
+import net.imagej.modelzoo.consumer.model.ModelLoadOptions;
+import org.junit.Test;
+import org.tensorflow.framework.ConfigProto;
+import org.tensorflow.framework.OptimizerOptions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TensorFlowSessionLoaderTest {
+
+	@Test
+	public void testConfig() {
+		ModelLoadOptions options = ModelLoadOptions.options()
+				.intraOpThreads(4)
+				.interOpThreads(1)
+				.perSessionThreads(true)
+				.optimizerLevel(0)
+				.xla(true)
+				.gpuAllowGrowth(true);
+		ConfigProto config = TensorFlowSessionLoader.createConfig(options.values);
+		assertEquals(4, config.getIntraOpParallelismThreads());
+		assertEquals(1, config.getInterOpParallelismThreads());
+		assertTrue(config.getUsePerSessionThreads());
+		assertFalse(config.containsDeviceCount("CPU"));
+		OptimizerOptions optimizer = config.getGraphOptions().getOptimizerOptions();
+		assertEquals(OptimizerOptions.Level.L0, optimizer.getOptLevel());
+		assertEquals(OptimizerOptions.GlobalJitLevel.ON_1, optimizer.getGlobalJitLevel());
+		assertTrue(config.getGpuOptions().getAllowGrowth());
+	}
+
+	@Test
+	public void testDefaultConfig() {
+		ModelLoadOptions options = ModelLoadOptions.options();
+		assertTrue(options.values.isDefault());
+		ConfigProto config = TensorFlowSessionLoader.createConfig(options.values);
+		assertEquals(ConfigProto.getDefaultInstance().getIntraOpParallelismThreads(), config.getIntraOpParallelismThreads());
+		assertEquals(OptimizerOptions.GlobalJitLevel.DEFAULT, config.getGraphOptions().getOptimizerOptions().getGlobalJitLevel());
+	}
+}
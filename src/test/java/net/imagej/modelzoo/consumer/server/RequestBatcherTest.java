@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestBatcherTest {
+
+	@Test
+	public void testBatching() throws InterruptedException {
+		List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+		RequestBatcher<String> batcher = new RequestBatcher<>("test", request -> request.charAt(0), batches::add, RequestBatcherTest::unexpectedFailure,
+				3, 1, TimeUnit.SECONDS, 100);
+		for (String request : Arrays.asList("a1", "b1", "a2", "a3", "a4", "b2")) {
+			batcher.submit(request);
+		}
+		batcher.shutdown();
+		assertTrue(batcher.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(
+				Arrays.asList("a1", "a2", "a3"),
+				Arrays.asList("b1", "b2"),
+				Collections.singletonList("a4")), batches);
+	}
+
+	@Test
+	public void testMaxLatency() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+		RequestBatcher<String> batcher = new RequestBatcher<>("test", request -> "", batch -> {
+			batches.add(batch);
+			done.countDown();
+		}, RequestBatcherTest::unexpectedFailure, 8, 20, TimeUnit.MILLISECONDS, 100);
+		long start = System.nanoTime();
+		batcher.submit("a");
+		batcher.submit("b");
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertEquals(Collections.singletonList(Arrays.asList("a", "b")), batches);
+		batcher.shutdown();
+	}
+
+	@Test
+	public void testBackpressure() throws InterruptedException {
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		RequestBatcher<String> batcher = new RequestBatcher<>("test", request -> request, batch -> {
+			blocked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, RequestBatcherTest::unexpectedFailure, 1, 0, TimeUnit.MILLISECONDS, 2);
+		batcher.submit("running");
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		batcher.submit("queued1");
+		batcher.submit("queued2");
+		try {
+			batcher.submit("rejected");
+			fail("Request should have been rejected");
+		} catch (RejectedExecutionException ignored) {
+		}
+		release.countDown();
+		batcher.shutdown();
+		assertTrue(batcher.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(0, batcher.getQueueSize());
+	}
+
+	@Test
+	public void testFailingHandler() throws InterruptedException {
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+		List<String> failed = Collections.synchronizedList(new ArrayList<>());
+		RequestBatcher<String> batcher = new RequestBatcher<>("test", request -> request, batch -> {
+			if(batch.contains("fail")) throw new IllegalStateException("failed");
+			handled.addAll(batch);
+		}, (batch, e) -> {
+			assertEquals("failed", e.getMessage());
+			failed.addAll(batch);
+		}, 1, 0, TimeUnit.MILLISECONDS, 100);
+		batcher.submit("fail");
+		batcher.submit("next");
+		batcher.shutdown();
+		assertTrue(batcher.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(Collections.singletonList("fail"), failed);
+		assertEquals(Collections.singletonList("next"), handled);
+	}
+
+	private static void unexpectedFailure(List<String> batch, Throwable e) {
+		throw new AssertionError("Unexpected failure", e);
+	}
+}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.statistics;
+
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.PointwiseImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ImageStatisticsCacheTest {
+
+	@Test
+	public void testStatistics() {
+		Img<FloatType> img = ArrayImgs.floats(100, 70, 3);
+		Random random = new Random(42);
+		img.forEach(pixel -> pixel.set((float) random.nextGaussian() * 10 + 5));
+		double sum = 0, sumSquares = 0;
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		for (FloatType pixel : img) {
+			sum += pixel.get();
+			min = Math.min(min, pixel.get());
+			max = Math.max(max, pixel.get());
+		}
+		double mean = sum / img.size();
+		for (FloatType pixel : img) {
+			sumSquares += (pixel.get() - mean) * (pixel.get() - mean);
+		}
+		ImageStatistics statistics = ImageStatistics.compute(img);
+		assertEquals(img.size(), statistics.getCount());
+		assertEquals(min, statistics.getMin(), 0);
+		assertEquals(max, statistics.getMax(), 0);
+		assertEquals(mean, statistics.getMean(), 1e-9);
+		assertEquals(Math.sqrt(sumSquares / img.size()), statistics.getStd(), 1e-9);
+		float[] percentiles = {3, 50, 99.8f};
+		assertArrayEquals(Percentiles.compute(img, percentiles), statistics.getPercentiles(img, percentiles), 0);
+	}
+
+	@Test
+	public void testReuse() {
+		Img<FloatType> img = ArrayImgs.floats(50, 40);
+		Random random = new Random(42);
+		img.forEach(pixel -> pixel.set(random.nextFloat()));
+		ImageStatisticsCache cache = new ImageStatisticsCache();
+		ImageDataReference<FloatType> data = new DefaultImageDataReference<>(img, new FloatType());
+		ImageStatistics statistics = cache.get(data);
+		assertSame(statistics, cache.get(new DefaultImageDataReference<>(img, new FloatType())));
+		assertSame(cache.get(Views.interval(img, new long[]{0, 0}, new long[]{9, 9})),
+				cache.get(Views.interval(img, new long[]{0, 0}, new long[]{9, 9})));
+		assertNotSame(statistics, cache.get(Views.interval(img, new long[]{0, 0}, new long[]{9, 9})));
+		ImageDataReference<?> clipped = PointwiseImageDataReference.apply(data, PointwiseOperation.clip(0.2, 0.8));
+		assertNotSame(statistics, cache.get(clipped));
+		assertSame(cache.get(clipped), cache.get(PointwiseImageDataReference.apply(data, PointwiseOperation.clip(0.2, 0.8))));
+		assertEquals(0.2, cache.get(clipped).getMin(), 1e-6);
+	}
+}
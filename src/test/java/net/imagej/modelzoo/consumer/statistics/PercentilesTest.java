@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.modelzoo.consumer.statistics;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class PercentilesTest {
+
+	private final float[] percentiles = {0, 1, 3, 50, 99.8f, 100};
+
+	@Test
+	public void testFloat() {
+		Img<FloatType> img = ArrayImgs.floats(100, 70, 3);
+		Random random = new Random(42);
+		img.forEach(pixel -> pixel.set((float) random.nextGaussian() * 1000));
+		float[] expected = sortedPercentiles(img);
+		assertArrayEquals(expected, Percentiles.compute(img, percentiles), 0);
+		assertArrayEquals(expected, Percentiles.compute(img, 100, percentiles), 0);
+		assertArrayEquals(expected, Percentiles.computeBySelection(img, percentiles), 0);
+	}
+
+	@Test
+	public void testCellImgWithDuplicates() {
+		Img<UnsignedShortType> img = new CellImgFactory<>(new UnsignedShortType(), 16).create(50, 40, 30);
+		Random random = new Random(42);
+		img.forEach(pixel -> pixel.set(random.nextInt(10) == 0 ? random.nextInt(65536) : 7));
+		float[] expected = sortedPercentiles(img);
+		assertArrayEquals(expected, Percentiles.compute(img, percentiles), 0);
+		assertArrayEquals(expected, Percentiles.compute(img, 10, percentiles), 0);
+	}
+
+	@Test
+	public void testInfiniteValues() {
+		Img<FloatType> img = ArrayImgs.floats(100, 70, 3);
+		Random random = new Random(42);
+		img.forEach(pixel -> {
+			int kind = random.nextInt(100);
+			if(kind < 2) pixel.set(Float.NEGATIVE_INFINITY);
+			else if(kind < 5) pixel.set(Float.POSITIVE_INFINITY);
+			else pixel.set((float) random.nextGaussian() * 1000);
+		});
+		float[] expected = sortedPercentiles(img);
+		assertArrayEquals(expected, Percentiles.compute(img, percentiles), 0);
+		assertArrayEquals(expected, Percentiles.compute(img, 100, percentiles), 0);
+		assertArrayEquals(expected, Percentiles.computeBySelection(img, percentiles), 0);
+		ImageStatistics statistics = ImageStatistics.compute(img);
+		assertArrayEquals(expected, statistics.getPercentiles(img, percentiles), 0);
+	}
+
+	@Test
+	public void testOnlyInfiniteValues() {
+		Img<FloatType> img = ArrayImgs.floats(10, 10);
+		int[] i = {0};
+		img.forEach(pixel -> pixel.set(i[0]++ < 30 ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY));
+		assertArrayEquals(sortedPercentiles(img), Percentiles.compute(img, 10, percentiles), 0);
+	}
+
+	private float[] sortedPercentiles(Img<? extends RealType<?>> img) {
+		float[] values = new float[(int) img.size()];
+		int i = 0;
+		for (RealType<?> value : img) {
+			values[i++] = value.getRealFloat();
+		}
+		Util.quicksort(values);
+		float[] res = new float[percentiles.length];
+		for (i = 0; i < percentiles.length; i++) {
+			res[i] = values[Math.round((values.length - 1) * percentiles[i] / 100.f)];
+		}
+		return res;
+	}
+}
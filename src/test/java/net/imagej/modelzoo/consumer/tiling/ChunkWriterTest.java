@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.io.chunked.ChunkedContainer;
+import net.imagej.modelzoo.io.chunked.ChunkedDataset;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChunkWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testUnalignedTiles() throws IOException {
+		ChunkedDataset<FloatType> dataset = ChunkedContainer.n5(folder.getRoot().toPath().resolve("out.n5"))
+				.createDataset("output", new long[]{10, 7}, new int[]{4, 4}, new FloatType(), new AxisType[]{Axes.X, Axes.Y});
+		Img<FloatType> expected = ArrayImgs.floats(10, 7);
+		float[] value = {1};
+		expected.forEach(pixel -> pixel.set(value[0]++));
+		ChunkWriter<FloatType> writer = new ChunkWriter<>(dataset);
+		// tiles of size 3, the last ones reaching beyond the dataset
+		for (long y = 0; y < 7; y += 3) {
+			for (long x = 0; x < 10; x += 3) {
+				RandomAccessibleInterval<FloatType> tile = writer.createTile(FinalInterval.createMinSize(x, y, 3, 3));
+				Interval inside = Intervals.intersect(tile, expected);
+				LoopBuilder.setImages(Views.interval(expected, inside), Views.interval(tile, inside)).forEachPixel((a, b) -> b.set(a));
+				writer.write(tile);
+			}
+		}
+		writer.finish();
+		long[] chunkPosition = new long[2];
+		for (chunkPosition[1] = 0; chunkPosition[1] < 2; chunkPosition[1]++) {
+			for (chunkPosition[0] = 0; chunkPosition[0] < 3; chunkPosition[0]++) {
+				Interval chunk = dataset.getChunkInterval(chunkPosition);
+				RandomAccessibleInterval<FloatType> target = Views.translate(ArrayImgs.floats(Intervals.dimensionsAsLongArray(chunk)), Intervals.minAsLongArray(chunk));
+				dataset.readChunk(chunkPosition, target);
+				LoopBuilder.setImages(Views.interval(expected, chunk), target).forEachPixel((a, b) -> assertEquals(a.get(), b.get(), 0));
+			}
+		}
+	}
+}
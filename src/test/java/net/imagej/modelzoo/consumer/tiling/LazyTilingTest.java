@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.ModelZooAxis;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class LazyTilingTest {
+
+	@Test
+	public void testCellsArePredictedOnAccess() throws Exception {
+		Img<FloatType> img = ArrayImgs.floats(100, 60);
+		Random random = new Random(42);
+		img.forEach(pixel -> pixel.set(random.nextFloat()));
+		InputImageNode input = new InputImageNode();
+		OutputImageNode output = new OutputImageNode();
+		List<AxisType> axes = Arrays.asList(Axes.X, Axes.Y);
+		for (AxisType axisType : axes) {
+			input.addAxis(createAxis(axisType));
+			output.addAxis(createAxis(axisType));
+		}
+		input.setDataMapping(axes);
+		output.setDataMapping(axes);
+		output.setReference(input);
+		input.setData(new DefaultImageDataReference<>(img, new FloatType()));
+		output.setData(new DefaultImageDataReference<>(null, new FloatType()));
+
+		AtomicInteger predictions = new AtomicInteger();
+		LazyTiling tiling = new LazyTiling(input, Collections.singletonList(output));
+		tiling.setNumberOfTiles(4);
+		tiling.init(tile -> {
+			predictions.incrementAndGet();
+			return Collections.singletonList(tile);
+		});
+		assertEquals(4, tiling.getTilesTotalCount());
+		assertEquals(1, predictions.get());
+
+		RandomAccessibleInterval<FloatType> result = (RandomAccessibleInterval<FloatType>) output.getData().getData();
+		RandomAccess<FloatType> access = result.randomAccess();
+		access.setPosition(new long[]{99, 59});
+		assertEquals(img.getAt(99, 59).get(), access.get().get(), 0);
+		assertEquals(2, predictions.get());
+
+		LoopBuilder.setImages(img, Views.interval(result, img)).forEachPixel((expected, actual) -> {
+			assertEquals(expected.get(), actual.get(), 0);
+		});
+		assertEquals(4, predictions.get());
+	}
+
+	private static ModelZooAxis createAxis(AxisType axisType) {
+		ModelZooAxis axis = new ModelZooAxis(axisType);
+		axis.setTiling(TilingAction.TILE_WITH_PADDING);
+		axis.setHalo(8);
+		axis.setMin(8);
+		axis.setStep(8);
+		return axis;
+	}
+}
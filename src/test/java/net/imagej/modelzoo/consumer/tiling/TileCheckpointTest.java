@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.log.StderrLogService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongFunction;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileCheckpointTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final LongFunction<String> HASHES = tile -> TileCheckpoint.hash(ArrayImgs.floats(new float[]{tile}, 1));
+
+	@Test
+	public void testRestoreTiles() throws IOException {
+		Path cacheDir = folder.getRoot().toPath();
+		ArrayImg<FloatType, FloatArray> tile = ArrayImgs.floats(new float[]{1, 2, 3, 4, 5, 6}, 3, 2);
+		List<RandomAccessibleInterval<? extends RealType<?>>> outputs = Collections.singletonList(tile);
+
+		TileCheckpoint checkpoint = open(cacheDir, "key", HASHES);
+		assertTrue(checkpoint.getRestoredTiles().isEmpty());
+		checkpoint.save(3, HASHES.apply(3), outputs);
+		assertFalse(checkpoint.isRestored(3));
+
+		TileCheckpoint reopened = open(cacheDir, "key", HASHES);
+		assertEquals(Collections.singleton(3L), reopened.getRestoredTiles());
+		ArrayImg<FloatType, FloatArray> restored = ArrayImgs.floats(3, 2);
+		reopened.restore(3, 0, restored);
+		assertArrayEquals(tile.update(null).getCurrentStorageArray(), restored.update(null).getCurrentStorageArray(), 0);
+	}
+
+	@Test
+	public void testDiscardOtherKey() throws IOException {
+		Path cacheDir = folder.getRoot().toPath();
+		open(cacheDir, "key", HASHES).save(0, HASHES.apply(0), Collections.singletonList(ArrayImgs.floats(2, 2)));
+		assertTrue(open(cacheDir, "other", HASHES).getRestoredTiles().isEmpty());
+		assertTrue(open(cacheDir, "key", HASHES).getRestoredTiles().isEmpty());
+	}
+
+	@Test
+	public void testDiscardChangedInput() throws IOException {
+		Path cacheDir = folder.getRoot().toPath();
+		TileCheckpoint checkpoint = open(cacheDir, "key", HASHES);
+		checkpoint.save(0, HASHES.apply(0), Collections.singletonList(ArrayImgs.floats(2, 2)));
+		checkpoint.save(1, HASHES.apply(1), Collections.singletonList(ArrayImgs.floats(2, 2)));
+		LongFunction<String> changed = tile -> tile == 1 ? HASHES.apply(2) : HASHES.apply(tile);
+		assertEquals(Collections.singleton(0L), open(cacheDir, "key", changed).getRestoredTiles());
+		assertEquals(Collections.singleton(0L), open(cacheDir, "key", HASHES).getRestoredTiles());
+	}
+
+	@Test
+	public void testIgnoreIncompleteEntry() throws IOException {
+		Path cacheDir = folder.getRoot().toPath();
+		open(cacheDir, "key", HASHES).save(0, HASHES.apply(0), Collections.singletonList(ArrayImgs.floats(2, 2)));
+		Path completedTiles = cacheDir.resolve(TileCheckpoint.DIRECTORY).resolve("tiles.txt");
+		Files.write(completedTiles, (new String(Files.readAllBytes(completedTiles)) + "1 " + HASHES.apply(1).substring(0, 10)).getBytes());
+		TileCheckpoint reopened = open(cacheDir, "key", HASHES);
+		assertEquals(Collections.singleton(0L), reopened.getRestoredTiles());
+		reopened.save(2, HASHES.apply(2), Collections.singletonList(ArrayImgs.floats(2, 2)));
+		assertEquals(2, open(cacheDir, "key", HASHES).getRestoredTiles().size());
+	}
+
+	@Test
+	public void testKeyDependsOnParameters() {
+		String key = TileCheckpoint.createKey("model", 4);
+		assertEquals(key, TileCheckpoint.createKey("model", 4));
+		assertNotEquals(key, TileCheckpoint.createKey("model", 8));
+	}
+
+	@Test
+	public void testHashDependsOnAllValues() {
+		ArrayImg<FloatType, FloatArray> img = ArrayImgs.floats(300, 300);
+		String hash = TileCheckpoint.hash(img);
+		assertEquals(hash, TileCheckpoint.hash(img));
+		img.getAt(123, 277).set(1);
+		assertNotEquals(hash, TileCheckpoint.hash(img));
+		assertNotEquals(TileCheckpoint.hash(img), TileCheckpoint.hash(Views.permute(img, 0, 1)));
+	}
+
+	private static TileCheckpoint open(Path cacheDir, String key, LongFunction<String> inputHashes) throws IOException {
+		return new TileCheckpoint(cacheDir, key, 32, inputHashes, new StderrLogService());
+	}
+}
@@ -0,0 +1,355 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.ModelZooAxis;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imagej.modelzoo.consumer.model.node.processor.PointwiseOperation;
+import net.imagej.modelzoo.io.chunked.ChunkedContainer;
+import net.imagej.modelzoo.io.chunked.ChunkedDataset;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileGeometryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testScaledIntervals() {
+		OutputImageNode output = new OutputImageNode();
+		output.addAxis(createOutputAxis(Axes.X, 2., -4));
+		output.setDataMapping(Collections.singletonList(Axes.X));
+		TileGeometry geometry = new TileGeometry(new AxisType[]{Axes.X}, new long[]{16}, new long[]{4}, new long[]{3}, output);
+		assertArrayEquals(new long[]{92}, geometry.getOutputDimensions());
+		assertArrayEquals(new long[]{32}, geometry.getOutputTileSize());
+		assertInterval(0, 29, geometry.getOutputInterval(new long[]{0}));
+		assertInterval(0, 29, geometry.getSourceInterval(new long[]{0}));
+		assertInterval(30, 61, geometry.getOutputInterval(new long[]{1}));
+		assertInterval(6, 37, geometry.getSourceInterval(new long[]{1}));
+		assertInterval(62, 91, geometry.getOutputInterval(new long[]{2}));
+		assertInterval(6, 35, geometry.getSourceInterval(new long[]{2}));
+		assertInterval(0, 2, geometry.getInputTiles(Intervals.createMinMax(0, 91), 1));
+	}
+
+	@Test
+	public void testFixedSizeAxis() {
+		OutputImageNode output = new OutputImageNode();
+		output.addAxis(createOutputAxis(Axes.X, 2., 0));
+		output.addAxis(createOutputAxis(Axes.Y, 2., 4));
+		output.addAxis(createOutputAxis(Axes.CHANNEL, 0., 3));
+		output.setDataMapping(Arrays.asList(Axes.X, Axes.Y, Axes.CHANNEL));
+		AxisType[] inputAxes = {Axes.X, Axes.Y, Axes.CHANNEL};
+		TileGeometry geometry = new TileGeometry(inputAxes, new long[]{16, 16, 1}, new long[]{4, 4, 0}, new long[]{3, 1, 2}, output);
+		assertArrayEquals(new long[]{96, 36, 3}, geometry.getOutputDimensions());
+		assertArrayEquals(new long[]{32, 36, 3}, geometry.getOutputTileSize());
+		Interval interval = geometry.getOutputInterval(new long[]{1, 0, 0});
+		assertArrayEquals(new long[]{32, 0, 0}, Intervals.minAsLongArray(interval));
+		assertArrayEquals(new long[]{63, 35, 2}, Intervals.maxAsLongArray(interval));
+		assertArrayEquals(new long[]{0, 0, 0}, Intervals.minAsLongArray(geometry.getSourceInterval(new long[]{0, 0, 0})));
+		assertTrue(Intervals.isEmpty(geometry.getOutputInterval(new long[]{1, 0, 1})));
+		Interval inputTiles = geometry.getInputTiles(new FinalInterval(96, 36, 3), 3);
+		assertArrayEquals(new long[]{0, 0, 0}, Intervals.minAsLongArray(inputTiles));
+		assertArrayEquals(new long[]{2, 0, 0}, Intervals.maxAsLongArray(inputTiles));
+	}
+
+	@Test
+	public void testTiledChannelOutput() throws Exception {
+		Img<FloatType> img = createImage();
+		InputImageNode input = createChannelInput(img);
+		OutputImageNode output = createChannelOutput(input);
+		DefaultTiling tiling = new DefaultTiling(output);
+		tiling.setNumberOfTiles(6);
+		tiling.init();
+		while(tiling.hasTilesLeft()) {
+			tiling.assignNextTile();
+			output.setData(upsampleChannels(input.getData()));
+			tiling.resolveCurrentTile();
+		}
+		tiling.finish();
+		assertUpsampledChannels(img, (RandomAccessibleInterval<FloatType>) output.getData().getData());
+
+		InputImageNode lazyInput = createChannelInput(img);
+		OutputImageNode lazyOutput = createChannelOutput(lazyInput);
+		LazyTiling lazyTiling = new LazyTiling(lazyInput, Collections.singletonList(lazyOutput));
+		lazyTiling.setNumberOfTiles(6);
+		lazyTiling.init(tile -> Collections.singletonList(upsampleChannels(tile)));
+		assertUpsampledChannels(img, (RandomAccessibleInterval<FloatType>) lazyOutput.getData().getData());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInexactScale() {
+		OutputImageNode output = new OutputImageNode();
+		output.addAxis(createOutputAxis(Axes.X, 0.5, 0));
+		output.setDataMapping(Collections.singletonList(Axes.X));
+		new TileGeometry(new AxisType[]{Axes.X}, new long[]{15}, new long[]{4}, new long[]{3}, output);
+	}
+
+	@Test
+	public void testTiledUpsampling() {
+		Img<FloatType> img = createImage();
+		InputImageNode input = createInput(img);
+		OutputImageNode output = createOutput(input, -4);
+		DefaultTiling tiling = new DefaultTiling(output);
+		tiling.setNumberOfTiles(6);
+		tiling.init();
+		while(tiling.hasTilesLeft()) {
+			tiling.assignNextTile();
+			output.setData(upsample(input.getData(), -4));
+			tiling.resolveCurrentTile();
+		}
+		tiling.finish();
+		assertUpsampled(img, (RandomAccessibleInterval<FloatType>) output.getData().getData(), -4);
+	}
+
+	@Test
+	public void testPostprocessedTiling() {
+		Img<FloatType> img = createImage();
+		InputImageNode input = createInput(img);
+		OutputImageNode output = createOutput(input, 0);
+		PointwiseOperation operation = PointwiseOperation.affine(300, -10).then(PointwiseOperation.clip(0, 255));
+		DefaultTiling tiling = new DefaultTiling(output);
+		tiling.setNumberOfTiles(6);
+		tiling.setPostprocessing(output, operation, new UnsignedByteType());
+		tiling.init();
+		while(tiling.hasTilesLeft()) {
+			tiling.assignNextTile();
+			output.setData(upsample(input.getData(), 0));
+			tiling.resolveCurrentTile();
+		}
+		tiling.finish();
+		RandomAccessibleInterval<?> result = output.getData().getData();
+		assertTrue(Util.getTypeFromInterval(result) instanceof UnsignedByteType);
+		RandomAccess<UnsignedByteType> out = ((RandomAccessibleInterval<UnsignedByteType>) result).randomAccess();
+		Cursor<FloatType> in = img.localizingCursor();
+		UnsignedByteType expected = new UnsignedByteType();
+		while(in.hasNext()) {
+			in.fwd();
+			out.setPosition(new long[]{in.getLongPosition(0) * 2 + 1, in.getLongPosition(1) * 2});
+			expected.setReal(operation.apply(in.get().get()));
+			assertEquals(expected.get(), out.get().get());
+		}
+	}
+
+	@Test
+	public void testLazyUpsampling() throws Exception {
+		Img<FloatType> img = createImage();
+		InputImageNode input = createInput(img);
+		OutputImageNode output = createOutput(input, 4);
+		LazyTiling tiling = new LazyTiling(input, Collections.singletonList(output));
+		tiling.setNumberOfTiles(6);
+		tiling.init(tile -> Collections.singletonList(upsample(tile, 4)));
+		assertUpsampled(img, (RandomAccessibleInterval<FloatType>) output.getData().getData(), 4);
+	}
+
+	@Test
+	public void testChunkedInput() throws IOException {
+		Img<FloatType> img = createImage();
+		ChunkedDataset<FloatType> dataset = ChunkedContainer.n5(folder.getRoot().toPath().resolve("input.n5"))
+				.createDataset("raw", new long[]{100, 60}, new int[]{16, 16}, new FloatType(), new AxisType[]{Axes.X, Axes.Y});
+		long[] gridDimensions = dataset.getGrid().getGridDimensions();
+		for (long x = 0; x < gridDimensions[0]; x++) {
+			for (long y = 0; y < gridDimensions[1]; y++) {
+				long[] chunkPosition = {x, y};
+				dataset.writeChunk(chunkPosition, Views.interval(img, dataset.getChunkInterval(chunkPosition)));
+			}
+		}
+		ChunkedDataset<FloatType> opened = (ChunkedDataset<FloatType>) ChunkedDataset.open(folder.getRoot().toPath().resolve("input.n5"));
+		InputImageNode input = createInput(img);
+		input.initializeWithData(new DefaultImageDataReference<>(opened.getImage(8), new FloatType()));
+		OutputImageNode output = createOutput(input, 0);
+		DefaultTiling tiling = new DefaultTiling(output);
+		tiling.setNumberOfTiles(6);
+		tiling.init();
+		while(tiling.hasTilesLeft()) {
+			tiling.assignNextTile();
+			assertEquals(0, input.getData().getData().min(0) % 16);
+			output.setData(upsample(input.getData(), 0));
+			tiling.resolveCurrentTile();
+		}
+		tiling.finish();
+		assertUpsampled(img, (RandomAccessibleInterval<FloatType>) output.getData().getData(), 0);
+	}
+
+	@Test
+	public void testAlignToChunks() {
+		ModelZooAxis axis = new ModelZooAxis(Axes.X);
+		axis.setMin(16);
+		axis.setStep(8);
+		assertEquals(256, TiledImageDataReference.alignToChunks(1000, 4, 256, 64, axis));
+		// smaller tiles would require an additional tile
+		assertEquals(384, TiledImageDataReference.alignToChunks(1000, 3, 336, 64, axis));
+		// tiles can only be aligned to multiples of step and chunk size
+		assertEquals(264, TiledImageDataReference.alignToChunks(1000, 4, 256, 12, axis));
+		assertEquals(72, TiledImageDataReference.alignToChunks(130, 2, 72, 32, axis));
+	}
+
+	private static Img<FloatType> createImage() {
+		Img<FloatType> img = ArrayImgs.floats(100, 60);
+		Random random = new Random(42);
+		img.forEach(pixel -> pixel.set(random.nextFloat()));
+		return img;
+	}
+
+	private static InputImageNode createInput(Img<FloatType> img) {
+		InputImageNode input = new InputImageNode();
+		List<AxisType> axes = Arrays.asList(Axes.X, Axes.Y);
+		for (AxisType axisType : axes) {
+			ModelZooAxis axis = new ModelZooAxis(axisType);
+			axis.setTiling(TilingAction.TILE_WITH_PADDING);
+			axis.setHalo(8);
+			axis.setMin(8);
+			axis.setStep(8);
+			input.addAxis(axis);
+		}
+		input.setDataMapping(axes);
+		input.setData(new DefaultImageDataReference<>(img, new FloatType()));
+		return input;
+	}
+
+	private static OutputImageNode createOutput(InputImageNode input, int offset) {
+		OutputImageNode output = new OutputImageNode();
+		List<AxisType> axes = Arrays.asList(Axes.X, Axes.Y);
+		for (AxisType axisType : axes) {
+			output.addAxis(createOutputAxis(axisType, 2., offset));
+		}
+		output.setDataMapping(axes);
+		output.setReference(input);
+		output.setData(new DefaultImageDataReference<>(null, new FloatType()));
+		return output;
+	}
+
+	/**
+	 * Input with a single channel.
+	 */
+	private static InputImageNode createChannelInput(Img<FloatType> img) {
+		InputImageNode input = createInput(img);
+		input.addAxis(new ModelZooAxis(Axes.CHANNEL));
+		input.setDataMapping(Arrays.asList(Axes.X, Axes.Y, Axes.CHANNEL));
+		input.setData(new DefaultImageDataReference<>(Views.addDimension(img, 0, 0), new FloatType()));
+		return input;
+	}
+
+	/**
+	 * Output with the upsampled input in a fixed number of 3 channels.
+	 */
+	private static OutputImageNode createChannelOutput(InputImageNode input) {
+		OutputImageNode output = createOutput(input, 0);
+		output.addAxis(createOutputAxis(Axes.CHANNEL, 0., 3));
+		return output;
+	}
+
+	private static ImageDataReference<?> upsampleChannels(ImageDataReference<?> tile) {
+		RandomAccessibleInterval<FloatType> data = (RandomAccessibleInterval<FloatType>) tile.getData();
+		ImageDataReference<?> channel = new DefaultImageDataReference<>(Views.hyperSlice(data, 2, data.min(2)), new FloatType());
+		RandomAccessibleInterval<FloatType> upsampled = (RandomAccessibleInterval<FloatType>) upsample(channel, 0).getData();
+		return new DefaultImageDataReference<>(Views.stack(upsampled, upsampled, upsampled), new FloatType());
+	}
+
+	private static void assertUpsampledChannels(Img<FloatType> img, RandomAccessibleInterval<FloatType> result) {
+		assertEquals(3, result.dimension(2));
+		for (int c = 0; c < 3; c++) {
+			assertUpsampled(img, Views.hyperSlice(result, 2, c), 0);
+		}
+	}
+
+	private static ModelZooAxis createOutputAxis(AxisType axisType, double scale, int offset) {
+		ModelZooAxis axis = new ModelZooAxis(axisType);
+		axis.setScale(scale);
+		axis.setOffset(offset);
+		return axis;
+	}
+
+	/**
+	 * Nearest neighbor upsampling by a factor of 2, growing or shrinking the result by the given offset.
+	 */
+	private static ImageDataReference<?> upsample(ImageDataReference<?> tile, int offset) {
+		RandomAccessibleInterval<FloatType> data = Views.zeroMin((RandomAccessibleInterval<FloatType>) tile.getData());
+		Img<FloatType> result = ArrayImgs.floats(data.dimension(0) * 2 + offset, data.dimension(1) * 2 + offset);
+		RandomAccess<FloatType> in = Views.extendBorder(data).randomAccess();
+		Cursor<FloatType> out = result.localizingCursor();
+		while(out.hasNext()) {
+			out.fwd();
+			in.setPosition(Math.floorDiv(out.getLongPosition(0) - Math.floorDiv(offset, 2), 2), 0);
+			in.setPosition(Math.floorDiv(out.getLongPosition(1) - Math.floorDiv(offset, 2), 2), 1);
+			out.get().set(in.get());
+		}
+		return new DefaultImageDataReference<>(result, new FloatType());
+	}
+
+	private static void assertUpsampled(Img<FloatType> img, RandomAccessibleInterval<FloatType> result, int offset) {
+		RandomAccess<FloatType> in = img.randomAccess();
+		Cursor<FloatType> out = Views.iterable(result).localizingCursor();
+		int checked = 0;
+		while(out.hasNext()) {
+			out.fwd();
+			long x = Math.floorDiv(out.getLongPosition(0) - Math.floorDiv(offset, 2), 2);
+			long y = Math.floorDiv(out.getLongPosition(1) - Math.floorDiv(offset, 2), 2);
+			if(x < 0 || y < 0 || x >= img.dimension(0) || y >= img.dimension(1)) continue;
+			in.setPosition(new long[]{x, y});
+			assertEquals(in.get().get(), out.get().get(), 0);
+			checked++;
+		}
+		assertEquals(img.size() * 4, checked, 2 * Math.abs(offset) * (img.dimension(0) + img.dimension(1)));
+	}
+
+	private static void assertInterval(long min, long max, Interval interval) {
+		assertEquals(min, interval.min(0));
+		assertEquals(max, interval.max(0));
+	}
+}
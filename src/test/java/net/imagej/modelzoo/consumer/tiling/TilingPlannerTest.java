@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.model.node.DefaultImageDataReference;
+import net.imagej.modelzoo.consumer.model.node.InputImageNode;
+import net.imagej.modelzoo.consumer.model.node.ModelZooAxis;
+import net.imagej.modelzoo.consumer.model.node.OutputImageNode;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TilingPlannerTest {
+
+	@Test
+	public void testSingleTileFitsBudget() {
+		TilingPlanner planner = createPlanner(512, 512, 3);
+		TilingPlanner.Plan plan = planner.plan(Long.MAX_VALUE, 10);
+		assertTrue(plan.fitsBudget());
+		assertEquals(1, plan.getNumberOfTiles());
+		assertEquals(10, plan.getBatchSize());
+	}
+
+	@Test
+	public void testBudgetReducesBatchSizeFirst() {
+		TilingPlanner planner = createPlanner(512, 512, 4);
+		long singleBatch = planner.plan(Long.MAX_VALUE, 1).getEstimatedBytes();
+		TilingPlanner.Plan plan = planner.plan(singleBatch, 4);
+		assertTrue(plan.fitsBudget());
+		assertEquals(1, plan.getNumberOfTiles());
+		assertEquals(1, plan.getBatchSize());
+	}
+
+	@Test
+	public void testBudgetSplitsTiles() {
+		TilingPlanner planner = createPlanner(1024, 512, 1);
+		long full = planner.plan(Long.MAX_VALUE, 1).getEstimatedBytes();
+		TilingPlanner.Plan plan = planner.plan(full / 3, 1);
+		assertTrue(plan.fitsBudget());
+		assertTrue(plan.getNumberOfTiles() > 1);
+		assertTrue(plan.getEstimatedBytes() <= full / 3);
+	}
+
+	@Test
+	public void testBudgetTooSmall() {
+		TilingPlanner planner = createPlanner(256, 256, 1);
+		TilingPlanner.Plan plan = planner.plan(1, 1);
+		assertFalse(plan.fitsBudget());
+	}
+
+	@Test
+	public void testBudgetMinimizesHalo() {
+		OutputImageNode output = createOutput(2048, 256, 1);
+		TilingPlanner planner = new TilingPlanner(output.getReference(), Collections.singletonList(output));
+		long full = planner.plan(Long.MAX_VALUE, 1).getEstimatedBytes();
+		TilingPlanner.Plan plan = planner.plan(full / 4, 1);
+		assertTrue(plan.fitsBudget());
+		// splitting the long axis only cuts the least voxels from the halo
+		assertEquals(1, plan.getTiling()[1]);
+		assertTrue(plan.getTiling()[0] >= 4);
+	}
+
+	@Test
+	public void testPlannedOverhead() {
+		OutputImageNode output = createOutput(500, 300, 1);
+		TilingPlanner planner = new TilingPlanner(output.getReference(), Collections.singletonList(output));
+		long full = planner.plan(Long.MAX_VALUE, 1).getEstimatedBytes();
+		TilingPlanner.Plan plan = planner.plan(full / 5, 1);
+		DefaultTiling tiling = new DefaultTiling(output);
+		tiling.setTiling(plan.getTiling());
+		tiling.init();
+		assertEquals(plan.getNumberOfTiles(), tiling.getTilesTotalCount());
+		while (tiling.hasInputTilesLeft()) {
+			tiling.assignNextTile();
+		}
+		assertEquals(plan.getOverhead(), tiling.getComputeOverhead(), 1e-9);
+	}
+
+	private static TilingPlanner createPlanner(long x, long y, long batch) {
+		OutputImageNode output = createOutput(x, y, batch);
+		return new TilingPlanner(output.getReference(), Collections.singletonList(output));
+	}
+
+	private static OutputImageNode createOutput(long x, long y, long batch) {
+		AxisType[] axes = {Axes.X, Axes.Y, Axes.TIME};
+		InputImageNode input = new InputImageNode();
+		OutputImageNode output = new OutputImageNode();
+		for (AxisType axisType : axes) {
+			input.addAxis(createAxis(axisType));
+			output.addAxis(createAxis(axisType));
+		}
+		input.setDataMapping(Arrays.asList(axes));
+		output.setDataMapping(Arrays.asList(axes));
+		input.setData(new DefaultImageDataReference<>(ArrayImgs.floats(x, y, batch), new FloatType()));
+		output.setData(new DefaultImageDataReference<>(ArrayImgs.floats(x, y, batch), new FloatType()));
+		output.setReference(input);
+		return output;
+	}
+
+	private static ModelZooAxis createAxis(AxisType type) {
+		ModelZooAxis axis = new ModelZooAxis(type);
+		if (type.equals(Axes.TIME)) {
+			axis.setTiling(TilingAction.TILE_WITHOUT_PADDING);
+			axis.setHalo(0);
+			axis.setMin(1);
+			axis.setStep(1);
+		} else {
+			axis.setTiling(TilingAction.TILE_WITH_PADDING);
+			axis.setHalo(16);
+			axis.setMin(32);
+			axis.setStep(16);
+		}
+		return axis;
+	}
+}
@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArchiveEntryCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testExtract() throws IOException {
+		byte[] weights = randomBytes(100000);
+		byte[] sample = randomBytes(1000);
+		File archive = createArchive(folder.newFile("model.bioimage.io.zip"), weights, sample);
+		ArchiveEntryCache cache = new ArchiveEntryCache(folder.newFolder("cache").toPath(), Long.MAX_VALUE);
+		File extractedWeights = cache.extract(archive, "weights.zip");
+		File extractedSample = cache.extract(archive, "sample.tif");
+		assertArrayEquals(weights, Files.readAllBytes(extractedWeights.toPath()));
+		assertArrayEquals(sample, Files.readAllBytes(extractedSample.toPath()));
+		assertTrue(extractedWeights.getName().endsWith("weights.zip"));
+
+		// the same content in another archive is not extracted again
+		File copy = createArchive(folder.newFile("copy.bioimage.io.zip"), weights, sample);
+		assertTrue(extractedWeights.setLastModified(0));
+		assertEquals(extractedWeights, cache.extract(copy, "weights.zip"));
+		assertTrue(extractedWeights.lastModified() > 0);
+		assertEquals(2, cache.getDirectory().toFile().list().length);
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		File archive = createArchive(folder.newFile("model.bioimage.io.zip"), randomBytes(1000), randomBytes(1000));
+		ArchiveEntryCache cache = new ArchiveEntryCache(folder.newFolder("cache").toPath(), 1500);
+		File weights = cache.extract(archive, "weights.zip");
+		assertTrue(weights.setLastModified(System.currentTimeMillis() - 10000));
+		File sample = cache.extract(archive, "sample.tif");
+		assertFalse(weights.exists());
+		assertTrue(sample.exists());
+	}
+
+	private static File createArchive(File file, byte[] weights, byte[] sample) throws IOException {
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+			ZipEntry stored = new ZipEntry("weights.zip");
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(weights.length);
+			CRC32 crc = new CRC32();
+			crc.update(weights);
+			stored.setCrc(crc.getValue());
+			zip.putNextEntry(stored);
+			zip.write(weights);
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("sample.tif"));
+			zip.write(sample);
+			zip.closeEntry();
+		}
+		return file;
+	}
+
+	private static byte[] randomBytes(int size) {
+		byte[] res = new byte[size];
+		new Random(size).nextBytes(res);
+		return res;
+	}
+}
@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * This is the bioimage.io modelzoo library for ImageJ.
+ * %%
+ * Copyright (C) 2019 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.io.chunked;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.zarr.N5ZarrReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedContainerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final AxisType[] AXES = {Axes.X, Axes.Y, Axes.Z};
+
+	@Test
+	public void testN5() throws IOException {
+		Path root = folder.newFolder("out.n5").toPath();
+		ChunkedContainer container = ChunkedContainer.forPath(root);
+		assertEquals(ChunkedContainer.Format.N5, container.getFormat());
+		ChunkedDataset<FloatType> dataset = container.createDataset("activation_11/Identity", new long[]{10, 7, 3}, new int[]{4, 4, 2}, new FloatType(), AXES);
+		assertEquals(root.resolve("activation_11_Identity"), dataset.getDirectory());
+		assertTrue(Files.exists(root.resolve("attributes.json")));
+		Img<FloatType> data = createData();
+		writeAll(dataset, data);
+		// border blocks are stored with their actual size
+		assertTrue(Files.exists(dataset.getDirectory().resolve("2").resolve("1").resolve("1")));
+		assertReadBack(N5Dataset.open(dataset.getDirectory()), data);
+	}
+
+	@Test
+	public void testZarr() throws IOException {
+		Path root = folder.getRoot().toPath().resolve("out.zarr");
+		ChunkedContainer container = ChunkedContainer.forPath(root).setCompression(ChunkedDataset.Compression.RAW);
+		ChunkedDataset<FloatType> dataset = container.createDataset("output", new long[]{10, 7, 3}, new int[]{4, 4, 2}, new FloatType(), AXES);
+		Img<FloatType> data = createData();
+		writeAll(dataset, data);
+		// chunk keys are in reversed order, border chunks are padded
+		Path chunk = dataset.getDirectory().resolve("1.1.2");
+		assertTrue(Files.exists(chunk));
+		assertEquals(4 * 4 * 2 * 4, Files.size(chunk));
+		assertReadBack(ZarrDataset.open(dataset.getDirectory()), data);
+	}
+
+	@Test
+	public void testOmeZarr() throws IOException {
+		Path root = folder.getRoot().toPath().resolve("out.ome.zarr");
+		ChunkedDataset<UnsignedShortType> dataset = ChunkedContainer.forPath(root).createDataset("output", new long[]{5, 5}, new int[]{5, 5}, new UnsignedShortType(), new AxisType[]{Axes.X, Axes.Y});
+		assertEquals(root.resolve("output").resolve("0"), dataset.getDirectory());
+		String attributes = new String(Files.readAllBytes(root.resolve("output").resolve(".zattrs")));
+		assertTrue(attributes.contains("multiscales"));
+		assertTrue(attributes.indexOf("\"y\"") < attributes.indexOf("\"x\""));
+		Img<UnsignedShortType> data = ArrayImgs.unsignedShorts(5, 5);
+		data.forEach(value -> value.set(60000));
+		dataset.writeChunk(new long[]{0, 0}, data);
+		ChunkedDataset<?> read = ZarrDataset.open(dataset.getDirectory());
+		Img<UnsignedShortType> target = ArrayImgs.unsignedShorts(5, 5);
+		((ChunkedDataset<UnsignedShortType>) read).readChunk(new long[]{0, 0}, target);
+		target.forEach(value -> assertEquals(60000, value.get()));
+	}
+
+	@Test
+	public void testN5ReferenceReader() throws IOException {
+		Path root = folder.newFolder("reference.n5").toPath();
+		ChunkedDataset<FloatType> dataset = ChunkedContainer.forPath(root).createDataset("output", new long[]{10, 7, 3}, new int[]{4, 4, 2}, new FloatType(), AXES);
+		Img<FloatType> data = createData();
+		writeAll(dataset, data);
+		assertImageEquals(data, N5Utils.open(new N5FSReader(root.toString()), "output"));
+	}
+
+	@Test
+	public void testZarrReferenceReader() throws IOException {
+		Img<FloatType> data = createData();
+		for (ChunkedDataset.Compression compression : ChunkedDataset.Compression.values()) {
+			Path root = folder.getRoot().toPath().resolve("reference-" + compression + ".zarr");
+			ChunkedDataset<FloatType> dataset = ChunkedContainer.forPath(root).setCompression(compression)
+					.createDataset("output", new long[]{10, 7, 3}, new int[]{4, 4, 2}, new FloatType(), AXES);
+			writeAll(dataset, data);
+			assertImageEquals(data, N5Utils.open(new N5ZarrReader(root.toString()), "output"));
+		}
+		Path root = folder.getRoot().toPath().resolve("reference.ome.zarr");
+		ChunkedDataset<FloatType> dataset = ChunkedContainer.forPath(root).createDataset("output", new long[]{10, 7, 3}, new int[]{4, 4, 2}, new FloatType(), AXES);
+		writeAll(dataset, data);
+		assertImageEquals(data, N5Utils.open(new N5ZarrReader(root.toString()), "output/0"));
+	}
+
+	private static Img<FloatType> createData() {
+		Img<FloatType> data = ArrayImgs.floats(10, 7, 3);
+		float[] value = {0};
+		data.forEach(pixel -> pixel.set(value[0]++));
+		return data;
+	}
+
+	private static void writeAll(ChunkedDataset<FloatType> dataset, Img<FloatType> data) throws IOException {
+		long[] grid = dataset.getGrid().getGridDimensions();
+		assertArrayEquals(new long[]{3, 2, 2}, grid);
+		for (long z = 0; z < grid[2]; z++) {
+			for (long y = 0; y < grid[1]; y++) {
+				for (long x = 0; x < grid[0]; x++) {
+					long[] position = {x, y, z};
+					dataset.writeChunk(position, Views.interval(data, dataset.getChunkInterval(position)));
+				}
+			}
+		}
+	}
+
+	private static void assertImageEquals(Img<FloatType> expected, RandomAccessibleInterval<FloatType> actual) {
+		assertArrayEquals(Intervals.dimensionsAsLongArray(expected), Intervals.dimensionsAsLongArray(actual));
+		Views.interval(Views.pair(expected, actual), expected).forEach(pair -> assertEquals(pair.getA().get(), pair.getB().get(), 0));
+	}
+
+	private static void assertReadBack(ChunkedDataset<?> read, Img<FloatType> expected) throws IOException {
+		assertArrayEquals(Intervals.dimensionsAsLongArray(expected), read.getDimensions());
+		ChunkedDataset<FloatType> dataset = (ChunkedDataset<FloatType>) read;
+		long[] position = {2, 1, 1};
+		Interval interval = dataset.getChunkInterval(position);
+		RandomAccessibleInterval<FloatType> target = Views.translate(ArrayImgs.floats(Intervals.dimensionsAsLongArray(interval)), Intervals.minAsLongArray(interval));
+		dataset.readChunk(position, target);
+		Views.interval(Views.pair(expected, target), interval).forEach(pair -> assertEquals(pair.getA().get(), pair.getB().get(), 0));
+		// chunks which were not written are empty
+		Files.delete(dataset.getChunkFile(position));
+		dataset.readChunk(position, target);
+		Views.iterable(target).forEach(value -> assertEquals(0, value.get(), 0));
+	}
+}